@@ -0,0 +1,100 @@
+package test.jmh;
+
+import org.apache.calcite.avatica.remote.Driver.Serialization;
+import org.apache.calcite.avatica.remote.LocalService;
+import org.apache.calcite.avatica.server.HttpServer;
+import org.calcite.adapter.cip.CIPDriver;
+import org.cip.server.CIPJdbcMeta;
+import org.cip.server.CIPServerMetrics;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import test.CIPTestDatabase;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end round trips through an in-process Avatica server over HTTP,
+ * set up like CIPStandaloneServer: a point query answered in the first frame,
+ * and a query whose rows take several fetches.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class CIPAvaticaBenchmark {
+
+    @Param("100000")
+    public int rows;
+
+    @Param("10000")
+    public int fetchRows;
+
+    @Param({"PROTOBUF", "JSON"})
+    public Serialization serialization;
+
+    private CIPTestDatabase database;
+
+    private HttpServer server;
+
+    private Connection connection;
+
+    private PreparedStatement pointQuery;
+
+    private PreparedStatement fetchQuery;
+
+    @Setup
+    public void setUp() throws Exception {
+        database = new CIPTestDatabase(rows);
+        Properties info = new Properties();
+        info.setProperty("model", database.model(Collections.emptyMap()));
+        CIPJdbcMeta meta = new CIPJdbcMeta(CIPDriver.CONNECT_STRING_PREFIX, info, 10000, 4L << 20, new CIPServerMetrics());
+        server = new HttpServer.Builder<>()
+                .withHandler(new LocalService(meta), serialization)
+                .withPort(0)
+                .build();
+        server.start();
+        connection = DriverManager.getConnection("jdbc:avatica:remote:url=http://localhost:" + server.getPort()
+                + ";serialization=" + serialization.name());
+        pointQuery = connection.prepareStatement(
+                "select \"source_code_group_id_a\", \"is_enabled_a\" from src_code_grp"
+                        + " where \"source_code_group_id_a\" = 'm1'");
+        fetchQuery = connection.prepareStatement(
+                "select \"metric_id_a\", \"metric_value_a\" from realtime_metric limit " + fetchRows);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        connection.close();
+        server.stop();
+        database.close();
+    }
+
+    @Benchmark
+    public long pointQuery(Blackhole blackhole) throws SQLException {
+        return CIPScanBenchmark.consume(pointQuery, blackhole);
+    }
+
+    @Benchmark
+    public long fetchRows(Blackhole blackhole) throws SQLException {
+        return CIPScanBenchmark.consume(fetchQuery, blackhole);
+    }
+}
@@ -0,0 +1,88 @@
+package test.jmh;
+
+import org.apache.calcite.DataContext;
+import org.apache.calcite.linq4j.Enumerator;
+import org.calcite.adapter.cip.CIPConnectionPool;
+import org.calcite.adapter.cip.CIPScannableTable;
+import org.cip.CIPFieldType;
+import org.cip.ColumnDefinition;
+import org.cip.TableDefinition;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import test.CIPTestDatabase;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Row materialization in the CIPScannableTable enumerator, per CIPFieldType:
+ * a full scan of one column of that type of the field types table. Divide
+ * the rows by the time per scan for rows per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class CIPEnumeratorBenchmark {
+
+    @Param("100000")
+    public int rows;
+
+    // Every field type when not given
+    @Param
+    public CIPFieldType fieldType;
+
+    private CIPTestDatabase database;
+
+    private CIPConnectionPool pool;
+
+    private CIPScannableTable table;
+
+    private DataContext dataContext;
+
+    @Setup
+    public void setUp() throws Exception {
+        database = new CIPTestDatabase(rows);
+        pool = database.createPool();
+        TableDefinition tableDefinition = CIPTestDatabase.fieldTypesTable();
+        for (ColumnDefinition column : tableDefinition.getColumns()) {
+            if (column.getName().equals(CIPTestDatabase.columnName(fieldType))) {
+                tableDefinition.setColumns(Collections.singletonList(column));
+                break;
+            }
+        }
+        table = new CIPScannableTable(tableDefinition, pool, 5000);
+        dataContext = CIPTestDatabase.dataContext();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        pool.close();
+        database.close();
+    }
+
+    @Benchmark
+    public long scan(Blackhole blackhole) {
+        long count = 0;
+        try (Enumerator<Object[]> enumerator = table.scan(dataContext).enumerator()) {
+            while (enumerator.moveNext()) {
+                blackhole.consume(enumerator.current());
+                count++;
+            }
+        }
+        return count;
+    }
+}
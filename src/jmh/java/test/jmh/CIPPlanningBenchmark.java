@@ -0,0 +1,87 @@
+package test.jmh;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import test.CIPTestDatabase;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time Calcite takes to parse, validate, plan and generate code for typical
+ * queries on realtime_metric and src_code_grp, measured by preparing them.
+ * Nothing is executed. With the "jdbc:cip:" driver the statements after the
+ * first come from the plan cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class CIPPlanningBenchmark {
+
+    private static final Map<String, String> QUERIES = new HashMap<>();
+
+    static {
+        QUERIES.put("pushedFilter",
+                "select \"metric_id_a\", \"metric_value_a\" from realtime_metric where \"metric_id_a\" = 'm1'");
+        QUERIES.put("residualFilter",
+                "select \"metric_id_a\" from realtime_metric"
+                        + " where \"metric_id_a\" = 'm1' and char_length(\"metric_value_a\") > 3");
+        QUERIES.put("aggregate",
+                "select \"metric_id_a\", count(*) from realtime_metric group by \"metric_id_a\""
+                        + " order by 2 desc limit 10");
+        QUERIES.put("join",
+                "select m.\"metric_id_a\", m.\"metric_value_a\" from realtime_metric m"
+                        + " join src_code_grp g on m.\"metric_id_a\" = g.\"source_code_group_id_a\""
+                        + " where g.\"is_enabled_a\"");
+    }
+
+    @Param({"pushedFilter", "residualFilter", "aggregate", "join"})
+    public String query;
+
+    @Param({"jdbc:calcite:", "jdbc:cip:"})
+    public String driver;
+
+    private CIPTestDatabase database;
+
+    private Connection connection;
+
+    private String sql;
+
+    @Setup
+    public void setUp() throws Exception {
+        database = new CIPTestDatabase(1000);
+        connection = database.connect(driver, Collections.emptyMap());
+        sql = QUERIES.get(query);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        connection.close();
+        database.close();
+    }
+
+    @Benchmark
+    public PreparedStatement prepare() throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            return statement;
+        }
+    }
+}
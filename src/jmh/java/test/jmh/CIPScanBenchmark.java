@@ -0,0 +1,134 @@
+package test.jmh;
+
+import org.apache.calcite.DataContext;
+import org.apache.calcite.linq4j.Enumerator;
+import org.calcite.adapter.cip.CIPConnectionPool;
+import org.calcite.adapter.cip.CIPScannableTable;
+import org.cip.ColumnDefinition;
+import org.cip.TableDefinition;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import test.CIPTestDatabase;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scan throughput of realtime_metric: directly through CIPScannableTable, and
+ * through Calcite with and without a filter pushed down to the database.
+ * The Calcite statements are prepared once, so planning is not measured; see
+ * CIPPlanningBenchmark for that.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class CIPScanBenchmark {
+
+    @Param("100000")
+    public int rows;
+
+    private CIPTestDatabase database;
+
+    private CIPConnectionPool pool;
+
+    private CIPScannableTable table;
+
+    private DataContext dataContext;
+
+    private Connection connection;
+
+    private PreparedStatement fullScan;
+
+    private PreparedStatement filteredScan;
+
+    @Setup
+    public void setUp() throws Exception {
+        database = new CIPTestDatabase(rows);
+        pool = database.createPool();
+        table = new CIPScannableTable(factTable(), pool, 5000);
+        dataContext = CIPTestDatabase.dataContext();
+        connection = database.connect(Collections.emptyMap());
+        fullScan = connection.prepareStatement("select \"metric_id_a\", \"metric_value_a\" from realtime_metric");
+        filteredScan = connection.prepareStatement(
+                "select \"metric_id_a\", \"metric_value_a\" from realtime_metric where \"metric_id_a\" = 'm1'");
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        connection.close();
+        pool.close();
+        database.close();
+    }
+
+    private static TableDefinition factTable() {
+        List<ColumnDefinition> columns = new ArrayList<>();
+        for (String name : new String[] {"metric_id", "metric_value"}) {
+            ColumnDefinition column = new ColumnDefinition();
+            column.setName(name);
+            column.setAlias(name + "_a");
+            column.setType("string");
+            columns.add(column);
+        }
+        TableDefinition tableDefinition = new TableDefinition();
+        tableDefinition.setName(CIPTestDatabase.FACT_TABLE);
+        tableDefinition.setAlias("realtime_metric");
+        tableDefinition.setColumns(columns);
+        return tableDefinition;
+    }
+
+    @Benchmark
+    public long directScan(Blackhole blackhole) {
+        long count = 0;
+        try (Enumerator<Object[]> enumerator = table.scan(dataContext).enumerator()) {
+            while (enumerator.moveNext()) {
+                blackhole.consume(enumerator.current());
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Benchmark
+    public long calciteScan(Blackhole blackhole) throws SQLException {
+        return consume(fullScan, blackhole);
+    }
+
+    @Benchmark
+    public long calciteFilteredScan(Blackhole blackhole) throws SQLException {
+        return consume(filteredScan, blackhole);
+    }
+
+    static long consume(PreparedStatement statement, Blackhole blackhole) throws SQLException {
+        long count = 0;
+        try (ResultSet resultSet = statement.executeQuery()) {
+            int columns = resultSet.getMetaData().getColumnCount();
+            while (resultSet.next()) {
+                for (int i = 1; i <= columns; i++) {
+                    blackhole.consume(resultSet.getObject(i));
+                }
+                count++;
+            }
+        }
+        return count;
+    }
+}
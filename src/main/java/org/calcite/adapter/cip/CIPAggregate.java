@@ -0,0 +1,121 @@
+package org.calcite.adapter.cip;
+
+import com.google.common.collect.ImmutableList;
+import org.apache.calcite.plan.RelOptCluster;
+import org.apache.calcite.plan.RelOptCost;
+import org.apache.calcite.plan.RelOptPlanner;
+import org.apache.calcite.plan.RelTraitSet;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.Aggregate;
+import org.apache.calcite.rel.core.AggregateCall;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
+import org.apache.calcite.sql.SqlKind;
+import org.apache.calcite.sql.type.SqlTypeName;
+import org.apache.calcite.util.ImmutableBitSet;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Aggregate evaluated by Postgres as a GROUP BY.
+ *
+ * Only plain group sets and COUNT, SUM, $SUM0, MIN and MAX without FILTER
+ * clauses are pushed down; see {@link #canImplement(AggregateCall)}. MIN and
+ * MAX of booleans become BOOL_AND and BOOL_OR. Constant keys are left out of
+ * the GROUP BY.
+ */
+public class CIPAggregate extends Aggregate implements CIPRel {
+
+    public CIPAggregate(RelOptCluster cluster, RelTraitSet traitSet, RelNode input, ImmutableBitSet groupSet,
+                        List<ImmutableBitSet> groupSets, List<AggregateCall> aggCalls) {
+        super(cluster, traitSet, ImmutableList.of(), input, groupSet, groupSets, aggCalls);
+        assert getConvention() == CIPRel.CONVENTION;
+    }
+
+    @Override
+    public Aggregate copy(RelTraitSet traitSet, RelNode input, ImmutableBitSet groupSet,
+                          List<ImmutableBitSet> groupSets, List<AggregateCall> aggCalls) {
+        return new CIPAggregate(getCluster(), traitSet, input, groupSet, groupSets, aggCalls);
+    }
+
+    @Override
+    public RelOptCost computeSelfCost(RelOptPlanner planner, RelMetadataQuery mq) {
+        return super.computeSelfCost(planner, mq).multiplyBy(0.1);
+    }
+
+    /**
+     * Checks whether an aggregate call has a Postgres equivalent
+     * @param aggCall
+     * @return
+     */
+    static boolean canImplement(AggregateCall aggCall) {
+        if (aggCall.filterArg >= 0 || !aggCall.getCollation().getFieldCollations().isEmpty()) {
+            return false;
+        }
+        switch (aggCall.getAggregation().getKind()) {
+            case COUNT:
+                return aggCall.getArgList().size() <= 1;
+            case SUM:
+            case SUM0:
+            case MIN:
+            case MAX:
+                return aggCall.getArgList().size() == 1;
+            default:
+                return false;
+        }
+    }
+
+    @Override
+    public void implement(Implementor implementor) {
+        implementor.visitChild(0, getInput());
+        // GROUP BY would apply before the grouping, ordering or LIMIT of this level
+        if (implementor.isAggregated() || implementor.isLimited() || !implementor.orderBy.isEmpty()) {
+            implementor.wrap();
+        }
+        List<String> inputs = implementor.selectList;
+        List<String> selectList = new ArrayList<>();
+        List<String> groupBy = new ArrayList<>();
+        ImmutableBitSet.Builder constants = ImmutableBitSet.builder();
+        for (int group : getGroupSet()) {
+            // A constant key is the same in every group
+            if (implementor.constants.get(group)) {
+                constants.set(selectList.size());
+            } else {
+                groupBy.add(inputs.get(group));
+            }
+            selectList.add(inputs.get(group));
+        }
+        for (AggregateCall aggCall : getAggCallList()) {
+            selectList.add(toSql(aggCall, inputs));
+        }
+        implementor.groupBy = groupBy;
+        implementor.having = groupBy.isEmpty() && !getGroupSet().isEmpty() ? "COUNT(*) > 0" : null;
+        implementor.selectList = selectList;
+        implementor.constants = constants.build();
+    }
+
+    private static String toSql(AggregateCall aggCall, List<String> inputs) {
+        List<String> args = new ArrayList<>();
+        for (int arg : aggCall.getArgList()) {
+            args.add(inputs.get(arg));
+        }
+        String distinct = aggCall.isDistinct() ? "DISTINCT " : "";
+        switch (aggCall.getAggregation().getKind()) {
+            case COUNT:
+                return args.isEmpty() ? "COUNT(*)" : "COUNT(" + distinct + args.get(0) + ")";
+            case SUM0:
+                // SUM that returns 0 rather than NULL for an empty group
+                return "COALESCE(SUM(" + distinct + args.get(0) + "), 0)";
+            case MIN:
+            case MAX:
+                // Postgres has no MIN or MAX of booleans
+                if (aggCall.getType().getSqlTypeName() == SqlTypeName.BOOLEAN) {
+                    String function = aggCall.getAggregation().getKind() == SqlKind.MIN ? "BOOL_AND" : "BOOL_OR";
+                    return function + "(" + args.get(0) + ")";
+                }
+                return aggCall.getAggregation().getName() + "(" + distinct + args.get(0) + ")";
+            default:
+                return aggCall.getAggregation().getName() + "(" + distinct + args.get(0) + ")";
+        }
+    }
+}
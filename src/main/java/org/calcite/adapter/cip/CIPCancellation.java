@@ -0,0 +1,205 @@
+package org.calcite.adapter.cip;
+
+import org.apache.calcite.DataContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Cancel flag and timeout of the Calcite statement a query runs for, read
+ * from its DataContext and applied to the Postgres queries that read its rows.
+ *
+ * A running query is watched until its enumerator is closed. A background
+ * thread cancels it in Postgres once the statement is canceled or its
+ * timeout has passed, and the enumerator then fails at its next row instead
+ * of streaming the rest of the result. The timeout counts from when the
+ * statement was executed and covers fetching the rows as well.
+ */
+public final class CIPCancellation {
+
+    private static final Logger logger = LoggerFactory.getLogger(CIPCancellation.class);
+
+    /** For queries that no statement can cancel, e.g. loading a snapshot */
+    static final CIPCancellation NONE = new CIPCancellation(null, 0);
+
+    // How often running queries are checked
+    private static final long WATCH_INTERVAL_MILLIS = 100;
+
+    private static final Set<Watch> WATCHES = ConcurrentHashMap.newKeySet();
+
+    private static final ScheduledExecutorService WATCHDOG = Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+                Thread thread = new Thread(runnable, "cip-cancel");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    static {
+        WATCHDOG.scheduleWithFixedDelay(CIPCancellation::checkWatches, WATCH_INTERVAL_MILLIS,
+                WATCH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    // Null if the statement cannot be canceled
+    private final AtomicBoolean cancelFlag;
+
+    // 0 if there is no timeout
+    private final long timeoutMillis;
+
+    private final long deadlineNanos;
+
+    private CIPCancellation(AtomicBoolean cancelFlag, long timeoutMillis) {
+        this.cancelFlag = cancelFlag;
+        this.timeoutMillis = timeoutMillis;
+        this.deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    }
+
+    /**
+     * Gets the cancellation of the statement a DataContext belongs to
+     * @param dataContext data context of the query; may be null
+     * @param defaultTimeoutMillis timeout of statements that have none; 0 for none
+     */
+    public static CIPCancellation of(DataContext dataContext, long defaultTimeoutMillis) {
+        AtomicBoolean cancelFlag = null;
+        Long timeout = null;
+        if (dataContext != null) {
+            cancelFlag = DataContext.Variable.CANCEL_FLAG.get(dataContext);
+            timeout = DataContext.Variable.TIMEOUT.get(dataContext);
+        }
+        long timeoutMillis = timeout != null && timeout > 0 ? timeout : Math.max(0, defaultTimeoutMillis);
+        if (cancelFlag == null && timeoutMillis == 0) {
+            return NONE;
+        }
+        return new CIPCancellation(cancelFlag, timeoutMillis);
+    }
+
+    /**
+     * Whether the statement was canceled or ran out of time
+     */
+    public boolean isCancelled() {
+        return cancelFlag != null && cancelFlag.get()
+                || timeoutMillis > 0 && System.nanoTime() - deadlineNanos >= 0;
+    }
+
+    /**
+     * Fails if the statement was canceled or ran out of time, so that no
+     * query is started for it
+     */
+    void check() {
+        if (isCancelled()) {
+            throw error(null);
+        }
+    }
+
+    /**
+     * Gets the time left, for Statement.setQueryTimeout
+     * @return seconds, at least 1; 0 if there is no timeout
+     */
+    int getTimeoutSeconds() {
+        if (timeoutMillis == 0) {
+            return 0;
+        }
+        long left = deadlineNanos - System.nanoTime();
+        return (int) Math.max(1, (left + 999_999_999L) / 1_000_000_000L);
+    }
+
+    /**
+     * Gets the error a canceled query fails with
+     * @param cause error of the query, or null
+     */
+    RuntimeException error(Throwable cause) {
+        String message = cancelFlag != null && cancelFlag.get()
+                ? "Statement canceled"
+                : String.format("Statement timed out after %d ms", timeoutMillis);
+        return new RuntimeException(message, cause);
+    }
+
+    /**
+     * Watches a running query until the returned watch is closed
+     * @param canceler cancels the query in Postgres; called at most once, on another thread
+     */
+    Watch watch(Canceler canceler) {
+        Watch watch = new Watch(canceler);
+        if (this != NONE) {
+            WATCHES.add(watch);
+        }
+        return watch;
+    }
+
+    private static void checkWatches() {
+        for (Watch watch : WATCHES) {
+            if (watch.getCancellation().isCancelled()) {
+                watch.cancel();
+            }
+        }
+    }
+
+    /**
+     * Cancels a running query, e.g. Statement.cancel
+     */
+    interface Canceler {
+        void cancel() throws SQLException;
+    }
+
+    /**
+     * Scan whose running query can be canceled from another thread, e.g. by
+     * a prefetching enumerator that is closed before the scan is read
+     */
+    interface Cancelable {
+        void cancel();
+    }
+
+    /**
+     * A watched query. It must be closed before the connection it runs on is
+     * returned to the pool, so that no other query there gets canceled.
+     */
+    final class Watch implements AutoCloseable {
+        private final Canceler canceler;
+        private volatile boolean cancelled;
+        private boolean closed;
+
+        private Watch(Canceler canceler) {
+            this.canceler = canceler;
+        }
+
+        CIPCancellation getCancellation() {
+            return CIPCancellation.this;
+        }
+
+        /**
+         * Whether the query was canceled in Postgres
+         */
+        boolean isCancelled() {
+            return cancelled;
+        }
+
+        /**
+         * Cancels the query in Postgres unless the watch was closed; the
+         * scan then fails at its next row
+         */
+        synchronized void cancel() {
+            WATCHES.remove(this);
+            if (closed || cancelled) {
+                return;
+            }
+            cancelled = true;
+            try {
+                canceler.cancel();
+            } catch (SQLException e) {
+                logger.warn("cannot cancel query", e);
+            }
+        }
+
+        @Override
+        public synchronized void close() {
+            closed = true;
+            WATCHES.remove(this);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package org.calcite.adapter.cip;
+
+import org.cip.CIPFieldType;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Reads one column of the current row with the getter that matches its
+ * CIPFieldType, returning the value in Calcite's internal representation
+ * (DATE as Integer days, TIME as Integer millis, TIMESTAMP as Long millis).
+ *
+ * Readers are resolved once per scan so the per-row path does no metadata
+ * lookups. DATE and TIMESTAMP are read as java.time values, which skips
+ * building a java.sql value in the default time zone for every row.
+ */
+public interface CIPColumnReader {
+
+    Object read(ResultSet resultSet, int column) throws SQLException;
+
+    /**
+     * Resolves the readers of the columns of an executed query
+     * @param fieldTypes types of the selected columns, in select list order
+     * @param metaData metadata of the result set; tells TIMESTAMP WITH TIME
+     *                 ZONE columns apart, which cannot be read as LocalDateTime
+     */
+    static CIPColumnReader[] of(List<CIPFieldType> fieldTypes, ResultSetMetaData metaData) throws SQLException {
+        CIPColumnReader[] readers = new CIPColumnReader[fieldTypes.size()];
+        for (int i = 0; i < readers.length; i++) {
+            CIPFieldType fieldType = fieldTypes.get(i);
+            if (fieldType == CIPFieldType.TIMESTAMP && hasTimeZone(metaData.getColumnTypeName(i + 1))) {
+                readers[i] = (resultSet, column) -> {
+                    Timestamp value = resultSet.getTimestamp(column);
+                    return value == null ? null : value.toLocalDateTime().toInstant(ZoneOffset.UTC).toEpochMilli();
+                };
+            } else {
+                readers[i] = of(fieldType);
+            }
+        }
+        return readers;
+    }
+
+    static boolean hasTimeZone(String columnTypeName) {
+        return columnTypeName != null && (columnTypeName.equalsIgnoreCase("timestamptz")
+                || columnTypeName.toUpperCase(Locale.ROOT).endsWith("WITH TIME ZONE"));
+    }
+
+    /**
+     * Gets the reader of a column of a type; a TIMESTAMP column must not
+     * have a time zone, see {@link #of(List, ResultSetMetaData)}
+     */
+    static CIPColumnReader of(CIPFieldType fieldType) {
+        switch (fieldType) {
+            case BOOLEAN:
+                return (resultSet, column) -> {
+                    boolean value = resultSet.getBoolean(column);
+                    return resultSet.wasNull() ? null : value;
+                };
+            case BYTE:
+                return (resultSet, column) -> {
+                    byte value = resultSet.getByte(column);
+                    return resultSet.wasNull() ? null : value;
+                };
+            case SHORT:
+                return (resultSet, column) -> {
+                    short value = resultSet.getShort(column);
+                    return resultSet.wasNull() ? null : value;
+                };
+            case INT:
+                return (resultSet, column) -> {
+                    int value = resultSet.getInt(column);
+                    return resultSet.wasNull() ? null : value;
+                };
+            case LONG:
+                return (resultSet, column) -> {
+                    long value = resultSet.getLong(column);
+                    return resultSet.wasNull() ? null : value;
+                };
+            case FLOAT:
+                return (resultSet, column) -> {
+                    float value = resultSet.getFloat(column);
+                    return resultSet.wasNull() ? null : value;
+                };
+            case DOUBLE:
+                return (resultSet, column) -> {
+                    double value = resultSet.getDouble(column);
+                    return resultSet.wasNull() ? null : value;
+                };
+            case DATE:
+                return (resultSet, column) -> {
+                    LocalDate value = resultSet.getObject(column, LocalDate.class);
+                    return value == null ? null : (int) value.toEpochDay();
+                };
+            case TIME:
+                return (resultSet, column) -> {
+                    Time value = resultSet.getTime(column);
+                    return value == null ? null : (int) (value.toLocalTime().toNanoOfDay() / 1_000_000L);
+                };
+            case TIMESTAMP:
+                return (resultSet, column) -> {
+                    LocalDateTime value = resultSet.getObject(column, LocalDateTime.class);
+                    return value == null ? null : value.toInstant(ZoneOffset.UTC).toEpochMilli();
+                };
+            case STRING:
+            case CHAR:
+            default:
+                return ResultSet::getString;
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package org.calcite.adapter.cip;
+
+import org.apache.commons.dbcp2.BasicDataSource;
+import org.apache.commons.dbcp2.DelegatingStatement;
+import org.postgresql.PGStatement;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded pool of Postgres connections shared by all tables of a CIP schema.
+ *
+ * Built from the schema operand; records how long callers wait to borrow a
+ * connection so pool sizing can be checked under load.
+ *
+ * Prepared statements are cached per pooled connection by SQL text, so the
+ * Postgres driver can switch a repeated query to a server-side prepared
+ * statement and Postgres reuses its plan. Executions, cache misses and
+ * executions on server-prepared statements are counted.
+ */
+public class CIPConnectionPool implements AutoCloseable, CIPConnectionPoolMBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(CIPConnectionPool.class);
+
+    static final String DEFAULT_URL = "jdbc:postgresql://localhost:5432/cip_user_db";
+    static final String DEFAULT_DRIVER = "org.postgresql.Driver";
+    static final String DEFAULT_USER = "postgres";
+    static final String DEFAULT_PASSWORD = "postgres";
+
+    private final BasicDataSource dataSource;
+
+    private final LongAdder borrowCount = new LongAdder();
+    private final LongAdder borrowFailureCount = new LongAdder();
+    private final LongAdder totalWaitNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final CIPHistogram waitHistogram = new CIPHistogram();
+
+    private final LongAdder executeCount = new LongAdder();
+    private final LongAdder prepareCount = new LongAdder();
+    private final LongAdder serverPreparedCount = new LongAdder();
+    // Physical statements seen so far; a new one means the statement cache missed
+    private final Set<Statement> preparedStatements = Collections.synchronizedSet(
+            Collections.newSetFromMap(new WeakHashMap<>()));
+
+    // server_version_num of the database, read on first use
+    private volatile Integer serverVersion;
+
+    CIPConnectionPool(BasicDataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    /**
+     * Creates a pool from the schema operand
+     * @param operand model operand; see model.json for the supported keys
+     * @return connection pool
+     */
+    public static CIPConnectionPool create(Map<String, Object> operand) {
+        BasicDataSource dataSource = new BasicDataSource();
+        dataSource.setUrl(CIPSchemaFactory.stringOperand(operand, "jdbcUrl", DEFAULT_URL));
+        dataSource.setDriverClassName(CIPSchemaFactory.stringOperand(operand, "jdbcDriver", DEFAULT_DRIVER));
+        dataSource.setUsername(CIPSchemaFactory.stringOperand(operand, "jdbcUser", DEFAULT_USER));
+        dataSource.setPassword(CIPSchemaFactory.stringOperand(operand, "jdbcPassword", DEFAULT_PASSWORD));
+
+        int maxTotal = CIPSchemaFactory.intOperand(operand, "poolMaxSize", 16);
+        dataSource.setMinIdle(CIPSchemaFactory.intOperand(operand, "poolMinSize", 2));
+        dataSource.setMaxIdle(maxTotal);
+        dataSource.setMaxTotal(maxTotal);
+        dataSource.setMaxWaitMillis(CIPSchemaFactory.longOperand(operand, "poolMaxWaitMillis", 30_000L));
+
+        // Idle connections above poolMinSize are closed by the evictor
+        dataSource.setMinEvictableIdleTimeMillis(CIPSchemaFactory.longOperand(operand, "poolIdleTimeoutMillis", 600_000L));
+        dataSource.setTimeBetweenEvictionRunsMillis(CIPSchemaFactory.longOperand(operand, "poolEvictionIntervalMillis", 60_000L));
+
+        // Keep prepared statements open across borrows, keyed by SQL text
+        dataSource.setPoolPreparedStatements(CIPSchemaFactory.booleanOperand(operand, "poolPreparedStatements", true));
+        dataSource.setMaxOpenPreparedStatements(CIPSchemaFactory.intOperand(operand, "poolMaxPreparedStatements", 256));
+        // Executions of one statement before the driver prepares it on the server
+        Object prepareThreshold = operand.get("prepareThreshold");
+        if (prepareThreshold != null) {
+            dataSource.addConnectionProperty("prepareThreshold", prepareThreshold.toString());
+        }
+
+        String validationQuery = CIPSchemaFactory.stringOperand(operand, "poolValidationQuery", "SELECT 1");
+        if (!validationQuery.isEmpty()) {
+            dataSource.setValidationQuery(validationQuery);
+            dataSource.setValidationQueryTimeout(CIPSchemaFactory.intOperand(operand, "poolValidationTimeoutSeconds", 5));
+            dataSource.setTestOnBorrow(CIPSchemaFactory.booleanOperand(operand, "poolTestOnBorrow", false));
+            dataSource.setTestWhileIdle(true);
+        }
+
+        logger.info(String.format("created connection pool for '%s' (min %d, max %d)",
+                dataSource.getUrl(), dataSource.getMinIdle(), dataSource.getMaxTotal()));
+        CIPConnectionPool pool = new CIPConnectionPool(dataSource);
+        CIPMetrics.register(pool);
+        return pool;
+    }
+
+    /**
+     * Borrows a connection; closing it returns it to the pool
+     * @return pooled connection
+     * @throws SQLException if no connection became available within poolMaxWaitMillis
+     */
+    public Connection getConnection() throws SQLException {
+        long start = System.nanoTime();
+        try {
+            Connection connection = dataSource.getConnection();
+            borrowCount.increment();
+            return connection;
+        } catch (SQLException e) {
+            borrowFailureCount.increment();
+            throw e;
+        } finally {
+            long wait = System.nanoTime() - start;
+            totalWaitNanos.add(wait);
+            maxWaitNanos.accumulateAndGet(wait, Math::max);
+            waitHistogram.record(wait);
+        }
+    }
+
+    /**
+     * Records that a statement obtained from a pooled connection was executed
+     * @param statement
+     */
+    void recordExecution(PreparedStatement statement) {
+        executeCount.increment();
+        Statement physical = statement instanceof DelegatingStatement
+                ? ((DelegatingStatement) statement).getInnermostDelegate() : statement;
+        if (physical != null && preparedStatements.add(physical)) {
+            prepareCount.increment();
+        }
+        try {
+            if (statement.isWrapperFor(PGStatement.class) && statement.unwrap(PGStatement.class).isUseServerPrepare()) {
+                serverPreparedCount.increment();
+            }
+        } catch (SQLException e) {
+            logger.debug("cannot inspect prepared statement", e);
+        }
+    }
+
+    /**
+     * Gets the version of the database as server_version_num, e.g. 140010
+     * for Postgres 14.10
+     * @return version, or 0 if the database does not report one
+     */
+    int getServerVersion() {
+        Integer version = serverVersion;
+        if (version != null) {
+            return version;
+        }
+        try (Connection connection = getConnection();
+             Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT current_setting('server_version_num')")) {
+            resultSet.next();
+            version = Integer.parseInt(resultSet.getString(1));
+            serverVersion = version;
+            return version;
+        } catch (SQLException | NumberFormatException e) {
+            // Not cached: the database may just be unreachable for now
+            logger.debug(String.format("cannot read server version: %s", e.getMessage()));
+            return 0;
+        }
+    }
+
+    public String getUrl() {
+        return dataSource.getUrl();
+    }
+
+    /** Connections currently borrowed */
+    public int getActiveCount() {
+        return dataSource.getNumActive();
+    }
+
+    /** Connections open and waiting in the pool */
+    public int getIdleCount() {
+        return dataSource.getNumIdle();
+    }
+
+    public int getMaxSize() {
+        return dataSource.getMaxTotal();
+    }
+
+    public long getBorrowCount() {
+        return borrowCount.sum();
+    }
+
+    /** Borrows that timed out or failed to connect */
+    public long getBorrowFailureCount() {
+        return borrowFailureCount.sum();
+    }
+
+    public long getTotalWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(totalWaitNanos.sum());
+    }
+
+    public long getMaxWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get());
+    }
+
+    public double getAverageWaitMillis() {
+        long borrows = borrowCount.sum() + borrowFailureCount.sum();
+        return borrows == 0 ? 0 : totalWaitNanos.sum() / 1_000_000d / borrows;
+    }
+
+    public double getWaitMillisP99() {
+        return waitHistogram.getPercentileMillis(0.99);
+    }
+
+    CIPHistogram getWaitHistogram() {
+        return waitHistogram;
+    }
+
+    /** Queries executed on pooled connections */
+    public long getExecuteCount() {
+        return executeCount.sum();
+    }
+
+    /** Executions that had to prepare a new statement, i.e. statement cache misses */
+    public long getPrepareCount() {
+        return prepareCount.sum();
+    }
+
+    /** Executions that ran on a server-side prepared statement */
+    public long getServerPreparedCount() {
+        return serverPreparedCount.sum();
+    }
+
+    @Override public String toString() {
+        return String.format("CIPConnectionPool[url=%s, active=%d, idle=%d, max=%d, borrows=%d, failures=%d, avgWaitMs=%.3f, maxWaitMs=%d, executions=%d, prepares=%d, serverPrepared=%d]",
+                getUrl(), getActiveCount(), getIdleCount(), getMaxSize(), getBorrowCount(),
+                getBorrowFailureCount(), getAverageWaitMillis(), getMaxWaitMillis(),
+                getExecuteCount(), getPrepareCount(), getServerPreparedCount());
+    }
+
+    @Override public void close() {
+        CIPMetrics.unregister(this);
+        try {
+            dataSource.close();
+        } catch (SQLException e) {
+            logger.warn("error closing connection pool", e);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package org.calcite.adapter.cip;
+
+/**
+ * JMX view of {@link CIPConnectionPool}
+ */
+public interface CIPConnectionPoolMBean {
+
+    String getUrl();
+
+    int getActiveCount();
+
+    int getIdleCount();
+
+    int getMaxSize();
+
+    long getBorrowCount();
+
+    long getBorrowFailureCount();
+
+    long getTotalWaitMillis();
+
+    long getMaxWaitMillis();
+
+    double getAverageWaitMillis();
+
+    double getWaitMillisP99();
+
+    long getExecuteCount();
+
+    long getPrepareCount();
+
+    long getServerPreparedCount();
+}
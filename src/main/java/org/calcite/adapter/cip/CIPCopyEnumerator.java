@@ -0,0 +1,439 @@
+package org.calcite.adapter.cip;
+
+import org.apache.calcite.linq4j.Enumerator;
+import org.cip.CIPFieldType;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.PGCopyInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Enumerator that reads the result of a query with
+ * COPY ... TO STDOUT (FORMAT binary) and decodes the tuples straight from the
+ * byte stream, without a ResultSet.
+ *
+ * The query is wrapped so that every column is cast to the Postgres type
+ * that matches its CIPFieldType; rows are returned in Calcite's internal
+ * representation, as CIPColumnReader returns them. COPY takes no bind
+ * parameters, so parameter values are inlined as SQL literals.
+ */
+class CIPCopyEnumerator<E> implements Enumerator<E>, CIPCancellation.Cancelable {
+
+    private static final Logger logger = LoggerFactory.getLogger(CIPCopyEnumerator.class);
+
+    static final byte[] SIGNATURE = "PGCOPY\n\377\r\n\0".getBytes(StandardCharsets.ISO_8859_1);
+
+    // Days and milliseconds from 1970-01-01 to 2000-01-01, the Postgres epoch
+    static final int EPOCH_DAYS = 10957;
+    static final long EPOCH_MILLIS = EPOCH_DAYS * 86_400_000L;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private Connection connection;
+    private CIPCancellation.Watch watch;
+    private final String copySql;
+    private InputStream copyStream;
+
+    // Unread copy data is data[position, limit); decoded here rather than
+    // through DataInputStream, which reads a number one byte at a time
+    private final byte[] data = new byte[BUFFER_SIZE];
+    private int position;
+    private int limit;
+
+    private final CIPFieldType[] fieldTypes;
+    private final boolean scalarRows;
+    private byte[] buffer = new byte[256];
+    private Object current;
+    private boolean started;
+    private boolean done;
+
+    /**
+     * @param connection Postgres connection the copy runs on, closed with the
+     *                   enumerator
+     * @param watch watch of the copy, closed with the enumerator
+     * @param copySql COPY statement; it runs on the first moveNext, so the
+     *                enumerator can be canceled while the query runs
+     */
+    CIPCopyEnumerator(Connection connection, CIPCancellation.Watch watch, String copySql,
+                      List<CIPFieldType> fieldTypes, boolean arrayRows) {
+        this.connection = connection;
+        this.watch = watch;
+        this.copySql = copySql;
+        this.fieldTypes = fieldTypes.toArray(new CIPFieldType[0]);
+        this.scalarRows = !arrayRows && this.fieldTypes.length == 1;
+    }
+
+    /**
+     * Opens a query for reading with binary COPY; falls back to a regular
+     * query if the connection is not a Postgres connection or the query
+     * selects no columns, which the column list of the wrapper cannot express
+     * @param cancellation cancel flag and timeout of the statement the query
+     *                     runs for; COPY has no query timeout, so the copy is
+     *                     canceled when it runs out of time
+     * @return enumerator; the copy runs on its first moveNext
+     */
+    static <E> Enumerator<E> open(CIPConnectionPool connectionPool, String query, int fetchSize,
+                                  List<CIPFieldType> fieldTypes, boolean arrayRows,
+                                  List<CIPFieldType> parameterTypes, Object[] parameters,
+                                  CIPCancellation cancellation) {
+        cancellation.check();
+        if (fieldTypes.isEmpty()) {
+            return cursor(connectionPool, query, fetchSize, fieldTypes, arrayRows, parameterTypes, parameters,
+                    cancellation);
+        }
+        Connection connection = null;
+        CIPCancellation.Watch watch;
+        try {
+            connection = connectionPool.getConnection();
+            if (!connection.isWrapperFor(PGConnection.class)) {
+                connection.close();
+                return cursor(connectionPool, query, fetchSize, fieldTypes, arrayRows, parameterTypes, parameters,
+                        cancellation);
+            }
+            watch = cancellation.watch(connection.unwrap(PGConnection.class)::cancelQuery);
+        } catch (SQLException e) {
+            try {
+                if (connection != null) {
+                    connection.close();
+                }
+            } catch (SQLException closeException) {
+                e.addSuppressed(closeException);
+            }
+            throw cancellation.isCancelled() ? cancellation.error(e)
+                    : new RuntimeException("Error starting binary copy", e);
+        }
+        return new CIPCopyEnumerator<>(connection, watch, copySql(query, fieldTypes, parameterTypes, parameters),
+                fieldTypes, arrayRows);
+    }
+
+    private static <E> Enumerator<E> cursor(CIPConnectionPool connectionPool, String query, int fetchSize,
+                                            List<CIPFieldType> fieldTypes, boolean arrayRows,
+                                            List<CIPFieldType> parameterTypes, Object[] parameters,
+                                            CIPCancellation cancellation) {
+        return new CIPScannableTable.LazyFetchingEnumerator<>(connectionPool, query, fetchSize, fieldTypes,
+                arrayRows, statement -> CIPScannableTable.bind(statement, parameterTypes, parameters),
+                cancellation);
+    }
+
+    /**
+     * Builds the COPY statement for a query
+     */
+    static String copySql(String query, List<CIPFieldType> fieldTypes, List<CIPFieldType> parameterTypes,
+                          Object[] parameters) {
+        List<String> columns = new ArrayList<>();
+        List<String> casts = new ArrayList<>();
+        for (int i = 0; i < fieldTypes.size(); i++) {
+            String column = CIPFilterTranslator.quote("c" + i);
+            columns.add(column);
+            casts.add("CAST(t." + column + " AS " + postgresType(fieldTypes.get(i)) + ")");
+        }
+        return "COPY (SELECT " + String.join(", ", casts)
+                + " FROM (" + inlineParameters(query, parameterTypes, parameters) + ") AS t("
+                + String.join(", ", columns) + ")) TO STDOUT (FORMAT binary)";
+    }
+
+    static String postgresType(CIPFieldType fieldType) {
+        switch (fieldType) {
+            case BOOLEAN:
+                return "bool";
+            case BYTE:
+            case SHORT:
+                return "int2";
+            case INT:
+                return "int4";
+            case LONG:
+                return "int8";
+            case FLOAT:
+                return "float4";
+            case DOUBLE:
+                return "float8";
+            case DATE:
+                return "date";
+            case TIME:
+                return "time";
+            case TIMESTAMP:
+                return "timestamp";
+            default:
+                return "text";
+        }
+    }
+
+    /**
+     * Replaces the placeholders of a query with SQL literals
+     */
+    static String inlineParameters(String query, List<CIPFieldType> parameterTypes, Object[] parameters) {
+        if (parameters.length == 0) {
+            return query;
+        }
+        StringBuilder sql = new StringBuilder();
+        char quote = 0;
+        int parameter = 0;
+        for (int i = 0; i < query.length(); i++) {
+            char c = query.charAt(i);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '\'' || c == '"') {
+                quote = c;
+            } else if (c == '?') {
+                sql.append(literal(parameterTypes.get(parameter), parameters[parameter]));
+                parameter++;
+                continue;
+            }
+            sql.append(c);
+        }
+        return sql.toString();
+    }
+
+    private static String literal(CIPFieldType type, Object value) {
+        if (type == CIPFieldType.TIME && value instanceof Number) {
+            // java.sql.Time has no milliseconds
+            return "TIME '" + LocalTime.ofNanoOfDay(((Number) value).longValue() * 1_000_000L) + "'";
+        }
+        Object jdbcValue = CIPScannableTable.toJdbcValue(type, value);
+        if (jdbcValue == null) {
+            return "NULL";
+        } else if (jdbcValue instanceof Double && !Double.isFinite((Double) jdbcValue)
+                || jdbcValue instanceof Float && !Float.isFinite((Float) jdbcValue)) {
+            // NaN and Infinity are not numeric literals in Postgres
+            return "'" + jdbcValue + "'::" + (jdbcValue instanceof Float ? "float4" : "float8");
+        } else if (jdbcValue instanceof Number || jdbcValue instanceof Boolean) {
+            return jdbcValue.toString();
+        } else if (jdbcValue instanceof java.sql.Date) {
+            return "DATE '" + jdbcValue + "'";
+        } else if (jdbcValue instanceof Time) {
+            return "TIME '" + ((Time) jdbcValue).toLocalTime() + "'";
+        } else if (jdbcValue instanceof java.sql.Timestamp) {
+            return "TIMESTAMP '" + jdbcValue + "'";
+        }
+        return "'" + jdbcValue.toString().replace("'", "''") + "'";
+    }
+
+    private void readHeader() throws IOException {
+        require(SIGNATURE.length);
+        for (int i = 0; i < SIGNATURE.length; i++) {
+            if (data[position++] != SIGNATURE[i]) {
+                throw new IOException("Not a binary COPY stream");
+            }
+        }
+        readInt(); // flags
+        int extensionLength = readInt();
+        skip(extensionLength);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E current() {
+        return (E) current;
+    }
+
+    @Override
+    public boolean moveNext() {
+        if (done) {
+            return false;
+        }
+        if (watch.isCancelled()) {
+            close();
+            throw watch.getCancellation().error(null);
+        }
+        try {
+            if (!started) {
+                started = true;
+                copyStream = new PGCopyInputStream(connection.unwrap(PGConnection.class), copySql);
+                readHeader();
+            }
+            short fieldCount = readShort();
+            if (fieldCount == -1) {
+                done = true;
+                drain();
+                return false;
+            }
+            if (scalarRows) {
+                current = readField(fieldTypes[0]);
+            } else {
+                Object[] row = new Object[fieldTypes.length];
+                for (int i = 0; i < row.length; i++) {
+                    row[i] = readField(fieldTypes[i]);
+                }
+                current = row;
+            }
+            return true;
+        } catch (IOException | SQLException e) {
+            if (watch.getCancellation().isCancelled()) {
+                close();
+                throw watch.getCancellation().error(e);
+            }
+            throw new RuntimeException("Error reading binary copy data", e);
+        }
+    }
+
+    /**
+     * Decodes one field in the binary format of the type it was cast to
+     */
+    private Object readField(CIPFieldType type) throws IOException {
+        int length = readInt();
+        if (length < 0) {
+            return null;
+        }
+        switch (type) {
+            case BOOLEAN:
+                require(1);
+                return data[position++] != 0;
+            case BYTE:
+                return (byte) readShort();
+            case SHORT:
+                return readShort();
+            case INT:
+                return readInt();
+            case LONG:
+                return readLong();
+            case FLOAT:
+                return Float.intBitsToFloat(readInt());
+            case DOUBLE:
+                return Double.longBitsToDouble(readLong());
+            case DATE:
+                return readInt() + EPOCH_DAYS;
+            case TIME:
+                return (int) (readLong() / 1000);
+            case TIMESTAMP:
+                return Math.floorDiv(readLong(), 1000L) + EPOCH_MILLIS;
+            default:
+                return readString(length);
+        }
+    }
+
+    private short readShort() throws IOException {
+        require(2);
+        int value = (data[position] & 0xff) << 8 | data[position + 1] & 0xff;
+        position += 2;
+        return (short) value;
+    }
+
+    private int readInt() throws IOException {
+        require(4);
+        int value = (data[position] & 0xff) << 24 | (data[position + 1] & 0xff) << 16
+                | (data[position + 2] & 0xff) << 8 | data[position + 3] & 0xff;
+        position += 4;
+        return value;
+    }
+
+    private long readLong() throws IOException {
+        return (long) readInt() << 32 | readInt() & 0xffffffffL;
+    }
+
+    private String readString(int length) throws IOException {
+        if (length <= data.length) {
+            require(length);
+            String value = new String(data, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+        if (length > buffer.length) {
+            buffer = new byte[Math.max(length, buffer.length * 2)];
+        }
+        for (int read = 0; read < length; ) {
+            require(1);
+            int count = Math.min(limit - position, length - read);
+            System.arraycopy(data, position, buffer, read, count);
+            position += count;
+            read += count;
+        }
+        return new String(buffer, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads the copy past the trailer to its end, so that closing the stream
+     * completes the copy instead of canceling it
+     */
+    private void drain() throws IOException {
+        position = 0;
+        limit = 0;
+        while (copyStream.read(data, 0, data.length) >= 0) {
+            // Nothing follows the trailer
+        }
+    }
+
+    private void skip(int length) throws IOException {
+        while (length > 0) {
+            require(1);
+            int count = Math.min(limit - position, length);
+            position += count;
+            length -= count;
+        }
+    }
+
+    /**
+     * Reads from the copy until at least count bytes, at most the size of the
+     * data buffer, are unread
+     */
+    private void require(int count) throws IOException {
+        if (limit - position >= count) {
+            return;
+        }
+        System.arraycopy(data, position, data, 0, limit - position);
+        limit -= position;
+        position = 0;
+        while (limit < count) {
+            int read = copyStream.read(data, limit, data.length - limit);
+            if (read < 0) {
+                throw new EOFException("Binary copy ended in the middle of a row");
+            }
+            limit += read;
+        }
+    }
+
+    @Override
+    public void reset() {
+        throw new UnsupportedOperationException("Reset operation not supported");
+    }
+
+    @Override
+    public void cancel() {
+        watch.cancel();
+    }
+
+    @Override
+    public void close() {
+        // Before the connection goes back to the pool
+        watch.close();
+        try {
+            if (copyStream != null) {
+                if (!done) {
+                    // The driver's cancelCopy leaves the rest of an unread
+                    // copy on the connection, which breaks its next query;
+                    // cancel the query instead and read what is still sent
+                    connection.unwrap(PGConnection.class).cancelQuery();
+                    try {
+                        drain();
+                    } catch (IOException e) {
+                        // Expected: the copy fails once it is canceled
+                    }
+                }
+                copyStream.close();
+                copyStream = null;
+            }
+        } catch (IOException | SQLException e) {
+            logger.warn("error closing binary copy", e);
+        }
+        try {
+            if (connection != null) {
+                connection.close();
+                connection = null;
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Error closing resources", e);
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package org.calcite.adapter.cip;
+
+import org.apache.calcite.jdbc.CalcitePrepare;
+import org.apache.calcite.jdbc.Driver;
+import org.apache.calcite.linq4j.function.Function0;
+
+/**
+ * Calcite JDBC driver that caches prepared statements in a
+ * {@link CIPPlanCache} shared by all its connections. Connect strings are
+ * those of Calcite with the prefix "jdbc:cip:", e.g.
+ * "jdbc:cip:model=src/main/resources/model.json".
+ *
+ * The cache holds up to {@link CIPPlanCache#DEFAULT_SIZE} statements, or as
+ * many as the {@link CIPPlanCache#SIZE_PROPERTY} system property says.
+ */
+public class CIPDriver extends Driver {
+
+    public static final String CONNECT_STRING_PREFIX = "jdbc:cip:";
+
+    private static final CIPPlanCache PLAN_CACHE =
+            new CIPPlanCache(Long.getLong(CIPPlanCache.SIZE_PROPERTY, CIPPlanCache.DEFAULT_SIZE));
+
+    static {
+        new CIPDriver().register();
+        CIPMetrics.register(PLAN_CACHE);
+    }
+
+    public static CIPPlanCache getPlanCache() {
+        return PLAN_CACHE;
+    }
+
+    @Override
+    protected String getConnectStringPrefix() {
+        return CONNECT_STRING_PREFIX;
+    }
+
+    @Override
+    protected Function0<CalcitePrepare> createPrepareFactory() {
+        return () -> new CIPPrepare(PLAN_CACHE);
+    }
+}
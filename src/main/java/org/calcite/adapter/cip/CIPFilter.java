@@ -0,0 +1,43 @@
+package org.calcite.adapter.cip;
+
+import org.apache.calcite.plan.RelOptCluster;
+import org.apache.calcite.plan.RelOptCost;
+import org.apache.calcite.plan.RelOptPlanner;
+import org.apache.calcite.plan.RelTraitSet;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.Filter;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
+import org.apache.calcite.rex.RexNode;
+
+/**
+ * Filter evaluated by Postgres as a WHERE clause. The condition must be fully
+ * translatable; CIPRules keeps anything else in a Calcite filter on top.
+ */
+public class CIPFilter extends Filter implements CIPRel {
+
+    public CIPFilter(RelOptCluster cluster, RelTraitSet traitSet, RelNode input, RexNode condition) {
+        super(cluster, traitSet, input, condition);
+        assert getConvention() == CIPRel.CONVENTION;
+    }
+
+    @Override
+    public Filter copy(RelTraitSet traitSet, RelNode input, RexNode condition) {
+        return new CIPFilter(getCluster(), traitSet, input, condition);
+    }
+
+    @Override
+    public RelOptCost computeSelfCost(RelOptPlanner planner, RelMetadataQuery mq) {
+        return super.computeSelfCost(planner, mq).multiplyBy(0.1);
+    }
+
+    @Override
+    public void implement(Implementor implementor) {
+        implementor.visitChild(0, getInput());
+        // WHERE would apply before the GROUP BY or LIMIT of this level
+        if (implementor.isAggregated() || implementor.isLimited()) {
+            implementor.wrap();
+        }
+        CIPFilterTranslator translator = implementor.translator();
+        implementor.addWhere(translator.translate(condition), translator.getParameters());
+    }
+}
@@ -0,0 +1,73 @@
+package org.calcite.adapter.cip;
+
+import org.apache.calcite.adapter.enumerable.EnumerableRel;
+import org.apache.calcite.adapter.enumerable.EnumerableRelImplementor;
+import org.apache.calcite.linq4j.Enumerable;
+import org.apache.calcite.linq4j.tree.BlockBuilder;
+import org.apache.calcite.linq4j.tree.Expression;
+import org.apache.calcite.linq4j.tree.Expressions;
+import org.apache.calcite.linq4j.tree.Types;
+import org.apache.calcite.plan.RelOptCluster;
+import org.apache.calcite.plan.RelOptCost;
+import org.apache.calcite.plan.RelOptPlanner;
+import org.apache.calcite.plan.RelTraitSet;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.RelWriter;
+import org.apache.calcite.rel.SingleRel;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
+
+import java.lang.reflect.Method;
+import java.util.List;
+
+/**
+ * Counts the rows going into or out of a filter that Calcite evaluates on
+ * the rows of a CIP table, because its conditions could not be translated to
+ * SQL; see CIPRules.CIPPartialFilterRule. The rows are passed through unchanged.
+ */
+public class CIPFilterMeter extends SingleRel implements EnumerableRel {
+
+    private static final Method COUNT_METHOD = Types.lookupMethod(CIPMetrics.class, "countCalciteFilter",
+            Enumerable.class, String.class, boolean.class);
+
+    private final String tableAlias;
+
+    private final boolean filterInput;
+
+    /**
+     * @param tableAlias table whose rows are filtered
+     * @param filterInput whether the input rows go into the filter, rather than come out of it
+     */
+    public CIPFilterMeter(RelOptCluster cluster, RelTraitSet traitSet, RelNode input, String tableAlias,
+                          boolean filterInput) {
+        super(cluster, traitSet, input);
+        this.tableAlias = tableAlias;
+        this.filterInput = filterInput;
+    }
+
+    @Override
+    public RelNode copy(RelTraitSet traitSet, List<RelNode> inputs) {
+        return new CIPFilterMeter(getCluster(), traitSet, sole(inputs), tableAlias, filterInput);
+    }
+
+    @Override
+    public RelWriter explainTerms(RelWriter pw) {
+        return super.explainTerms(pw)
+                .item("table", tableAlias)
+                .item("rows", filterInput ? "in" : "out");
+    }
+
+    @Override
+    public RelOptCost computeSelfCost(RelOptPlanner planner, RelMetadataQuery mq) {
+        return planner.getCostFactory().makeTinyCost();
+    }
+
+    @Override
+    public Result implement(EnumerableRelImplementor implementor, Prefer pref) {
+        Result input = implementor.visitChild(this, 0, (EnumerableRel) getInput(), pref);
+        BlockBuilder builder = new BlockBuilder();
+        Expression rows = builder.append("rows", input.block);
+        builder.add(Expressions.return_(null, Expressions.call(COUNT_METHOD, rows,
+                Expressions.constant(tableAlias), Expressions.constant(filterInput))));
+        return implementor.result(input.physType, builder.toBlock());
+    }
+}
@@ -0,0 +1,324 @@
+package org.calcite.adapter.cip;
+
+import org.apache.calcite.rex.RexBuilder;
+import org.apache.calcite.rex.RexCall;
+import org.apache.calcite.rex.RexDynamicParam;
+import org.apache.calcite.rex.RexInputRef;
+import org.apache.calcite.rex.RexLiteral;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.rex.RexUtil;
+import org.apache.calcite.sql.SqlKind;
+import org.apache.calcite.sql.type.SqlTypeName;
+import org.apache.calcite.util.DateString;
+import org.apache.calcite.util.TimeString;
+import org.apache.calcite.util.TimestampString;
+import org.cip.CIPFieldType;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Translates Calcite row expressions into SQL over the columns of a CIP
+ * query.
+ *
+ * Supported predicates: comparisons, IN (SEARCH), IS [NOT] NULL, LIKE, NOT,
+ * AND and OR. Supported values: column references, literals, dynamic
+ * parameters and +, -, *. Anything else is left to Calcite.
+ *
+ * Literals and dynamic parameters in predicates become bind parameters, so
+ * queries that only differ in their values share one SQL text and Postgres
+ * can reuse the prepared plan. Literals in projected expressions are inlined
+ * because Postgres must be able to match them between SELECT and GROUP BY.
+ */
+class CIPFilterTranslator {
+
+    private final RexBuilder rexBuilder;
+
+    // SQL expression for each input field, e.g. the quoted physical column name
+    private final List<String> fields;
+
+    // Values of the ? placeholders of the last translated predicate, in order
+    private final List<Parameter> parameters = new ArrayList<>();
+    private boolean parameterize;
+
+    CIPFilterTranslator(RexBuilder rexBuilder, List<String> fields) {
+        this.rexBuilder = rexBuilder;
+        this.fields = fields;
+    }
+
+    /**
+     * Gets the bind parameters of the last predicate translated by
+     * {@link #translate(RexNode)}
+     * @return parameters in placeholder order
+     */
+    List<Parameter> getParameters() {
+        return new ArrayList<>(parameters);
+    }
+
+    /**
+     * Checks whether an expression could be translated, whatever the SQL of
+     * its input fields turns out to be
+     */
+    static boolean canTranslate(RexBuilder rexBuilder, RexNode node, int fieldCount, boolean predicate) {
+        CIPFilterTranslator translator = new CIPFilterTranslator(rexBuilder, Collections.nCopies(fieldCount, "?"));
+        return (predicate ? translator.translate(node) : translator.translateExpression(node)) != null;
+    }
+
+    /**
+     * Translates a filter expression to SQL
+     * @param node filter expression over the input row type
+     * @return SQL predicate, or null if the expression cannot be pushed down
+     */
+    String translate(RexNode node) {
+        parameters.clear();
+        parameterize = true;
+        try {
+            return translatePredicate(node);
+        } catch (CannotTranslateException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Translates a projected expression to SQL
+     * @param node expression over the input row type
+     * @return SQL expression, or null if the expression cannot be pushed down
+     */
+    String translateExpression(RexNode node) {
+        parameters.clear();
+        parameterize = false;
+        try {
+            if (node.getType().getSqlTypeName() == SqlTypeName.BOOLEAN && node instanceof RexCall) {
+                return translatePredicate(node);
+            }
+            return translateOperand(node);
+        } catch (CannotTranslateException e) {
+            return null;
+        }
+    }
+
+    private String translatePredicate(RexNode node) {
+        switch (node.getKind()) {
+            case AND:
+                return translateJunction(" AND ", ((RexCall) node).getOperands());
+
+            case OR:
+                String inList = translateInList(((RexCall) node).getOperands());
+                if (inList != null) {
+                    return inList;
+                }
+                return translateJunction(" OR ", ((RexCall) node).getOperands());
+
+            case NOT:
+                return "NOT (" + translatePredicate(((RexCall) node).getOperands().get(0)) + ")";
+
+            case SEARCH:
+                // IN lists and ranges arrive as SEARCH(col, Sarg[...])
+                return translatePredicate(RexUtil.expandSearch(rexBuilder, null, node));
+
+            case EQUALS:
+            case NOT_EQUALS:
+            case LESS_THAN:
+            case LESS_THAN_OR_EQUAL:
+            case GREATER_THAN:
+            case GREATER_THAN_OR_EQUAL:
+            case LIKE:
+                return translateBinary((RexCall) node);
+
+            case IS_NULL:
+            case IS_NOT_NULL:
+            case IS_TRUE:
+            case IS_NOT_TRUE:
+            case IS_FALSE:
+            case IS_NOT_FALSE:
+                return translateOperand(((RexCall) node).getOperands().get(0))
+                        + " " + ((RexCall) node).getOperator().getName();
+
+            case INPUT_REF:
+            case LITERAL:
+                // A boolean column or constant used directly as a predicate
+                if (node.getType().getSqlTypeName() == SqlTypeName.BOOLEAN) {
+                    return translateOperand(node);
+                }
+                throw new CannotTranslateException();
+
+            default:
+                throw new CannotTranslateException();
+        }
+    }
+
+    private String translateJunction(String op, List<RexNode> operands) {
+        List<String> terms = new ArrayList<>();
+        for (RexNode operand : operands) {
+            terms.add("(" + translatePredicate(operand) + ")");
+        }
+        return String.join(op, terms);
+    }
+
+    /**
+     * Collapses an OR of equalities on the same column into an IN list
+     * @return SQL predicate, or null if the operands are not of that shape
+     */
+    private String translateInList(List<RexNode> operands) {
+        Integer column = null;
+        List<String> values = new ArrayList<>();
+        for (RexNode operand : operands) {
+            if (operand.getKind() != SqlKind.EQUALS) {
+                return null;
+            }
+            RexNode left = ((RexCall) operand).getOperands().get(0);
+            RexNode right = ((RexCall) operand).getOperands().get(1);
+            if (left instanceof RexLiteral && right instanceof RexInputRef) {
+                RexNode swap = left;
+                left = right;
+                right = swap;
+            }
+            if (!(left instanceof RexInputRef) || !(right instanceof RexLiteral)) {
+                return null;
+            }
+            int index = ((RexInputRef) left).getIndex();
+            if (column != null && column != index) {
+                return null;
+            }
+            column = index;
+            values.add(translateValue((RexLiteral) right));
+        }
+        return column == null ? null
+                : fields.get(column) + " IN (" + String.join(", ", values) + ")";
+    }
+
+    private String translateBinary(RexCall call) {
+        if (call.getOperands().size() != 2) {
+            throw new CannotTranslateException();
+        }
+        String left = translateOperand(call.getOperands().get(0));
+        String right = translateOperand(call.getOperands().get(1));
+        return left + " " + call.getOperator().getName() + " " + right;
+    }
+
+    private String translateOperand(RexNode node) {
+        if (node instanceof RexInputRef) {
+            return fields.get(((RexInputRef) node).getIndex());
+        }
+        if (node instanceof RexLiteral) {
+            return translateValue((RexLiteral) node);
+        }
+        if (node instanceof RexDynamicParam) {
+            CIPFieldType type = CIPFieldType.of(node.getType().getSqlTypeName());
+            if (!parameterize || type == null) {
+                throw new CannotTranslateException();
+            }
+            parameters.add(new Parameter(type, null, ((RexDynamicParam) node).getIndex()));
+            return "?";
+        }
+        switch (node.getKind()) {
+            case PLUS:
+            case MINUS:
+            case TIMES:
+                return "(" + translateBinary((RexCall) node) + ")";
+            default:
+                throw new CannotTranslateException();
+        }
+    }
+
+    /**
+     * Translates a literal to a placeholder with a bind parameter if possible,
+     * otherwise to inline SQL
+     */
+    private String translateValue(RexLiteral literal) {
+        CIPFieldType type = CIPFieldType.of(literal.getType().getSqlTypeName());
+        if (parameterize && !literal.isNull() && type != null) {
+            parameters.add(new Parameter(type, literal.getValueAs(internalClass(type)), -1));
+            return "?";
+        }
+        return translateLiteral(literal);
+    }
+
+    /** Gets the class of Calcite's internal representation of a field type */
+    private static Class<?> internalClass(CIPFieldType type) {
+        switch (type) {
+            case BOOLEAN:
+                return Boolean.class;
+            case BYTE:
+                return Byte.class;
+            case SHORT:
+                return Short.class;
+            case INT:
+            case DATE:
+            case TIME:
+                return Integer.class;
+            case LONG:
+            case TIMESTAMP:
+                return Long.class;
+            case FLOAT:
+                return Float.class;
+            case DOUBLE:
+                return Double.class;
+            default:
+                return String.class;
+        }
+    }
+
+    private String translateLiteral(RexLiteral literal) {
+        if (literal.isNull()) {
+            return "NULL";
+        }
+        switch (literal.getTypeName()) {
+            case CHAR:
+            case VARCHAR:
+                return "'" + literal.getValueAs(String.class).replace("'", "''") + "'";
+            case BOOLEAN:
+                return literal.getValueAs(Boolean.class) ? "TRUE" : "FALSE";
+            case TINYINT:
+            case SMALLINT:
+            case INTEGER:
+            case BIGINT:
+            case DECIMAL:
+            case REAL:
+            case FLOAT:
+            case DOUBLE:
+                return literal.getValueAs(BigDecimal.class).toPlainString();
+            case DATE:
+                return "DATE '" + literal.getValueAs(DateString.class) + "'";
+            case TIME:
+                return "TIME '" + literal.getValueAs(TimeString.class) + "'";
+            case TIMESTAMP:
+                return "TIMESTAMP '" + literal.getValueAs(TimestampString.class) + "'";
+            default:
+                throw new CannotTranslateException();
+        }
+    }
+
+    static String quote(String identifier) {
+        return "\"" + identifier.replace("\"", "\"\"") + "\"";
+    }
+
+    /**
+     * Value bound to one ? placeholder of the generated SQL: either a literal
+     * or a dynamic parameter of the Calcite statement
+     */
+    static class Parameter {
+        final CIPFieldType type;
+        // Literal value in Calcite's internal representation
+        final Object value;
+        // Index of the dynamic parameter, or -1 for a literal
+        final int dynamicParamIndex;
+
+        Parameter(CIPFieldType type, Object value, int dynamicParamIndex) {
+            this.type = type;
+            this.value = value;
+            this.dynamicParamIndex = dynamicParamIndex;
+        }
+    }
+
+    /** Thrown when part of an expression has no SQL equivalent we push down */
+    private static class CannotTranslateException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        CannotTranslateException() {
+            super(null, null, false, false);
+        }
+    }
+}
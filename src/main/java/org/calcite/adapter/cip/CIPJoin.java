@@ -0,0 +1,109 @@
+package org.calcite.adapter.cip;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.apache.calcite.plan.RelOptCluster;
+import org.apache.calcite.plan.RelOptCost;
+import org.apache.calcite.plan.RelOptPlanner;
+import org.apache.calcite.plan.RelOptTable;
+import org.apache.calcite.plan.RelTraitSet;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.Join;
+import org.apache.calcite.rel.core.JoinRelType;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.rex.RexTableInputRef;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Join of CIP tables evaluated by Postgres. Both inputs must read from the
+ * same database; see {@link #connectionPool(RelNode)}.
+ */
+public class CIPJoin extends Join implements CIPRel {
+
+    public CIPJoin(RelOptCluster cluster, RelTraitSet traitSet, RelNode left, RelNode right,
+                   RexNode condition, JoinRelType joinType) {
+        super(cluster, traitSet, ImmutableList.of(), left, right, condition, ImmutableSet.of(), joinType);
+        assert getConvention() == CIPRel.CONVENTION;
+    }
+
+    @Override
+    public Join copy(RelTraitSet traitSet, RexNode condition, RelNode left, RelNode right,
+                     JoinRelType joinType, boolean semiJoinDone) {
+        return new CIPJoin(getCluster(), traitSet, left, right, condition, joinType);
+    }
+
+    @Override
+    public RelOptCost computeSelfCost(RelOptPlanner planner, RelMetadataQuery mq) {
+        return super.computeSelfCost(planner, mq).multiplyBy(0.1);
+    }
+
+    /**
+     * Finds the CIP tables under a relational expression
+     * @param rel
+     * @return the tables, or null if they are unknown or not all CIP tables
+     */
+    static List<CIPScannableTable> cipTables(RelNode rel) {
+        Set<RexTableInputRef.RelTableRef> tableRefs = rel.getCluster().getMetadataQuery().getTableReferences(rel);
+        if (tableRefs == null || tableRefs.isEmpty()) {
+            return null;
+        }
+        List<CIPScannableTable> cipTables = new ArrayList<>();
+        for (RexTableInputRef.RelTableRef tableRef : tableRefs) {
+            RelOptTable table = tableRef.getTable();
+            CIPScannableTable cipTable = table.unwrap(CIPScannableTable.class);
+            if (cipTable == null) {
+                return null;
+            }
+            cipTables.add(cipTable);
+        }
+        return cipTables;
+    }
+
+    /**
+     * Finds the connection pool that all tables under a relational
+     * expression read from
+     * @param rel
+     * @return the pool, or null if the tables are unknown, use different pools
+     *         or include a replicated table
+     */
+    static CIPConnectionPool connectionPool(RelNode rel) {
+        List<CIPScannableTable> cipTables = cipTables(rel);
+        if (cipTables == null) {
+            return null;
+        }
+        CIPConnectionPool connectionPool = cipTables.get(0).getConnectionPool();
+        for (CIPScannableTable cipTable : cipTables) {
+            if (cipTable.getConnectionPool() != connectionPool || cipTable.isReplicated()) {
+                return null;
+            }
+        }
+        return connectionPool;
+    }
+
+    @Override
+    public void implement(Implementor implementor) {
+        Implementor left = implementor.visitJoinInput(getLeft(), false);
+        Implementor right = implementor.visitJoinInput(getRight(), true);
+
+        List<String> fields = new ArrayList<>(left.selectList);
+        fields.addAll(right.selectList);
+        CIPFilterTranslator translator = new CIPFilterTranslator(implementor.rexBuilder, fields);
+        String condition = translator.translate(getCondition());
+
+        // The left-most table runs the query; the implementor keeps the others,
+        // whose writes are flushed and whose settings apply as well
+        implementor.table = left.table;
+        implementor.relOptTable = left.relOptTable;
+        implementor.from = left.from + " " + joinType.name() + " JOIN " + right.from + " ON " + condition;
+        implementor.fromFields = fields;
+        implementor.fromParameters = new ArrayList<>(left.fromParameters);
+        implementor.fromParameters.addAll(right.fromParameters);
+        implementor.fromParameters.addAll(translator.getParameters());
+        implementor.joined = true;
+        implementor.selectList = fields;
+    }
+}
@@ -0,0 +1,372 @@
+package org.calcite.adapter.cip;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.apache.calcite.DataContext;
+import org.apache.calcite.adapter.enumerable.EnumerableRel;
+import org.apache.calcite.adapter.enumerable.EnumerableRelImplementor;
+import org.apache.calcite.adapter.enumerable.JavaRowFormat;
+import org.apache.calcite.adapter.enumerable.PhysType;
+import org.apache.calcite.adapter.enumerable.PhysTypeImpl;
+import org.apache.calcite.linq4j.AbstractEnumerable;
+import org.apache.calcite.linq4j.Enumerable;
+import org.apache.calcite.linq4j.Enumerator;
+import org.apache.calcite.linq4j.tree.BlockBuilder;
+import org.apache.calcite.linq4j.tree.Expression;
+import org.apache.calcite.linq4j.tree.Expressions;
+import org.apache.calcite.linq4j.tree.Types;
+import org.apache.calcite.plan.RelOptCluster;
+import org.apache.calcite.plan.RelOptCost;
+import org.apache.calcite.plan.RelOptPlanner;
+import org.apache.calcite.plan.RelTraitSet;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.Join;
+import org.apache.calcite.rel.core.JoinRelType;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
+import org.apache.calcite.rex.RexNode;
+import org.cip.CIPFieldType;
+
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Join of an arbitrary input with a CIP table that cannot be pushed down as a
+ * whole, e.g. against a VALUES list or a table of another database.
+ *
+ * The outer input is read in chunks of distinct join keys; for each chunk the
+ * CIP side runs as {@code WHERE key = ANY(?)} with the keys bound as an array,
+ * so Postgres can use an index instead of a full scan. The query for the next
+ * chunk runs while the rows of the current one are being joined.
+ */
+public class CIPLookupJoin extends Join implements EnumerableRel {
+
+    private static final Method LOOKUP_JOIN_METHOD = Types.lookupMethod(CIPScannableTable.CIPQueryable.class,
+            "lookupJoin", DataContext.class, Enumerable.class, int.class, String.class, List.class, List.class,
+            Object[].class, int.class, String.class, boolean.class, boolean.class,
+            CIPScannableTable.CIPQueryable[].class);
+
+    // Fixed cost of one lookup query, in rows
+    private static final double ROUND_TRIP_COST = 10d;
+
+    // Runs the lookup queries ahead of the joining thread
+    private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "cip-lookup-join");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Whether the CIP table is the left input; the other input is read as the outer side
+    private final boolean innerOnLeft;
+
+    private final int chunkSize;
+
+    public CIPLookupJoin(RelOptCluster cluster, RelTraitSet traitSet, RelNode left, RelNode right,
+                         RexNode condition, JoinRelType joinType, boolean innerOnLeft, int chunkSize) {
+        super(cluster, traitSet, ImmutableList.of(), left, right, condition, ImmutableSet.of(), joinType);
+        this.innerOnLeft = innerOnLeft;
+        this.chunkSize = chunkSize;
+    }
+
+    @Override
+    public Join copy(RelTraitSet traitSet, RexNode condition, RelNode left, RelNode right,
+                     JoinRelType joinType, boolean semiJoinDone) {
+        return new CIPLookupJoin(getCluster(), traitSet, left, right, condition, joinType, innerOnLeft, chunkSize);
+    }
+
+    /**
+     * Maps the type of a join key to the element type of the Postgres array
+     * the keys are bound as
+     * @param fieldType
+     * @return element type, or null if keys of that type are not looked up
+     */
+    static String arrayType(CIPFieldType fieldType) {
+        if (fieldType == null) {
+            return null;
+        }
+        switch (fieldType) {
+            case STRING:
+                return "varchar";
+            case SHORT:
+                return "int2";
+            case INT:
+                return "int4";
+            case LONG:
+                return "int8";
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Reads the outer rows once and fetches only the matching inner rows,
+     * with one round trip per chunk of keys.
+     */
+    @Override
+    public RelOptCost computeSelfCost(RelOptPlanner planner, RelMetadataQuery mq) {
+        double outerRows = mq.getRowCount(innerOnLeft ? getRight() : getLeft());
+        double rows = outerRows + mq.getRowCount(this) + Math.ceil(outerRows / chunkSize) * ROUND_TRIP_COST;
+        return planner.getCostFactory().makeCost(rows, rows, 0);
+    }
+
+    @Override
+    public Result implement(EnumerableRelImplementor implementor, Prefer pref) {
+        int outerOrdinal = innerOnLeft ? 1 : 0;
+        RelNode outer = getInput(outerOrdinal);
+        RelNode inner = getInput(1 - outerOrdinal);
+        int outerKey = innerOnLeft ? analyzeCondition().rightKeys.get(0) : analyzeCondition().leftKeys.get(0);
+        int innerKey = innerOnLeft ? analyzeCondition().leftKeys.get(0) : analyzeCondition().rightKeys.get(0);
+
+        // SQL for the CIP side, restricted to one chunk of keys
+        CIPRel.Implementor cipImplementor = new CIPRel.Implementor(getCluster().getRexBuilder());
+        cipImplementor.visitChild(0, inner);
+        if (cipImplementor.isAggregated() || cipImplementor.isLimited()) {
+            cipImplementor.wrap();
+        }
+        List<CIPFilterTranslator.Parameter> parameters = cipImplementor.parameters();
+        cipImplementor.where.add("(" + cipImplementor.selectList.get(innerKey) + " = ANY(?))");
+        List<CIPFieldType> fieldTypes = CIPToEnumerableConverter.fieldTypes(inner);
+        String arrayType = arrayType(fieldTypes.get(innerKey));
+
+        BlockBuilder builder = new BlockBuilder();
+        Result outerResult = implementor.visitChild(this, outerOrdinal, (EnumerableRel) outer, Prefer.ARRAY);
+        Expression outerRows = builder.append("outer",
+                outerResult.physType.convertTo(builder.append("outerRows", outerResult.block), JavaRowFormat.ARRAY));
+        Expression table = builder.append("table",
+                cipImplementor.relOptTable.getExpression(CIPScannableTable.CIPQueryable.class));
+        Expression enumerable = builder.append("enumerable",
+                Expressions.call(table, LOOKUP_JOIN_METHOD, DataContext.ROOT, outerRows, Expressions.constant(outerKey),
+                        Expressions.constant(cipImplementor.toSql()), Expressions.constant(fieldTypes),
+                        Expressions.constant(CIPToEnumerableConverter.parameterTypes(parameters)),
+                        CIPToEnumerableConverter.parameterValues(parameters), Expressions.constant(innerKey), Expressions.constant(arrayType),
+                        Expressions.constant(innerOnLeft), Expressions.constant(joinType == JoinRelType.LEFT),
+                        CIPToEnumerableConverter.joinedTables(cipImplementor)));
+        builder.add(Expressions.return_(null, enumerable));
+
+        PhysType physType = PhysTypeImpl.of(implementor.getTypeFactory(), getRowType(), JavaRowFormat.ARRAY, false);
+        return implementor.result(physType, builder.toBlock());
+    }
+
+    /**
+     * Joins the outer rows with the CIP rows looked up for their keys. Rows are
+     * Object[] in join output order.
+     */
+    static class LookupJoinEnumerable extends AbstractEnumerable<Object[]> {
+        private final CIPScannableTable table;
+        private final Enumerable<Object[]> outer;
+        private final int outerKey;
+        private final String query;
+        private final List<CIPFieldType> fieldTypes;
+        private final List<CIPFieldType> parameterTypes;
+        private final Object[] parameters;
+        private final int innerKey;
+        private final String arrayType;
+        private final boolean innerOnLeft;
+        private final boolean leftJoin;
+        private final int chunkSize;
+        private final CIPCancellation cancellation;
+        private final List<CIPScannableTable> joinedTables;
+
+        /**
+         * @param joinedTables other tables the CIP side reads, if it is a join
+         */
+        LookupJoinEnumerable(CIPScannableTable table, Enumerable<Object[]> outer, int outerKey, String query,
+                             List<CIPFieldType> fieldTypes, List<CIPFieldType> parameterTypes, Object[] parameters,
+                             int innerKey, String arrayType, boolean innerOnLeft, boolean leftJoin, int chunkSize,
+                             CIPCancellation cancellation, List<CIPScannableTable> joinedTables) {
+            this.table = table;
+            this.outer = outer;
+            this.outerKey = outerKey;
+            this.query = query;
+            this.fieldTypes = fieldTypes;
+            this.parameterTypes = parameterTypes;
+            this.parameters = parameters;
+            this.innerKey = innerKey;
+            this.arrayType = arrayType;
+            this.innerOnLeft = innerOnLeft;
+            this.leftJoin = leftJoin;
+            this.chunkSize = chunkSize;
+            this.cancellation = cancellation;
+            this.joinedTables = joinedTables;
+        }
+
+        @Override
+        public Enumerator<Object[]> enumerator() {
+            return new LookupJoinEnumerator();
+        }
+
+        /** Outer rows of one chunk, grouped by key, and the lookup of their keys */
+        private class Chunk {
+            final Map<Object, List<Object[]>> rowsByKey = new LinkedHashMap<>();
+            // Outer rows with a null key; they only appear in a left join
+            final List<Object[]> nullKeyRows = new ArrayList<>();
+            final Set<Object> matchedKeys = new HashSet<>();
+            CompletableFuture<Enumerator<Object[]>> lookup;
+
+            Enumerator<Object[]> inner() {
+                if (lookup == null) {
+                    return null;
+                }
+                try {
+                    return lookup.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("Interrupted while looking up join keys", e);
+                } catch (ExecutionException e) {
+                    throw new RuntimeException("Error looking up join keys", e.getCause());
+                }
+            }
+
+            void close() {
+                if (lookup != null) {
+                    // Closes the lookup once it has run, even if nobody reads it
+                    lookup.thenAccept(Enumerator::close);
+                }
+            }
+        }
+
+        private class LookupJoinEnumerator implements Enumerator<Object[]> {
+            private final Enumerator<Object[]> outerRows = outer.enumerator();
+            private boolean outerDone;
+            // At most two chunks: the one being joined and the one being looked up
+            private final Deque<Chunk> chunks = new ArrayDeque<>();
+            private Chunk chunk;
+            private Iterator<Object[]> joined = Collections.emptyIterator();
+            private Object[] current;
+
+            @Override
+            public Object[] current() {
+                return current;
+            }
+
+            @Override
+            public boolean moveNext() {
+                while (true) {
+                    if (joined.hasNext()) {
+                        current = joined.next();
+                        return true;
+                    }
+                    if (chunk == null) {
+                        chunk = nextChunk();
+                        if (chunk == null) {
+                            return false;
+                        }
+                    }
+                    Enumerator<Object[]> inner = chunk.inner();
+                    if (inner != null && inner.moveNext()) {
+                        Object[] innerRow = inner.current();
+                        Object key = innerRow[innerKey];
+                        chunk.matchedKeys.add(key);
+                        List<Object[]> rows = new ArrayList<>();
+                        for (Object[] outerRow : chunk.rowsByKey.getOrDefault(key, Collections.emptyList())) {
+                            rows.add(combine(outerRow, innerRow));
+                        }
+                        joined = rows.iterator();
+                        continue;
+                    }
+                    // The chunk is exhausted; a left join keeps the outer rows without a match
+                    List<Object[]> rows = new ArrayList<>();
+                    if (leftJoin) {
+                        for (Map.Entry<Object, List<Object[]>> entry : chunk.rowsByKey.entrySet()) {
+                            if (!chunk.matchedKeys.contains(entry.getKey())) {
+                                for (Object[] outerRow : entry.getValue()) {
+                                    rows.add(combine(outerRow, null));
+                                }
+                            }
+                        }
+                        for (Object[] outerRow : chunk.nullKeyRows) {
+                            rows.add(combine(outerRow, null));
+                        }
+                    }
+                    joined = rows.iterator();
+                    chunk.close();
+                    chunk = null;
+                }
+            }
+
+            /**
+             * Takes the next chunk, reading ahead so that one more lookup runs
+             * while this chunk is joined
+             */
+            private Chunk nextChunk() {
+                while (chunks.size() < 2 && !outerDone) {
+                    Chunk next = readChunk();
+                    if (!next.rowsByKey.isEmpty() || !next.nullKeyRows.isEmpty()) {
+                        chunks.add(next);
+                    }
+                }
+                return chunks.poll();
+            }
+
+            private Chunk readChunk() {
+                Chunk next = new Chunk();
+                while (next.rowsByKey.size() < chunkSize) {
+                    if (!outerRows.moveNext()) {
+                        outerDone = true;
+                        break;
+                    }
+                    Object[] outerRow = outerRows.current();
+                    Object key = outerRow[outerKey];
+                    if (key == null) {
+                        if (leftJoin) {
+                            next.nullKeyRows.add(outerRow);
+                        }
+                        continue;
+                    }
+                    next.rowsByKey.computeIfAbsent(key, k -> new ArrayList<>()).add(outerRow);
+                }
+                if (!next.rowsByKey.isEmpty()) {
+                    List<Object> keys = new ArrayList<>(next.rowsByKey.keySet());
+                    next.lookup = CompletableFuture.supplyAsync(
+                            () -> table.lookup(query, fieldTypes, parameterTypes, parameters, keys, arrayType,
+                                    cancellation, joinedTables), EXECUTOR);
+                }
+                return next;
+            }
+
+            private Object[] combine(Object[] outerRow, Object[] innerRow) {
+                Object[] left = innerOnLeft ? innerRow : outerRow;
+                Object[] right = innerOnLeft ? outerRow : innerRow;
+                if (innerRow == null) {
+                    // Null-extended inner side of a left join
+                    Object[] row = new Object[outerRow.length + fieldTypes.size()];
+                    System.arraycopy(outerRow, 0, row, 0, outerRow.length);
+                    return row;
+                }
+                Object[] row = new Object[left.length + right.length];
+                System.arraycopy(left, 0, row, 0, left.length);
+                System.arraycopy(right, 0, row, left.length, right.length);
+                return row;
+            }
+
+            @Override
+            public void reset() {
+                throw new UnsupportedOperationException("Reset operation not supported");
+            }
+
+            @Override
+            public void close() {
+                if (chunk != null) {
+                    chunk.close();
+                }
+                for (Chunk pending : chunks) {
+                    pending.close();
+                }
+                chunks.clear();
+                outerRows.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package org.calcite.adapter.cip;
+
+import org.apache.calcite.linq4j.Enumerator;
+
+import java.util.function.Supplier;
+
+/**
+ * Records a scan of a CIP table in its CIPTableMetrics. Rows and bytes are
+ * counted in plain fields and added to the shared counters when the scan is
+ * closed, so the cost per row is a few comparisons.
+ */
+class CIPMeteredEnumerator<E> implements Enumerator<E>, CIPCancellation.Cancelable {
+
+    private final CIPTableMetrics metrics;
+
+    private final Enumerator<E> delegate;
+
+    private final long start;
+
+    private long rows;
+
+    private long bytes;
+
+    // Whether the bytes of the current row were counted
+    private boolean measured = true;
+
+    private boolean failed;
+
+    private boolean closed;
+
+    /**
+     * @param opener opens the scan
+
+     */
+    CIPMeteredEnumerator(CIPTableMetrics metrics, Supplier<Enumerator<E>> opener) {
+        this.metrics = metrics;
+        this.start = System.nanoTime();
+        try {
+            this.delegate = opener.get();
+        } catch (RuntimeException e) {
+            metrics.scanned(System.nanoTime() - start, 0, 0, true);
+            throw e;
+        }
+    }
+
+    @Override
+    public E current() {
+        E row = delegate.current();
+        if (!measured) {
+            bytes += CIPTableMetrics.estimateBytes(row);
+            measured = true;
+        }
+        return row;
+    }
+
+    @Override
+    public boolean moveNext() {
+        boolean next;
+        try {
+            next = delegate.moveNext();
+        } catch (RuntimeException e) {
+            failed = true;
+            throw e;
+        }
+        if (next) {
+            if (rows == 0) {
+                metrics.firstRow(System.nanoTime() - start);
+            }
+            rows++;
+            measured = false;
+        }
+        return next;
+    }
+
+    @Override
+    public void reset() {
+        delegate.reset();
+    }
+
+    @Override
+    public void cancel() {
+        if (delegate instanceof CIPCancellation.Cancelable) {
+            ((CIPCancellation.Cancelable) delegate).cancel();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            delegate.close();
+        } finally {
+            metrics.scanned(System.nanoTime() - start, rows, bytes, failed);
+        }
+    }
+}
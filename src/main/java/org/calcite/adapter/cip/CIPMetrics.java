@@ -0,0 +1,321 @@
+package org.calcite.adapter.cip;
+
+import org.apache.calcite.linq4j.AbstractEnumerable;
+import org.apache.calcite.linq4j.DelegatingEnumerator;
+import org.apache.calcite.linq4j.Enumerable;
+import org.apache.calcite.linq4j.Enumerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Registry of the metrics of CIP tables and connection pools in this JVM.
+ * Each is registered as an MBean in the {@link #JMX_DOMAIN} domain, and all
+ * can be written in the Prometheus text format.
+ */
+public final class CIPMetrics {
+
+    private static final Logger logger = LoggerFactory.getLogger(CIPMetrics.class);
+
+    public static final String JMX_DOMAIN = "org.cip";
+
+    // By table alias, so that a table replaced on reload keeps its metrics
+    private static final Map<String, CIPTableMetrics> TABLES = new ConcurrentHashMap<>();
+
+    private static final Map<CIPConnectionPool, ObjectName> POOLS = new ConcurrentHashMap<>();
+
+    private static final AtomicInteger POOL_IDS = new AtomicInteger();
+
+    // By rollup alias, so that a rollup replaced on reload takes over its name
+    private static final Map<String, CIPRollupTable> ROLLUPS = new ConcurrentHashMap<>();
+
+    private static final Map<CIPRollupTable, ObjectName> ROLLUP_NAMES = new ConcurrentHashMap<>();
+
+    private static volatile CIPPlanCache planCache;
+
+    private CIPMetrics() {
+    }
+
+    /**
+     * Gets the metrics of a table, creating them on first use
+     * @param table table alias
+     */
+    public static CIPTableMetrics forTable(String table) {
+        return TABLES.computeIfAbsent(table, name -> {
+            CIPTableMetrics metrics = new CIPTableMetrics(name);
+            register(metrics, "type=Table,name=" + ObjectName.quote(name));
+            return metrics;
+        });
+    }
+
+    public static Collection<CIPTableMetrics> tables() {
+        return TABLES.values();
+    }
+
+    /**
+     * Gets the connection pools that are open
+     */
+    public static Collection<CIPConnectionPool> pools() {
+        return POOLS.keySet();
+    }
+
+    static void register(CIPConnectionPool pool) {
+        ObjectName name = register(pool, "type=ConnectionPool,name=" + ObjectName.quote(pool.getUrl())
+                + ",id=" + POOL_IDS.incrementAndGet());
+        POOLS.put(pool, name);
+    }
+
+    static void unregister(CIPConnectionPool pool) {
+        unregister(POOLS.remove(pool));
+    }
+
+    /**
+     * Registers the MBean of a rollup, replacing that of the rollup it replaces
+     */
+    static synchronized void register(CIPRollupTable rollup) {
+        CIPRollupTable previous = ROLLUPS.put(rollup.getName(), rollup);
+        if (previous != null) {
+            unregister(ROLLUP_NAMES.remove(previous));
+        }
+        ObjectName name = register(rollup, "type=Rollup,name=" + ObjectName.quote(rollup.getName()));
+        if (name != null) {
+            ROLLUP_NAMES.put(rollup, name);
+        }
+    }
+
+    static synchronized void unregister(CIPRollupTable rollup) {
+        ROLLUPS.remove(rollup.getName(), rollup);
+        unregister(ROLLUP_NAMES.remove(rollup));
+    }
+
+    /**
+     * Gets the rollups of the current tables
+     */
+    public static Collection<CIPRollupTable> rollups() {
+        return ROLLUPS.values();
+    }
+
+    static void register(CIPPlanCache cache) {
+        planCache = cache;
+        register(cache, "type=PlanCache");
+    }
+
+    /**
+     * Registers an MBean in the platform MBean server
+     * @param properties key properties of its name in the {@link #JMX_DOMAIN} domain
+     * @return its name, or null if it could not be registered
+     */
+    public static ObjectName register(Object mbean, String properties) {
+        try {
+            ObjectName name = new ObjectName(JMX_DOMAIN + ":" + properties);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(mbean, name);
+            return name;
+        } catch (JMException e) {
+            logger.warn(String.format("cannot register MBean %s:%s", JMX_DOMAIN, properties), e);
+            return null;
+        }
+    }
+
+    /**
+     * Unregisters an MBean registered by {@link #register(Object, String)}
+     * @param name its name; nothing is done if null
+     */
+    public static void unregister(ObjectName name) {
+        if (name != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+            } catch (JMException e) {
+                logger.debug(String.format("cannot unregister MBean %s", name), e);
+            }
+        }
+    }
+
+    /**
+     * Counts the rows going into or out of a filter that Calcite evaluates on
+     * the rows of a table; called by the code generated for CIPFilterMeter
+     * @param input whether the rows go into the filter
+     */
+    public static <E> Enumerable<E> countCalciteFilter(Enumerable<E> rows, String table, boolean input) {
+        CIPTableMetrics metrics = forTable(table);
+        return new AbstractEnumerable<E>() {
+            @Override
+            public Enumerator<E> enumerator() {
+                return new DelegatingEnumerator<E>(rows.enumerator()) {
+                    private long count;
+
+                    private boolean reported;
+
+                    @Override
+                    public boolean moveNext() {
+                        if (super.moveNext()) {
+                            count++;
+                            return true;
+                        }
+                        // Clients may leave the result set open once they read it all
+                        report();
+                        return false;
+                    }
+
+                    @Override
+                    public void close() {
+                        report();
+                        super.close();
+                    }
+
+                    private void report() {
+                        if (!reported) {
+                            reported = true;
+                            metrics.calciteFiltered(input, count);
+                        }
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * Appends the metrics of all tables and connection pools in the
+     * Prometheus text format
+     */
+    public static void writePrometheus(StringBuilder out) {
+        List<CIPTableMetrics> tables = new ArrayList<>(TABLES.values());
+        counter(out, "cip_table_scans_total", "Postgres queries run for the table", tables,
+                CIPTableMetrics::getScanCount);
+        counter(out, "cip_table_scan_errors_total", "Queries that failed", tables,
+                CIPTableMetrics::getScanErrorCount);
+        counter(out, "cip_table_snapshot_scans_total", "Scans served from the snapshot of a replicated table",
+                tables, CIPTableMetrics::getSnapshotScanCount);
+        counter(out, "cip_table_rows_fetched_total", "Rows read from Postgres", tables,
+                CIPTableMetrics::getRowsFetched);
+        counter(out, "cip_table_bytes_fetched_total", "Approximate bytes of the values read from Postgres",
+                tables, CIPTableMetrics::getBytesFetched);
+        counter(out, "cip_table_calcite_filter_rows_in_total", "Rows into filters evaluated by Calcite",
+                tables, CIPTableMetrics::getCalciteFilterRowsIn);
+        counter(out, "cip_table_calcite_filter_rows_out_total", "Rows out of filters evaluated by Calcite",
+                tables, CIPTableMetrics::getCalciteFilterRowsOut);
+        counter(out, "cip_table_cache_hits_total", "Queries answered from the result cache", tables,
+                CIPTableMetrics::getCacheHitCount);
+        counter(out, "cip_table_cache_misses_total", "Queries not found in the result cache", tables,
+                CIPTableMetrics::getCacheMissCount);
+        help(out, "cip_table_pending_inserts", "Inserted rows not written to Postgres yet", "gauge");
+        for (CIPTableMetrics table : tables) {
+            sample(out, "cip_table_pending_inserts", label("table", table.getTable()), table.getPendingInsertCount());
+        }
+        help(out, "cip_table_first_row_seconds", "Time from running a query to its first row", "histogram");
+        for (CIPTableMetrics table : tables) {
+            table.getFirstRowHistogram().writePrometheus(out, "cip_table_first_row_seconds",
+                    label("table", table.getTable()));
+        }
+        help(out, "cip_table_scan_seconds", "Time from running a query to closing it", "histogram");
+        for (CIPTableMetrics table : tables) {
+            table.getScanHistogram().writePrometheus(out, "cip_table_scan_seconds", label("table", table.getTable()));
+        }
+
+        List<CIPConnectionPool> pools = new ArrayList<>(POOLS.keySet());
+        help(out, "cip_pool_active_connections", "Connections borrowed", "gauge");
+        for (CIPConnectionPool pool : pools) {
+            sample(out, "cip_pool_active_connections", label("pool", pool.getUrl()), pool.getActiveCount());
+        }
+        help(out, "cip_pool_idle_connections", "Connections open and waiting in the pool", "gauge");
+        for (CIPConnectionPool pool : pools) {
+            sample(out, "cip_pool_idle_connections", label("pool", pool.getUrl()), pool.getIdleCount());
+        }
+        help(out, "cip_pool_borrow_failures_total", "Borrows that timed out or failed to connect", "counter");
+        for (CIPConnectionPool pool : pools) {
+            sample(out, "cip_pool_borrow_failures_total", label("pool", pool.getUrl()),
+                    pool.getBorrowFailureCount());
+        }
+        help(out, "cip_pool_wait_seconds", "Time waited to borrow a connection", "histogram");
+        for (CIPConnectionPool pool : pools) {
+            pool.getWaitHistogram().writePrometheus(out, "cip_pool_wait_seconds", label("pool", pool.getUrl()));
+        }
+
+        List<CIPRollupTable> rollups = new ArrayList<>(ROLLUPS.values());
+        help(out, "cip_rollup_rows", "Rows in the rollup", "gauge");
+        for (CIPRollupTable rollup : rollups) {
+            sample(out, "cip_rollup_rows", rollupLabels(rollup), rollup.getRowCount());
+        }
+        help(out, "cip_rollup_fresh", "1 if the rollup is built and includes every insert through the table, else 0", "gauge");
+        for (CIPRollupTable rollup : rollups) {
+            sample(out, "cip_rollup_fresh", rollupLabels(rollup), "FRESH".equals(rollup.getStatus()) ? 1 : 0);
+        }
+        help(out, "cip_rollup_last_refresh_seconds", "Time the rollup was last built, since the epoch", "gauge");
+        for (CIPRollupTable rollup : rollups) {
+            sample(out, "cip_rollup_last_refresh_seconds", rollupLabels(rollup),
+                    rollup.getLastRefreshMillis() / 1000.0);
+        }
+        help(out, "cip_rollup_refreshes_total", "Builds of the rollup", "counter");
+        for (CIPRollupTable rollup : rollups) {
+            sample(out, "cip_rollup_refreshes_total", rollupLabels(rollup), rollup.getRefreshCount());
+        }
+        help(out, "cip_rollup_served_total", "Queries that read the rollup", "counter");
+        for (CIPRollupTable rollup : rollups) {
+            sample(out, "cip_rollup_served_total", rollupLabels(rollup), rollup.getServedCount());
+        }
+
+        CIPPlanCache cache = planCache;
+        if (cache != null) {
+            help(out, "cip_plan_cache_statements", "Prepared statements in the plan cache", "gauge");
+            sample(out, "cip_plan_cache_statements", "", cache.getSize());
+            help(out, "cip_plan_cache_hits_total", "Statements prepared from the plan cache", "counter");
+            sample(out, "cip_plan_cache_hits_total", "", cache.getHitCount());
+            help(out, "cip_plan_cache_misses_total", "Statements planned because they were not cached", "counter");
+            sample(out, "cip_plan_cache_misses_total", "", cache.getMissCount());
+        }
+    }
+
+    private static void counter(StringBuilder out, String name, String help, List<CIPTableMetrics> tables,
+                                ToDoubleFunction<CIPTableMetrics> value) {
+        help(out, name, help, "counter");
+        for (CIPTableMetrics table : tables) {
+            sample(out, name, label("table", table.getTable()), value.applyAsDouble(table));
+        }
+    }
+
+    private static String rollupLabels(CIPRollupTable rollup) {
+        return label("rollup", rollup.getName()) + "," + label("table", rollup.getTable());
+    }
+
+    /**
+     * Appends the HELP and TYPE lines of a metric
+     */
+    public static void help(StringBuilder out, String name, String help, String type) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    /**
+     * Appends one sample of a metric
+     * @param labels labels of the sample, or empty
+     */
+    public static void sample(StringBuilder out, String name, String labels, double value) {
+        out.append(name);
+        if (!labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ');
+        if (value == Math.rint(value) && !Double.isInfinite(value)) {
+            out.append((long) value);
+        } else {
+            out.append(value);
+        }
+        out.append('\n');
+    }
+
+    /**
+     * Formats a label with its value escaped
+     */
+    public static String label(String name, String value) {
+        return name + "=\"" + value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n") + "\"";
+    }
+}
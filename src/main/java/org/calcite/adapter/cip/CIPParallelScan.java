@@ -0,0 +1,375 @@
+package org.calcite.adapter.cip;
+
+import org.apache.calcite.linq4j.AbstractEnumerable;
+import org.apache.calcite.linq4j.Enumerator;
+import org.cip.CIPFieldType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Scan of a CIP table split into range partitions that run concurrently on
+ * separate pooled connections.
+ *
+ * A table is partitioned on an integer split column, or on ranges of ctid
+ * blocks if it has none. Ranges of the split column are cut from its
+ * smallest and largest value as of the last statistics refresh; the first
+ * and last range are open, so values outside those bounds are still read.
+ * Ctid ranges need the TID range scan of Postgres 14; older servers would
+ * read the whole table for every partition, so those tables are scanned
+ * by a single query. The generated query gets a range predicate with
+ * placeholders that are bound per partition, see {@link #split}. Each
+ * partition is read on its own thread by a CIPPrefetchEnumerator, whose
+ * bounded queues stop the fetch while the consumer falls behind. At most
+ * parallelism partitions are read at a time, or two if they are returned
+ * in order.
+ *
+ * All partitions read the snapshot exported by a transaction that is held
+ * open, on one more pooled connection, until every partition has started.
+ * Partitions only run in a transaction when they read through a cursor,
+ * i.e. with a fetch size; without one, each partition reads its own
+ * snapshot.
+ *
+ * Rows are returned in the order they arrive, unless the query is ordered
+ * by the split column; then partitions are returned one after another in
+ * range order and each one is sorted by Postgres.
+ */
+class CIPParallelScan extends AbstractEnumerable<Object> {
+
+    private static final Logger logger = LoggerFactory.getLogger(CIPParallelScan.class);
+
+    static final String CTID = "ctid";
+
+    // First server_version_num with TID range scans
+    static final int TID_RANGE_SCAN_VERSION = 140000;
+
+    // Partitions read at a time when they are returned in order: the one
+    // being consumed and the next. Later ones would only hold idle connections.
+    private static final int ORDERED_PRODUCERS = 2;
+
+    /** Order in which partitions are returned */
+    enum Order {
+        // As rows arrive from any partition
+        NONE,
+        ASCENDING,
+        DESCENDING
+    }
+
+    /**
+     * How a generated query is split
+     */
+    static class Split {
+        final String predicate;
+        final Order order;
+        // Whether rows with a null split column come after all others
+        final boolean nullsLast;
+
+        Split(String predicate, Order order, boolean nullsLast) {
+            this.predicate = predicate;
+            this.order = order;
+            this.nullsLast = nullsLast;
+        }
+    }
+
+    private final CIPScannableTable table;
+    private final String query;
+    private final List<CIPFieldType> fieldTypes;
+    private final boolean arrayRows;
+    private final List<CIPFieldType> parameterTypes;
+    private final Object[] parameters;
+    private final Order order;
+    private final boolean nullsLast;
+    private final CIPCancellation cancellation;
+
+    CIPParallelScan(CIPScannableTable table, String query, List<CIPFieldType> fieldTypes, boolean arrayRows,
+                    List<CIPFieldType> parameterTypes, Object[] parameters, Order order, boolean nullsLast,
+                    CIPCancellation cancellation) {
+        this.table = table;
+        this.query = query;
+        this.fieldTypes = fieldTypes;
+        this.arrayRows = arrayRows;
+        this.parameterTypes = parameterTypes;
+        this.parameters = parameters;
+        this.order = order;
+        this.nullsLast = nullsLast;
+        this.cancellation = cancellation;
+    }
+
+    /**
+     * Whether scans of a table are split into partitions
+     */
+    static boolean isSplit(CIPScannableTable table) {
+        return table.getParallelism() > 1 && !table.isReplicated() && (table.getSplitColumn() != null
+                || table.getConnectionPool().getServerVersion() >= TID_RANGE_SCAN_VERSION);
+    }
+
+    /**
+     * Decides whether the query built by an implementor can be split into
+     * partitions of its table
+     * @return split, or null if the table is not partitioned or the query
+     *         is more than a filtered and projected scan of it
+     */
+    static Split split(CIPRel.Implementor implementor) {
+        CIPScannableTable table = implementor.table;
+        if (!isSplit(table) || implementor.joined
+                || implementor.isAggregated() || implementor.isLimited()
+                || !implementor.from.equals(table.fromItem())) {
+            return null;
+        }
+        String splitColumn = table.getSplitColumn();
+        String column = CIPFilterTranslator.quote(splitColumn == null ? CTID : splitColumn);
+        String predicate = predicate(table);
+        if (implementor.orderBy.isEmpty()) {
+            return new Split(predicate, Order.NONE, false);
+        }
+        // Only an order on the split column survives concatenating the partitions
+        String first = implementor.orderBy.get(0);
+        if (splitColumn == null) {
+            return null;
+        } else if (first.equals(column) || first.equals(column + " NULLS LAST")) {
+            return new Split(predicate, Order.ASCENDING, true);
+        } else if (first.equals(column + " NULLS FIRST")) {
+            return new Split(predicate, Order.ASCENDING, false);
+        } else if (first.equals(column + " DESC") || first.equals(column + " DESC NULLS FIRST")) {
+            return new Split(predicate, Order.DESCENDING, false);
+        } else if (first.equals(column + " DESC NULLS LAST")) {
+            return new Split(predicate, Order.DESCENDING, true);
+        }
+        return null;
+    }
+
+    /**
+     * Builds the range predicate that selects one partition of a table
+     * @return SQL with placeholders for the bounds of the range, inclusive for
+     *         a split column, plus one for whether the partition includes nulls
+     */
+    static String predicate(CIPScannableTable table) {
+        String splitColumn = table.getSplitColumn();
+        if (splitColumn == null) {
+            String column = CIPFilterTranslator.quote(CTID);
+            return "(" + column + " >= CAST(? AS tid) AND " + column + " < CAST(? AS tid))";
+        }
+        String column = CIPFilterTranslator.quote(splitColumn);
+        return "((" + column + " >= ? AND " + column + " <= ?) OR (" + column + " IS NULL AND ?))";
+    }
+
+    /**
+     * Computes the values bound to the range predicate of each partition, in
+     * the order the partitions are returned
+     */
+    private List<Object[]> partitions() throws SQLException {
+        int parallelism = table.getParallelism();
+        List<Object[]> partitions = new ArrayList<>();
+        if (table.getSplitColumn() == null) {
+            long blocks;
+            try (Connection connection = table.getConnectionPool().getConnection();
+                 PreparedStatement statement = connection.prepareStatement(
+                         "SELECT pg_relation_size(CAST(? AS regclass)) / current_setting('block_size')::bigint")) {
+                statement.setString(1, table.fromItem());
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    resultSet.next();
+                    blocks = resultSet.getLong(1);
+                }
+            }
+            long step = Math.max(1, (blocks + parallelism - 1) / parallelism);
+            for (long low = 0; low < blocks || partitions.isEmpty(); low += step) {
+                // The last range is open so rows added during the scan are not lost
+                String high = low + step >= blocks ? "(4294967295,0)" : "(" + (low + step) + ",0)";
+                partitions.add(new Object[] {"(" + low + ",0)", high});
+            }
+            return partitions;
+        }
+
+        CIPTableStatistics statistics = table.getTableStatistics();
+        if (statistics.getSplitMin() == null) {
+            partitions.add(new Object[] {Long.MIN_VALUE, Long.MAX_VALUE, true});
+            return partitions;
+        }
+        long min = statistics.getSplitMin();
+        long max = statistics.getSplitMax();
+        // The span of the values may exceed Long.MAX_VALUE, so it is unsigned
+        long step = Math.max(1, Long.divideUnsigned(max - min, parallelism));
+        for (long low = min; ; low += step) {
+            // The last range also takes the remainder of the division
+            boolean last = partitions.size() == parallelism - 1 || Long.compareUnsigned(max - low, step) < 0;
+            partitions.add(new Object[] {partitions.isEmpty() ? Long.MIN_VALUE : low,
+                    last ? Long.MAX_VALUE : low + step - 1, false});
+            if (last) {
+                break;
+            }
+        }
+        if (order == Order.DESCENDING) {
+            Collections.reverse(partitions);
+        }
+        // Null split values go with the partition returned first or last
+        partitions.get(nullsLast ? partitions.size() - 1 : 0)[2] = true;
+        return partitions;
+    }
+
+    @Override
+    public Enumerator<Object> enumerator() {
+        List<Object[]> partitions;
+        try {
+            partitions = partitions();
+        } catch (SQLException e) {
+            throw new RuntimeException("Error computing partitions of table " + table.getTableAlias(), e);
+        }
+        logger.debug(String.format("scanning table '%s' in %d partitions: %s %s", table.getTableAlias(),
+                partitions.size(), query, Arrays.toString(parameters)));
+        // Without a fetch size the partitions run in autocommit mode, where a
+        // snapshot cannot be imported
+        SharedSnapshot snapshot = table.getFetchSize() > 0
+                ? SharedSnapshot.export(table, partitions.size()) : null;
+        List<Supplier<Enumerator<Object>>> sources = new ArrayList<>();
+        for (Object[] range : partitions) {
+            sources.add(() -> new CIPScannableTable.LazyFetchingEnumerator<>(table.getConnectionPool(), query,
+                    table.getFetchSize(), fieldTypes, arrayRows, statement -> {
+                        if (snapshot != null) {
+                            snapshot.importInto(statement.getConnection());
+                        }
+                        CIPScannableTable.bind(statement, parameterTypes, parameters);
+                        for (int i = 0; i < range.length; i++) {
+                            statement.setObject(parameters.length + i + 1, range[i]);
+                        }
+                    }, cancellation));
+        }
+        boolean ordered = order != Order.NONE;
+        int producers = ordered ? Math.min(ORDERED_PRODUCERS, table.getParallelism()) : table.getParallelism();
+        Enumerator<Object> enumerator = new CIPPrefetchEnumerator<>(sources, ordered, table.getPrefetchBatchSize(),
+                table.getPrefetchQueueDepth(), producers);
+        if (snapshot == null) {
+            return enumerator;
+        }
+        return new Enumerator<Object>() {
+            @Override
+            public Object current() {
+                return enumerator.current();
+            }
+
+            @Override
+            public boolean moveNext() {
+                return enumerator.moveNext();
+            }
+
+            @Override
+            public void reset() {
+                enumerator.reset();
+            }
+
+            @Override
+            public void close() {
+                try {
+                    enumerator.close();
+                } finally {
+                    // Partitions that never started no longer need the snapshot
+                    snapshot.close();
+                }
+            }
+        };
+    }
+
+    /**
+     * Snapshot exported by a repeatable read transaction, which is kept open
+     * until every partition has imported the snapshot or the scan is closed
+     */
+    static class SharedSnapshot implements AutoCloseable {
+        private final String id;
+        private Connection connection;
+        // Partitions that have not imported the snapshot yet
+        private int pending;
+
+        private SharedSnapshot(String id, Connection connection, int pending) {
+            this.id = id;
+            this.connection = connection;
+            this.pending = pending;
+        }
+
+        /**
+         * Exports a snapshot for the partitions of a scan
+         * @param imports number of partitions that import it
+         * @return snapshot, or null if the database could not export one;
+         *         the partitions then read separate snapshots
+         */
+        static SharedSnapshot export(CIPScannableTable table, int imports) {
+            Connection connection = null;
+            try {
+                connection = table.getConnectionPool().getConnection();
+                connection.setAutoCommit(false);
+                try (Statement statement = connection.createStatement()) {
+                    beginRepeatableRead(connection, statement);
+                    try (ResultSet resultSet = statement.executeQuery("SELECT pg_export_snapshot()")) {
+                        resultSet.next();
+                        return new SharedSnapshot(resultSet.getString(1), connection, imports);
+                    }
+                }
+            } catch (SQLException e) {
+                logger.warn(String.format("partitions of table '%s' read separate snapshots: %s",
+                        table.getTableAlias(), e.getMessage()));
+                release(connection);
+                return null;
+            }
+        }
+
+        /**
+         * Starts the transaction of a partition on the snapshot; runs before
+         * the partition's query, in the transaction it starts
+         */
+        void importInto(Connection partitionConnection) throws SQLException {
+            try (Statement statement = partitionConnection.createStatement()) {
+                beginRepeatableRead(partitionConnection, statement);
+                statement.execute("SET TRANSACTION SNAPSHOT '" + id + "'");
+            }
+            synchronized (this) {
+                if (--pending == 0) {
+                    close();
+                }
+            }
+        }
+
+        /**
+         * Starts a repeatable read transaction on a connection in manual
+         * commit mode
+         */
+        private static void beginRepeatableRead(Connection connection, Statement statement) throws SQLException {
+            // The driver may already have run a query, e.g. current_schema(),
+            // in the open transaction; the isolation level must come first
+            connection.commit();
+            statement.execute("SET TRANSACTION ISOLATION LEVEL REPEATABLE READ");
+        }
+
+        @Override
+        public synchronized void close() {
+            release(connection);
+            connection = null;
+        }
+
+        /**
+         * Ends the exporting transaction and returns its connection to the pool
+         */
+        private static void release(Connection connection) {
+            if (connection == null) {
+                return;
+            }
+            try {
+                try {
+                    connection.setAutoCommit(true);
+                } finally {
+                    connection.close();
+                }
+            } catch (SQLException e) {
+                logger.warn("error releasing exported snapshot", e);
+            }
+        }
+    }
+}
+
@@ -0,0 +1,152 @@
+package org.calcite.adapter.cip;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import org.apache.calcite.avatica.Meta;
+import org.apache.calcite.config.CalciteConnectionConfig;
+import org.apache.calcite.jdbc.CalcitePrepare;
+import org.apache.calcite.jdbc.CalcitePrepare.CalciteSignature;
+import org.apache.calcite.jdbc.CalciteSchema;
+import org.apache.calcite.sql.SqlOperatorTable;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Bounded cache of prepared statements: the plan, the generated code and the
+ * result metadata of a SQL statement, so that preparing the same statement
+ * again skips parsing, validation, planning and code generation.
+ *
+ * Entries are keyed by the SQL with its whitespace normalized, the
+ * connection settings planning depends on, and the version of the table
+ * metadata and statistics of every CIP schema in the connection. Reloading
+ * table_metadata.json or a significant change in the statistics of a table
+ * therefore makes the statements prepared again; the old entries are evicted
+ * as the least recently used.
+ */
+public class CIPPlanCache implements CIPPlanCacheMBean {
+
+    /** System property with the maximum number of statements; 0 disables the cache */
+    public static final String SIZE_PROPERTY = "cip.planCacheSize";
+
+    public static final long DEFAULT_SIZE = 1000;
+
+    private final long maxSize;
+
+    private final Cache<List<Object>, CalciteSignature<?>> signatures;
+
+    public CIPPlanCache(long maxSize) {
+        this.maxSize = maxSize;
+        this.signatures = CacheBuilder.newBuilder().maximumSize(maxSize).recordStats().build();
+    }
+
+    /**
+     * Gets the key of a statement in a connection
+     */
+    List<Object> key(CalcitePrepare.Context context, String sql, Type elementType, long maxRowCount) {
+        CalciteConnectionConfig config = context.config();
+        List<Object> key = new ArrayList<>(Arrays.asList(normalize(sql), context.getDefaultSchemaPath(),
+                elementType, maxRowCount, config.model(), config.lex(), config.quoting(), config.unquotedCasing(),
+                config.quotedCasing(), config.caseSensitive(), config.conformance(), config.fun(SqlOperatorTable.class, null),
+                config.defaultNullCollation(), config.forceDecorrelate(), config.typeCoercion(),
+                config.lenientOperatorLookup(), config.approximateDistinctCount(), config.approximateTopN(),
+                config.approximateDecimal(), config.materializationsEnabled(), config.timeZone()));
+        // The root schema is created per connection; the schemas under it are what plans depend on
+        for (CalciteSchema schema : context.getRootSchema().getSubSchemaMap().values()) {
+            addSchemas(schema, key);
+        }
+        return key;
+    }
+
+    private static void addSchemas(CalciteSchema schema, List<Object> key) {
+        key.add(schema.getName());
+        key.add(schema.schema);
+        if (schema.schema instanceof CIPSchema) {
+            key.add(((CIPSchema) schema.schema).getPlanVersion());
+        }
+        for (CalciteSchema subSchema : schema.getSubSchemaMap().values()) {
+            addSchemas(subSchema, key);
+        }
+    }
+
+    /**
+     * Collapses whitespace outside quoted identifiers and literals into a single space
+     */
+    static String normalize(String sql) {
+        StringBuilder normalized = new StringBuilder(sql.length());
+        char quote = 0;
+        boolean space = false;
+        for (int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (quote == 0 && Character.isWhitespace(c)) {
+                space = true;
+                continue;
+            }
+            if (space && normalized.length() > 0) {
+                normalized.append(' ');
+            }
+            space = false;
+            if (quote == 0 && (c == '\'' || c == '"' || c == '`')) {
+                quote = c;
+            } else if (c == quote) {
+                quote = 0;
+            }
+            normalized.append(c);
+        }
+        return normalized.toString();
+    }
+
+    @SuppressWarnings("unchecked")
+    <T> CalciteSignature<T> get(List<Object> key) {
+        return (CalciteSignature<T>) signatures.getIfPresent(key);
+    }
+
+    /**
+     * Caches a prepared statement. DDL and other statements that do their
+     * work while being prepared are not cached.
+     */
+    void put(List<Object> key, CalciteSignature<?> signature) {
+        if (signature.statementType == Meta.StatementType.SELECT || signature.statementType.canUpdate()) {
+            signatures.put(key, signature);
+        }
+    }
+
+    @Override
+    public long getSize() {
+        return signatures.size();
+    }
+
+    @Override
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    @Override
+    public long getHitCount() {
+        return signatures.stats().hitCount();
+    }
+
+    @Override
+    public long getMissCount() {
+        return signatures.stats().missCount();
+    }
+
+    @Override
+    public long getEvictionCount() {
+        return signatures.stats().evictionCount();
+    }
+
+    @Override
+    public double getHitRate() {
+        CacheStats stats = signatures.stats();
+        return stats.requestCount() == 0 ? 0 : stats.hitRate();
+    }
+
+    @Override
+    public void clear() {
+        signatures.invalidateAll();
+    }
+}
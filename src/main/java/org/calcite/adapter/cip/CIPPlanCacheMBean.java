@@ -0,0 +1,21 @@
+package org.calcite.adapter.cip;
+
+/**
+ * JMX view of {@link CIPPlanCache}
+ */
+public interface CIPPlanCacheMBean {
+
+    long getSize();
+
+    long getMaxSize();
+
+    long getHitCount();
+
+    long getMissCount();
+
+    long getEvictionCount();
+
+    double getHitRate();
+
+    void clear();
+}
@@ -0,0 +1,263 @@
+package org.calcite.adapter.cip;
+
+import com.google.common.base.Throwables;
+import org.apache.calcite.linq4j.Enumerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Enumerator whose rows are read on background threads. Each source is
+ * opened and drained by its own producer task, which decodes rows into
+ * fixed-size batches and passes them to the consumer through a bounded
+ * queue; a producer waits while its queue is full. At most a given number
+ * of producers run at a time; the other sources are opened, in order, as
+ * running producers finish.
+ *
+ * Rows of several sources are returned in arrival order, or source by
+ * source if ordered. Closing the enumerator cancels the queries still
+ * running and waits, for a bounded time, until the producers have closed
+ * their sources, so connections are normally back in the pool when close()
+ * returns.
+ */
+class CIPPrefetchEnumerator<E> implements Enumerator<E> {
+
+    private static final Logger logger = LoggerFactory.getLogger(CIPPrefetchEnumerator.class);
+
+    // Every producer holds a pooled connection, so the connection pool and
+    // the producer limit of each enumerator bound the number of busy threads.
+    // A fixed-size executor could deadlock when one thread consumes two scans
+    // alternately, e.g. in a merge join.
+    private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "cip-prefetch");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // How often a producer waiting for room checks whether the enumerator was closed
+    private static final long POLL_MILLIS = 100;
+
+    // How long close() waits for the producers after canceling their queries
+    private static final long CLOSE_WAIT_MILLIS = 10_000;
+
+    // One queue per source when ordered, else one shared by all
+    private final List<BlockingQueue<Batch<E>>> queues = new ArrayList<>();
+    private final List<Supplier<Enumerator<E>>> sources;
+    private final int sourceCount;
+    // Index of the next source to open
+    private final AtomicInteger nextSource = new AtomicInteger();
+    private final boolean ordered;
+    private final int batchSize;
+    private final CountDownLatch producersDone;
+    // Sources being read, canceled on close
+    private final Set<Enumerator<E>> open = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed;
+
+    private int queueIndex;
+    private int finished;
+    private List<E> rows = Collections.emptyList();
+    private int row = -1;
+
+    /**
+     * Starts reading the first sources
+     * @param sources open the enumerators to read; called on a producer thread
+     * @param ordered whether to return the rows source by source
+     * @param batchSize rows handed to the consumer at a time
+     * @param queueDepth batches each source may read ahead of the consumer
+     * @param maxProducers sources read at a time, i.e. connections held
+     */
+    CIPPrefetchEnumerator(List<Supplier<Enumerator<E>>> sources, boolean ordered, int batchSize, int queueDepth,
+                          int maxProducers) {
+        this.sources = sources;
+        this.sourceCount = sources.size();
+        this.ordered = ordered;
+        this.batchSize = Math.max(1, batchSize);
+        int depth = Math.max(1, queueDepth);
+        this.producersDone = new CountDownLatch(sourceCount);
+        int producers = Math.max(1, Math.min(maxProducers, sourceCount));
+        if (ordered) {
+            for (int i = 0; i < sourceCount; i++) {
+                queues.add(new ArrayBlockingQueue<>(depth));
+            }
+        } else {
+            queues.add(new ArrayBlockingQueue<>(depth * producers));
+        }
+        for (int i = 0; i < producers; i++) {
+            startNext();
+        }
+    }
+
+    /**
+     * Starts a producer for the next source, if any is left
+     */
+    private void startNext() {
+        int index = nextSource.getAndIncrement();
+        if (index >= sourceCount) {
+            return;
+        }
+        if (closed) {
+            producersDone.countDown();
+            return;
+        }
+        BlockingQueue<Batch<E>> queue = queues.get(ordered ? index : 0);
+        EXECUTOR.execute(() -> produce(sources.get(index), queue));
+    }
+
+    /**
+     * Reads one source into its queue; runs on a producer thread
+     */
+    private void produce(Supplier<Enumerator<E>> source, BlockingQueue<Batch<E>> queue) {
+        // Whatever happens, the consumer gets an end batch unless it closed
+        Batch<E> end = null;
+        // Sources run their query on the first moveNext, once the enumerator
+        // is in open, so close() cancels a query that is still running
+        try (Enumerator<E> enumerator = source.get()) {
+            open.add(enumerator);
+            try {
+                List<E> batch = new ArrayList<>(batchSize);
+                while (!closed && enumerator.moveNext()) {
+                    batch.add(enumerator.current());
+                    if (batch.size() == batchSize) {
+                        if (!put(queue, new Batch<>(batch, false, null))) {
+                            return;
+                        }
+                        batch = new ArrayList<>(batchSize);
+                    }
+                }
+                end = new Batch<>(batch, true, null);
+            } finally {
+                open.remove(enumerator);
+            }
+        } catch (Throwable e) {
+            end = new Batch<>(Collections.emptyList(), true, e);
+        } finally {
+            try {
+                if (end != null) {
+                    put(queue, end);
+                }
+            } finally {
+                producersDone.countDown();
+                startNext();
+            }
+        }
+    }
+
+    /**
+     * Waits for room in a queue
+     * @return false if the enumerator was closed meanwhile
+     */
+    private boolean put(BlockingQueue<Batch<E>> queue, Batch<E> batch) {
+        try {
+            while (!closed) {
+                if (queue.offer(batch, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                    return true;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    @Override
+    public E current() {
+        if (row < 0 || row >= rows.size()) {
+            throw new NoSuchElementException();
+        }
+        return rows.get(row);
+    }
+
+    @Override
+    public boolean moveNext() {
+        while (++row >= rows.size()) {
+            if (finished == sourceCount) {
+                return false;
+            }
+            Batch<E> batch;
+            try {
+                batch = queues.get(queueIndex).take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while waiting for rows", e);
+            }
+            if (batch.error != null) {
+                Throwables.throwIfUnchecked(batch.error);
+                throw new RuntimeException(batch.error);
+            }
+            if (batch.last) {
+                finished++;
+                if (ordered) {
+                    queueIndex++;
+                }
+            }
+            rows = batch.rows;
+            row = -1;
+        }
+        return true;
+    }
+
+    @Override
+    public void reset() {
+        throw new UnsupportedOperationException("Reset operation not supported");
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        // Sources not opened yet never will be
+        while (nextSource.getAndIncrement() < sourceCount) {
+            producersDone.countDown();
+        }
+        for (BlockingQueue<Batch<E>> queue : queues) {
+            queue.clear();
+        }
+        // Producers waiting for room notice within one poll interval; those
+        // waiting for Postgres fail at their next row once canceled
+        for (Enumerator<E> enumerator : open) {
+            if (enumerator instanceof CIPCancellation.Cancelable) {
+                ((CIPCancellation.Cancelable) enumerator).cancel();
+            }
+        }
+        try {
+            if (!producersDone.await(CLOSE_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+                logger.warn(String.format("%d of %d prefetch producers still running after %d ms; their"
+                        + " connections return to the pool when they stop", producersDone.getCount(), sourceCount,
+                        CLOSE_WAIT_MILLIS));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Rows read by a producer, or the end of its source
+     */
+    private static class Batch<E> {
+        final List<E> rows;
+        final boolean last;
+        final Throwable error;
+
+        Batch(List<E> rows, boolean last, Throwable error) {
+            this.rows = rows;
+            this.last = last;
+            this.error = error;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package org.calcite.adapter.cip;
+
+import org.apache.calcite.jdbc.CalcitePrepare;
+import org.apache.calcite.prepare.CalcitePrepareImpl;
+
+import java.lang.reflect.Type;
+import java.util.List;
+
+/**
+ * Prepares statements of {@link CIPDriver} connections, reusing the prepared
+ * statements in a {@link CIPPlanCache}
+ */
+public class CIPPrepare extends CalcitePrepareImpl {
+
+    private final CIPPlanCache planCache;
+
+    public CIPPrepare(CIPPlanCache planCache) {
+        this.planCache = planCache;
+    }
+
+    @Override
+    public <T> CalciteSignature<T> prepareSql(Context context, Query<T> query, Type elementType, long maxRowCount) {
+        // Statements prepared from a relational expression or queryable have no SQL to key them by
+        if (query.sql == null) {
+            return super.prepareSql(context, query, elementType, maxRowCount);
+        }
+        List<Object> key = planCache.key(context, query.sql, elementType, maxRowCount);
+        CalciteSignature<T> cached = planCache.get(key);
+        if (cached != null) {
+            // Same plan and code, bound to the schemas of this connection; the cached signature limits the rows
+            return new CalciteSignature<>(query.sql, cached.parameters, cached.internalParameters, cached.rowType,
+                    cached.columns, cached.cursorFactory, context.getRootSchema(), cached.getCollationList(), -1,
+                    cached::enumerable, cached.statementType);
+        }
+        CalciteSignature<T> signature = super.prepareSql(context, query, elementType, maxRowCount);
+        planCache.put(key, signature);
+        return signature;
+    }
+}
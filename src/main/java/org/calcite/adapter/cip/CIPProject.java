@@ -0,0 +1,55 @@
+package org.calcite.adapter.cip;
+
+import com.google.common.collect.ImmutableList;
+import org.apache.calcite.plan.RelOptCluster;
+import org.apache.calcite.plan.RelOptCost;
+import org.apache.calcite.plan.RelOptPlanner;
+import org.apache.calcite.plan.RelOptUtil;
+import org.apache.calcite.plan.RelTraitSet;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.Project;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.util.ImmutableBitSet;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Projection evaluated by Postgres as the select list.
+ */
+public class CIPProject extends Project implements CIPRel {
+
+    public CIPProject(RelOptCluster cluster, RelTraitSet traitSet, RelNode input,
+                      List<? extends RexNode> projects, RelDataType rowType) {
+        super(cluster, traitSet, ImmutableList.of(), input, projects, rowType);
+        assert getConvention() == CIPRel.CONVENTION;
+    }
+
+    @Override
+    public Project copy(RelTraitSet traitSet, RelNode input, List<RexNode> projects, RelDataType rowType) {
+        return new CIPProject(getCluster(), traitSet, input, projects, rowType);
+    }
+
+    @Override
+    public RelOptCost computeSelfCost(RelOptPlanner planner, RelMetadataQuery mq) {
+        return super.computeSelfCost(planner, mq).multiplyBy(0.1);
+    }
+
+    @Override
+    public void implement(Implementor implementor) {
+        implementor.visitChild(0, getInput());
+        CIPFilterTranslator translator = implementor.translator();
+        List<String> selectList = new ArrayList<>();
+        ImmutableBitSet.Builder constants = ImmutableBitSet.builder();
+        for (RexNode project : getProjects()) {
+            if (implementor.constants.contains(RelOptUtil.InputFinder.bits(project))) {
+                constants.set(selectList.size());
+            }
+            selectList.add(translator.translateExpression(project));
+        }
+        implementor.selectList = selectList;
+        implementor.constants = constants.build();
+    }
+}
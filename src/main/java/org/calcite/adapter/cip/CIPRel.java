@@ -0,0 +1,250 @@
+package org.calcite.adapter.cip;
+
+import org.apache.calcite.plan.Convention;
+import org.apache.calcite.plan.RelOptTable;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rex.RexBuilder;
+import org.apache.calcite.util.ImmutableBitSet;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Relational expression that is evaluated by Postgres as part of the single
+ * SQL statement generated for a CIP query.
+ */
+public interface CIPRel extends RelNode {
+
+    /** Calling convention for relational operations that occur in Postgres */
+    Convention CONVENTION = new Convention.Impl("CIP", CIPRel.class);
+
+    /**
+     * Adds this operation to the SQL being built by the implementor
+     * @param implementor
+     */
+    void implement(Implementor implementor);
+
+    /**
+     * Builds a SELECT statement bottom-up from a tree of CIPRel nodes.
+     *
+     * Each clause holds SQL over the current FROM item. When an operation
+     * cannot be added at the current level (e.g. a filter on top of an
+     * aggregate or a limit), the statement built so far becomes a sub-query
+     * and a new level starts on top of it.
+     */
+    class Implementor {
+
+        final RexBuilder rexBuilder;
+
+        // Table that runs the query; its connection pool is used for execution
+        CIPScannableTable table;
+        RelOptTable relOptTable;
+
+        String from;
+        // Column references that the FROM item provides
+        List<String> fromFields = new ArrayList<>();
+        // Whether the FROM item is a join rather than a single table or sub-query
+        boolean joined;
+
+        // SQL expression for each output field of the rel implemented so far
+        List<String> selectList = new ArrayList<>();
+        // Fields of the select list whose SQL references no column, e.g. a
+        // projected literal. Postgres reads an integer literal in GROUP BY or
+        // ORDER BY as a select list position, so constants are left out there.
+        ImmutableBitSet constants = ImmutableBitSet.of();
+        List<String> where = new ArrayList<>();
+        // Bind parameters of the FROM item and of the WHERE clause, in placeholder
+        // order; the select list, GROUP BY and ORDER BY never have placeholders
+        List<CIPFilterTranslator.Parameter> fromParameters = new ArrayList<>();
+        List<CIPFilterTranslator.Parameter> whereParameters = new ArrayList<>();
+        // Non-null once an aggregate was added at this level
+        List<String> groupBy;
+        // Set when every grouping key is constant, so an empty input still has no groups
+        String having;
+        List<String> orderBy = new ArrayList<>();
+        Long offset;
+        Long fetch;
+
+        // Sub-query and table aliases are numbered across the whole statement
+        private final Implementor root;
+        private int aliasCount;
+        // Every table the statement reads, in the order they were visited
+        private final Map<CIPScannableTable, RelOptTable> tables = new LinkedHashMap<>();
+
+        public Implementor(RexBuilder rexBuilder) {
+            this.rexBuilder = rexBuilder;
+            this.root = this;
+        }
+
+        private Implementor(Implementor parent) {
+            this.rexBuilder = parent.rexBuilder;
+            this.root = parent.root;
+        }
+
+        public void visitChild(int ordinal, RelNode input) {
+            assert ordinal == 0;
+            ((CIPRel) input).implement(this);
+        }
+
+        /**
+         * Implements one input of a join in its own implementor
+         * @param input
+         * @param parenthesize whether a nested join must be parenthesized,
+         *                     i.e. the input is not the left-most FROM item
+         * @return implementor whose FROM item and qualified select list can be
+         *         joined with others
+         */
+        Implementor visitJoinInput(RelNode input, boolean parenthesize) {
+            Implementor child = new Implementor(this);
+            ((CIPRel) input).implement(child);
+            boolean plain = child.where.isEmpty() && !child.isAggregated() && child.orderBy.isEmpty()
+                    && !child.isLimited() && child.selectList.equals(child.fromFields);
+            if (!plain) {
+                child.wrap();
+            } else if (child.joined) {
+                if (parenthesize) {
+                    child.from = "(" + child.from + ")";
+                }
+            } else {
+                // A table scan: alias the table so its columns can be qualified
+                String alias = root.newAlias();
+                child.from = child.from + " AS " + alias;
+                List<String> qualified = new ArrayList<>();
+                for (String field : child.fromFields) {
+                    qualified.add(alias + "." + field);
+                }
+                child.fromFields = qualified;
+                child.selectList = qualified;
+            }
+            return child;
+        }
+
+        private String newAlias() {
+            return "t" + aliasCount++;
+        }
+
+        /**
+         * Records a table scanned by the statement and makes it the table
+         * that runs the query built so far
+         */
+        void visitTable(CIPScannableTable table, RelOptTable relOptTable) {
+            this.table = table;
+            this.relOptTable = relOptTable;
+            root.tables.putIfAbsent(table, relOptTable);
+        }
+
+        /**
+         * Gets every table the statement reads, including those of joined
+         * inputs; the first is the table that runs the query
+         */
+        Map<CIPScannableTable, RelOptTable> tables() {
+            return root.tables;
+        }
+
+
+        /** Creates a translator over the output fields implemented so far */
+        CIPFilterTranslator translator() {
+            return new CIPFilterTranslator(rexBuilder, selectList);
+        }
+
+        /**
+         * Adds a predicate to the WHERE clause
+         * @param predicate SQL produced by the translator
+         * @param parameters bind parameters of the predicate
+         */
+        void addWhere(String predicate, List<CIPFilterTranslator.Parameter> parameters) {
+            where.add("(" + predicate + ")");
+            whereParameters.addAll(parameters);
+        }
+
+        /**
+         * Gets the bind parameters of the statement built so far
+         * @return parameters in placeholder order
+         */
+        public List<CIPFilterTranslator.Parameter> parameters() {
+            List<CIPFilterTranslator.Parameter> parameters = new ArrayList<>(fromParameters);
+            parameters.addAll(whereParameters);
+            return parameters;
+        }
+
+        boolean isAggregated() {
+            return groupBy != null;
+        }
+
+        boolean isLimited() {
+            return offset != null || fetch != null;
+        }
+
+        /**
+         * Turns the statement built so far into a sub-query, so that further
+         * operations apply to its result
+         */
+        void wrap() {
+            String alias = root.newAlias();
+            int fieldCount = selectList.size();
+            from = "(" + toSql(true) + ") AS " + alias;
+            fromParameters = parameters();
+            whereParameters = new ArrayList<>();
+            joined = false;
+            selectList = new ArrayList<>();
+            for (int i = 0; i < fieldCount; i++) {
+                selectList.add(alias + "." + CIPFilterTranslator.quote("c" + i));
+            }
+            fromFields = selectList;
+            constants = ImmutableBitSet.of();
+            where = new ArrayList<>();
+            groupBy = null;
+            having = null;
+            orderBy = new ArrayList<>();
+            offset = null;
+            fetch = null;
+        }
+
+        /**
+         * Generates the SELECT statement
+         * @return SQL
+         */
+        public String toSql() {
+            return toSql(false);
+        }
+
+        private String toSql(boolean aliasFields) {
+            StringBuilder sql = new StringBuilder("SELECT ");
+            if (selectList.isEmpty()) {
+                // No column is consumed, e.g. below COUNT(*)
+                sql.append("0");
+            }
+            for (int i = 0; i < selectList.size(); i++) {
+                if (i > 0) {
+                    sql.append(", ");
+                }
+                sql.append(selectList.get(i));
+                if (aliasFields) {
+                    sql.append(" AS ").append(CIPFilterTranslator.quote("c" + i));
+                }
+            }
+            sql.append(" FROM ").append(from);
+            if (!where.isEmpty()) {
+                sql.append(" WHERE ").append(String.join(" AND ", where));
+            }
+            if (groupBy != null && !groupBy.isEmpty()) {
+                sql.append(" GROUP BY ").append(String.join(", ", groupBy));
+            }
+            if (having != null) {
+                sql.append(" HAVING ").append(having);
+            }
+            if (!orderBy.isEmpty()) {
+                sql.append(" ORDER BY ").append(String.join(", ", orderBy));
+            }
+            if (fetch != null) {
+                sql.append(" LIMIT ").append(fetch);
+            }
+            if (offset != null) {
+                sql.append(" OFFSET ").append(offset);
+            }
+            return sql.toString();
+        }
+    }
+}
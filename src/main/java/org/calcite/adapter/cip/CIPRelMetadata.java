@@ -0,0 +1,177 @@
+package org.calcite.adapter.cip;
+
+import com.google.common.collect.ImmutableList;
+import org.apache.calcite.plan.RelOptCluster;
+import org.apache.calcite.plan.RelOptUtil;
+import org.apache.calcite.rel.metadata.BuiltInMetadata;
+import org.apache.calcite.rel.metadata.ChainedRelMetadataProvider;
+import org.apache.calcite.rel.metadata.MetadataDef;
+import org.apache.calcite.rel.metadata.MetadataHandler;
+import org.apache.calcite.rel.metadata.ReflectiveRelMetadataProvider;
+import org.apache.calcite.rel.metadata.RelMdUtil;
+import org.apache.calcite.rel.metadata.RelMetadataProvider;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
+import org.apache.calcite.rex.RexCall;
+import org.apache.calcite.rex.RexDynamicParam;
+import org.apache.calcite.rex.RexInputRef;
+import org.apache.calcite.rex.RexLiteral;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.sql.SqlKind;
+import org.apache.calcite.util.ImmutableBitSet;
+
+/**
+ * Metadata handlers that estimate the selectivity of predicates and the
+ * number of distinct values on a CIPTableScan from the column statistics in
+ * {@link CIPTableStatistics}. Without them Calcite guesses fixed
+ * selectivities, whatever the column.
+ */
+public class CIPRelMetadata {
+
+    private CIPRelMetadata() {
+    }
+
+    private static final RelMetadataProvider SOURCE = ChainedRelMetadataProvider.of(ImmutableList.of(
+            ReflectiveRelMetadataProvider.reflectiveSource(new Selectivity(),
+                    BuiltInMetadata.Selectivity.Handler.class),
+            ReflectiveRelMetadataProvider.reflectiveSource(new DistinctRowCount(),
+                    BuiltInMetadata.DistinctRowCount.Handler.class)));
+
+    /**
+     * Puts the CIP handlers in front of the cluster's metadata provider, once
+     */
+    static void register(RelOptCluster cluster) {
+        RelMetadataProvider provider = cluster.getMetadataProvider();
+        if (provider == null || provider instanceof Provider) {
+            return;
+        }
+        cluster.setMetadataProvider(new Provider(provider));
+        cluster.invalidateMetadataQuery();
+    }
+
+    private static class Provider extends ChainedRelMetadataProvider {
+        Provider(RelMetadataProvider next) {
+            super(ImmutableList.of(SOURCE, next));
+        }
+    }
+
+    /**
+     * Estimates the fraction of rows of a CIP table that satisfy a predicate
+     */
+    public static class Selectivity implements MetadataHandler<BuiltInMetadata.Selectivity> {
+
+        @Override
+        public MetadataDef<BuiltInMetadata.Selectivity> getDef() {
+            return BuiltInMetadata.Selectivity.DEF;
+        }
+
+        public Double getSelectivity(CIPTableScan scan, RelMetadataQuery mq, RexNode predicate) {
+            if (predicate == null || predicate.isAlwaysTrue()) {
+                return 1.0;
+            }
+            CIPTableStatistics statistics = scan.cipTable.getTableStatistics();
+            double selectivity = 1.0;
+            for (RexNode conjunction : RelOptUtil.conjunctions(predicate)) {
+                selectivity *= selectivity(statistics, conjunction);
+            }
+            return selectivity;
+        }
+
+        static double selectivity(CIPTableStatistics statistics, RexNode predicate) {
+            switch (predicate.getKind()) {
+                case OR:
+                    // Disjuncts on the same column, e.g. an IN list, rarely overlap
+                    double sum = 0;
+                    for (RexNode disjunction : RelOptUtil.disjunctions(predicate)) {
+                        sum += selectivity(statistics, disjunction);
+                    }
+                    return Math.min(sum, 1.0);
+                case EQUALS:
+                case NOT_EQUALS:
+                    int field = comparedField((RexCall) predicate);
+                    double distinct = field < 0 ? Double.NaN : statistics.getDistinctCount(field);
+                    double nonNull = field < 0 ? Double.NaN : 1.0 - statistics.getNullFraction(field);
+                    if (Double.isNaN(distinct) || Double.isNaN(nonNull) || distinct < 1) {
+                        break;
+                    }
+                    double equal = nonNull / distinct;
+                    return predicate.getKind() == SqlKind.EQUALS ? equal : nonNull - equal;
+                case IS_NULL:
+                case IS_NOT_NULL:
+                    RexNode operand = ((RexCall) predicate).getOperands().get(0);
+                    if (!(operand instanceof RexInputRef)) {
+                        break;
+                    }
+                    double nullFraction = statistics.getNullFraction(((RexInputRef) operand).getIndex());
+                    if (Double.isNaN(nullFraction)) {
+                        break;
+                    }
+                    return predicate.getKind() == SqlKind.IS_NULL ? nullFraction : 1.0 - nullFraction;
+                default:
+                    break;
+            }
+            return RelMdUtil.guessSelectivity(predicate);
+        }
+
+        /**
+         * Gets the column compared to a constant
+         * @return column index, or -1 if the comparison is not column against literal
+         */
+        private static int comparedField(RexCall call) {
+            RexNode left = call.getOperands().get(0);
+            RexNode right = call.getOperands().get(1);
+            if (left instanceof RexInputRef && isValue(right)) {
+                return ((RexInputRef) left).getIndex();
+            }
+            if (right instanceof RexInputRef && isValue(left)) {
+                return ((RexInputRef) right).getIndex();
+            }
+            return -1;
+        }
+
+        private static boolean isValue(RexNode node) {
+            return node instanceof RexLiteral || node instanceof RexDynamicParam;
+        }
+    }
+
+    /**
+     * Estimates the number of distinct values of a set of columns of a CIP
+     * table, among the rows that satisfy a predicate
+     */
+    public static class DistinctRowCount implements MetadataHandler<BuiltInMetadata.DistinctRowCount> {
+
+        @Override
+        public MetadataDef<BuiltInMetadata.DistinctRowCount> getDef() {
+            return BuiltInMetadata.DistinctRowCount.DEF;
+        }
+
+        public Double getDistinctRowCount(CIPTableScan scan, RelMetadataQuery mq, ImmutableBitSet groupKey,
+                                          RexNode predicate) {
+            if (groupKey.isEmpty()) {
+                return 1.0;
+            }
+            double rowCount = mq.getRowCount(scan);
+            Double selectivity = mq.getSelectivity(scan, predicate);
+            double filteredRowCount = Math.max(1.0, rowCount * (selectivity == null ? 1.0 : selectivity));
+            CIPTableStatistics statistics = scan.cipTable.getTableStatistics();
+            for (ImmutableBitSet key : statistics.getKeys()) {
+                if (groupKey.contains(key)) {
+                    return filteredRowCount;
+                }
+            }
+            // Columns are assumed independent; a column with unknown
+            // statistics may be unique
+            double distinct = 1.0;
+            for (int field : groupKey) {
+                double fieldDistinct = statistics.getDistinctCount(field);
+                if (Double.isNaN(fieldDistinct)) {
+                    fieldDistinct = rowCount;
+                } else if (statistics.getNullFraction(field) > 0) {
+                    fieldDistinct += 1;
+                }
+                distinct *= Math.max(fieldDistinct, 1.0);
+            }
+            distinct = Math.min(distinct, rowCount);
+            return RelMdUtil.numDistinctVals(distinct, filteredRowCount);
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package org.calcite.adapter.cip;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import org.apache.calcite.linq4j.Enumerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Bounded cache of query results for one CIP table, keyed by the generated
+ * SQL and its bind values. Only queries that read no other table are
+ * cached, since writes to a table invalidate its own cache alone.
+
+ *
+ * Entries expire a fixed time after they are loaded and the least recently
+ * used ones are evicted once the estimated size of all cached rows exceeds
+ * the byte budget. Concurrent misses on the same key wait for a single load,
+ * so Postgres runs the query once.
+ */
+public class CIPResultCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(CIPResultCache.class);
+
+    static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+    private final String name;
+
+    private final long ttlSeconds;
+
+    private final long maxBytes;
+
+    private final Cache<List<Object>, Result> cache;
+
+    /**
+     * @param name name of the table, for logging
+     * @param ttlSeconds time an entry stays valid after it is loaded
+     * @param maxBytes estimated size of all cached rows before entries are evicted
+     */
+    public CIPResultCache(String name, long ttlSeconds, long maxBytes) {
+        this.name = name;
+        this.ttlSeconds = ttlSeconds;
+        this.maxBytes = maxBytes;
+        this.cache = CacheBuilder.newBuilder()
+                .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+                .maximumWeight(maxBytes)
+                .weigher((List<Object> key, Result result) -> result.bytes)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Creates a cache if caching is enabled
+     * @return cache, or null if ttlSeconds is not positive
+     */
+    static CIPResultCache of(String name, long ttlSeconds, long maxBytes) {
+        return ttlSeconds > 0 && maxBytes > 0 ? new CIPResultCache(name, ttlSeconds, maxBytes) : null;
+    }
+
+    /**
+     * Gets the rows of a query, running it on a miss
+     * @param query generated SQL
+     * @param arrayRows whether rows are Object[] or bare values
+     * @param parameters bind values
+     * @param loader opens the query; the enumerator is read to the end and closed
+     * @return the rows, or null if the result is too large to cache, in which
+     *         case the caller should stream the query instead
+     */
+    <E> List<E> get(String query, boolean arrayRows, Object[] parameters, Supplier<Enumerator<E>> loader) {
+        List<Object> key = Arrays.asList(query, arrayRows, Arrays.asList(parameters));
+        try {
+            @SuppressWarnings("unchecked")
+            List<E> rows = (List<E>) cache.get(key, () -> load(loader)).rows;
+            return rows;
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            if (e.getCause() instanceof ResultTooLargeException) {
+                logger.debug(String.format("result of query on table '%s' exceeds the cache budget of %d bytes",
+                        name, maxBytes));
+                return null;
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException("Error loading cached result", e.getCause());
+        }
+    }
+
+    private <E> Result load(Supplier<Enumerator<E>> loader) throws ResultTooLargeException {
+        // Guava evicts an entry heavier than one segment right away; do not
+        // hold on to more rows than the whole budget
+        List<Object> rows = new ArrayList<>();
+        long bytes = 0;
+        try (Enumerator<E> enumerator = loader.get()) {
+            while (enumerator.moveNext()) {
+                Object row = enumerator.current();
+                bytes += estimateSize(row);
+                if (bytes > maxBytes) {
+                    throw new ResultTooLargeException();
+                }
+                rows.add(row);
+            }
+        }
+        logger.debug(String.format("cached %d rows (%d bytes) for table '%s'", rows.size(), bytes, name));
+        return new Result(Collections.unmodifiableList(rows), (int) Math.min(bytes, Integer.MAX_VALUE));
+    }
+
+    /**
+     * Estimates the heap size of a row in Calcite's internal representation
+     */
+    static long estimateSize(Object value) {
+        if (value == null) {
+            return 0;
+        }
+        if (value instanceof Object[]) {
+            Object[] values = (Object[]) value;
+            long size = 16 + 8L * values.length;
+            for (Object element : values) {
+                size += estimateSize(element);
+            }
+            return size;
+        }
+        if (value instanceof String) {
+            return 40 + 2L * ((String) value).length();
+        }
+        if (value instanceof byte[]) {
+            return 16 + ((byte[]) value).length;
+        }
+        return 16;
+    }
+
+    /** Drops all cached results */
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    public long getTtlSeconds() {
+        return ttlSeconds;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /** Estimated size of the cached rows */
+    public long getSizeBytes() {
+        long bytes = 0;
+        for (Result result : cache.asMap().values()) {
+            bytes += result.bytes;
+        }
+        return bytes;
+    }
+
+    public CacheStats getStats() {
+        return cache.stats();
+    }
+
+    public long getHitCount() {
+        return cache.stats().hitCount();
+    }
+
+    public long getMissCount() {
+        return cache.stats().missCount();
+    }
+
+    /** Entries removed because they expired or the byte budget was exceeded */
+    public long getEvictionCount() {
+        return cache.stats().evictionCount();
+    }
+
+    @Override public String toString() {
+        CacheStats stats = cache.stats();
+        return String.format("CIPResultCache[table=%s, ttlSeconds=%d, entries=%d, bytes=%d, maxBytes=%d, hits=%d, misses=%d, evictions=%d]",
+                name, ttlSeconds, cache.size(), getSizeBytes(), maxBytes, stats.hitCount(), stats.missCount(),
+                stats.evictionCount());
+    }
+
+    private static class Result {
+        final List<Object> rows;
+        final int bytes;
+
+        Result(List<Object> rows, int bytes) {
+            this.rows = rows;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * Thrown by a load that would exceed the byte budget; not cached by Guava
+     */
+    private static class ResultTooLargeException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        ResultTooLargeException() {
+            super(null, null, false, false);
+        }
+    }
+}
@@ -0,0 +1,412 @@
+package org.calcite.adapter.cip;
+
+import com.google.common.collect.ImmutableList;
+import org.apache.calcite.DataContext;
+import org.apache.calcite.adapter.java.JavaTypeFactory;
+import org.apache.calcite.linq4j.Enumerable;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rel.type.RelDataTypeFactory;
+import org.apache.calcite.schema.ScannableTable;
+import org.apache.calcite.schema.Statistic;
+import org.apache.calcite.schema.Statistics;
+import org.apache.calcite.schema.impl.AbstractTable;
+import org.apache.calcite.sql.SqlKind;
+import org.apache.calcite.sql.type.SqlTypeName;
+import org.apache.calcite.util.ImmutableBitSet;
+import org.cip.AggregateDefinition;
+import org.cip.CIPFieldType;
+import org.cip.RollupDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Rollup of a CIP table: the result of a GROUP BY query on it, kept in memory
+ * as a snapshot and rebuilt periodically and after inserts through the table.
+ *
+ * It can be queried by its alias, and while it is loaded CIPRollupRule
+ * rewrites aggregates on the table that it can answer to read it instead.
+ *
+ * An INSERT through the table marks the rollup stale before the statement
+ * returns. Queries are then not rewritten to use it until the rebuild that
+ * the insert triggered has finished, so rewritten queries see every row
+ * inserted through this driver. Rows written to the table by other clients
+ * are only picked up by the periodic rebuild, so rewritten queries may miss
+ * them for up to refreshSeconds plus the duration of a rebuild. Reading the
+ * rollup by its alias returns the last build even while it is stale.
+ */
+public class CIPRollupTable extends AbstractTable implements ScannableTable, CIPRollupTableMBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(CIPRollupTable.class);
+
+    enum Status { LOADING, FRESH, STALE, FAILED }
+
+    private final CIPScannableTable table;
+
+    private final String alias;
+
+    private final int refreshSeconds;
+
+    // Source columns grouped by, as ordinals of the table's fields
+    private final List<Integer> groupFields = new ArrayList<>();
+
+    private final List<Aggregate> aggregates = new ArrayList<>();
+
+    private final List<String> fieldNames = new ArrayList<>();
+
+    private final List<CIPFieldType> fieldTypes = new ArrayList<>();
+
+    private volatile CIPSnapshot snapshot;
+
+    private volatile Status status = Status.LOADING;
+
+    private volatile long lastRefreshMillis;
+
+    private volatile long lastRefreshDurationMillis;
+
+    private volatile String lastError;
+
+    private final AtomicLong refreshCount = new AtomicLong();
+
+    private final AtomicLong servedCount = new AtomicLong();
+
+    private final AtomicBoolean refreshPending = new AtomicBoolean();
+
+    // Inserts through the table so far, and how many of them the snapshot includes
+    private final AtomicLong writeCount = new AtomicLong();
+
+    private volatile long snapshotWriteCount;
+
+    /**
+     * @param defaultRefreshSeconds seconds between rebuilds if the definition sets none
+     */
+    CIPRollupTable(CIPScannableTable table, RollupDefinition definition, int defaultRefreshSeconds) {
+        this.table = table;
+        this.alias = definition.getAlias();
+        if (alias == null) {
+            throw new RuntimeException("Rollup of table '" + table.getTableAlias() + "' has no alias");
+        }
+        this.refreshSeconds = definition.getRefreshSeconds() != null
+                ? definition.getRefreshSeconds() : defaultRefreshSeconds;
+        if (definition.getGroupBy() != null) {
+            for (String column : definition.getGroupBy()) {
+                int field = field(column);
+                groupFields.add(field);
+                fieldNames.add(table.fieldAliasNames.get(field));
+                fieldTypes.add(table.cipFieldTypes.get(field));
+            }
+        }
+        if (definition.getAggregates() != null) {
+            for (AggregateDefinition aggregateDefinition : definition.getAggregates()) {
+                Aggregate aggregate = new Aggregate(aggregateDefinition);
+                aggregates.add(aggregate);
+                fieldNames.add(aggregate.alias);
+                fieldTypes.add(aggregate.fieldType);
+            }
+        }
+    }
+
+    private int field(String column) {
+        int field = table.fieldNames.indexOf(column);
+        if (field < 0) {
+            throw new RuntimeException("Unknown column '" + column + "' in rollup '" + alias + "' of table '"
+                    + table.getTableAlias() + "'");
+        }
+        return field;
+    }
+
+    /**
+     * Gets the name of the rollup in the schema
+     */
+    public String getName() {
+        return alias.toUpperCase(Locale.getDefault());
+    }
+
+    int getRefreshSeconds() {
+        return refreshSeconds;
+    }
+
+    @Override
+    public String getTable() {
+        return table.getTableAlias();
+    }
+
+    @Override
+    public String getStatus() {
+        return status.name();
+    }
+
+    @Override
+    public long getRowCount() {
+        CIPSnapshot currentSnapshot = snapshot;
+        return currentSnapshot == null ? 0 : currentSnapshot.getRowCount();
+    }
+
+    @Override
+    public long getLastRefreshMillis() {
+        return lastRefreshMillis;
+    }
+
+    @Override
+    public long getLastRefreshDurationMillis() {
+        return lastRefreshDurationMillis;
+    }
+
+    @Override
+    public String getLastError() {
+        return lastError;
+    }
+
+    @Override
+    public long getRefreshCount() {
+        return refreshCount.get();
+    }
+
+    @Override
+    public long getServedCount() {
+        return servedCount.get();
+    }
+
+    /**
+     * Whether the rollup was built since the last insert through the table
+     * and can answer queries
+     */
+    boolean isLoaded() {
+        return snapshot != null && snapshotWriteCount == writeCount.get();
+    }
+
+    /**
+     * Stops queries from being rewritten to use the rollup until it is
+     * rebuilt; called once rows inserted through the table are committed
+     */
+    void markStale() {
+        writeCount.incrementAndGet();
+        if (snapshot != null) {
+            status = Status.STALE;
+        }
+    }
+
+    /**
+     * Builds the GROUP BY query the rollup is loaded from
+     */
+    String rollupQuery() {
+        List<String> groupColumns = new ArrayList<>();
+        for (int field : groupFields) {
+            groupColumns.add(CIPFilterTranslator.quote(table.fieldNames.get(field)));
+        }
+        List<String> selectList = new ArrayList<>(groupColumns);
+        for (Aggregate aggregate : aggregates) {
+            selectList.add(aggregate.function.toUpperCase(Locale.ROOT) + "("
+                    + (aggregate.field < 0 ? "*" : CIPFilterTranslator.quote(table.fieldNames.get(aggregate.field)))
+                    + ")");
+        }
+        String query = "SELECT " + String.join(", ", selectList) + " FROM " + table.fromItem();
+        return groupColumns.isEmpty() ? query : query + " GROUP BY " + String.join(", ", groupColumns);
+    }
+
+    /**
+     * Rebuilds the rollup from Postgres and swaps it in; queries already
+     * running keep reading the previous one, which is also kept if the
+     * rebuild fails
+     */
+    @Override
+    public void refresh() {
+        long start = System.currentTimeMillis();
+        try {
+            table.flushWrites();
+            // Inserts committed from here on may be missing from this build
+            long writes = writeCount.get();
+            CIPSnapshot newSnapshot = CIPSnapshot.load(fieldTypes,
+                    new CIPScannableTable.LazyFetchingEnumerator<>(table.getConnectionPool(), rollupQuery(),
+                            table.getFetchSize(), fieldTypes, true, null, CIPCancellation.NONE));
+            snapshot = newSnapshot;
+            snapshotWriteCount = writes;
+            status = writes == writeCount.get() ? Status.FRESH : Status.STALE;
+            lastError = null;
+            logger.info(String.format("built rollup '%s' of table '%s': %d rows in %d ms", alias,
+                    table.getTableAlias(), newSnapshot.getRowCount(), System.currentTimeMillis() - start));
+        } catch (RuntimeException e) {
+            status = Status.FAILED;
+            lastError = String.valueOf(e.getCause() != null ? e.getCause().getMessage() : e.getMessage());
+            throw e;
+        } finally {
+            lastRefreshMillis = System.currentTimeMillis();
+            lastRefreshDurationMillis = lastRefreshMillis - start;
+            refreshCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Rebuilds the rollup on the rollup thread, unless a rebuild is already
+     * waiting there
+     */
+    void refreshLater() {
+        if (refreshPending.compareAndSet(false, true)) {
+            CIPSchema.ROLLUP_EXECUTOR.execute(() -> {
+                refreshPending.set(false);
+                refreshQuietly();
+            });
+        }
+    }
+
+    /**
+     * Rebuilds the rollup, logging instead of throwing if that fails
+     */
+    void refreshQuietly() {
+        try {
+            refresh();
+        } catch (RuntimeException e) {
+            logger.warn(String.format("error building rollup '%s' of table '%s'", alias, table.getTableAlias()), e);
+        }
+    }
+
+    @Override
+    public RelDataType getRowType(RelDataTypeFactory typeFactory) {
+        RelDataTypeFactory.Builder builder = typeFactory.builder();
+        for (int i = 0; i < fieldNames.size(); i++) {
+            if (i >= groupFields.size() && aggregates.get(i - groupFields.size()).isCount()) {
+                builder.add(fieldNames.get(i), SqlTypeName.BIGINT);
+            } else {
+                builder.add(fieldNames.get(i), fieldTypes.get(i).toType((JavaTypeFactory) typeFactory));
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Gives the planner the row count of the rollup, and its group columns as key
+     */
+    @Override
+    public Statistic getStatistic() {
+        CIPSnapshot currentSnapshot = snapshot;
+        if (currentSnapshot == null) {
+            return Statistics.UNKNOWN;
+        }
+        return Statistics.of(currentSnapshot.getRowCount(), groupFields.isEmpty()
+                ? ImmutableList.of() : ImmutableList.of(ImmutableBitSet.range(groupFields.size())));
+    }
+
+    /**
+     * Reads the rows of the rollup, building it first if it was not yet;
+     * each scan counts as a query served
+     */
+    @Override
+    public Enumerable<Object[]> scan(DataContext root) {
+        servedCount.incrementAndGet();
+        CIPSnapshot currentSnapshot = snapshot;
+        if (currentSnapshot == null) {
+            refresh();
+            currentSnapshot = snapshot;
+        }
+        return currentSnapshot.rows();
+    }
+
+    /**
+     * Gets the column of the rollup that holds a column of the table it
+     * groups by
+     * @param field ordinal of the column in the table's fields
+     * @return ordinal in the rollup, or -1 if the rollup does not group by it
+     */
+    int groupColumn(int field) {
+        return groupFields.indexOf(field);
+    }
+
+    /**
+     * Gets the column of the rollup from which an aggregate function on the
+     * table can be computed, by aggregating the rollup again
+     * @param kind COUNT, SUM, SUM0, MIN or MAX
+     * @param field ordinal of the argument in the table's fields; -1 for COUNT(*)
+     * @return ordinal in the rollup, or -1 if there is none
+     */
+    int aggregateColumn(SqlKind kind, int field) {
+        String function;
+        switch (kind) {
+            case COUNT:
+                function = "count";
+                break;
+            case SUM:
+            case SUM0:
+                function = "sum";
+                break;
+            case MIN:
+                function = "min";
+                break;
+            case MAX:
+                function = "max";
+                break;
+            default:
+                return -1;
+        }
+        for (int i = 0; i < aggregates.size(); i++) {
+            Aggregate aggregate = aggregates.get(i);
+            if (aggregate.function.equals(function) && aggregate.field == field) {
+                return groupFields.size() + i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Aggregate function of a rollup
+     */
+    private class Aggregate {
+        final String function;
+        // Ordinal of the argument in the table's fields; -1 for COUNT(*)
+        final int field;
+        final String alias;
+        final CIPFieldType fieldType;
+
+        Aggregate(AggregateDefinition definition) {
+            function = definition.getFunction() == null ? "" : definition.getFunction().toLowerCase(Locale.ROOT);
+            alias = definition.getAlias();
+            field = definition.getColumn() == null ? -1 : field(definition.getColumn());
+            if (alias == null) {
+                throw new RuntimeException("Aggregate of rollup '" + CIPRollupTable.this.alias + "' has no alias");
+            }
+            switch (function) {
+                case "count":
+                    fieldType = CIPFieldType.LONG;
+                    break;
+                case "sum":
+                case "min":
+                case "max":
+                    if (field < 0) {
+                        throw new RuntimeException("Aggregate '" + alias + "' of rollup '"
+                                + CIPRollupTable.this.alias + "' has no column");
+                    }
+                    fieldType = table.cipFieldTypes.get(field);
+                    if (function.equals("sum") && !isNumeric(fieldType)) {
+                        throw new RuntimeException("Cannot sum column '" + definition.getColumn() + "' of type "
+                                + fieldType + " in rollup '" + CIPRollupTable.this.alias + "'");
+                    }
+                    break;
+                default:
+                    throw new RuntimeException("Unknown function '" + definition.getFunction() + "' of aggregate '"
+                            + alias + "' in rollup '" + CIPRollupTable.this.alias + "'");
+            }
+        }
+
+        boolean isCount() {
+            return function.equals("count");
+        }
+    }
+
+    private static boolean isNumeric(CIPFieldType fieldType) {
+        switch (fieldType) {
+            case BYTE:
+            case SHORT:
+            case INT:
+            case LONG:
+            case FLOAT:
+            case DOUBLE:
+                return true;
+            default:
+                return false;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package org.calcite.adapter.cip;
+
+/**
+ * JMX view of {@link CIPRollupTable}
+ */
+public interface CIPRollupTableMBean {
+
+    String getTable();
+
+    /**
+     * LOADING until the rollup was built once, then FRESH, STALE from an
+     * insert through the table until it is rebuilt, or FAILED if its last
+     * rebuild failed
+     */
+    String getStatus();
+
+    long getRowCount();
+
+    long getLastRefreshMillis();
+
+    long getLastRefreshDurationMillis();
+
+    String getLastError();
+
+    long getRefreshCount();
+
+    long getServedCount();
+
+    void refresh();
+}
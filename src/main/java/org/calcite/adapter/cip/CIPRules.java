@@ -0,0 +1,631 @@
+package org.calcite.adapter.cip;
+
+import com.google.common.collect.ImmutableList;
+import org.apache.calcite.adapter.enumerable.EnumerableConvention;
+import org.apache.calcite.adapter.enumerable.EnumerableFilter;
+import org.apache.calcite.plan.Convention;
+import org.apache.calcite.plan.RelOptRule;
+import org.apache.calcite.plan.RelOptTable;
+import org.apache.calcite.plan.RelOptUtil;
+import org.apache.calcite.plan.RelTraitSet;
+import org.apache.calcite.plan.volcano.RelSubset;
+import org.apache.calcite.rel.RelCollations;
+import org.apache.calcite.rel.RelFieldCollation;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.convert.ConverterRule;
+import org.apache.calcite.rel.core.Aggregate;
+import org.apache.calcite.rel.core.AggregateCall;
+import org.apache.calcite.rel.core.JoinInfo;
+import org.apache.calcite.rel.core.JoinRelType;
+import org.apache.calcite.rel.core.RelFactories;
+import org.apache.calcite.rel.core.TableModify;
+import org.apache.calcite.rel.logical.LogicalAggregate;
+import org.apache.calcite.rel.logical.LogicalFilter;
+import org.apache.calcite.rel.logical.LogicalJoin;
+import org.apache.calcite.rel.logical.LogicalProject;
+import org.apache.calcite.rel.logical.LogicalSort;
+import org.apache.calcite.rel.logical.LogicalTableModify;
+import org.apache.calcite.rel.logical.LogicalTableScan;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
+import org.apache.calcite.rex.RexTableInputRef;
+import org.apache.calcite.rex.RexBuilder;
+import org.apache.calcite.rex.RexInputRef;
+import org.apache.calcite.rex.RexLiteral;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.rex.RexShuttle;
+import org.apache.calcite.rex.RexUtil;
+import org.apache.calcite.sql.SqlAggFunction;
+import org.apache.calcite.sql.SqlKind;
+import org.apache.calcite.sql.fun.SqlStdOperatorTable;
+import org.apache.calcite.tools.RelBuilder;
+import org.apache.calcite.util.ImmutableBitSet;
+import org.cip.CIPFieldType;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Rules that convert logical filters, projections, aggregates and sorts on
+ * top of CIP table scans into CIPRel nodes, so that they are evaluated by
+ * Postgres. Expressions that cannot be translated stay in Calcite. Inserts
+ * into CIP tables become CIPTableModify nodes, and aggregates that a rollup
+ * can answer may read the rollup instead.
+ */
+public class CIPRules {
+
+    private CIPRules() {
+    }
+
+    public static final List<RelOptRule> RULES = ImmutableList.of(
+            CIPFilterRule.INSTANCE,
+            CIPPartialFilterRule.INSTANCE,
+            CIPProjectRule.INSTANCE,
+            CIPJoinRule.INSTANCE,
+            CIPLookupJoinRule.INSTANCE,
+            CIPAggregateRule.INSTANCE,
+            CIPRollupRule.INSTANCE,
+            CIPSortRule.INSTANCE,
+            CIPTableModifyRule.INSTANCE);
+
+    /**
+     * Rule to convert a LogicalFilter whose conjuncts can all be translated
+     * to a CIPFilter.
+     */
+    static class CIPFilterRule extends ConverterRule {
+
+        static final CIPFilterRule INSTANCE = Config.INSTANCE
+                .withConversion(LogicalFilter.class, Convention.NONE, CIPRel.CONVENTION, "CIPFilterRule")
+                .withRuleFactory(CIPFilterRule::new)
+                .toRule(CIPFilterRule.class);
+
+        CIPFilterRule(Config config) {
+            super(config);
+        }
+
+        @Override
+        public RelNode convert(RelNode rel) {
+            LogicalFilter filter = (LogicalFilter) rel;
+            List<RexNode> pushed = new ArrayList<>();
+            List<RexNode> remaining = new ArrayList<>();
+            splitConjunctions(filter, pushed, remaining);
+            if (!remaining.isEmpty()) {
+                return null;
+            }
+            return new CIPFilter(filter.getCluster(), filter.getTraitSet().replace(out),
+                    convert(filter.getInput(), out), filter.getCondition());
+        }
+
+        /**
+         * Sorts the conjuncts of the condition of a filter into those that can
+         * be translated to SQL and those that cannot
+         */
+        static void splitConjunctions(LogicalFilter filter, List<RexNode> pushed, List<RexNode> remaining) {
+            RexBuilder rexBuilder = filter.getCluster().getRexBuilder();
+            int fieldCount = filter.getInput().getRowType().getFieldCount();
+            for (RexNode conjunction : RelOptUtil.conjunctions(filter.getCondition())) {
+                if (CIPFilterTranslator.canTranslate(rexBuilder, conjunction, fieldCount, true)) {
+                    pushed.add(conjunction);
+                } else {
+                    remaining.add(conjunction);
+                }
+            }
+        }
+    }
+
+    /**
+     * Rule to implement a LogicalFilter of which only some conjuncts can be
+     * translated as an EnumerableFilter of the other conjuncts on top of a
+     * CIPFilter of those. If it filters the rows of a single table,
+     * CIPFilterMeters count the rows into and out of the EnumerableFilter.
+     */
+    static class CIPPartialFilterRule extends ConverterRule {
+
+        static final CIPPartialFilterRule INSTANCE = Config.INSTANCE
+                .withConversion(LogicalFilter.class, Convention.NONE, EnumerableConvention.INSTANCE,
+                        "CIPPartialFilterRule")
+                .withRuleFactory(CIPPartialFilterRule::new)
+                .toRule(CIPPartialFilterRule.class);
+
+        CIPPartialFilterRule(Config config) {
+            super(config);
+        }
+
+        @Override
+        public RelNode convert(RelNode rel) {
+            LogicalFilter filter = (LogicalFilter) rel;
+            List<RexNode> pushed = new ArrayList<>();
+            List<RexNode> remaining = new ArrayList<>();
+            CIPFilterRule.splitConjunctions(filter, pushed, remaining);
+            if (pushed.isEmpty() || remaining.isEmpty()) {
+                return null;
+            }
+
+            RexBuilder rexBuilder = filter.getCluster().getRexBuilder();
+            RelTraitSet cip = filter.getTraitSet().replace(CIPRel.CONVENTION);
+            RelNode cipFilter = new CIPFilter(filter.getCluster(), cip, convert(filter.getInput(), cip),
+                    RexUtil.composeConjunction(rexBuilder, pushed));
+            RelTraitSet traitSet = filter.getTraitSet().replace(out);
+            RelNode filterInput = convert(cipFilter, traitSet);
+            String table = filteredTable(filter);
+            if (table != null) {
+                filterInput = new CIPFilterMeter(filter.getCluster(), traitSet, filterInput, table, true);
+            }
+            RelNode calciteFilter = EnumerableFilter.create(filterInput,
+                    RexUtil.composeConjunction(rexBuilder, remaining));
+            return table == null ? calciteFilter
+                    : new CIPFilterMeter(filter.getCluster(), traitSet, calciteFilter, table, false);
+        }
+
+        /**
+         * Gets the alias of the CIP table whose rows a filter reads, or null
+         * if it reads other or several tables
+         */
+        private static String filteredTable(LogicalFilter filter) {
+            RelMetadataQuery mq = filter.getCluster().getMetadataQuery();
+            Set<RexTableInputRef.RelTableRef> tables = mq.getTableReferences(filter.getInput());
+            if (tables == null || tables.size() != 1) {
+                return null;
+            }
+            CIPScannableTable table = tables.iterator().next().getTable().unwrap(CIPScannableTable.class);
+            return table == null ? null : table.getTableAlias();
+        }
+    }
+
+    /**
+     * Rule to convert a LogicalProject whose expressions can all be translated
+     * to a CIPProject.
+     */
+    static class CIPProjectRule extends ConverterRule {
+
+        static final CIPProjectRule INSTANCE = Config.INSTANCE
+                .withConversion(LogicalProject.class, Convention.NONE, CIPRel.CONVENTION, "CIPProjectRule")
+                .withRuleFactory(CIPProjectRule::new)
+                .toRule(CIPProjectRule.class);
+
+        CIPProjectRule(Config config) {
+            super(config);
+        }
+
+        @Override
+        public RelNode convert(RelNode rel) {
+            LogicalProject project = (LogicalProject) rel;
+            RexBuilder rexBuilder = project.getCluster().getRexBuilder();
+            int fieldCount = project.getInput().getRowType().getFieldCount();
+            for (RexNode node : project.getProjects()) {
+                if (!CIPFilterTranslator.canTranslate(rexBuilder, node, fieldCount, false)) {
+                    return null;
+                }
+            }
+            return new CIPProject(project.getCluster(), project.getTraitSet().replace(out),
+                    convert(project.getInput(), out), project.getProjects(), project.getRowType());
+        }
+    }
+
+    /**
+     * Rule to convert a LogicalJoin between CIP tables of the same database
+     * to a CIPJoin, so that only the join result is transferred.
+     */
+    static class CIPJoinRule extends ConverterRule {
+
+        static final CIPJoinRule INSTANCE = Config.INSTANCE
+                .withConversion(LogicalJoin.class, Convention.NONE, CIPRel.CONVENTION, "CIPJoinRule")
+                .withRuleFactory(CIPJoinRule::new)
+                .toRule(CIPJoinRule.class);
+
+        CIPJoinRule(Config config) {
+            super(config);
+        }
+
+        @Override
+        public RelNode convert(RelNode rel) {
+            LogicalJoin join = (LogicalJoin) rel;
+            switch (join.getJoinType()) {
+                case INNER:
+                case LEFT:
+                case RIGHT:
+                case FULL:
+                    break;
+                default:
+                    return null;
+            }
+            int fieldCount = join.getLeft().getRowType().getFieldCount() + join.getRight().getRowType().getFieldCount();
+            if (!CIPFilterTranslator.canTranslate(join.getCluster().getRexBuilder(), join.getCondition(), fieldCount, true)) {
+                return null;
+            }
+            CIPConnectionPool connectionPool = CIPJoin.connectionPool(join.getLeft());
+            if (connectionPool == null || connectionPool != CIPJoin.connectionPool(join.getRight())) {
+                return null;
+            }
+            return new CIPJoin(join.getCluster(), join.getTraitSet().replace(out),
+                    convert(join.getLeft(), out), convert(join.getRight(), out), join.getCondition(), join.getJoinType());
+        }
+    }
+
+    /**
+     * Rule to implement a LogicalJoin of a CIP table with a non-CIP input, or
+     * with tables of another database, as a CIPLookupJoin. Only equi-joins on
+     * a single key are converted; the CIP input may be on the left of an inner
+     * join or on the right of an inner or left join.
+     */
+    static class CIPLookupJoinRule extends ConverterRule {
+
+        static final CIPLookupJoinRule INSTANCE = Config.INSTANCE
+                .withConversion(LogicalJoin.class, Convention.NONE, EnumerableConvention.INSTANCE,
+                        "CIPLookupJoinRule")
+                .withRuleFactory(CIPLookupJoinRule::new)
+                .toRule(CIPLookupJoinRule.class);
+
+        CIPLookupJoinRule(Config config) {
+            super(config);
+        }
+
+        @Override
+        public RelNode convert(RelNode rel) {
+            LogicalJoin join = (LogicalJoin) rel;
+            if (join.getJoinType() != JoinRelType.INNER && join.getJoinType() != JoinRelType.LEFT) {
+                return null;
+            }
+            JoinInfo joinInfo = join.analyzeCondition();
+            if (!joinInfo.isEqui() || joinInfo.pairs().size() != 1) {
+                return null;
+            }
+
+            // A join within one database is pushed down whole by CIPJoinRule
+            CIPConnectionPool leftPool = CIPJoin.connectionPool(join.getLeft());
+            CIPConnectionPool rightPool = CIPJoin.connectionPool(join.getRight());
+            boolean innerOnLeft;
+            if (rightPool != null && rightPool != leftPool) {
+                innerOnLeft = false;
+            } else if (leftPool != null && leftPool != rightPool && join.getJoinType() == JoinRelType.INNER) {
+                innerOnLeft = true;
+            } else {
+                return null;
+            }
+
+            RelNode inner = innerOnLeft ? join.getLeft() : join.getRight();
+            RelNode outer = innerOnLeft ? join.getRight() : join.getLeft();
+            int innerKey = innerOnLeft ? joinInfo.leftKeys.get(0) : joinInfo.rightKeys.get(0);
+            int outerKey = innerOnLeft ? joinInfo.rightKeys.get(0) : joinInfo.leftKeys.get(0);
+            List<CIPFieldType> innerTypes = CIPToEnumerableConverter.fieldTypes(inner);
+            if (innerTypes == null || CIPLookupJoin.arrayType(innerTypes.get(innerKey)) == null
+                    || innerTypes.get(innerKey) != CIPFieldType.of(
+                            outer.getRowType().getFieldList().get(outerKey).getType().getSqlTypeName())) {
+                return null;
+            }
+
+            int chunkSize = CIPJoin.cipTables(inner).get(0).getLookupChunkSize();
+            RelNode left = convert(join.getLeft(), innerOnLeft ? CIPRel.CONVENTION : out);
+            RelNode right = convert(join.getRight(), innerOnLeft ? out : CIPRel.CONVENTION);
+            return new CIPLookupJoin(join.getCluster(), join.getTraitSet().replace(out), left, right,
+                    join.getCondition(), join.getJoinType(), innerOnLeft, chunkSize);
+        }
+    }
+
+    /**
+     * Rule to convert a LogicalAggregate with a plain GROUP BY and supported
+     * aggregate functions to a CIPAggregate.
+     */
+    static class CIPAggregateRule extends ConverterRule {
+
+        static final CIPAggregateRule INSTANCE = Config.INSTANCE
+                .withConversion(LogicalAggregate.class, Convention.NONE, CIPRel.CONVENTION, "CIPAggregateRule")
+                .withRuleFactory(CIPAggregateRule::new)
+                .toRule(CIPAggregateRule.class);
+
+        CIPAggregateRule(Config config) {
+            super(config);
+        }
+
+        @Override
+        public RelNode convert(RelNode rel) {
+            LogicalAggregate aggregate = (LogicalAggregate) rel;
+            if (aggregate.getGroupType() != Aggregate.Group.SIMPLE) {
+                return null;
+            }
+            for (AggregateCall aggCall : aggregate.getAggCallList()) {
+                if (!CIPAggregate.canImplement(aggCall)) {
+                    return null;
+                }
+            }
+            return new CIPAggregate(aggregate.getCluster(), aggregate.getTraitSet().replace(out),
+                    convert(aggregate.getInput(), out), aggregate.getGroupSet(), aggregate.getGroupSets(),
+                    aggregate.getAggCallList());
+        }
+    }
+
+    /**
+     * Rule to answer a LogicalAggregate on a CIP table from one of the table's
+     * rollups, by aggregating the rollup again. It applies when the aggregate
+     * groups by and filters on columns the rollup groups by, and each of its
+     * functions can be computed from a column of the rollup; the planner then
+     * picks the rollup or Postgres by cost.
+     */
+    static class CIPRollupRule extends ConverterRule {
+
+        static final CIPRollupRule INSTANCE = Config.INSTANCE
+                .withConversion(LogicalAggregate.class, Convention.NONE, EnumerableConvention.INSTANCE,
+                        "CIPRollupRule")
+                .withRuleFactory(CIPRollupRule::new)
+                .toRule(CIPRollupRule.class);
+
+        CIPRollupRule(Config config) {
+            super(config);
+        }
+
+        @Override
+        public RelNode convert(RelNode rel) {
+            LogicalAggregate aggregate = (LogicalAggregate) rel;
+            if (aggregate.getGroupType() != Aggregate.Group.SIMPLE) {
+                return null;
+            }
+            for (AggregateCall aggCall : aggregate.getAggCallList()) {
+                if (aggCall.isDistinct() || aggCall.filterArg >= 0 || aggCall.getArgList().size() > 1) {
+                    return null;
+                }
+            }
+            RollupSource source = RollupSource.of(aggregate.getInput(), 0);
+            if (source == null) {
+                return null;
+            }
+            // The smallest rollup that has what the aggregate needs
+            CIPRollupTable rollup = null;
+            for (CIPRollupTable candidate : source.scan.cipTable.getRollups()) {
+                if (candidate.isLoaded() && source.isAnsweredBy(aggregate, candidate)
+                        && (rollup == null || candidate.getRowCount() < rollup.getRowCount())) {
+                    rollup = candidate;
+                }
+            }
+            if (rollup == null) {
+                return null;
+            }
+            RelNode rewritten = source.rewrite(aggregate, rollup);
+            return rewritten == null ? null : convert(rewritten, aggregate.getTraitSet().replace(out));
+        }
+    }
+
+    /**
+     * Rows of a CIP table under an aggregate: the scan, the table column each
+     * field comes from, and the conditions on the columns they are filtered by
+     */
+    private static class RollupSource {
+
+        // Bounds the search through equivalent expressions, which may form cycles
+        private static final int MAX_DEPTH = 8;
+
+        final CIPTableScan scan;
+
+        final int[] fields;
+
+        final List<RexNode> conditions;
+
+        private RollupSource(CIPTableScan scan, int[] fields, List<RexNode> conditions) {
+            this.scan = scan;
+            this.fields = fields;
+            this.conditions = conditions;
+        }
+
+        /**
+         * Finds the scan under projections of columns and filters
+         * @return the source, or null if the rows come from anything else
+         */
+        static RollupSource of(RelNode rel, int depth) {
+            if (depth > MAX_DEPTH) {
+                return null;
+            }
+            if (rel instanceof RelSubset) {
+                for (RelNode equivalent : ((RelSubset) rel).getRelList()) {
+                    RollupSource source = of(equivalent, depth + 1);
+                    if (source != null) {
+                        return source;
+                    }
+                }
+                return null;
+            }
+            if (rel instanceof CIPTableScan) {
+                int[] fields = new int[rel.getRowType().getFieldCount()];
+                for (int i = 0; i < fields.length; i++) {
+                    fields[i] = i;
+                }
+                return new RollupSource((CIPTableScan) rel, fields, ImmutableList.of());
+            }
+            if (rel instanceof LogicalProject) {
+                RollupSource input = of(((LogicalProject) rel).getInput(), depth + 1);
+                if (input == null) {
+                    return null;
+                }
+                List<RexNode> projects = ((LogicalProject) rel).getProjects();
+                int[] fields = new int[projects.size()];
+                for (int i = 0; i < fields.length; i++) {
+                    if (!(projects.get(i) instanceof RexInputRef)) {
+                        return null;
+                    }
+                    fields[i] = input.fields[((RexInputRef) projects.get(i)).getIndex()];
+                }
+                return new RollupSource(input.scan, fields, input.conditions);
+            }
+            if (rel instanceof LogicalFilter) {
+                RexNode condition = ((LogicalFilter) rel).getCondition();
+                RollupSource input = RexUtil.containsCorrelation(condition) ? null
+                        : of(((LogicalFilter) rel).getInput(), depth + 1);
+                if (input == null) {
+                    return null;
+                }
+                List<RexNode> conditions = new ArrayList<>(input.conditions);
+                conditions.add(remap(condition, field -> input.fields[field]));
+                return new RollupSource(input.scan, input.fields, conditions);
+            }
+            return null;
+        }
+
+        boolean isAnsweredBy(LogicalAggregate aggregate, CIPRollupTable rollup) {
+            for (int field : aggregate.getGroupSet()) {
+                if (rollup.groupColumn(fields[field]) < 0) {
+                    return false;
+                }
+            }
+            for (RexNode condition : conditions) {
+                for (int field : RelOptUtil.InputFinder.bits(condition)) {
+                    if (rollup.groupColumn(field) < 0) {
+                        return false;
+                    }
+                }
+            }
+            for (AggregateCall aggCall : aggregate.getAggCallList()) {
+                if (rollup.aggregateColumn(aggCall.getAggregation().getKind(), argument(aggCall)) < 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Builds the aggregate on the rollup, with the row type of the
+         * aggregate on the table
+         * @return the rewritten aggregate, or null if the rollup is not in the schema
+         */
+        RelNode rewrite(LogicalAggregate aggregate, CIPRollupTable rollup) {
+            RelOptTable table = scan.getTable();
+            List<String> qualifiedName = new ArrayList<>(table.getQualifiedName());
+            qualifiedName.set(qualifiedName.size() - 1, rollup.getName());
+            RelOptTable rollupTable = table.getRelOptSchema().getTableForMember(qualifiedName);
+            if (rollupTable == null) {
+                return null;
+            }
+            RelBuilder builder = RelFactories.LOGICAL_BUILDER.create(aggregate.getCluster(), table.getRelOptSchema());
+            builder.push(LogicalTableScan.create(aggregate.getCluster(), rollupTable, ImmutableList.of()));
+            List<RexNode> rollupConditions = new ArrayList<>();
+            for (RexNode condition : conditions) {
+                rollupConditions.add(remap(condition, rollup::groupColumn));
+            }
+            builder.filter(rollupConditions);
+
+            List<Integer> groupColumns = new ArrayList<>();
+            for (int field : aggregate.getGroupSet()) {
+                groupColumns.add(rollup.groupColumn(fields[field]));
+            }
+            List<RelBuilder.AggCall> aggCalls = new ArrayList<>();
+            for (AggregateCall aggCall : aggregate.getAggCallList()) {
+                SqlKind kind = aggCall.getAggregation().getKind();
+                RexNode column = builder.field(rollup.aggregateColumn(kind, argument(aggCall)));
+                aggCalls.add(builder.aggregateCall(reaggregation(kind), column).as(aggCall.getName()));
+            }
+            ImmutableBitSet groupSet = ImmutableBitSet.of(groupColumns);
+            builder.aggregate(builder.groupKey(groupSet), aggCalls);
+
+            // The rollup may order the group columns differently from the table
+            List<RexNode> projects = new ArrayList<>();
+            for (int groupColumn : groupColumns) {
+                projects.add(builder.field(groupSet.indexOf(groupColumn)));
+            }
+            for (int i = 0; i < aggCalls.size(); i++) {
+                projects.add(builder.field(groupColumns.size() + i));
+            }
+            builder.project(projects);
+            return builder.convert(aggregate.getRowType(), true).build();
+        }
+
+        /**
+         * Gets the table column an aggregate function is applied to
+         * @return column ordinal, or -1 for COUNT(*)
+         */
+        private int argument(AggregateCall aggCall) {
+            return aggCall.getArgList().isEmpty() ? -1 : fields[aggCall.getArgList().get(0)];
+        }
+
+        /**
+         * Gets the function that combines the values of a function for the
+         * groups of a rollup
+         */
+        private static SqlAggFunction reaggregation(SqlKind kind) {
+            switch (kind) {
+                case COUNT:
+                case SUM0:
+                    return SqlStdOperatorTable.SUM0;
+                case SUM:
+                    return SqlStdOperatorTable.SUM;
+                case MIN:
+                    return SqlStdOperatorTable.MIN;
+                default:
+                    return SqlStdOperatorTable.MAX;
+            }
+        }
+
+        private static RexNode remap(RexNode node, IntUnaryOperator mapping) {
+            return node.accept(new RexShuttle() {
+                @Override
+                public RexNode visitInputRef(RexInputRef inputRef) {
+                    return new RexInputRef(mapping.applyAsInt(inputRef.getIndex()), inputRef.getType());
+                }
+            });
+        }
+    }
+
+    /**
+     * Rule to convert a LogicalSort with literal offset and fetch to a CIPSort.
+     */
+    static class CIPSortRule extends ConverterRule {
+
+        static final CIPSortRule INSTANCE = Config.INSTANCE
+                .withConversion(LogicalSort.class, Convention.NONE, CIPRel.CONVENTION, "CIPSortRule")
+                .withRuleFactory(CIPSortRule::new)
+                .toRule(CIPSortRule.class);
+
+        CIPSortRule(Config config) {
+            super(config);
+        }
+
+        @Override
+        public RelNode convert(RelNode rel) {
+            LogicalSort sort = (LogicalSort) rel;
+            if (!isLiteral(sort.offset) || !isLiteral(sort.fetch)) {
+                return null;
+            }
+            for (RelFieldCollation fieldCollation : sort.getCollation().getFieldCollations()) {
+                if (fieldCollation.getDirection() != RelFieldCollation.Direction.ASCENDING
+                        && fieldCollation.getDirection() != RelFieldCollation.Direction.DESCENDING) {
+                    return null;
+                }
+            }
+            RelTraitSet traitSet = sort.getTraitSet().replace(out).replace(sort.getCollation());
+            // The input only has to be in the CIP convention; Postgres does the sorting
+            RelTraitSet inputTraitSet = sort.getInput().getTraitSet().replace(out).replace(RelCollations.EMPTY);
+            return new CIPSort(sort.getCluster(), traitSet, convert(sort.getInput(), inputTraitSet),
+                    sort.getCollation(), sort.offset, sort.fetch);
+        }
+
+        private static boolean isLiteral(RexNode node) {
+            return node == null || node instanceof RexLiteral;
+        }
+    }
+
+    /**
+     * Rule to implement an INSERT into a CIP table as a CIPTableModify.
+     */
+    static class CIPTableModifyRule extends ConverterRule {
+
+        static final CIPTableModifyRule INSTANCE = Config.INSTANCE
+                .withConversion(LogicalTableModify.class, Convention.NONE, EnumerableConvention.INSTANCE,
+                        "CIPTableModifyRule")
+                .withRuleFactory(CIPTableModifyRule::new)
+                .toRule(CIPTableModifyRule.class);
+
+        CIPTableModifyRule(Config config) {
+            super(config);
+        }
+
+        @Override
+        public RelNode convert(RelNode rel) {
+            LogicalTableModify modify = (LogicalTableModify) rel;
+            if (modify.getOperation() != TableModify.Operation.INSERT
+                    || modify.getTable().unwrap(CIPScannableTable.class) == null) {
+                return null;
+            }
+            RelNode input = modify.getInput();
+            return new CIPTableModify(modify.getCluster(), modify.getTraitSet().replace(out), modify.getTable(),
+                    modify.getCatalogReader(), convert(input, input.getTraitSet().replace(out)),
+                    modify.isFlattened());
+        }
+    }
+}
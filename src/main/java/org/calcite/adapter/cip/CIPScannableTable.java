@@ -1,35 +1,57 @@
 package org.calcite.adapter.cip;
 
+import com.google.common.collect.ImmutableList;
 import org.apache.calcite.DataContext;
+import org.apache.calcite.adapter.java.AbstractQueryableTable;
 import org.apache.calcite.adapter.java.JavaTypeFactory;
-import org.apache.calcite.adapter.jdbc.JdbcSchema;
-import org.apache.calcite.jdbc.CalciteConnection;
 import org.apache.calcite.linq4j.AbstractEnumerable;
 import org.apache.calcite.linq4j.Enumerable;
 import org.apache.calcite.linq4j.Enumerator;
+import org.apache.calcite.linq4j.Linq4j;
+import org.apache.calcite.linq4j.QueryProvider;
+import org.apache.calcite.linq4j.Queryable;
+import org.apache.calcite.plan.RelOptCluster;
+import org.apache.calcite.plan.RelOptTable;
+import org.apache.calcite.prepare.Prepare;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.TableModify;
+import org.apache.calcite.rel.logical.LogicalTableModify;
+import org.apache.calcite.rel.logical.LogicalTableScan;
 import org.apache.calcite.rel.type.RelDataType;
 import org.apache.calcite.rel.type.RelDataTypeFactory;
+import org.apache.calcite.rel.type.RelDataTypeSystem;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.schema.ModifiableTable;
 import org.apache.calcite.schema.ScannableTable;
 import org.apache.calcite.schema.SchemaPlus;
-import org.apache.calcite.schema.impl.AbstractTable;
+import org.apache.calcite.schema.Statistic;
+import org.apache.calcite.schema.TranslatableTable;
+import org.apache.calcite.schema.impl.AbstractTableQueryable;
 import org.apache.calcite.util.Pair;
 import org.cip.CIPFieldType;
 import org.cip.ColumnDefinition;
 import org.cip.TableDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import javax.sql.DataSource;
 import java.sql.*;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneOffset;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
-import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
-public class CIPScannableTable extends AbstractTable
-        implements ScannableTable {
+public class CIPScannableTable extends AbstractQueryableTable
+        implements TranslatableTable, ScannableTable, ModifiableTable {
+
+    Logger logger = LoggerFactory.getLogger(CIPScannableTable.class);
 
-    private static final String POSTGRESQL_SCHEMA = "PUBLIC";
     private String tableName;
     private String tableAlias;
 
@@ -39,14 +61,82 @@ public class CIPScannableTable extends AbstractTable
 
     List<CIPFieldType> cipFieldTypes;
 
-    private List<RelDataType> fieldTypes = new ArrayList<>();
+    // Row type and the type system it was built for
+    private volatile Pair<RelDataTypeSystem, RelDataType> rowType;
 
     TableDefinition tableDefinition;
 
-    public CIPScannableTable(TableDefinition tableDefinition) {
+    private final CIPConnectionPool connectionPool;
+
+    private final int fetchSize;
+
+    private final int lookupChunkSize;
+
+    // Null if results of this table are not cached
+    private final CIPResultCache resultCache;
+
+    // In-memory copy of a replicated table, replaced whole on each refresh
+    private volatile CIPSnapshot snapshot;
+
+    private final int statisticsRefreshSeconds;
+
+    private volatile CIPTableStatistics statistics;
+
+    private final AtomicBoolean statisticsRefreshing = new AtomicBoolean();
+
+    private final int prefetchBatchSize;
+
+    private final int prefetchQueueDepth;
+
+    private final long copyMinRows;
+
+    private final int queryTimeoutSeconds;
+
+    private final CIPTableWriter writer;
+
+    private final CIPTableMetrics metrics;
+
+    private final List<CIPRollupTable> rollups = new ArrayList<>();
+
+    public CIPScannableTable(TableDefinition tableDefinition, CIPConnectionPool connectionPool, int fetchSize) {
+        this(tableDefinition, connectionPool, fetchSize, CIPSchema.DEFAULT_LOOKUP_CHUNK_SIZE, null,
+                CIPSchema.DEFAULT_STATISTICS_REFRESH_SECONDS, CIPSchema.DEFAULT_PREFETCH_BATCH_SIZE, 0, 0,
+                CIPSchema.DEFAULT_INSERT_BATCH_SIZE, 0, 0);
+    }
+
+    /**
+     * @param prefetchBatchSize rows a background reader hands over at a time
+     * @param prefetchQueueDepth batches read ahead of the consumer; 0 to read
+     *                           single-connection queries on the calling thread
+     * @param copyMinRows estimated row count from which queries are read with
+     *                    binary COPY; 0 to always use a cursor
+     * @param insertBatchSize rows written to Postgres at a time by INSERT
+     * @param insertFlushMillis longest time inserted rows are buffered; 0 to
+     *                          write them before the INSERT returns
+     * @param queryTimeoutSeconds timeout of queries of statements that set
+     *                            none; 0 for none
+     */
+    public CIPScannableTable(TableDefinition tableDefinition, CIPConnectionPool connectionPool, int fetchSize,
+                             int lookupChunkSize, CIPResultCache resultCache, int statisticsRefreshSeconds,
+                             int prefetchBatchSize, int prefetchQueueDepth, long copyMinRows,
+                             int insertBatchSize, long insertFlushMillis, int queryTimeoutSeconds) {
+        super(Object[].class);
         this.tableDefinition = tableDefinition;
+        this.connectionPool = connectionPool;
+        this.fetchSize = fetchSize;
+        this.lookupChunkSize = lookupChunkSize;
+        this.resultCache = resultCache;
+        this.statisticsRefreshSeconds = statisticsRefreshSeconds;
+        this.prefetchBatchSize = prefetchBatchSize;
+        this.prefetchQueueDepth = prefetchQueueDepth;
+        this.copyMinRows = copyMinRows;
+        this.queryTimeoutSeconds = queryTimeoutSeconds;
+        this.writer = new CIPTableWriter(this, insertBatchSize, insertFlushMillis);
         this.tableName = tableDefinition.getName();
         this.tableAlias = tableDefinition.getAlias();
+        this.metrics = CIPMetrics.forTable(tableAlias);
+        metrics.setResultCache(resultCache);
+        metrics.setWriter(writer);
         this.fieldNames = new ArrayList<>();
         this.fieldAliasNames = new ArrayList<>();
         this.cipFieldTypes =  new ArrayList<>();
@@ -59,7 +149,12 @@ public class CIPScannableTable extends AbstractTable
         {
             fieldAliasNames.add(columnDefinition.getAlias());
             fieldNames.add(columnDefinition.getName());
-            cipFieldTypes.add(CIPFieldType.of(columnDefinition.getType()));
+            CIPFieldType cipFieldType = CIPFieldType.of(columnDefinition.getType());
+            if (cipFieldType == null) {
+                throw new RuntimeException("Unknown type '" + columnDefinition.getType() + "' of column '"
+                        + columnDefinition.getName() + "' in table '" + tableDefinition.getAlias() + "'");
+            }
+            cipFieldTypes.add(cipFieldType);
         }
     }
 
@@ -71,115 +166,783 @@ public class CIPScannableTable extends AbstractTable
         return this.tableName;
     }
 
-    public Enumerable<Object[]> scan(DataContext dataContext) {
+    /**
+     * Gets the number of distinct keys looked up per query by a CIPLookupJoin
+     * @return chunk size
+     */
+    public int getLookupChunkSize() {
+        return this.lookupChunkSize;
+    }
+
+    /**
+     * Gets the number of partitions a scan is split into
+     * @return parallelism; 1 if scans run over a single connection
+     */
+    public int getParallelism() {
+        Integer parallelism = tableDefinition.getParallelism();
+        return parallelism == null ? 1 : parallelism;
+    }
+
+    /**
+     * Gets the column a parallel scan is partitioned on
+     * @return physical column name, or null to partition on ctid
+     */
+    public String getSplitColumn() {
+        return tableDefinition.getSplitColumn();
+    }
+
+    int getFetchSize() {
+        return this.fetchSize;
+    }
+
+    int getPrefetchBatchSize() {
+        return this.prefetchBatchSize;
+    }
+
+    int getPrefetchQueueDepth() {
+        return this.prefetchQueueDepth;
+    }
+
+    /**
+     * Gets the cancel flag and timeout that the queries of a statement on this table run with
+     * @param dataContext data context of the statement; may be null
+     */
+    CIPCancellation cancellation(DataContext dataContext) {
+        return CIPCancellation.of(dataContext, queryTimeoutSeconds * 1000L);
+    }
+
+    /**
+     * Gets the cancel flag and timeout of a statement that also reads other
+     * tables; the shortest timeout of all of them applies
+     * @param joinedTables the other tables the statement reads
+     */
+    CIPCancellation cancellation(DataContext dataContext, List<CIPScannableTable> joinedTables) {
+        int timeoutSeconds = queryTimeoutSeconds;
+        for (CIPScannableTable table : joinedTables) {
+            if (table.queryTimeoutSeconds > 0 && (timeoutSeconds == 0 || table.queryTimeoutSeconds < timeoutSeconds)) {
+                timeoutSeconds = table.queryTimeoutSeconds;
+            }
+        }
+        return CIPCancellation.of(dataContext, timeoutSeconds * 1000L);
+    }
+
+    /**
+     * Decides whether a query is read with binary COPY, which skips the
+     * cursor round trips and the text encoding of values
+     * @param rowCount estimated number of rows the query returns
+     */
+    boolean isCopyScan(double rowCount) {
+        return copyMinRows > 0 && rowCount >= copyMinRows;
+    }
+
+    /**
+     * Gets the connection pool of the database the table lives in
+     * @return connection pool
+     */
+    public CIPConnectionPool getConnectionPool() {
+        return this.connectionPool;
+    }
+
+    /**
+     * Gets the cache of query results read from this table
+     * @return result cache, or null if results are not cached
+     */
+    public CIPResultCache getResultCache() {
+        return this.resultCache;
+    }
+
+    /**
+     * Gets the metrics of this table, shared with the tables that replace it
+     * when the metadata is reloaded
+     */
+    public CIPTableMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Gives the planner the row count and keys of the table
+     */
+    @Override
+    public Statistic getStatistic() {
+        return getTableStatistics().toStatistic();
+    }
+
+    /**
+     * Gets the statistics of the table. They are read from Postgres on first
+     * use and reloaded in the background once they are older than
+     * statisticsRefreshSeconds; until then the planner uses the cached ones.
+     * @return statistics; unknown if Postgres could not provide them
+     */
+    public CIPTableStatistics getTableStatistics() {
+        CIPTableStatistics current = statistics;
+        if (current == null) {
+            synchronized (this) {
+                if (statistics == null) {
+                    statistics = loadStatistics();
+                }
+                current = statistics;
+            }
+        } else if (statisticsRefreshSeconds > 0
+                && System.currentTimeMillis() - current.getLoadedAtMillis() > statisticsRefreshSeconds * 1000L
+                && statisticsRefreshing.compareAndSet(false, true)) {
+            CIPTableStatistics previous = current;
+            CIPSchema.REFRESH_EXECUTOR.execute(() -> {
+                try {
+                    CIPTableStatistics refreshed = loadStatistics();
+                    if (refreshed.differsFrom(previous)) {
+                        logger.debug(String.format("statistics of table '%s' changed", tableAlias));
+                        CIPTableStatistics.changed();
+                    }
+                    statistics = refreshed;
+                } finally {
+                    statisticsRefreshing.set(false);
+                }
+            });
+        }
+        CIPSnapshot currentSnapshot = snapshot;
+        return currentSnapshot == null ? current : current.withRowCount(currentSnapshot.getRowCount());
+    }
+
+    /**
+     * Reloads the statistics in the background if they are loaded and too old.
+     * Planning does this through getStatistic; statements whose plans are
+     * reused call this instead.
+     */
+    void checkStatistics() {
+        if (statistics != null) {
+            getTableStatistics();
+        }
+    }
+
+    private CIPTableStatistics loadStatistics() {
         try {
+            return CIPTableStatistics.load(connectionPool, tableName, fieldNames,
+                    getParallelism() > 1 ? getSplitColumn() : null);
+        } catch (SQLException e) {
+            logger.warn(String.format("cannot read statistics of table '%s': %s", tableAlias, e.getMessage()));
+            return CIPTableStatistics.UNKNOWN;
+        }
+    }
 
-            Connection connection = DriverManager.getConnection("jdbc:calcite:");
+    /**
+     * Gets the rollups of the table
+     */
+    public List<CIPRollupTable> getRollups() {
+        return rollups;
+    }
 
-            // Unwrap our connection using the CalciteConnection
-            CalciteConnection calciteConnection = connection.unwrap(CalciteConnection.class);
+    /**
+     * Adds a rollup of the table; called before the table is used
+     */
+    void addRollup(CIPRollupTable rollup) {
+        rollups.add(rollup);
+    }
 
-            // Get a pointer to our root schema for our Calcite Connection
-            SchemaPlus rootSchema = calciteConnection.getRootSchema();
+    /**
+     * Whether the table is served from an in-memory snapshot
+     */
+    public boolean isReplicated() {
+        return tableDefinition.isReplicated();
+    }
 
-            // Instantiate a data source, this can be autowired in using Spring as well
-            DataSource postgresDataSource = JdbcSchema.dataSource(
-                    "jdbc:postgresql://localhost:5432/cip_user_db",
-                    "org.postgresql.Driver", // Change this if you want to use something like MySQL, Oracle, etc.
-                    "postgres", // username
-                    "postgres"   // password
-            );
+    /**
+     * Gets the current snapshot of a replicated table
+     * @return snapshot, or null if the table is not replicated or not loaded yet
+     */
+    public CIPSnapshot getSnapshot() {
+        return this.snapshot;
+    }
 
+    /**
+     * Reads the whole table into a new snapshot and swaps it in; queries
+     * already running keep reading the previous one
+     */
+    public void refreshSnapshot() {
+        long start = System.currentTimeMillis();
+        CIPSnapshot newSnapshot = CIPSnapshot.load(cipFieldTypes,
+                new LazyFetchingEnumerator<>(connectionPool, fullScanQuery(), fetchSize, cipFieldTypes, true, null,
+                        CIPCancellation.NONE));
+        snapshot = newSnapshot;
+        logger.info(String.format("loaded snapshot of table '%s': %d rows, %d bytes in %d ms", tableAlias,
+                newSnapshot.getRowCount(), newSnapshot.getSizeBytes(), System.currentTimeMillis() - start));
+    }
 
-            // Attach our Postgres Jdbc Datasource to CIP Root Schema
-            rootSchema.add(POSTGRESQL_SCHEMA, JdbcSchema.create(rootSchema, POSTGRESQL_SCHEMA, postgresDataSource, null, null));
+    /**
+     * Scans the whole table. Queries planned through {@link #toRel} run the
+     * SQL generated by the CIP rules instead.
+     * @param dataContext
+     * @return
+     */
+    @Override
+    public Enumerable<Object[]> scan(DataContext dataContext) {
+        flushWrites();
+        CIPSnapshot currentSnapshot = snapshot;
+        if (currentSnapshot != null) {
+            metrics.snapshotScanned();
+            return currentSnapshot.rows();
+        }
+        CIPCancellation cancellation = cancellation(dataContext);
+        if (CIPParallelScan.isSplit(this)) {
+            return parallelQuery(
+fullScanQuery() + " WHERE " + CIPParallelScan.predicate(this), cipFieldTypes,
+                    true, Collections.emptyList(), new Object[0], CIPParallelScan.Order.NONE, false, cancellation);
+        }
+        if (copyMinRows > 0) {
+            Double rowCount = getTableStatistics().getRowCount();
+            if (rowCount != null && isCopyScan(rowCount)) {
+                return copyQuery(fullScanQuery(), cipFieldTypes, true, Collections.emptyList(), new Object[0],
+                        cancellation, Collections.emptyList());
+            }
+        }
+        return query(fullScanQuery(), cipFieldTypes, true, Collections.emptyList(), new Object[0], cancellation,
+                Collections.emptyList());
+    }
 
-            // Convert each string in the list to a string with double quotes around it
-            List<String> quotedStrings = fieldNames.stream()
-                    .map(s -> "\"" + s + "\"")
-                    .collect(Collectors.toList());
+    /**
+     * Gets the FROM item that reads the table
+     */
+    String fromItem() {
+        return "public." + CIPFilterTranslator.quote(tableName);
+    }
 
-            String commaSeparatedString = String.join(", ", quotedStrings);
+    /**
+     * Builds the SELECT statement that reads every column of the table
+     */
+    String fullScanQuery() {
+        List<String> quotedStrings = new ArrayList<>();
+        for (String fieldName : fieldNames) {
+            quotedStrings.add(CIPFilterTranslator.quote(fieldName));
+        }
+        return "SELECT " + String.join(", ", quotedStrings) + " FROM " + fromItem();
+    }
 
-            String query = "SELECT " +  commaSeparatedString  +   " FROM public." + "\"" + tableName + "\"";
+    /**
+     * Runs a query against the table's connection pool
+     * @param query SQL generated for this table
+     * @param fieldTypes types of the selected columns, in select list order
+     * @param arrayRows whether rows are Object[]; if false, a single-column
+     *                  result yields the bare column value per row
+     * @param parameterTypes types of the bind parameters
+     * @param parameters values of the bind parameters, in Calcite's internal
+     *                   representation
+     * @param cancellation cancel flag and timeout of the statement the query runs for
+     * @param joinedTables other tables the query reads, e.g. the right input
+     *                     of a join; their buffered writes are flushed as well
+     * @return
+     */
+    <E> Enumerable<E> query(String query, List<CIPFieldType> fieldTypes, boolean arrayRows,
+                            List<CIPFieldType> parameterTypes, Object[] parameters, CIPCancellation cancellation,
+                            List<CIPScannableTable> joinedTables) {
+        flushWrites(joinedTables);
+        logger.debug(String.format("generated query for table '%s': %s %s", tableAlias, query,
+                Arrays.toString(parameters)));
+        // The connection is borrowed from the pool when enumeration starts
+        // and returned when the enumerator is closed
+        Enumerable<E> enumerable = new LazyFetchingEnumerable<>(connectionPool, query, fetchSize, fieldTypes,
+                arrayRows, statement -> bind(statement, parameterTypes, parameters), cancellation);
+        return cached(query, arrayRows, parameters, prefetched(metered(enumerable)), joinedTables);
+    }
 
-            Supplier<Connection> connectionSupplier = () -> connection;
-            return new LazyFetchingEnumerable(connectionSupplier, query);
+    /**
+     * Runs a query with binary COPY, see CIPCopyEnumerator; takes the same
+     * arguments as {@link #query}
+     */
+    <E> Enumerable<E> copyQuery(String query, List<CIPFieldType> fieldTypes, boolean arrayRows,
+                                List<CIPFieldType> parameterTypes, Object[] parameters,
+                                CIPCancellation cancellation, List<CIPScannableTable> joinedTables) {
+        flushWrites(joinedTables);
+        logger.debug(String.format("generated copy query for table '%s': %s %s", tableAlias, query,
+                Arrays.toString(parameters)));
+        Enumerable<E> enumerable = new AbstractEnumerable<E>() {
+            @Override
+            public Enumerator<E> enumerator() {
+                return CIPCopyEnumerator.open(connectionPool, query, fetchSize, fieldTypes, arrayRows,
+                        parameterTypes, parameters, cancellation);
+            }
+        };
+        return cached(query, arrayRows, parameters, prefetched(metered(enumerable)), joinedTables);
+    }
 
-        }catch (Exception e)
-        {
-            e.printStackTrace();
+    /**
+     * Records the scans of a query in the table's metrics
+     */
+    private <E> Enumerable<E> metered(Enumerable<E> source) {
+        return new AbstractEnumerable<E>() {
+            @Override
+            public Enumerator<E> enumerator() {
+                return new CIPMeteredEnumerator<>(metrics, source::enumerator);
+            }
+        };
+    }
+
+    /**
+     * Fetches and decodes the rows of a single-connection query on a
+     * background thread while Calcite consumes them, if prefetch is enabled
+     */
+    private <E> Enumerable<E> prefetched(Enumerable<E> source) {
+        if (prefetchQueueDepth <= 0) {
+            return source;
+        }
+        return new AbstractEnumerable<E>() {
+            @Override
+            public Enumerator<E> enumerator() {
+                return new CIPPrefetchEnumerator<>(Collections.singletonList(source::enumerator), true,
+                        prefetchBatchSize, prefetchQueueDepth, 1);
+            }
+        };
+    }
+
+    /**
+     * Runs a query split into partitions of the table, see CIPParallelScan
+     * @param query SQL generated for this table; its last placeholders are
+     *              those of the range predicate of CIPParallelScan.split
+     * @param order order in which partitions are returned
+     * @param nullsLast whether rows with a null split column come last
+     */
+    @SuppressWarnings("unchecked")
+    <E> Enumerable<E> parallelQuery(String query, List<CIPFieldType> fieldTypes, boolean arrayRows,
+                                    List<CIPFieldType> parameterTypes, Object[] parameters,
+                                    CIPParallelScan.Order order, boolean nullsLast, CIPCancellation cancellation) {
+        flushWrites();
+        Enumerable<E> enumerable = (Enumerable<E>) new CIPParallelScan(this, query, fieldTypes, arrayRows,
+                parameterTypes, parameters, order, nullsLast, cancellation);
+        return cached(query, arrayRows, parameters, metered(enumerable), Collections.emptyList());
+    }
+
+    /**
+     * Reads the result of a query through the result cache, if the table has
+     * one. Results of queries that also read other tables are not cached:
+     * writes to those tables only invalidate their own caches.
+     */
+    private <E> Enumerable<E> cached(String query, boolean arrayRows, Object[] parameters, Enumerable<E> enumerable,
+                                     List<CIPScannableTable> joinedTables) {
+        if (resultCache == null || !joinedTables.isEmpty()) {
+            return enumerable;
+        }
+
+        return new AbstractEnumerable<E>() {
+            @Override
+            public Enumerator<E> enumerator() {
+                List<E> rows = resultCache.get(query, arrayRows, parameters, enumerable::enumerator);
+                return rows != null ? Linq4j.enumerator(rows) : enumerable.enumerator();
+            }
+        };
+    }
+
+    /**
+     * Binds parameters to a prepared statement, starting at the first placeholder
+     */
+    static void bind(PreparedStatement statement, List<CIPFieldType> parameterTypes, Object[] parameters)
+            throws SQLException {
+        for (int i = 0; i < parameters.length; i++) {
+            statement.setObject(i + 1, toJdbcValue(parameterTypes.get(i), parameters[i]));
         }
-        return null;
     }
 
     /**
-     * Get fields and their types in a row
+     * Converts a value from Calcite's internal representation to the JDBC
+     * object bound for a column of the given type, the reverse of CIPColumnReader
+     */
+    static Object toJdbcValue(CIPFieldType type, Object value) {
+        if (!(value instanceof Number)) {
+            return value;
+        }
+        Number number = (Number) value;
+        switch (type) {
+            case BYTE:
+                return number.byteValue();
+            case SHORT:
+                return number.shortValue();
+            case INT:
+                return number.intValue();
+            case LONG:
+                return number.longValue();
+            case FLOAT:
+                return number.floatValue();
+            case DOUBLE:
+                return number.doubleValue();
+            case DATE:
+                return java.sql.Date.valueOf(LocalDate.ofEpochDay(number.longValue()));
+            case TIME:
+                return Time.valueOf(LocalTime.ofNanoOfDay(number.longValue() * 1_000_000L));
+            case TIMESTAMP:
+                return Timestamp.valueOf(LocalDateTime.ofInstant(Instant.ofEpochMilli(number.longValue()), ZoneOffset.UTC));
+            default:
+                return value;
+        }
+    }
+
+    /**
+     * Looks up the rows of one chunk of join keys
+     * @param query SQL generated for this table; the last placeholder is an
+     *              array parameter for the keys
+     * @param fieldTypes types of the selected columns, in select list order
+     * @param parameterTypes types of the other bind parameters
+     * @param parameters values of the other bind parameters
+     * @param keys distinct join keys
+     * @param arrayType Postgres element type of the key array
+     * @param cancellation cancel flag and timeout of the statement the lookup runs for
+     * @param joinedTables other tables the query reads; their buffered writes are flushed as well
+     * @return enumerator over Object[] rows; the query runs on its first moveNext
+
+     */
+    Enumerator<Object[]> lookup(String query, List<CIPFieldType> fieldTypes, List<CIPFieldType> parameterTypes,
+                                Object[] parameters, List<Object> keys, String arrayType,
+                                CIPCancellation cancellation, List<CIPScannableTable> joinedTables) {
+        flushWrites(joinedTables);
+        logger.debug(String.format("looking up %d keys in table '%s': %s %s", keys.size(), tableAlias, query,
+                Arrays.toString(parameters)));
+        return new CIPMeteredEnumerator<>(metrics, () -> new LazyFetchingEnumerator<>(connectionPool, query,
+                fetchSize, fieldTypes, true, statement -> {
+                    bind(statement, parameterTypes, parameters);
+                    statement.setArray(parameters.length + 1,
+                            statement.getConnection().createArrayOf(arrayType, keys.toArray()));
+                }, cancellation));
+    }
+
+    /**
+     * Writes rows buffered by INSERT statements, so that queries see them
+     */
+    void flushWrites() {
+        if (writer.hasPending()) {
+            writer.flush();
+        }
+    }
+
+    /**
+     * Drops the rows buffered by INSERT statements that are not written yet
+     * @return number of rows dropped
+     */
+    int discardWrites() {
+        return writer.discardPending();
+    }
+
+    /**
+     * Writes the rows buffered for this table and for the other tables a
+     * query reads
+     */
+
+    void flushWrites(List<CIPScannableTable> joinedTables) {
+        flushWrites();
+        for (CIPScannableTable table : joinedTables) {
+            table.flushWrites();
+        }
+    }
+
+    /**
+     * Called by the writer after rows were written: drops cached results,
+     * reloads the snapshot of a replicated table and rebuilds the rollups
+     */
+    void rowsWritten() {
+        if (resultCache != null) {
+            resultCache.invalidateAll();
+        }
+        if (snapshot != null) {
+            refreshSnapshot();
+        }
+        for (CIPRollupTable rollup : rollups) {
+            rollup.markStale();
+            rollup.refreshLater();
+        }
+    }
+
+    /**
+     * Inserts rows; called via code generation through CIPTableModify
+     * @return number of rows inserted
+     */
+    long insert(Enumerator<Object[]> rows) {
+        return writer.insert(rows);
+    }
+
+    @Override
+    public Collection<Object[]> getModifiableCollection() {
+        return writer.collection();
+    }
+
+    /**
+     * Plans an INSERT into the table. The rows are written by CIPTableModify;
+     * UPDATE and DELETE are not supported.
+     */
+    @Override
+    public TableModify toModificationRel(RelOptCluster cluster, RelOptTable table,
+                                         Prepare.CatalogReader catalogReader, RelNode child,
+                                         TableModify.Operation operation, List<String> updateColumnList,
+                                         List<RexNode> sourceExpressionList, boolean flattened) {
+        if (operation != TableModify.Operation.INSERT) {
+            throw new UnsupportedOperationException(operation + " is not supported on table " + tableAlias);
+        }
+        // An INSERT ... VALUES has no CIPTableScan to register the rule
+        cluster.getPlanner().addRule(CIPRules.CIPTableModifyRule.INSTANCE);
+        return LogicalTableModify.create(table, catalogReader, child, operation, updateColumnList,
+                sourceExpressionList, flattened);
+    }
+
+    @Override
+    public RelNode toRel(RelOptTable.ToRelContext context, RelOptTable relOptTable) {
+        RelOptCluster cluster = context.getCluster();
+        if (isReplicated()) {
+            // Read from the snapshot; filters and joins run in memory
+            return LogicalTableScan.create(cluster, relOptTable, ImmutableList.of());
+        }
+        return new CIPTableScan(cluster, cluster.traitSetOf(CIPRel.CONVENTION), relOptTable, this);
+    }
+
+    @Override
+    public <T> Queryable<T> asQueryable(QueryProvider queryProvider, SchemaPlus schema, String tableName) {
+        return new CIPQueryable<>(queryProvider, schema, this, tableName);
+    }
+
+    /**
+     * Gets the fields of a row, with each column's native SQL type. The row
+     * type is built once; Calcite interns types across type factories, so it
+     * is reused for every factory with the same type system.
      * @param typeFactory
-     * @return
+     * @return row type, with the alias names of the columns
      */
     public RelDataType getRowType(RelDataTypeFactory typeFactory) {
+        Pair<RelDataTypeSystem, RelDataType> current = rowType;
+        if (current != null && current.left == typeFactory.getTypeSystem()) {
+            return current.right;
+        }
+        List<RelDataType> fieldTypes = new ArrayList<>();
+        for (CIPFieldType cipFieldType : cipFieldTypes) {
+            fieldTypes.add(cipFieldType.toType((JavaTypeFactory) typeFactory));
+        }
+        // Note: The column names are provided as alias names (i.e. fieldAliasNames)
+        RelDataType type = typeFactory.createStructType(Pair.zip(fieldAliasNames, fieldTypes));
+        rowType = Pair.of(typeFactory.getTypeSystem(), type);
+        return type;
+    }
 
-        for (CIPFieldType cipFieldType : cipFieldTypes)
-        {
-            switch(cipFieldType)
-            {
-                case STRING:
-                    fieldTypes.add(CIPFieldType.STRING.toType((JavaTypeFactory) typeFactory));
-                    break;
+    /**
+     * Implementation of Queryable that the code generated by
+     * CIPToEnumerableConverter calls to run a query.
+     * @param <T> element type
+     */
+    public static class CIPQueryable<T> extends AbstractTableQueryable<T> {
+
+        public CIPQueryable(QueryProvider queryProvider, SchemaPlus schema, CIPScannableTable table,
+                            String tableName) {
+            super(queryProvider, schema, table, tableName);
+        }
 
-                case BOOLEAN:
-                    fieldTypes.add(CIPFieldType.BOOLEAN.toType((JavaTypeFactory) typeFactory));
-                    break;
+        @Override
+        public Enumerator<T> enumerator() {
+            @SuppressWarnings("unchecked")
+            Enumerator<T> enumerator = (Enumerator<T>) ((CIPScannableTable) table).scan(null).enumerator();
+            return enumerator;
+        }
+
+        /**
+         * Called via code generation
+         */
+        @SuppressWarnings("UnusedDeclaration")
+        public Enumerable<Object> query(DataContext dataContext, String query, List<CIPFieldType> fieldTypes,
+                                        boolean arrayRows, List<CIPFieldType> parameterTypes, Object[] parameters,
+                                        CIPQueryable<?>[] joinedQueryables) {
+            CIPScannableTable cipTable = (CIPScannableTable) table;
+            List<CIPScannableTable> joinedTables = tables(joinedQueryables);
+            return cipTable.query(query, fieldTypes, arrayRows, parameterTypes, parameters,
+                    cipTable.cancellation(dataContext, joinedTables), joinedTables);
+        }
+
+        private static List<CIPScannableTable> tables(CIPQueryable<?>[] queryables) {
+            List<CIPScannableTable> tables = new ArrayList<>(queryables.length);
+            for (CIPQueryable<?> queryable : queryables) {
+                tables.add((CIPScannableTable) queryable.table);
             }
+            return tables;
         }
 
-        // Note: The column names are provided as alias names (i.e. fieldAliasNames)
-        return typeFactory.createStructType(Pair.zip(fieldAliasNames, fieldTypes));
+        /**
+         * Called via code generation
+         */
+        @SuppressWarnings("UnusedDeclaration")
+        public Enumerable<Long> insert(Enumerable<Object[]> rows) {
+            return Linq4j.singletonEnumerable(((CIPScannableTable) table).insert(rows.enumerator()));
+        }
+
+        /**
+         * Called via code generation
+         */
+        @SuppressWarnings("UnusedDeclaration")
+        public Enumerable<Object> copyQuery(DataContext dataContext, String query, List<CIPFieldType> fieldTypes,
+                                            boolean arrayRows, List<CIPFieldType> parameterTypes,
+                                            Object[] parameters, CIPQueryable<?>[] joinedQueryables) {
+            CIPScannableTable cipTable = (CIPScannableTable) table;
+            List<CIPScannableTable> joinedTables = tables(joinedQueryables);
+            return cipTable.copyQuery(query, fieldTypes, arrayRows, parameterTypes, parameters,
+                    cipTable.cancellation(dataContext, joinedTables), joinedTables);
+        }
+
+
+        /**
+         * Called via code generation
+         */
+        @SuppressWarnings("UnusedDeclaration")
+        public Enumerable<Object> parallelQuery(DataContext dataContext, String query,
+                                                List<CIPFieldType> fieldTypes, boolean arrayRows,
+                                                List<CIPFieldType> parameterTypes, Object[] parameters,
+                                                String order, boolean nullsLast) {
+            CIPScannableTable cipTable = (CIPScannableTable) table;
+            return cipTable.parallelQuery(query, fieldTypes, arrayRows, parameterTypes, parameters,
+                    CIPParallelScan.Order.valueOf(order), nullsLast, cipTable.cancellation(dataContext));
+        }
+
+        /**
+         * Called via code generation
+         */
+        @SuppressWarnings("UnusedDeclaration")
+        public Enumerable<Object[]> lookupJoin(DataContext dataContext, Enumerable<Object[]> outer, int outerKey,
+                                               String query,
+                                               List<CIPFieldType> fieldTypes, List<CIPFieldType> parameterTypes,
+                                               Object[] parameters, int innerKey, String arrayType,
+                                               boolean innerOnLeft, boolean leftJoin,
+                                               CIPQueryable<?>[] joinedQueryables) {
+            CIPScannableTable cipTable = (CIPScannableTable) table;
+            List<CIPScannableTable> joinedTables = tables(joinedQueryables);
+            return new CIPLookupJoin.LookupJoinEnumerable(cipTable, outer, outerKey, query, fieldTypes,
+                    parameterTypes, parameters, innerKey, arrayType, innerOnLeft, leftJoin,
+                    cipTable.getLookupChunkSize(), cipTable.cancellation(dataContext, joinedTables), joinedTables);
+        }
+    }
+
+    /**
+     * Binds the parameters of a prepared query before it is executed
+     */
+    interface StatementBinder {
+        void bind(PreparedStatement statement) throws SQLException;
     }
 
     // Custom enumerable for lazy fetching
-    private static class LazyFetchingEnumerable extends AbstractEnumerable<Object[]> {
-        private final Supplier<Connection> connectionSupplier;
+    private static class LazyFetchingEnumerable<E> extends AbstractEnumerable<E> {
+        private final CIPConnectionPool connectionPool;
         private final String query;
+        private final int fetchSize;
+        private final List<CIPFieldType> fieldTypes;
+        private final boolean arrayRows;
+        private final StatementBinder binder;
+        private final CIPCancellation cancellation;
 
-        public LazyFetchingEnumerable(Supplier<Connection> connectionSupplier, String query) {
-            this.connectionSupplier = connectionSupplier;
+        /**
+         * @param fieldTypes types of the selected columns, in select list order
+         * @param arrayRows whether rows are Object[]; if false, a single-column
+         *                  result yields the bare column value per row
+         * @param binder binds the query parameters, or null if the query has none
+         * @param cancellation cancel flag and timeout of the statement the query runs for
+         */
+        public LazyFetchingEnumerable(CIPConnectionPool connectionPool, String query, int fetchSize,
+                                      List<CIPFieldType> fieldTypes, boolean arrayRows, StatementBinder binder,
+                                      CIPCancellation cancellation) {
+            this.connectionPool = connectionPool;
             this.query = query;
+            this.fetchSize = fetchSize;
+            this.fieldTypes = fieldTypes;
+            this.arrayRows = arrayRows;
+            this.binder = binder;
+            this.cancellation = cancellation;
         }
 
         @Override
-        public Enumerator<Object[]> enumerator() {
-            return new LazyFetchingEnumerator(connectionSupplier, query);
+        public Enumerator<E> enumerator() {
+            return new LazyFetchingEnumerator<>(connectionPool, query, fetchSize, fieldTypes, arrayRows, binder,
+                    cancellation);
         }
     }
 
-    // Custom enumerator for lazy fetching
-    private static class LazyFetchingEnumerator implements Enumerator<Object[]> {
+    // Custom enumerator for lazy fetching; the query runs on the first
+    // moveNext, so the enumerator can be canceled while it runs
+    static class LazyFetchingEnumerator<E> implements Enumerator<E>, CIPCancellation.Cancelable {
+        private final CIPConnectionPool connectionPool;
+        private final String query;
+        private final int fetchSize;
+        private final List<CIPFieldType> fieldTypes;
+        private final StatementBinder binder;
         private Connection connection;
         private Statement statement;
         private ResultSet resultSet;
+        private boolean streaming;
+        private boolean closed;
+        private final CIPCancellation cancellation;
+        private volatile CIPCancellation.Watch watch;
+        // Set by cancel(), which may come before the query runs
+        private volatile boolean cancelRequested;
 
-        public LazyFetchingEnumerator(Supplier<Connection> connectionSupplier, String query) {
+        // One reader per selected column, resolved when the query has run
+        private CIPColumnReader[] readers;
+        private final boolean scalarRows;
+
+        public LazyFetchingEnumerator(CIPConnectionPool connectionPool, String query, int fetchSize,
+                                      List<CIPFieldType> fieldTypes, boolean arrayRows, StatementBinder binder,
+                                      CIPCancellation cancellation) {
+            this.connectionPool = connectionPool;
+            this.query = query;
+            this.fetchSize = fetchSize;
+            this.fieldTypes = fieldTypes;
+            this.binder = binder;
+            this.scalarRows = !arrayRows && fieldTypes.size() == 1;
+            this.cancellation = cancellation;
+        }
+
+        /**
+         * Runs the query
+         */
+        private void execute() {
+            cancellation.check();
             try {
-                connection = connectionSupplier.get();
-                statement = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
-                resultSet = statement.executeQuery(query);
-                resultSet.setFetchSize(Integer.MIN_VALUE); // Enable streaming result set
+                connection = connectionPool.getConnection();
+                // The Postgres driver only reads through a server-side cursor when
+                // autocommit is off and the fetch size is set before execution;
+                // otherwise it buffers the whole result set on the heap.
+                if (fetchSize > 0) {
+                    connection.setAutoCommit(false);
+                    streaming = true;
+                }
+                // Always prepared: the pool caches statements per connection by
+                // SQL text, so repeated queries reuse the server-side plan
+                PreparedStatement preparedStatement = connection.prepareStatement(query,
+                        ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+                statement = preparedStatement;
+                preparedStatement.setFetchSize(fetchSize);
+                // Also clears the timeout a cached statement was last executed with
+                preparedStatement.setQueryTimeout(cancellation.getTimeoutSeconds());
+                if (binder != null) {
+                    binder.bind(preparedStatement);
+                }
+                CIPCancellation.Watch newWatch = cancellation.watch(preparedStatement::cancel);
+                watch = newWatch;
+                if (cancelRequested) {
+                    // cancel() came before there was a watch to cancel
+                    newWatch.cancel();
+                }
+                if (newWatch.isCancelled()) {
+                    close();
+                    throw cancellation.error(null);
+                }
+                resultSet = preparedStatement.executeQuery();
+                connectionPool.recordExecution(preparedStatement);
+                readers = CIPColumnReader.of(fieldTypes, resultSet.getMetaData());
             } catch (SQLException e) {
-                throw new RuntimeException("Error creating lazy fetching enumerator", e);
+                // Return the connection to the pool before giving up
+                close();
+                throw cancellation.isCancelled() ? cancellation.error(e)
+                        : new RuntimeException("Error creating lazy fetching enumerator", e);
             }
         }
 
         @Override
-        public Object[] current() {
+        @SuppressWarnings("unchecked")
+        public E current() {
             try {
                 // Read data from the current row of the result set
-                Object[] rowData = new Object[resultSet.getMetaData().getColumnCount()];
+                if (scalarRows) {
+                    return (E) readers[0].read(resultSet, 1);
+                }
+                Object[] rowData = new Object[readers.length];
                 for (int i = 0; i < rowData.length; i++) {
-                    rowData[i] = resultSet.getObject(i + 1); // ResultSet indices are 1-based
+                    rowData[i] = readers[i].read(resultSet, i + 1); // ResultSet indices are 1-based
                 }
-                return rowData;
+                return (E) rowData;
             } catch (SQLException e) {
                 throw new RuntimeException("Error fetching data from result set", e);
             }
@@ -187,10 +950,25 @@ public class CIPScannableTable extends AbstractTable
 
         @Override
         public boolean moveNext() {
+            if (resultSet == null) {
+                if (closed) {
+                    return false;
+                }
+                execute();
+            }
+            if (watch.isCancelled()) {
+                // Stop reading rows already fetched as well
+                close();
+                throw cancellation.error(null);
+            }
             try {
                 // Move to the next row
                 return resultSet.next();
             } catch (SQLException e) {
+                if (cancellation.isCancelled()) {
+                    close();
+                    throw cancellation.error(e);
+                }
                 throw new RuntimeException("Error moving to next row", e);
             }
         }
@@ -200,21 +978,78 @@ public class CIPScannableTable extends AbstractTable
             throw new UnsupportedOperationException("Reset operation not supported");
         }
 
+        @Override
+        public void cancel() {
+            cancelRequested = true;
+            CIPCancellation.Watch current = watch;
+            if (current != null) {
+                current.cancel();
+            }
+        }
+
+        /**
+         * Closes the result set, the statement and the connection, each even if
+         * closing the previous one failed, so the connection always goes back
+         * to the pool
+         */
         @Override
         public void close() {
+            closed = true;
+            SQLException error = null;
             try {
+                if (watch != null) {
+                    // Before the connection goes back to the pool
+                    watch.close();
+                }
+            } finally {
                 if (resultSet != null) {
-                    resultSet.close();
+                    try {
+                        resultSet.close();
+                    } catch (SQLException e) {
+                        error = e;
+                    } finally {
+                        resultSet = null;
+                    }
                 }
                 if (statement != null) {
-                    statement.close();
+                    try {
+                        statement.close();
+                    } catch (SQLException e) {
+                        error = suppress(error, e);
+                    } finally {
+                        statement = null;
+                    }
                 }
                 if (connection != null) {
-                    connection.close();
+                    try {
+                        if (streaming) {
+                            // Ends the read-only cursor transaction
+                            connection.setAutoCommit(true);
+                        }
+                    } catch (SQLException e) {
+                        error = suppress(error, e);
+                    } finally {
+                        try {
+                            connection.close();
+                        } catch (SQLException e) {
+                            error = suppress(error, e);
+                        } finally {
+                            connection = null;
+                        }
+                    }
                 }
-            } catch (SQLException e) {
-                throw new RuntimeException("Error closing resources", e);
             }
+            if (error != null) {
+                throw new RuntimeException("Error closing resources", error);
+            }
+        }
+
+        private static SQLException suppress(SQLException error, SQLException e) {
+            if (error == null) {
+                return e;
+            }
+            error.addSuppressed(e);
+            return error;
         }
     }
 }
@@ -1,5 +1,6 @@
 package org.calcite.adapter.cip;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.ImmutableMap;
 import org.apache.calcite.adapter.java.JavaTypeFactory;
@@ -13,10 +14,23 @@ import org.slf4j.LoggerFactory;
 import org.cip.TableDefinition;
 import org.cip.TableDefinitions;
 import org.cip.ColumnDefinition;
+import org.cip.RollupDefinition;
 
-import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
 import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 /**
  * CIPSchema class
@@ -25,47 +39,205 @@ public class CIPSchema extends AbstractSchema {
 
     Logger logger = LoggerFactory.getLogger(CIPSchema.class);
 
+    static final int DEFAULT_FETCH_SIZE = 1000;
+
+    static final int DEFAULT_LOOKUP_CHUNK_SIZE = 1000;
+
+    static final int DEFAULT_REFRESH_SECONDS = 300;
+
+    static final int DEFAULT_STATISTICS_REFRESH_SECONDS = 3600;
+
+    static final int DEFAULT_PREFETCH_BATCH_SIZE = 256;
+
+    static final int DEFAULT_PREFETCH_QUEUE_DEPTH = 4;
+
+    static final long DEFAULT_COPY_MIN_ROWS = 100_000;
+
+    static final int DEFAULT_INSERT_BATCH_SIZE = 1000;
+
+    // Read when no metadataPath is configured and the server runs from the project directory
+    static final String DEFAULT_METADATA_PATH = "src/main/resources/table_metadata.json";
+
+    // Read from the classpath otherwise
+    static final String METADATA_RESOURCE = "table_metadata.json";
+
+    // Editors write a file in several steps; changes are reloaded once they settle
+    private static final long RELOAD_DELAY_MILLIS = 500;
+
+    // Reloads the snapshots of replicated tables and table statistics, and
+    // flushes rows buffered by INSERT statements
+    static final ScheduledExecutorService REFRESH_EXECUTOR = Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+                Thread thread = new Thread(runnable, "cip-refresh");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    // Builds rollups, which aggregate whole tables and would hold up the
+    // short tasks of the refresh thread
+    static final ScheduledExecutorService ROLLUP_EXECUTOR = Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+                Thread thread = new Thread(runnable, "cip-rollup");
+                thread.setDaemon(true);
+                return thread;
+            });
+
     private final String group;
 
-    private Map<String, Table> tableMap;
+    private final CIPConnectionPool connectionPool;
+
+    private final int fetchSize;
+
+    private final int lookupChunkSize;
+
+    private final long cacheTtlSeconds;
+
+    private final long cacheMaxBytes;
+
+    private final int refreshSeconds;
+
+    private final int statisticsRefreshSeconds;
+
+    private final int prefetchBatchSize;
+
+    private final int prefetchQueueDepth;
+
+    private final long copyMinRows;
+
+    private final int insertBatchSize;
+
+    private final long insertFlushMillis;
+
+    private final int queryTimeoutSeconds;
+
+    // Null when the metadata is read from the classpath
+    private final Path metadataFile;
+
+    private final boolean watchMetadata;
+
+    // Replaced as a whole on reload, so queries read it without locking
+    private volatile Map<String, Table> tableMap;
+
+    private volatile long metadataVersion;
+
+    // Definitions the current tables were created from, by table name
+    private Map<String, JsonNode> tableDefinitions = new HashMap<>();
+
+    // Snapshot reloads of the current replicated tables and rebuilds of rollups
+    private final Map<Table, ScheduledFuture<?>> refreshTasks = new IdentityHashMap<>();
 
     private final ObjectMapper objectMapper = new ObjectMapper();
 
+    // Null unless the metadata file is watched
+    private WatchService watchService;
 
-    public CIPSchema(String group) {
+
+    /**
+     * @param metadataPath table metadata file; null to read {@link #DEFAULT_METADATA_PATH}
+     *                     if it exists, else {@link #METADATA_RESOURCE} from the classpath
+     * @param watchMetadata whether changes to the metadata file are reloaded
+     * @param queryTimeoutSeconds timeout of statements that set none; 0 for none
+     */
+    public CIPSchema(String group, CIPConnectionPool connectionPool, int fetchSize, int lookupChunkSize,
+                     long cacheTtlSeconds, long cacheMaxBytes, int refreshSeconds, int statisticsRefreshSeconds,
+                     int prefetchBatchSize, int prefetchQueueDepth, long copyMinRows,
+                     int insertBatchSize, long insertFlushMillis, int queryTimeoutSeconds, String metadataPath,
+                     boolean watchMetadata) {
         this.group = group;
+        this.connectionPool = connectionPool;
+        this.fetchSize = fetchSize;
+        this.lookupChunkSize = lookupChunkSize;
+        this.cacheTtlSeconds = cacheTtlSeconds;
+        this.cacheMaxBytes = cacheMaxBytes;
+        this.refreshSeconds = refreshSeconds;
+        this.statisticsRefreshSeconds = statisticsRefreshSeconds;
+        this.prefetchBatchSize = prefetchBatchSize;
+        this.prefetchQueueDepth = prefetchQueueDepth;
+        this.copyMinRows = copyMinRows;
+        this.insertBatchSize = insertBatchSize;
+        this.insertFlushMillis = insertFlushMillis;
+        this.queryTimeoutSeconds = queryTimeoutSeconds;
+        if (metadataPath != null) {
+            this.metadataFile = Paths.get(metadataPath);
+        } else if (Files.exists(Paths.get(DEFAULT_METADATA_PATH))) {
+            this.metadataFile = Paths.get(DEFAULT_METADATA_PATH);
+        } else {
+            this.metadataFile = null;
+        }
+        this.watchMetadata = watchMetadata;
     }
 
     /**
-     * Gets the table map under this schema
+     * Gets the Postgres connection pool shared by the tables of this schema
+     * @return connection pool
+     */
+    public CIPConnectionPool getConnectionPool() {
+        return connectionPool;
+    }
+
+    /**
+     * Gets the table map under this schema. The metadata is read on first
+     * use; after that the map is replaced when the metadata file changes.
      * @return Map of TableName and Table object
      */
     @Override protected Map<String, Table> getTableMap() {
-        if (tableMap == null) {
-            TableDefinitions tableDefinitions = readTableMetadata();
-            tableMap = createTableMap(tableDefinitions);
+        Map<String, Table> current = tableMap;
+        if (current == null) {
+            synchronized (this) {
+                if (tableMap == null) {
+                    reload();
+                    watchMetadata();
+                }
+                current = tableMap;
+            }
         }
-        return tableMap;
+        return current;
     }
 
+    /**
+     * Gets the number of times the table map was loaded; changes whenever
+     * tables were added, changed or removed
+     * @return metadata version
+     */
+    public long getMetadataVersion() {
+        return metadataVersion;
+    }
+
+    /**
+     * Gets the version of what plans on this schema depend on: the table
+     * metadata, loaded if it was not yet, and the statistics of the tables
+     * and which rollups are built, as that decides whether they are used
+     * @return metadata version, statistics version and number of rollups built
+     */
+    List<Long> getPlanVersion() {
+        long rollupsLoaded = 0;
+        for (Table table : getTableMap().values()) {
+            if (table instanceof CIPScannableTable) {
+                ((CIPScannableTable) table).checkStatistics();
+            } else if (table instanceof CIPRollupTable && ((CIPRollupTable) table).isLoaded()) {
+                rollupsLoaded++;
+            }
+        }
+        return Arrays.asList(metadataVersion, CIPTableStatistics.getVersion(), rollupsLoaded);
+    }
 
     TableDefinitions readTableMetadata()
     {
-        File file = new File("src/main/resources/table_metadata.json");
-
-        // Create ObjectMapper
-        ObjectMapper mapper = new ObjectMapper();
-
         // Deserialize JSON to TableDefinitions object
-        TableDefinitions tableDefinitions = null;
         try {
-            tableDefinitions = mapper.readValue(file, TableDefinitions.class);
+            if (metadataFile != null) {
+                return objectMapper.readValue(metadataFile.toFile(), TableDefinitions.class);
+            }
+            try (InputStream in = CIPSchema.class.getClassLoader().getResourceAsStream(METADATA_RESOURCE)) {
+                if (in == null) {
+                    throw new RuntimeException("Table metadata " + METADATA_RESOURCE + " not found on the classpath");
+                }
+                return objectMapper.readValue(in, TableDefinitions.class);
+            }
         } catch (IOException e) {
-            throw new RuntimeException(e);
+            throw new RuntimeException("Error reading table metadata", e);
         }
 
-        return tableDefinitions;
-
 /*
         // Print table definitions
         for (TableDefinition table : tableDefinitions.getTables()) {
@@ -82,12 +254,21 @@ public class CIPSchema extends AbstractSchema {
     }
 
     /**
-     * Creates the table map for the specified CIP group
-     * @return Map of tableName and CIPScannableTable
+     * Reads the metadata and publishes a new table map for the specified CIP
+     * group. Tables whose definition did not change are kept, with their
+     * caches, statistics, snapshots and rollups; the others are created anew. Queries
+     * that already resolved a replaced table finish with it. Background work of
+     * the new tables starts only once the map is published, so a reload that
+     * fails leaves nothing running.
      */
-    private Map<String, Table> createTableMap(TableDefinitions tableDefinitions) {
+    synchronized void reload() {
+        TableDefinitions definitions = readTableMetadata();
+        Map<String, Table> previous = tableMap == null ? ImmutableMap.of() : tableMap;
 
         final ImmutableMap.Builder<String, Table> builder = ImmutableMap.builder();
+        Map<String, JsonNode> newTableDefinitions = new HashMap<>();
+        List<String> created = new ArrayList<>();
+        Map<CIPScannableTable, TableDefinition> createdTables = new IdentityHashMap<>();
 
         logger.debug(String.format("getting tables for group: '%s'", this.group));
 
@@ -96,18 +277,242 @@ public class CIPSchema extends AbstractSchema {
          */
         if (this.group.equals("cip")) {
 
-            for (TableDefinition tableDefinition : tableDefinitions.getTables())
+            for (TableDefinition tableDefinition : definitions.getTables())
             {
-                CIPScannableTable table = (CIPScannableTable) createTable(tableDefinition);
                 // Note: The table names are provided as alias names (i.e. getTableAlias)
-                builder.put(table.getTableAlias().toUpperCase(Locale.getDefault()), table);
+                String name = tableDefinition.getAlias().toUpperCase(Locale.getDefault());
+                JsonNode json = objectMapper.valueToTree(tableDefinition);
+                Table table = previous.get(name);
+                if (table == null || !json.equals(tableDefinitions.get(name))) {
+                    table = createTable(tableDefinition);
+                    created.add(name);
+                    createdTables.put((CIPScannableTable) table, tableDefinition);
+                }
+                builder.put(name, table);
+                for (CIPRollupTable rollup : ((CIPScannableTable) table).getRollups()) {
+                    builder.put(rollup.getName(), rollup);
+                }
+                newTableDefinitions.put(name, json);
+            }
+        }
+        Map<String, Table> newTableMap = builder.build();
+
+        List<String> removed = new ArrayList<>();
+        for (Map.Entry<String, Table> entry : previous.entrySet()) {
+            if (newTableMap.get(entry.getKey()) != entry.getValue()) {
+                retire(entry.getValue());
+                if (!newTableMap.containsKey(entry.getKey())) {
+                    removed.add(entry.getKey());
+                }
+            }
+        }
+
+        tableDefinitions = newTableDefinitions;
+        tableMap = newTableMap;
+        metadataVersion++;
+        for (Map.Entry<CIPScannableTable, TableDefinition> entry : createdTables.entrySet()) {
+            start(entry.getKey(), entry.getValue());
+        }
+        logger.info(String.format("loaded table metadata version %d for group '%s': %d tables, created %s,"
+                + " removed %s", metadataVersion, group, newTableMap.size(), created, removed));
+    }
+
+    /**
+     * Stops the background work of a table or rollup that is no longer in the
+     * table map
+     */
+    private void retire(Table table) {
+        ScheduledFuture<?> refreshTask = refreshTasks.remove(table);
+        if (refreshTask != null) {
+            refreshTask.cancel(false);
+        }
+        if (table instanceof CIPScannableTable) {
+            try {
+                ((CIPScannableTable) table).flushWrites();
+            } catch (RuntimeException e) {
+                // The writer keeps retrying in the background
+                logger.error(String.format("cannot write the rows buffered for retired table '%s'",
+                        ((CIPScannableTable) table).getTableAlias()), e);
+            }
+        } else if (table instanceof CIPRollupTable) {
+            CIPMetrics.unregister((CIPRollupTable) table);
+        }
+    }
+
+    /**
+     * Stops the refresh tasks and the metadata watcher, flushes buffered
+     * rows, and closes the connection pool. Called when the schema is evicted
+     * from {@link CIPSchemaFactory}; the schema cannot be used afterwards.
+     */
+    public synchronized void close() {
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                logger.warn(String.format("error closing the watcher of table metadata '%s'", metadataFile), e);
+            }
+            watchService = null;
+        }
+        if (tableMap != null) {
+            for (Table table : tableMap.values()) {
+                try {
+                    retire(table);
+                } catch (RuntimeException e) {
+                    logger.error("error retiring table on close", e);
+                }
+                if (table instanceof CIPScannableTable) {
+                    // Rows that could not be written are lost with the pool
+                    int discarded = ((CIPScannableTable) table).discardWrites();
+                    if (discarded > 0) {
+                        logger.error(String.format("%d rows buffered for table '%s' are lost",
+                                discarded, ((CIPScannableTable) table).getTableAlias()));
+                    }
+                }
+            }
+        }
+        connectionPool.close();
+        logger.info(String.format("closed schema for group '%s'", group));
+    }
+
+    /**
+     * Reloads the table map on a daemon thread whenever the metadata file
+     * changes. A file that cannot be read keeps the current tables.
+     */
+    private void watchMetadata() {
+        if (!watchMetadata || metadataFile == null) {
+            return;
+        }
+        Path directory = metadataFile.toAbsolutePath().getParent();
+        WatchService watchService;
+        try {
+            watchService = directory.getFileSystem().newWatchService();
+            directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException e) {
+            logger.warn(String.format("cannot watch table metadata '%s'; changes are not reloaded", metadataFile), e);
+            return;
+        }
+        this.watchService = watchService;
+        Thread thread = new Thread(() -> watch(watchService), "cip-metadata-watch");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void watch(WatchService watchService) {
+        Path fileName = metadataFile.getFileName();
+        try {
+            while (true) {
+                if (!changed(watchService.take(), fileName)) {
+                    continue;
+                }
+                Thread.sleep(RELOAD_DELAY_MILLIS);
+                WatchKey key;
+                while ((key = watchService.poll()) != null) {
+                    changed(key, fileName);
+                }
+                try {
+                    reload();
+                } catch (RuntimeException e) {
+                    logger.error(String.format("error reloading table metadata '%s'; keeping the current tables",
+                            metadataFile), e);
+                }
             }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            logger.debug("stopped watching table metadata");
         }
-        return builder.build();
     }
 
+    /**
+     * Consumes the events of a watch key
+     * @return whether one of them is about the metadata file
+     */
+    private static boolean changed(WatchKey key, Path fileName) {
+        boolean changed = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (fileName.equals(event.context())) {
+                changed = true;
+            }
+        }
+        key.reset();
+        return changed;
+    }
+
+    /**
+     * Creates a table and its rollups, loading the snapshot if it is
+     * replicated; nothing runs in the background until {@link #start}
+     */
     private Table createTable (TableDefinition tableDefinition) {
 
-        return new CIPScannableTable(tableDefinition);
+        int tableFetchSize = tableDefinition.getFetchSize() != null ? tableDefinition.getFetchSize() : fetchSize;
+        long tableCacheTtlSeconds = tableDefinition.getCacheTtlSeconds() != null
+                ? tableDefinition.getCacheTtlSeconds() : cacheTtlSeconds;
+        long tableCacheMaxBytes = tableDefinition.getCacheMaxBytes() != null
+                ? tableDefinition.getCacheMaxBytes() : cacheMaxBytes;
+        CIPResultCache resultCache = CIPResultCache.of(tableDefinition.getAlias(), tableCacheTtlSeconds,
+                tableCacheMaxBytes);
+        long tableCopyMinRows = tableDefinition.getCopyMinRows() != null
+                ? tableDefinition.getCopyMinRows() : copyMinRows;
+        CIPScannableTable table = new CIPScannableTable(tableDefinition, connectionPool, tableFetchSize,
+                lookupChunkSize, resultCache, statisticsRefreshSeconds, prefetchBatchSize, prefetchQueueDepth,
+                tableCopyMinRows, insertBatchSize, insertFlushMillis, queryTimeoutSeconds);
+        if (table.isReplicated()) {
+            table.refreshSnapshot();
+        }
+        if (tableDefinition.getRollups() != null) {
+            for (RollupDefinition rollupDefinition : tableDefinition.getRollups()) {
+                table.addRollup(new CIPRollupTable(table, rollupDefinition, refreshSeconds));
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Starts the background work of a table created by {@link #createTable}
+     * once it is in the published table map: snapshot reloads and rollup
+     * builds, and the MBeans of its rollups
+     */
+    private void start(CIPScannableTable table, TableDefinition tableDefinition) {
+        if (table.isReplicated()) {
+            ScheduledFuture<?> refreshTask = scheduleRefresh(table, tableDefinition.getRefreshSeconds() != null
+                    ? tableDefinition.getRefreshSeconds() : refreshSeconds);
+            if (refreshTask != null) {
+                refreshTasks.put(table, refreshTask);
+            }
+        }
+        for (CIPRollupTable rollup : table.getRollups()) {
+            CIPMetrics.register(rollup);
+            refreshTasks.put(rollup, scheduleRefresh(rollup));
+        }
+    }
+
+    /**
+     * Reloads the snapshot of a replicated table periodically in the background
+     * @return the background reload; null if the snapshot is not reloaded
+     */
+    private ScheduledFuture<?> scheduleRefresh(CIPScannableTable table, int tableRefreshSeconds) {
+        if (tableRefreshSeconds <= 0) {
+            return null;
+        }
+        return REFRESH_EXECUTOR.scheduleWithFixedDelay(() -> {
+            try {
+                table.refreshSnapshot();
+            } catch (RuntimeException e) {
+                // Keep serving the previous snapshot
+                logger.warn(String.format("error refreshing snapshot of table '%s'", table.getTableAlias()), e);
+            }
+        }, tableRefreshSeconds, tableRefreshSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Builds a rollup in the background, then rebuilds it periodically; until
+     * it is built, queries are not rewritten to use it
+     * @return the background build
+     */
+    private ScheduledFuture<?> scheduleRefresh(CIPRollupTable rollup) {
+        if (rollup.getRefreshSeconds() <= 0) {
+            return ROLLUP_EXECUTOR.schedule(rollup::refreshQuietly, 0, TimeUnit.SECONDS);
+        }
+        return ROLLUP_EXECUTOR.scheduleWithFixedDelay(rollup::refreshQuietly, 0, rollup.getRefreshSeconds(),
+                TimeUnit.SECONDS);
     }
 }
@@ -4,13 +4,85 @@ import org.apache.calcite.schema.Schema;
 import org.apache.calcite.schema.SchemaFactory;
 import org.apache.calcite.schema.SchemaPlus;
 
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class CIPSchemaFactory implements SchemaFactory {
 
+    // The Avatica server opens one Calcite connection per client, and each
+    // one instantiates the model. Schemas with the same name and operand are
+    // shared so that all connections use the same tables and connection pool.
+    private static final Map<List<Object>, CIPSchema> SCHEMAS = new ConcurrentHashMap<>();
+
     public Schema create(SchemaPlus schemaPlus, String s, Map<String, Object> map) {
 
-        CIPSchema schema = new CIPSchema((String)map.get("group"));
-        return schema;
+        return SCHEMAS.computeIfAbsent(Arrays.asList(s, map),
+                key -> new CIPSchema((String)map.get("group"), CIPConnectionPool.create(map),
+                        intOperand(map, "fetchSize", CIPSchema.DEFAULT_FETCH_SIZE),
+                        intOperand(map, "lookupChunkSize", CIPSchema.DEFAULT_LOOKUP_CHUNK_SIZE),
+                        longOperand(map, "cacheTtlSeconds", 0L),
+                        longOperand(map, "cacheMaxBytes", CIPResultCache.DEFAULT_MAX_BYTES),
+                        intOperand(map, "refreshSeconds", CIPSchema.DEFAULT_REFRESH_SECONDS),
+                        intOperand(map, "statisticsRefreshSeconds", CIPSchema.DEFAULT_STATISTICS_REFRESH_SECONDS),
+                        intOperand(map, "prefetchBatchSize", CIPSchema.DEFAULT_PREFETCH_BATCH_SIZE),
+                        intOperand(map, "prefetchQueueDepth", CIPSchema.DEFAULT_PREFETCH_QUEUE_DEPTH),
+                        longOperand(map, "copyMinRows", CIPSchema.DEFAULT_COPY_MIN_ROWS),
+                        intOperand(map, "insertBatchSize", CIPSchema.DEFAULT_INSERT_BATCH_SIZE),
+                        longOperand(map, "insertFlushMillis", 0L),
+                        intOperand(map, "queryTimeoutSeconds", 0),
+                        stringOperand(map, "metadataPath", null),
+                        booleanOperand(map, "watchMetadata", true)));
+    }
+
+    /**
+     * Closes the shared schemas whose operand connects to the specified URL
+     * and forgets them, so that the next connection creates them anew. Their
+     * refresh tasks, metadata watcher and connection pool are stopped.
+     * @param jdbcUrl Postgres URL of the schemas to close
+     * @return number of schemas closed
+     */
+    public static int close(String jdbcUrl) {
+        int closed = 0;
+        for (Map.Entry<List<Object>, CIPSchema> entry : SCHEMAS.entrySet()) {
+            @SuppressWarnings("unchecked")
+            Map<String, Object> operand = (Map<String, Object>) entry.getKey().get(1);
+            if (jdbcUrl.equals(stringOperand(operand, "jdbcUrl", CIPConnectionPool.DEFAULT_URL))
+                    && SCHEMAS.remove(entry.getKey(), entry.getValue())) {
+                entry.getValue().close();
+                closed++;
+            }
+        }
+        return closed;
+    }
+
+    static String stringOperand(Map<String, Object> operand, String key, String defaultValue) {
+        Object value = operand.get(key);
+        return value == null ? defaultValue : value.toString();
+    }
+
+    static int intOperand(Map<String, Object> operand, String key, int defaultValue) {
+        Object value = operand.get(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        return value instanceof Number ? ((Number) value).intValue() : Integer.parseInt(value.toString());
+    }
+
+    static long longOperand(Map<String, Object> operand, String key, long defaultValue) {
+        Object value = operand.get(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        return value instanceof Number ? ((Number) value).longValue() : Long.parseLong(value.toString());
+    }
+
+    static boolean booleanOperand(Map<String, Object> operand, String key, boolean defaultValue) {
+        Object value = operand.get(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        return value instanceof Boolean ? (Boolean) value : Boolean.parseBoolean(value.toString());
     }
 }
@@ -0,0 +1,375 @@
+package org.calcite.adapter.cip;
+
+import org.apache.calcite.linq4j.AbstractEnumerable;
+import org.apache.calcite.linq4j.Enumerable;
+import org.apache.calcite.linq4j.Enumerator;
+import org.cip.CIPFieldType;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable columnar copy of a replicated CIP table.
+ *
+ * Boolean columns are stored as bitsets, string columns as a dictionary of
+ * distinct values plus one code per row, and numeric and temporal columns as
+ * primitive arrays. Every column has a bitmap of null rows. Rows are read
+ * back in Calcite's internal representation, as CIPColumnReader returns them.
+ */
+public class CIPSnapshot {
+
+    private final Column[] columns;
+
+    private final int rowCount;
+
+    private final long loadedAtMillis;
+
+    private CIPSnapshot(Column[] columns, int rowCount, long loadedAtMillis) {
+        this.columns = columns;
+        this.rowCount = rowCount;
+        this.loadedAtMillis = loadedAtMillis;
+    }
+
+    /**
+     * Reads all rows of an enumerator into a snapshot and closes it
+     * @param fieldTypes types of the columns, in row order
+     * @param rows Object[] rows in Calcite's internal representation
+     * @return snapshot
+     */
+    static CIPSnapshot load(List<CIPFieldType> fieldTypes, Enumerator<Object[]> rows) {
+        ColumnBuilder[] builders = new ColumnBuilder[fieldTypes.size()];
+        for (int i = 0; i < builders.length; i++) {
+            builders[i] = ColumnBuilder.of(fieldTypes.get(i));
+        }
+        int rowCount = 0;
+        try (Enumerator<Object[]> enumerator = rows) {
+            while (enumerator.moveNext()) {
+                Object[] row = enumerator.current();
+                for (int i = 0; i < builders.length; i++) {
+                    builders[i].add(rowCount, row[i]);
+                }
+                rowCount++;
+            }
+        }
+        Column[] columns = new Column[builders.length];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = builders[i].build(rowCount);
+        }
+        return new CIPSnapshot(columns, rowCount, System.currentTimeMillis());
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /** Time the snapshot was loaded, in milliseconds since the epoch */
+    public long getLoadedAtMillis() {
+        return loadedAtMillis;
+    }
+
+    /** Approximate heap size of the column data */
+    public long getSizeBytes() {
+        long bytes = 0;
+        for (Column column : columns) {
+            bytes += column.sizeBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * Gets the rows of the snapshot
+     * @return Object[] rows
+     */
+    public Enumerable<Object[]> rows() {
+        return new AbstractEnumerable<Object[]>() {
+            @Override
+            public Enumerator<Object[]> enumerator() {
+                return new SnapshotEnumerator();
+            }
+        };
+    }
+
+    private class SnapshotEnumerator implements Enumerator<Object[]> {
+        private int row = -1;
+
+        @Override
+        public Object[] current() {
+            Object[] values = new Object[columns.length];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = columns[i].get(row);
+            }
+            return values;
+        }
+
+        @Override
+        public boolean moveNext() {
+            return ++row < rowCount;
+        }
+
+        @Override
+        public void reset() {
+            row = -1;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Column of a snapshot; nulls are recorded in a bitmap
+     */
+    private abstract static class Column {
+        final BitSet nulls;
+
+        Column(BitSet nulls) {
+            this.nulls = nulls;
+        }
+
+        Object get(int row) {
+            return nulls.get(row) ? null : value(row);
+        }
+
+        abstract Object value(int row);
+
+        long sizeBytes() {
+            return bitSetBytes(nulls);
+        }
+    }
+
+    private static long bitSetBytes(BitSet bitSet) {
+        return 16 + bitSet.size() / 8;
+    }
+
+    private static class BooleanColumn extends Column {
+        final BitSet values;
+
+        BooleanColumn(BitSet nulls, BitSet values) {
+            super(nulls);
+            this.values = values;
+        }
+
+        @Override
+        Object value(int row) {
+            return values.get(row);
+        }
+
+        @Override
+        long sizeBytes() {
+            return super.sizeBytes() + bitSetBytes(values);
+        }
+    }
+
+    private static class DictionaryColumn extends Column {
+        final String[] dictionary;
+        final int[] codes;
+
+        DictionaryColumn(BitSet nulls, String[] dictionary, int[] codes) {
+            super(nulls);
+            this.dictionary = dictionary;
+            this.codes = codes;
+        }
+
+        @Override
+        Object value(int row) {
+            return dictionary[codes[row]];
+        }
+
+        @Override
+        long sizeBytes() {
+            long bytes = super.sizeBytes() + 16 + 4L * codes.length + 16 + 8L * dictionary.length;
+            for (String value : dictionary) {
+                bytes += 40 + 2L * value.length();
+            }
+            return bytes;
+        }
+    }
+
+    private static class LongColumn extends Column {
+        final CIPFieldType type;
+        final long[] values;
+
+        LongColumn(BitSet nulls, CIPFieldType type, long[] values) {
+            super(nulls);
+            this.type = type;
+            this.values = values;
+        }
+
+        @Override
+        Object value(int row) {
+            long value = values[row];
+            switch (type) {
+                case BYTE:
+                    return (byte) value;
+                case SHORT:
+                    return (short) value;
+                case INT:
+                case DATE:
+                case TIME:
+                    return (int) value;
+                default:
+                    return value;
+            }
+        }
+
+        @Override
+        long sizeBytes() {
+            return super.sizeBytes() + 16 + 8L * values.length;
+        }
+    }
+
+    private static class DoubleColumn extends Column {
+        final CIPFieldType type;
+        final double[] values;
+
+        DoubleColumn(BitSet nulls, CIPFieldType type, double[] values) {
+            super(nulls);
+            this.type = type;
+            this.values = values;
+        }
+
+        @Override
+        Object value(int row) {
+            return type == CIPFieldType.FLOAT ? (Object) (float) values[row] : (Object) values[row];
+        }
+
+        @Override
+        long sizeBytes() {
+            return super.sizeBytes() + 16 + 8L * values.length;
+        }
+    }
+
+    /**
+     * Accumulates the values of one column while the snapshot is loaded
+     */
+    private abstract static class ColumnBuilder {
+        final BitSet nulls = new BitSet();
+
+        static ColumnBuilder of(CIPFieldType type) {
+            switch (type) {
+                case BOOLEAN:
+                    return new BooleanColumnBuilder();
+                case STRING:
+                case CHAR:
+                    return new DictionaryColumnBuilder();
+                case FLOAT:
+                case DOUBLE:
+                    return new DoubleColumnBuilder(type);
+                default:
+                    return new LongColumnBuilder(type);
+            }
+        }
+
+        void add(int row, Object value) {
+            if (value == null) {
+                nulls.set(row);
+            } else {
+                addValue(row, value);
+            }
+        }
+
+        abstract void addValue(int row, Object value);
+
+        abstract Column build(int rowCount);
+    }
+
+    private static class BooleanColumnBuilder extends ColumnBuilder {
+        final BitSet values = new BitSet();
+
+        @Override
+        void addValue(int row, Object value) {
+            if ((Boolean) value) {
+                values.set(row);
+            }
+        }
+
+        @Override
+        Column build(int rowCount) {
+            return new BooleanColumn(nulls, values);
+        }
+    }
+
+    private static class DictionaryColumnBuilder extends ColumnBuilder {
+        final Map<String, Integer> dictionary = new HashMap<>();
+        int[] codes = new int[16];
+
+        @Override
+        void add(int row, Object value) {
+            if (row >= codes.length) {
+                codes = Arrays.copyOf(codes, codes.length * 2);
+            }
+            super.add(row, value);
+        }
+
+        @Override
+        void addValue(int row, Object value) {
+            codes[row] = dictionary.computeIfAbsent(value.toString(), key -> dictionary.size());
+        }
+
+        @Override
+        Column build(int rowCount) {
+            String[] values = new String[dictionary.size()];
+            for (Map.Entry<String, Integer> entry : dictionary.entrySet()) {
+                values[entry.getValue()] = entry.getKey();
+            }
+            return new DictionaryColumn(nulls, values, Arrays.copyOf(codes, rowCount));
+        }
+    }
+
+    private static class LongColumnBuilder extends ColumnBuilder {
+        final CIPFieldType type;
+        long[] values = new long[16];
+
+        LongColumnBuilder(CIPFieldType type) {
+            this.type = type;
+        }
+
+        @Override
+        void add(int row, Object value) {
+            if (row >= values.length) {
+                values = Arrays.copyOf(values, values.length * 2);
+            }
+            super.add(row, value);
+        }
+
+        @Override
+        void addValue(int row, Object value) {
+            values[row] = ((Number) value).longValue();
+        }
+
+        @Override
+        Column build(int rowCount) {
+            return new LongColumn(nulls, type, Arrays.copyOf(values, rowCount));
+        }
+    }
+
+    private static class DoubleColumnBuilder extends ColumnBuilder {
+        final CIPFieldType type;
+        double[] values = new double[16];
+
+        DoubleColumnBuilder(CIPFieldType type) {
+            this.type = type;
+        }
+
+        @Override
+        void add(int row, Object value) {
+            if (row >= values.length) {
+                values = Arrays.copyOf(values, values.length * 2);
+            }
+            super.add(row, value);
+        }
+
+        @Override
+        void addValue(int row, Object value) {
+            values[row] = ((Number) value).doubleValue();
+        }
+
+        @Override
+        Column build(int rowCount) {
+            return new DoubleColumn(nulls, type, Arrays.copyOf(values, rowCount));
+        }
+    }
+}
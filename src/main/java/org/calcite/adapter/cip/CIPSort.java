@@ -0,0 +1,79 @@
+package org.calcite.adapter.cip;
+
+import org.apache.calcite.plan.RelOptCluster;
+import org.apache.calcite.plan.RelOptCost;
+import org.apache.calcite.plan.RelOptPlanner;
+import org.apache.calcite.plan.RelTraitSet;
+import org.apache.calcite.rel.RelCollation;
+import org.apache.calcite.rel.RelFieldCollation;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.Sort;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
+import org.apache.calcite.rex.RexLiteral;
+import org.apache.calcite.rex.RexNode;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sort, offset and fetch evaluated by Postgres as ORDER BY, OFFSET and LIMIT.
+ * Offset and fetch must be literals.
+ */
+public class CIPSort extends Sort implements CIPRel {
+
+    public CIPSort(RelOptCluster cluster, RelTraitSet traitSet, RelNode input, RelCollation collation,
+                   RexNode offset, RexNode fetch) {
+        super(cluster, traitSet, input, collation, offset, fetch);
+        assert getConvention() == CIPRel.CONVENTION;
+    }
+
+    @Override
+    public Sort copy(RelTraitSet traitSet, RelNode input, RelCollation newCollation, RexNode offset, RexNode fetch) {
+        return new CIPSort(getCluster(), traitSet, input, newCollation, offset, fetch);
+    }
+
+    @Override
+    public RelOptCost computeSelfCost(RelOptPlanner planner, RelMetadataQuery mq) {
+        return super.computeSelfCost(planner, mq).multiplyBy(0.1);
+    }
+
+    @Override
+    public void implement(Implementor implementor) {
+        implementor.visitChild(0, getInput());
+        // ORDER BY and LIMIT would apply before the LIMIT of this level
+        if (implementor.isLimited()) {
+            implementor.wrap();
+        }
+        if (!collation.getFieldCollations().isEmpty()) {
+            List<String> orderBy = new ArrayList<>();
+            for (RelFieldCollation fieldCollation : collation.getFieldCollations()) {
+                // Ordering by a constant is a no-op
+                if (!implementor.constants.get(fieldCollation.getFieldIndex())) {
+                    orderBy.add(toSql(fieldCollation, implementor.selectList));
+                }
+            }
+            implementor.orderBy = orderBy;
+        }
+        if (offset != null) {
+            implementor.offset = ((RexLiteral) offset).getValueAs(Long.class);
+        }
+        if (fetch != null) {
+            implementor.fetch = ((RexLiteral) fetch).getValueAs(Long.class);
+        }
+    }
+
+    private static String toSql(RelFieldCollation fieldCollation, List<String> inputs) {
+        String sql = inputs.get(fieldCollation.getFieldIndex());
+        if (fieldCollation.getDirection().isDescending()) {
+            sql += " DESC";
+        }
+        switch (fieldCollation.nullDirection) {
+            case FIRST:
+                return sql + " NULLS FIRST";
+            case LAST:
+                return sql + " NULLS LAST";
+            default:
+                return sql;
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package org.calcite.adapter.cip;
+
+import java.math.BigDecimal;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and histograms of the reads of one CIP table, kept across reloads
+ * of the table metadata. Scans are Postgres queries run for the table: time
+ * to first row and total time, rows and approximate bytes of the decoded
+ * values. Rows into and out of filters that Calcite evaluates on the table,
+ * because their conditions could not be pushed down, show how much of what
+ * was fetched was thrown away. See CIPMetrics for the registry.
+ */
+public class CIPTableMetrics implements CIPTableMetricsMBean {
+
+    private final String table;
+
+    private final LongAdder scans = new LongAdder();
+
+    private final LongAdder scanErrors = new LongAdder();
+
+    private final LongAdder snapshotScans = new LongAdder();
+
+    private final LongAdder rowsFetched = new LongAdder();
+
+    private final LongAdder bytesFetched = new LongAdder();
+
+    private final LongAdder calciteFilterRowsIn = new LongAdder();
+
+    private final LongAdder calciteFilterRowsOut = new LongAdder();
+
+    private final CIPHistogram firstRow = new CIPHistogram();
+
+    private final CIPHistogram scanTime = new CIPHistogram();
+
+    // Cache of the current table with this name; null if it has none
+    private volatile CIPResultCache resultCache;
+
+    // Writer of the current table with this name
+    private volatile CIPTableWriter writer;
+
+    CIPTableMetrics(String table) {
+        this.table = table;
+    }
+
+    public String getTable() {
+        return table;
+    }
+
+    void setResultCache(CIPResultCache resultCache) {
+        this.resultCache = resultCache;
+    }
+
+    void setWriter(CIPTableWriter writer) {
+        this.writer = writer;
+    }
+
+    void firstRow(long nanos) {
+        firstRow.record(nanos);
+    }
+
+    /**
+     * Records a finished scan
+     * @param nanos time from running the query to closing the scan
+     * @param failed whether the scan ended with an error
+     */
+    void scanned(long nanos, long rows, long bytes, boolean failed) {
+        scans.increment();
+        if (failed) {
+            scanErrors.increment();
+        }
+        scanTime.record(nanos);
+        rowsFetched.add(rows);
+        bytesFetched.add(bytes);
+    }
+
+    void snapshotScanned() {
+        snapshotScans.increment();
+    }
+
+    void calciteFiltered(boolean input, long rows) {
+        (input ? calciteFilterRowsIn : calciteFilterRowsOut).add(rows);
+    }
+
+    /**
+     * Estimates the bytes of a decoded value or row
+     */
+    static long estimateBytes(Object value) {
+        if (value == null) {
+            return 1;
+        } else if (value instanceof Object[]) {
+            long bytes = 0;
+            for (Object element : (Object[]) value) {
+                bytes += estimateBytes(element);
+            }
+            return bytes;
+        } else if (value instanceof String) {
+            return ((String) value).length();
+        } else if (value instanceof Integer || value instanceof Float) {
+            return 4;
+        } else if (value instanceof Short) {
+            return 2;
+        } else if (value instanceof Byte || value instanceof Boolean) {
+            return 1;
+        } else if (value instanceof BigDecimal) {
+            return 16;
+        } else if (value instanceof byte[]) {
+            return ((byte[]) value).length;
+        }
+        return 8;
+    }
+
+    CIPHistogram getFirstRowHistogram() {
+        return firstRow;
+    }
+
+    CIPHistogram getScanHistogram() {
+        return scanTime;
+    }
+
+    @Override public long getScanCount() {
+        return scans.sum();
+    }
+
+    @Override public long getScanErrorCount() {
+        return scanErrors.sum();
+    }
+
+    @Override public long getSnapshotScanCount() {
+        return snapshotScans.sum();
+    }
+
+    @Override public long getRowsFetched() {
+        return rowsFetched.sum();
+    }
+
+    @Override public long getBytesFetched() {
+        return bytesFetched.sum();
+    }
+
+    @Override public long getCalciteFilterRowsIn() {
+        return calciteFilterRowsIn.sum();
+    }
+
+    @Override public long getCalciteFilterRowsOut() {
+        return calciteFilterRowsOut.sum();
+    }
+
+    @Override public long getCacheHitCount() {
+        CIPResultCache cache = resultCache;
+        return cache == null ? 0 : cache.getHitCount();
+    }
+
+    @Override public long getCacheMissCount() {
+        CIPResultCache cache = resultCache;
+        return cache == null ? 0 : cache.getMissCount();
+    }
+
+    @Override public long getPendingInsertCount() {
+        CIPTableWriter current = writer;
+        return current == null ? 0 : current.getPendingCount();
+    }
+
+    @Override public String getInsertError() {
+        CIPTableWriter current = writer;
+        RuntimeException error = current == null ? null : current.getWriteError();
+        return error == null ? null : String.valueOf(error.getCause());
+    }
+
+    @Override public long discardPendingInserts() {
+        CIPTableWriter current = writer;
+        return current == null ? 0 : current.discardPending();
+    }
+
+    @Override public double getFirstRowMillisMean() {
+        return firstRow.getMeanMillis();
+    }
+
+    @Override public double getFirstRowMillisP99() {
+        return firstRow.getPercentileMillis(0.99);
+    }
+
+    @Override public double getScanMillisMean() {
+        return scanTime.getMeanMillis();
+    }
+
+    @Override public double getScanMillisP50() {
+        return scanTime.getPercentileMillis(0.5);
+    }
+
+    @Override public double getScanMillisP99() {
+        return scanTime.getPercentileMillis(0.99);
+    }
+}
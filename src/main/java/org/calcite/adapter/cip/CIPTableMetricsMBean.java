@@ -0,0 +1,53 @@
+package org.calcite.adapter.cip;
+
+/**
+ * JMX view of {@link CIPTableMetrics}
+ */
+public interface CIPTableMetricsMBean {
+
+    long getScanCount();
+
+    long getScanErrorCount();
+
+    long getSnapshotScanCount();
+
+    long getRowsFetched();
+
+    long getBytesFetched();
+
+    long getCalciteFilterRowsIn();
+
+    long getCalciteFilterRowsOut();
+
+    long getCacheHitCount();
+
+    long getCacheMissCount();
+
+    /** Rows inserted but not written to Postgres yet */
+    long getPendingInsertCount();
+
+    /**
+     * Error of the last write of buffered rows, which are kept and retried;
+     * null if none failed. Reads and inserts of the table fail until they
+     * are written or discarded.
+     */
+    String getInsertError();
+
+    /**
+     * Drops the rows waiting to be written, e.g. after their write failed
+     * for good; they are lost
+     * @return number of rows dropped
+     */
+    long discardPendingInserts();
+
+
+    double getFirstRowMillisMean();
+
+    double getFirstRowMillisP99();
+
+    double getScanMillisMean();
+
+    double getScanMillisP50();
+
+    double getScanMillisP99();
+}
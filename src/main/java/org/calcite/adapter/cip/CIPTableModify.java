@@ -0,0 +1,69 @@
+package org.calcite.adapter.cip;
+
+import org.apache.calcite.adapter.enumerable.EnumerableRel;
+import org.apache.calcite.adapter.enumerable.EnumerableRelImplementor;
+import org.apache.calcite.adapter.enumerable.JavaRowFormat;
+import org.apache.calcite.adapter.enumerable.PhysType;
+import org.apache.calcite.adapter.enumerable.PhysTypeImpl;
+import org.apache.calcite.linq4j.Enumerable;
+import org.apache.calcite.linq4j.tree.BlockBuilder;
+import org.apache.calcite.linq4j.tree.Expression;
+import org.apache.calcite.linq4j.tree.Expressions;
+import org.apache.calcite.linq4j.tree.Types;
+import org.apache.calcite.plan.RelOptCluster;
+import org.apache.calcite.plan.RelOptCost;
+import org.apache.calcite.plan.RelOptPlanner;
+import org.apache.calcite.plan.RelOptTable;
+import org.apache.calcite.plan.RelTraitSet;
+import org.apache.calcite.prepare.Prepare;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.TableModify;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
+
+import java.lang.reflect.Method;
+import java.util.List;
+
+/**
+ * INSERT into a CIP table in enumerable convention. The input rows are
+ * handed to the table's CIPTableWriter as one statement, which writes them to
+ * Postgres in batches; the result is the number of rows inserted.
+ */
+public class CIPTableModify extends TableModify implements EnumerableRel {
+
+    private static final Method INSERT_METHOD = Types.lookupMethod(CIPScannableTable.CIPQueryable.class,
+            "insert", Enumerable.class);
+
+    public CIPTableModify(RelOptCluster cluster, RelTraitSet traitSet, RelOptTable table,
+                          Prepare.CatalogReader catalogReader, RelNode input, boolean flattened) {
+        super(cluster, traitSet, table, catalogReader, input, Operation.INSERT, null, null, flattened);
+    }
+
+    @Override
+    public RelNode copy(RelTraitSet traitSet, List<RelNode> inputs) {
+        return new CIPTableModify(getCluster(), traitSet, getTable(), getCatalogReader(), sole(inputs),
+                isFlattened());
+    }
+
+    /**
+     * Cheaper than Calcite's generic modification, which adds the rows to
+     * the table one at a time
+     */
+    @Override
+    public RelOptCost computeSelfCost(RelOptPlanner planner, RelMetadataQuery mq) {
+        return super.computeSelfCost(planner, mq).multiplyBy(0.1);
+    }
+
+    @Override
+    public Result implement(EnumerableRelImplementor implementor, Prefer pref) {
+        BlockBuilder builder = new BlockBuilder();
+        Result input = implementor.visitChild(this, 0, (EnumerableRel) getInput(), Prefer.ARRAY);
+        Expression rows = builder.append("rows",
+                input.physType.convertTo(builder.append("inputRows", input.block), JavaRowFormat.ARRAY));
+        Expression table = builder.append("table", getTable().getExpression(CIPScannableTable.CIPQueryable.class));
+        builder.add(Expressions.return_(null, Expressions.call(table, INSERT_METHOD, rows)));
+
+        PhysType physType = PhysTypeImpl.of(implementor.getTypeFactory(), getRowType(), JavaRowFormat.SCALAR,
+                false);
+        return implementor.result(physType, builder.toBlock());
+    }
+}
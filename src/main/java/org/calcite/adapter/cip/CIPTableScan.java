@@ -0,0 +1,53 @@
+package org.calcite.adapter.cip;
+
+import com.google.common.collect.ImmutableList;
+import org.apache.calcite.plan.RelOptCluster;
+import org.apache.calcite.plan.RelOptPlanner;
+import org.apache.calcite.plan.RelOptRule;
+import org.apache.calcite.plan.RelOptTable;
+import org.apache.calcite.plan.RelTraitSet;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.TableScan;
+
+import java.util.List;
+
+/**
+ * Scan of a CIP table in Postgres. Operations pushed on top of it are
+ * collected into the same SELECT statement.
+ */
+public class CIPTableScan extends TableScan implements CIPRel {
+
+    final CIPScannableTable cipTable;
+
+    public CIPTableScan(RelOptCluster cluster, RelTraitSet traitSet, RelOptTable table, CIPScannableTable cipTable) {
+        super(cluster, traitSet, ImmutableList.of(), table);
+        this.cipTable = cipTable;
+        assert getConvention() == CIPRel.CONVENTION;
+    }
+
+    @Override
+    public RelNode copy(RelTraitSet traitSet, List<RelNode> inputs) {
+        assert inputs.isEmpty();
+        return new CIPTableScan(getCluster(), traitSet, table, cipTable);
+    }
+
+    @Override
+    public void register(RelOptPlanner planner) {
+        CIPRelMetadata.register(getCluster());
+        planner.addRule(CIPToEnumerableConverterRule.INSTANCE);
+        for (RelOptRule rule : CIPRules.RULES) {
+            planner.addRule(rule);
+        }
+    }
+
+    @Override
+    public void implement(Implementor implementor) {
+        implementor.visitTable(cipTable, table);
+
+        implementor.from = cipTable.fromItem();
+        for (String fieldName : cipTable.fieldNames) {
+            implementor.fromFields.add(CIPFilterTranslator.quote(fieldName));
+        }
+        implementor.selectList = implementor.fromFields;
+    }
+}
@@ -0,0 +1,282 @@
+package org.calcite.adapter.cip;
+
+import com.google.common.collect.ImmutableList;
+import org.apache.calcite.schema.Statistic;
+import org.apache.calcite.schema.Statistics;
+import org.apache.calcite.util.ImmutableBitSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Planner statistics of a CIP table, read from the Postgres catalog: the
+ * estimated row count from pg_class, unique keys from pg_index, and the
+ * number of distinct values and fraction of nulls per column from pg_stats.
+ * For a table scanned in parallel they also hold the range of the split
+ * column, so a scan does not compute it every time.
+ *
+ * Postgres only has these after the table has been analyzed; anything it
+ * does not know is reported as unknown.
+ */
+public class CIPTableStatistics {
+
+    private static final Logger logger = LoggerFactory.getLogger(CIPTableStatistics.class);
+
+    static final CIPTableStatistics UNKNOWN = new CIPTableStatistics(null, ImmutableList.of(), new double[0],
+            new double[0], null, null);
+
+    private static final String ROW_COUNT_QUERY = "SELECT c.reltuples FROM pg_catalog.pg_class c"
+            + " JOIN pg_catalog.pg_namespace n ON n.oid = c.relnamespace"
+            + " WHERE n.nspname = 'public' AND c.relname = ?";
+
+    private static final String KEYS_QUERY = "SELECT i.indexrelid, a.attname FROM pg_catalog.pg_index i"
+            + " JOIN pg_catalog.pg_class c ON c.oid = i.indrelid"
+            + " JOIN pg_catalog.pg_namespace n ON n.oid = c.relnamespace"
+            + " JOIN pg_catalog.pg_attribute a ON a.attrelid = c.oid AND a.attnum = ANY(i.indkey)"
+            + " WHERE n.nspname = 'public' AND c.relname = ? AND i.indisunique AND i.indpred IS NULL";
+
+    private static final String COLUMNS_QUERY = "SELECT attname, n_distinct, null_frac FROM pg_catalog.pg_stats"
+            + " WHERE schemaname = 'public' AND tablename = ?";
+
+    private final Double rowCount;
+
+    private final List<ImmutableBitSet> keys;
+
+    // Per column, in table order; NaN if unknown
+    private final double[] distinctCounts;
+
+    private final double[] nullFractions;
+
+    // Smallest and largest value of the split column; null if unknown or
+    // the table has no rows with a split value
+    private final Long splitMin;
+
+    private final Long splitMax;
+
+    private final long loadedAtMillis = System.currentTimeMillis();
+
+    // Incremented whenever the statistics of a table change enough to change plans
+    private static final AtomicLong VERSION = new AtomicLong();
+
+    CIPTableStatistics(Double rowCount, List<ImmutableBitSet> keys, double[] distinctCounts,
+                       double[] nullFractions, Long splitMin, Long splitMax) {
+        this.rowCount = rowCount;
+        this.keys = keys;
+        this.distinctCounts = distinctCounts;
+        this.nullFractions = nullFractions;
+        this.splitMin = splitMin;
+        this.splitMax = splitMax;
+    }
+
+    /**
+     * Reads the statistics of a table from the Postgres catalog
+     * @param tableName physical table name
+     * @param fieldNames physical column names, in table order
+     * @param splitColumn physical name of the column a parallel scan is
+     *                    partitioned on; null if there is none
+     * @return statistics
+     */
+    static CIPTableStatistics load(CIPConnectionPool connectionPool, String tableName, List<String> fieldNames,
+                                   String splitColumn) throws SQLException {
+        Long splitMin = null;
+        Long splitMax = null;
+        Double rowCount = null;
+        List<ImmutableBitSet> keys = new ArrayList<>();
+        double[] distinctCounts = new double[fieldNames.size()];
+        double[] nullFractions = new double[fieldNames.size()];
+        Arrays.fill(distinctCounts, Double.NaN);
+        Arrays.fill(nullFractions, Double.NaN);
+
+        try (Connection connection = connectionPool.getConnection()) {
+            try (PreparedStatement statement = connection.prepareStatement(ROW_COUNT_QUERY)) {
+                statement.setString(1, tableName);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    // reltuples is -1 (0 before Postgres 14) until the table is analyzed
+                    if (resultSet.next() && resultSet.getDouble(1) > 0) {
+                        rowCount = resultSet.getDouble(1);
+                    }
+                }
+            }
+
+            try (PreparedStatement statement = connection.prepareStatement(KEYS_QUERY)) {
+                statement.setString(1, tableName);
+                Map<Long, ImmutableBitSet.Builder> indexes = new LinkedHashMap<>();
+                Map<Long, Boolean> complete = new LinkedHashMap<>();
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        long index = resultSet.getLong(1);
+                        int field = fieldNames.indexOf(resultSet.getString(2));
+                        indexes.computeIfAbsent(index, i -> ImmutableBitSet.builder());
+                        complete.merge(index, field >= 0, Boolean::logicalAnd);
+                        if (field >= 0) {
+                            indexes.get(index).set(field);
+                        }
+                    }
+                }
+                // A key on a column the table definition leaves out is no key of the CIP table
+                for (Map.Entry<Long, ImmutableBitSet.Builder> index : indexes.entrySet()) {
+                    if (complete.get(index.getKey())) {
+                        keys.add(index.getValue().build());
+                    }
+                }
+            }
+
+            try (PreparedStatement statement = connection.prepareStatement(COLUMNS_QUERY)) {
+                statement.setString(1, tableName);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        int field = fieldNames.indexOf(resultSet.getString(1));
+                        if (field < 0) {
+                            continue;
+                        }
+                        // A negative n_distinct is minus the fraction of rows that are distinct
+                        double distinct = resultSet.getDouble(2);
+                        if (distinct < 0) {
+                            distinct = rowCount == null ? Double.NaN : -distinct * rowCount;
+                        }
+                        distinctCounts[field] = distinct;
+                        nullFractions[field] = resultSet.getDouble(3);
+                    }
+                }
+            }
+
+            if (splitColumn != null) {
+                // A full scan unless the column is indexed, hence cached here
+                String column = CIPFilterTranslator.quote(splitColumn);
+                try (PreparedStatement statement = connection.prepareStatement("SELECT MIN(" + column + "), MAX("
+                        + column + ") FROM public." + CIPFilterTranslator.quote(tableName));
+                     ResultSet resultSet = statement.executeQuery()) {
+                    if (resultSet.next() && resultSet.getObject(1) != null) {
+                        splitMin = resultSet.getLong(1);
+                        splitMax = resultSet.getLong(2);
+                    }
+                }
+            }
+        }
+        logger.debug(String.format("statistics for table '%s': rows=%s, keys=%s, distinct=%s, nulls=%s,"
+                + " split=%s..%s", tableName,
+ rowCount, keys, Arrays.toString(distinctCounts), Arrays.toString(nullFractions),
+                splitMin, splitMax));
+        return new CIPTableStatistics(rowCount, ImmutableList.copyOf(keys), distinctCounts, nullFractions,
+                splitMin, splitMax);
+    }
+
+    /**
+     * Gets the statistics with the row count replaced, e.g. by the exact
+     * count of a replicated table's snapshot
+     */
+    CIPTableStatistics withRowCount(double rowCount) {
+        return new CIPTableStatistics(rowCount, keys, distinctCounts, nullFractions, splitMin, splitMax);
+    }
+
+    /**
+     * Converts to the statistic Calcite reads from a table
+     */
+    Statistic toStatistic() {
+        return Statistics.of(rowCount, keys, ImmutableList.of(), ImmutableList.of());
+    }
+
+    /**
+     * Estimated number of rows
+     * @return row count, or null if unknown
+     */
+    public Double getRowCount() {
+        return rowCount;
+    }
+
+    /** Column sets known to be unique */
+    public List<ImmutableBitSet> getKeys() {
+        return keys;
+    }
+
+    /**
+     * Estimated number of distinct non-null values of a column
+     * @return distinct count, or NaN if unknown
+     */
+    public double getDistinctCount(int field) {
+        return field < distinctCounts.length ? distinctCounts[field] : Double.NaN;
+    }
+
+    /**
+     * Estimated fraction of rows where a column is null
+     * @return null fraction, or NaN if unknown
+     */
+    public double getNullFraction(int field) {
+        return field < nullFractions.length ? nullFractions[field] : Double.NaN;
+    }
+
+    /**
+     * Smallest value of the split column
+     * @return value, or null if unknown
+     */
+    Long getSplitMin() {
+        return splitMin;
+    }
+
+    /**
+     * Largest value of the split column
+     * @return value, or null if unknown
+     */
+    Long getSplitMax() {
+        return splitMax;
+    }
+
+    long getLoadedAtMillis() {
+        return loadedAtMillis;
+    }
+
+    /**
+     * Whether the planner could choose other plans with these statistics than
+     * with the given ones: the keys differ, the row count or a distinct count
+     * differs by more than 10%, or a null fraction by more than 0.1
+     */
+    boolean differsFrom(CIPTableStatistics other) {
+        if (!keys.equals(other.keys) || distinctCounts.length != other.distinctCounts.length) {
+            return true;
+        }
+        if (differs(rowCount == null ? Double.NaN : rowCount,
+                other.rowCount == null ? Double.NaN : other.rowCount)) {
+            return true;
+        }
+        for (int i = 0; i < distinctCounts.length; i++) {
+            if (differs(distinctCounts[i], other.distinctCounts[i])
+                    || Double.isNaN(nullFractions[i]) != Double.isNaN(other.nullFractions[i])
+                    || Math.abs(nullFractions[i] - other.nullFractions[i]) > 0.1) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean differs(double a, double b) {
+        if (Double.isNaN(a) || Double.isNaN(b)) {
+            return Double.isNaN(a) != Double.isNaN(b);
+        }
+        return Math.abs(a - b) > 0.1 * Math.max(Math.abs(a), Math.abs(b));
+    }
+
+    /**
+     * Records that the statistics of a table changed, so plans made with the
+     * old ones are made again
+     */
+    static void changed() {
+        VERSION.incrementAndGet();
+    }
+
+    /**
+     * Gets the number of times the statistics of any table changed
+     */
+    static long getVersion() {
+        return VERSION.get();
+    }
+}
@@ -0,0 +1,535 @@
+package org.calcite.adapter.cip;
+
+import org.apache.calcite.linq4j.Enumerator;
+import org.cip.CIPFieldType;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes rows inserted into a CIP table to Postgres in batches, with
+ * COPY ... FROM STDIN (FORMAT binary), or with a JDBC batch insert if the
+ * columns in Postgres do not have the types the binary format is encoded for.
+ *
+ * Calcite connections have no transactions to commit, so with a flush
+ * interval of 0 every INSERT statement writes its rows before it returns,
+ * all batches on one connection in one transaction: either all rows of the
+ * statement are inserted or none. Otherwise rows are buffered across
+ * statements and written when a batch is full, when the table is read, or
+ * when the oldest buffered row has waited for the flush interval. An INSERT
+ * then returns before its rows are written.
+ *
+ * Buffered rows whose write fails are kept and retried, each write in one
+ * transaction, every flush interval. Until they are written every read of
+ * the table and every insert into it retries them and fails with the write
+ * error, so no query misses them silently. Rows are lost only if they are
+ * discarded through {@link CIPTableMetricsMBean#discardPendingInserts}, or
+ * if the JVM exits or the schema is closed while their write still fails.
+ */
+class CIPTableWriter {
+
+    private static final Logger logger = LoggerFactory.getLogger(CIPTableWriter.class);
+
+    // Bytes encoded before they are sent to the server
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    // Writers that buffer rows across statements, flushed when the JVM exits
+    private static final Set<CIPTableWriter> BUFFERING = Collections.synchronizedSet(
+            Collections.newSetFromMap(new WeakHashMap<>()));
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            List<CIPTableWriter> writers;
+            synchronized (BUFFERING) {
+                writers = new ArrayList<>(BUFFERING);
+            }
+            for (CIPTableWriter writer : writers) {
+                try {
+                    writer.flush();
+                } catch (RuntimeException e) {
+                    logger.error(String.format("%d rows buffered for table '%s' are lost", writer.pendingCount,
+                            writer.table.getTableAlias()), e);
+                }
+            }
+        }, "cip-writer-shutdown"));
+    }
+
+    private final CIPScannableTable table;
+
+    private final int batchSize;
+
+    private final long flushMillis;
+
+    private List<Object[]> pending = new ArrayList<>();
+
+    // Read without the lock before every query of the table
+    private volatile int pendingCount;
+
+    private ScheduledFuture<?> scheduledFlush;
+
+    // Error of the last write of buffered rows, which are kept; null once they are written
+    private volatile RuntimeException writeError;
+
+    // Null until the column types have been checked
+    private Boolean binaryCopy;
+
+    /**
+     * @param batchSize rows written per COPY or JDBC batch
+     * @param flushMillis longest time a row is buffered; 0 to write the rows
+     *                    of each statement before it returns
+     */
+    CIPTableWriter(CIPScannableTable table, int batchSize, long flushMillis) {
+        this.table = table;
+        this.batchSize = Math.max(1, batchSize);
+        this.flushMillis = flushMillis;
+        if (flushMillis > 0) {
+            BUFFERING.add(this);
+        }
+    }
+
+    /**
+     * Inserts the rows of one statement
+     * @param rows rows in table column order, in Calcite's internal representation
+     * @return number of rows inserted
+     */
+    long insert(Enumerator<Object[]> rows) {
+        if (flushMillis <= 0) {
+            return write(rows);
+        }
+        long count = 0;
+        try {
+            retryFailedWrite();
+            while (rows.moveNext()) {
+                if (add(rows.current())) {
+                    flush();
+                }
+                count++;
+            }
+        } finally {
+            rows.close();
+        }
+        return count;
+    }
+
+    /**
+     * Writes the rows of one statement in batches, on one connection and in
+     * one transaction, and notifies the table once they are committed
+     * @return number of rows inserted
+     */
+    private long write(Enumerator<Object[]> rows) {
+        long count = 0;
+        long start = System.currentTimeMillis();
+        try (Connection connection = table.getConnectionPool().getConnection()) {
+            boolean binary = binaryCopy(connection);
+            connection.setAutoCommit(false);
+            try {
+                List<Object[]> batch = new ArrayList<>(batchSize);
+                while (rows.moveNext()) {
+                    batch.add(rows.current());
+                    if (batch.size() == batchSize) {
+                        write(connection, binary, batch);
+                        count += batch.size();
+                        batch = new ArrayList<>(batchSize);
+                    }
+                }
+                if (!batch.isEmpty()) {
+                    write(connection, binary, batch);
+                    count += batch.size();
+                }
+                connection.commit();
+            } catch (SQLException | IOException | RuntimeException e) {
+                try {
+                    connection.rollback();
+                } catch (SQLException rollbackException) {
+                    e.addSuppressed(rollbackException);
+                }
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException | IOException e) {
+            throw new RuntimeException("Error inserting into table " + table.getTableAlias(), e);
+        } finally {
+            rows.close();
+        }
+        logger.debug(String.format("wrote %d rows to table '%s' in one transaction in %d ms", count,
+                table.getTableAlias(), System.currentTimeMillis() - start));
+        if (count > 0) {
+            table.rowsWritten();
+        }
+        return count;
+    }
+
+    /**
+     * Gets a collection that inserts the rows added to it, for Calcite's
+     * generic table modification; its size is the number of rows added
+     * through it
+     */
+    Collection<Object[]> collection() {
+        return new AbstractCollection<Object[]>() {
+            private int size;
+
+            @Override
+            public boolean add(Object[] row) {
+                retryFailedWrite();
+                if (CIPTableWriter.this.add(row) || flushMillis <= 0) {
+                    flush();
+                }
+                size++;
+                return true;
+            }
+
+            @Override
+            public Iterator<Object[]> iterator() {
+                throw new UnsupportedOperationException("Rows of table " + table.getTableAlias()
+                        + " are read with queries");
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    /**
+     * Buffers a row
+     * @return whether a batch is full and must be flushed
+     */
+    private synchronized boolean add(Object[] row) {
+        if (writeError != null) {
+            throw failedWriteError();
+        }
+        pending.add(row);
+        pendingCount = pending.size();
+        if (pending.size() >= batchSize) {
+            return true;
+        }
+        if (flushMillis > 0 && scheduledFlush == null) {
+            scheduledFlush = CIPSchema.REFRESH_EXECUTOR.schedule(this::backgroundFlush, flushMillis,
+                    TimeUnit.MILLISECONDS);
+        }
+        return false;
+    }
+
+    /**
+     * Whether rows are waiting to be written
+     */
+    boolean hasPending() {
+        return pendingCount > 0;
+    }
+
+    /**
+     * Gets the number of rows waiting to be written
+     */
+    int getPendingCount() {
+        return pendingCount;
+    }
+
+    /**
+     * Gets the error of the last write of buffered rows
+     * @return error, or null if no buffered rows failed to be written
+     */
+    RuntimeException getWriteError() {
+        return writeError;
+    }
+
+    /**
+     * Drops the buffered rows, e.g. after a write failed for good, so that
+     * the table can be read and written again
+     * @return number of rows dropped
+     */
+    synchronized int discardPending() {
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+        int count = pending.size();
+        pending = new ArrayList<>();
+        pendingCount = 0;
+        writeError = null;
+        if (count > 0) {
+            logger.warn(String.format("discarded %d rows buffered for table '%s'", count, table.getTableAlias()));
+        }
+        return count;
+    }
+
+    /**
+     * Writes the rows kept after a failed write before the rows of another
+     * statement are accepted
+     * @throws RuntimeException if they still cannot be written
+     */
+    private void retryFailedWrite() {
+        if (writeError != null) {
+            flush();
+        }
+    }
+
+    private synchronized RuntimeException failedWriteError() {
+        return new RuntimeException(String.format("%d rows inserted into table %s could not be written; they are"
+                + " retried until written or discarded", pending.size(), table.getTableAlias()), writeError);
+    }
+
+    private void backgroundFlush() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            logger.error(String.format("error writing %d buffered rows to table '%s'; retrying in %d ms",
+                    pendingCount, table.getTableAlias(), flushMillis), e);
+        }
+    }
+
+    /**
+     * Writes the buffered rows. If that fails, buffered rows are kept and
+     * retried later; rows of an unbuffered statement are dropped with the
+     * statement. The table is notified after the writer lock is released,
+     * since that may reload its snapshot.
+     */
+    void flush() {
+        if (flushPending()) {
+            table.rowsWritten();
+        }
+    }
+
+    /**
+     * @return whether rows were written
+     */
+    private synchronized boolean flushPending() {
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+        if (pending.isEmpty()) {
+            return false;
+        }
+        List<Object[]> rows = pending;
+        pending = new ArrayList<>();
+        pendingCount = 0;
+        long start = System.currentTimeMillis();
+        try (Connection connection = table.getConnectionPool().getConnection()) {
+            boolean binary = binaryCopy(connection);
+            // One transaction, so a failed write leaves nothing to be written twice
+            connection.setAutoCommit(false);
+            try {
+                write(connection, binary, rows);
+                connection.commit();
+            } catch (SQLException | IOException | RuntimeException e) {
+                try {
+                    connection.rollback();
+                } catch (SQLException rollbackException) {
+                    e.addSuppressed(rollbackException);
+                }
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException | IOException | RuntimeException e) {
+            RuntimeException error = new RuntimeException("Error inserting into table " + table.getTableAlias(), e);
+            if (flushMillis > 0) {
+                pending = rows;
+                pendingCount = rows.size();
+                writeError = error;
+                scheduledFlush = CIPSchema.REFRESH_EXECUTOR.schedule(this::backgroundFlush, flushMillis,
+                        TimeUnit.MILLISECONDS);
+                throw failedWriteError();
+            }
+            throw error;
+        }
+        writeError = null;
+        logger.debug(String.format("wrote %d rows to table '%s' with %s in %d ms", rows.size(),
+                table.getTableAlias(), binaryCopy ? "binary copy" : "batch insert",
+                System.currentTimeMillis() - start));
+        return true;
+    }
+
+
+    /**
+     * Whether rows are written with binary COPY; checked on first use
+     */
+    private synchronized boolean binaryCopy(Connection connection) throws SQLException {
+        if (binaryCopy == null) {
+            binaryCopy = canCopyBinary(connection);
+        }
+        return binaryCopy;
+    }
+
+    private void write(Connection connection, boolean binary, List<Object[]> rows)
+            throws SQLException, IOException {
+        if (binary) {
+            copy(connection, rows);
+        } else {
+            batchInsert(connection, rows);
+        }
+    }
+
+    /**
+     * Checks that every column has the Postgres type its values are encoded
+     * as by {@link #writeField}
+     */
+    private boolean canCopyBinary(Connection connection) throws SQLException {
+        if (!connection.isWrapperFor(PGConnection.class)) {
+            return false;
+        }
+        try (PreparedStatement statement = connection.prepareStatement(table.fullScanQuery() + " LIMIT 0");
+             ResultSet resultSet = statement.executeQuery()) {
+            ResultSetMetaData metaData = resultSet.getMetaData();
+            for (int i = 0; i < table.cipFieldTypes.size(); i++) {
+                CIPFieldType fieldType = table.cipFieldTypes.get(i);
+                String columnType = metaData.getColumnTypeName(i + 1);
+                if (!binaryType(fieldType, columnType)) {
+                    logger.info(String.format("column '%s' of table '%s' is %s, not %s; inserting with JDBC batches",
+                            table.fieldNames.get(i), table.getTableAlias(), columnType,
+                            CIPCopyEnumerator.postgresType(fieldType)));
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static boolean binaryType(CIPFieldType fieldType, String columnType) {
+        switch (columnType) {
+            case "serial":
+                columnType = "int4";
+                break;
+            case "bigserial":
+                columnType = "int8";
+                break;
+            case "varchar":
+            case "bpchar":
+                // Same binary format as text
+                columnType = "text";
+                break;
+            default:
+                break;
+        }
+        return columnType.equals(CIPCopyEnumerator.postgresType(fieldType));
+    }
+
+    private String columnList() {
+        List<String> columns = new ArrayList<>();
+        for (String fieldName : table.fieldNames) {
+            columns.add(CIPFilterTranslator.quote(fieldName));
+        }
+        return String.join(", ", columns);
+    }
+
+    private void copy(Connection connection, List<Object[]> rows) throws SQLException, IOException {
+        String sql = "COPY " + table.fromItem() + " (" + columnList() + ") FROM STDIN (FORMAT binary)";
+        CopyIn copyIn = connection.unwrap(PGConnection.class).getCopyAPI().copyIn(sql);
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(CHUNK_SIZE * 2);
+            DataOutputStream output = new DataOutputStream(bytes);
+            output.write(CIPCopyEnumerator.SIGNATURE);
+            output.writeInt(0); // flags
+            output.writeInt(0); // header extension length
+            List<CIPFieldType> fieldTypes = table.cipFieldTypes;
+            for (Object[] row : rows) {
+                output.writeShort(fieldTypes.size());
+                for (int i = 0; i < fieldTypes.size(); i++) {
+                    writeField(output, fieldTypes.get(i), row[i]);
+                }
+                if (bytes.size() >= CHUNK_SIZE) {
+                    copyIn.writeToCopy(bytes.toByteArray(), 0, bytes.size());
+                    bytes.reset();
+                }
+            }
+            output.writeShort(-1);
+            copyIn.writeToCopy(bytes.toByteArray(), 0, bytes.size());
+            copyIn.endCopy();
+        } finally {
+            if (copyIn.isActive()) {
+                copyIn.cancelCopy();
+            }
+        }
+    }
+
+    /**
+     * Encodes one field in the binary format of its column's type
+     * @param value value in Calcite's internal representation
+     */
+    private static void writeField(DataOutputStream output, CIPFieldType type, Object value) throws IOException {
+        if (value == null) {
+            output.writeInt(-1);
+            return;
+        }
+        switch (type) {
+            case BOOLEAN:
+                output.writeInt(1);
+                output.writeByte((Boolean) value ? 1 : 0);
+                break;
+            case BYTE:
+            case SHORT:
+                output.writeInt(2);
+                output.writeShort(((Number) value).shortValue());
+                break;
+            case INT:
+                output.writeInt(4);
+                output.writeInt(((Number) value).intValue());
+                break;
+            case LONG:
+                output.writeInt(8);
+                output.writeLong(((Number) value).longValue());
+                break;
+            case FLOAT:
+                output.writeInt(4);
+                output.writeFloat(((Number) value).floatValue());
+                break;
+            case DOUBLE:
+                output.writeInt(8);
+                output.writeDouble(((Number) value).doubleValue());
+                break;
+            case DATE:
+                output.writeInt(4);
+                output.writeInt(((Number) value).intValue() - CIPCopyEnumerator.EPOCH_DAYS);
+                break;
+            case TIME:
+                output.writeInt(8);
+                output.writeLong(((Number) value).longValue() * 1000);
+                break;
+            case TIMESTAMP:
+                output.writeInt(8);
+                output.writeLong((((Number) value).longValue() - CIPCopyEnumerator.EPOCH_MILLIS) * 1000);
+                break;
+            default:
+                byte[] text = value.toString().getBytes(StandardCharsets.UTF_8);
+                output.writeInt(text.length);
+                output.write(text);
+                break;
+        }
+    }
+
+    private void batchInsert(Connection connection, List<Object[]> rows) throws SQLException {
+        List<String> placeholders = Collections.nCopies(table.fieldNames.size(), "?");
+        String sql = "INSERT INTO " + table.fromItem() + " (" + columnList() + ") VALUES ("
+                + String.join(", ", placeholders) + ")";
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            for (Object[] row : rows) {
+                CIPScannableTable.bind(statement, table.cipFieldTypes, row);
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        }
+    }
+}
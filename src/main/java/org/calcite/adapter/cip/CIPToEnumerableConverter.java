@@ -0,0 +1,178 @@
+package org.calcite.adapter.cip;
+
+import org.apache.calcite.DataContext;
+import org.apache.calcite.adapter.enumerable.EnumerableRel;
+import org.apache.calcite.adapter.enumerable.EnumerableRelImplementor;
+import org.apache.calcite.adapter.enumerable.JavaRowFormat;
+import org.apache.calcite.adapter.enumerable.PhysType;
+import org.apache.calcite.adapter.enumerable.PhysTypeImpl;
+import org.apache.calcite.linq4j.tree.BlockBuilder;
+import org.apache.calcite.linq4j.tree.Expression;
+import org.apache.calcite.linq4j.tree.Expressions;
+import org.apache.calcite.linq4j.tree.Types;
+import org.apache.calcite.plan.ConventionTraitDef;
+import org.apache.calcite.plan.RelOptCluster;
+import org.apache.calcite.plan.RelOptTable;
+import org.apache.calcite.plan.RelTraitSet;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.convert.ConverterImpl;
+import org.apache.calcite.rel.type.RelDataTypeField;
+import org.apache.calcite.util.BuiltInMethod;
+import org.cip.CIPFieldType;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Relational expression representing a CIP query in enumerable convention.
+ * Generates the SQL for the CIPRel tree below it and code that runs the SQL
+ * through {@link CIPScannableTable.CIPQueryable#query}, or through
+ * {@link CIPScannableTable.CIPQueryable#copyQuery} if the estimated number of
+ * rows is large enough for binary COPY to pay off.
+ *
+ * The query runs on the left-most table it reads; the other tables of a
+ * join are passed along, so that it also sees their buffered writes and
+ * runs under their settings.
+ *
+ * The converter keeps the default cost of one unit per row: every row it
+ * returns is transferred from Postgres, so plans that push more work into the
+ * CIPRel nodes below it come out cheaper.
+ */
+public class CIPToEnumerableConverter extends ConverterImpl implements EnumerableRel {
+
+    private static final Method QUERY_METHOD = Types.lookupMethod(CIPScannableTable.CIPQueryable.class,
+            "query", DataContext.class, String.class, List.class, boolean.class, List.class, Object[].class,
+            CIPScannableTable.CIPQueryable[].class);
+
+    private static final Method COPY_QUERY_METHOD = Types.lookupMethod(CIPScannableTable.CIPQueryable.class,
+            "copyQuery", DataContext.class, String.class, List.class, boolean.class, List.class, Object[].class,
+            CIPScannableTable.CIPQueryable[].class);
+
+    private static final Method PARALLEL_QUERY_METHOD = Types.lookupMethod(CIPScannableTable.CIPQueryable.class,
+            "parallelQuery", DataContext.class, String.class, List.class, boolean.class, List.class, Object[].class, String.class,
+            boolean.class);
+
+    protected CIPToEnumerableConverter(RelOptCluster cluster, RelTraitSet traits, RelNode input) {
+        super(cluster, ConventionTraitDef.INSTANCE, traits, input);
+    }
+
+    @Override
+    public RelNode copy(RelTraitSet traitSet, List<RelNode> inputs) {
+        return new CIPToEnumerableConverter(getCluster(), traitSet, sole(inputs));
+    }
+
+    /**
+     * Maps the output fields to CIPFieldTypes
+     * @return field types, or null if a field has no CIPFieldType
+     */
+    static List<CIPFieldType> fieldTypes(RelNode rel) {
+        List<CIPFieldType> fieldTypes = new ArrayList<>();
+        for (RelDataTypeField field : rel.getRowType().getFieldList()) {
+            CIPFieldType fieldType = CIPFieldType.of(field.getType().getSqlTypeName());
+            if (fieldType == null) {
+                return null;
+            }
+            fieldTypes.add(fieldType);
+        }
+        return fieldTypes;
+    }
+
+    static List<CIPFieldType> parameterTypes(List<CIPFilterTranslator.Parameter> parameters) {
+        List<CIPFieldType> types = new ArrayList<>();
+        for (CIPFilterTranslator.Parameter parameter : parameters) {
+            types.add(parameter.type);
+        }
+        return types;
+    }
+
+    /**
+     * Generates the array of the tables a statement reads other than the one
+     * that runs it, e.g. the right input of a join
+     */
+    static Expression joinedTables(CIPRel.Implementor cipImplementor) {
+        List<Expression> tables = new ArrayList<>();
+        for (Map.Entry<CIPScannableTable, RelOptTable> table : cipImplementor.tables().entrySet()) {
+            if (table.getKey() != cipImplementor.table) {
+                tables.add(table.getValue().getExpression(CIPScannableTable.CIPQueryable.class));
+            }
+        }
+        return Expressions.newArrayInit(CIPScannableTable.CIPQueryable.class, tables);
+    }
+
+    /**
+     * Generates the array of bind values: literals are constants, dynamic
+     * parameters are read from the DataContext when the query runs
+     */
+    static Expression parameterValues(List<CIPFilterTranslator.Parameter> parameters) {
+        List<Expression> values = new ArrayList<>();
+        for (CIPFilterTranslator.Parameter parameter : parameters) {
+            if (parameter.dynamicParamIndex >= 0) {
+                values.add(Expressions.call(DataContext.ROOT, BuiltInMethod.DATA_CONTEXT_GET.method,
+                        Expressions.constant("?" + parameter.dynamicParamIndex)));
+            } else {
+                values.add(Expressions.constant(parameter.value, Object.class));
+            }
+        }
+        return Expressions.newArrayInit(Object.class, values);
+    }
+
+    @Override
+    public Result implement(EnumerableRelImplementor implementor, Prefer pref) {
+        CIPRel.Implementor cipImplementor = new CIPRel.Implementor(getCluster().getRexBuilder());
+        cipImplementor.visitChild(0, getInput());
+        // A scan of a partitioned table runs as one range query per partition;
+        // the range placeholders come after all others
+        CIPParallelScan.Split split = CIPParallelScan.split(cipImplementor);
+        if (split != null) {
+            cipImplementor.addWhere(split.predicate, Collections.emptyList());
+        }
+        String sql = cipImplementor.toSql();
+
+        // Rows are Object[], except that a single column is returned as the bare value
+        JavaRowFormat format = getRowType().getFieldCount() == 1 ? JavaRowFormat.SCALAR : JavaRowFormat.ARRAY;
+        PhysType physType = PhysTypeImpl.of(implementor.getTypeFactory(), getRowType(), format, false);
+
+        BlockBuilder list = new BlockBuilder();
+        Expression table = list.append("table",
+                cipImplementor.relOptTable.getExpression(CIPScannableTable.CIPQueryable.class));
+        List<CIPFilterTranslator.Parameter> parameters = cipImplementor.parameters();
+        List<Expression> arguments = new ArrayList<>(Arrays.asList(DataContext.ROOT, Expressions.constant(sql),
+                Expressions.constant(fieldTypes(this)),
+                Expressions.constant(format == JavaRowFormat.ARRAY),
+                Expressions.constant(parameterTypes(parameters)),
+                parameterValues(parameters)));
+        Method method = QUERY_METHOD;
+        if (split != null) {
+            // Only a scan of a single table is split
+            method = PARALLEL_QUERY_METHOD;
+            arguments.add(Expressions.constant(split.order.name()));
+            arguments.add(Expressions.constant(split.nullsLast));
+        } else {
+            if (isCopyScan(cipImplementor, getCluster().getMetadataQuery().getRowCount(getInput()))) {
+                method = COPY_QUERY_METHOD;
+            }
+            arguments.add(joinedTables(cipImplementor));
+        }
+        Expression enumerable = list.append("enumerable", Expressions.call(table, method, arguments));
+        list.add(Expressions.return_(null, enumerable));
+        return implementor.result(physType, list.toBlock());
+    }
+
+    /**
+     * Decides whether a statement is read with binary COPY: every table it
+     * reads must allow it for the estimated row count
+     */
+    private static boolean isCopyScan(CIPRel.Implementor cipImplementor, double rowCount) {
+        for (CIPScannableTable table : cipImplementor.tables().keySet()) {
+            if (!table.isCopyScan(rowCount)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,31 @@
+package org.calcite.adapter.cip;
+
+import org.apache.calcite.adapter.enumerable.EnumerableConvention;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.convert.ConverterRule;
+
+/**
+ * Rule to convert a relational expression from CIPRel.CONVENTION to
+ * EnumerableConvention. Only applies if every output column can be read with
+ * a CIPColumnReader.
+ */
+public class CIPToEnumerableConverterRule extends ConverterRule {
+
+    public static final CIPToEnumerableConverterRule INSTANCE = Config.INSTANCE
+            .withConversion(RelNode.class, CIPRel.CONVENTION, EnumerableConvention.INSTANCE,
+                    "CIPToEnumerableConverterRule")
+            .withRuleFactory(CIPToEnumerableConverterRule::new)
+            .toRule(CIPToEnumerableConverterRule.class);
+
+    protected CIPToEnumerableConverterRule(Config config) {
+        super(config);
+    }
+
+    @Override
+    public RelNode convert(RelNode rel) {
+        if (CIPToEnumerableConverter.fieldTypes(rel) == null) {
+            return null;
+        }
+        return new CIPToEnumerableConverter(rel.getCluster(), rel.getTraitSet().replace(getOutConvention()), rel);
+    }
+}
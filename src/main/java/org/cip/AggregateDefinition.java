@@ -0,0 +1,39 @@
+package org.cip;
+
+public class AggregateDefinition {
+    private String function;
+    private String column;
+    private String alias;
+
+    // Getters and setters
+
+    /**
+     * "count", "sum", "min" or "max"
+     */
+    public String getFunction() {
+        return function;
+    }
+
+    public void setFunction(String function) {
+        this.function = function;
+    }
+
+    /**
+     * Column name the function is applied to; null for count(*)
+     */
+    public String getColumn() {
+        return column;
+    }
+
+    public void setColumn(String column) {
+        this.column = column;
+    }
+
+    public String getAlias() {
+        return alias;
+    }
+
+    public void setAlias(String alias) {
+        this.alias = alias;
+    }
+}
@@ -3,6 +3,7 @@ package org.cip;
 import org.apache.calcite.adapter.java.JavaTypeFactory;
 import org.apache.calcite.linq4j.tree.Primitive;
 import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.sql.type.SqlTypeName;
 
 import java.util.HashMap;
 import java.util.Map;
@@ -51,4 +52,41 @@ public enum CIPFieldType {
     public static CIPFieldType of(String typeString) {
         return MAP.get(typeString);
     }
+
+    /**
+     * Gets the field type whose internal representation matches a SQL type,
+     * e.g. for the output columns of a pushed-down aggregate
+     * @param sqlTypeName
+     * @return field type, or null if there is none
+     */
+    public static CIPFieldType of(SqlTypeName sqlTypeName) {
+        switch (sqlTypeName) {
+            case CHAR:
+            case VARCHAR:
+                return STRING;
+            case BOOLEAN:
+                return BOOLEAN;
+            case TINYINT:
+                return BYTE;
+            case SMALLINT:
+                return SHORT;
+            case INTEGER:
+                return INT;
+            case BIGINT:
+                return LONG;
+            case REAL:
+                return FLOAT;
+            case FLOAT:
+            case DOUBLE:
+                return DOUBLE;
+            case DATE:
+                return DATE;
+            case TIME:
+                return TIME;
+            case TIMESTAMP:
+                return TIMESTAMP;
+            default:
+                return null;
+        }
+    }
 }
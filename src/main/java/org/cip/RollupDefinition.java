@@ -0,0 +1,54 @@
+package org.cip;
+
+import java.util.List;
+
+public class RollupDefinition {
+    private String alias;
+    private List<String> groupBy;
+    private List<AggregateDefinition> aggregates;
+    private Integer refreshSeconds;
+
+    // Getters and setters
+
+    /**
+     * Name the rollup is queried by, like a table alias
+     */
+    public String getAlias() {
+        return alias;
+    }
+
+    public void setAlias(String alias) {
+        this.alias = alias;
+    }
+
+    /**
+     * Columns the rows of the table are grouped by, by column name
+     */
+    public List<String> getGroupBy() {
+        return groupBy;
+    }
+
+    public void setGroupBy(List<String> groupBy) {
+        this.groupBy = groupBy;
+    }
+
+    public List<AggregateDefinition> getAggregates() {
+        return aggregates;
+    }
+
+    public void setAggregates(List<AggregateDefinition> aggregates) {
+        this.aggregates = aggregates;
+    }
+
+    /**
+     * Seconds between rebuilds of the rollup; null to use the schema default,
+     * 0 to only rebuild it when rows are inserted through the table.
+     */
+    public Integer getRefreshSeconds() {
+        return refreshSeconds;
+    }
+
+    public void setRefreshSeconds(Integer refreshSeconds) {
+        this.refreshSeconds = refreshSeconds;
+    }
+}
@@ -6,6 +6,15 @@ public class TableDefinition {
     private String name;
     private String alias;
     private List<ColumnDefinition> columns;
+    private Integer fetchSize;
+    private Long cacheTtlSeconds;
+    private Long cacheMaxBytes;
+    private String mode;
+    private Integer refreshSeconds;
+    private Integer parallelism;
+    private String splitColumn;
+    private Long copyMinRows;
+    private List<RollupDefinition> rollups;
 
     // Getters and setters
     public String getName() {
@@ -31,5 +40,118 @@ public class TableDefinition {
     public void setColumns(List<ColumnDefinition> columns) {
         this.columns = columns;
     }
-}
 
+    /**
+     * Rows fetched per round trip when streaming this table through a
+     * server-side cursor; null to use the schema default, 0 to disable
+     * the cursor and fetch the whole result at once.
+     */
+    public Integer getFetchSize() {
+        return fetchSize;
+    }
+
+    public void setFetchSize(Integer fetchSize) {
+        this.fetchSize = fetchSize;
+    }
+
+    /**
+     * Seconds query results of this table stay cached; null to use the
+     * schema default, 0 to disable the result cache.
+     */
+    public Long getCacheTtlSeconds() {
+        return cacheTtlSeconds;
+    }
+
+    public void setCacheTtlSeconds(Long cacheTtlSeconds) {
+        this.cacheTtlSeconds = cacheTtlSeconds;
+    }
+
+    /**
+     * Estimated size in bytes of the cached results of this table before the
+     * least recently used ones are evicted; null to use the schema default.
+     */
+    public Long getCacheMaxBytes() {
+        return cacheMaxBytes;
+    }
+
+    public void setCacheMaxBytes(Long cacheMaxBytes) {
+        this.cacheMaxBytes = cacheMaxBytes;
+    }
+
+    /**
+     * "replicated" to serve the table from an in-memory snapshot that is
+     * reloaded every refreshSeconds; null or "remote" to query Postgres.
+     */
+    public String getMode() {
+        return mode;
+    }
+
+    public void setMode(String mode) {
+        this.mode = mode;
+    }
+
+    public boolean isReplicated() {
+        return "replicated".equalsIgnoreCase(mode);
+    }
+
+    /**
+     * Seconds between reloads of a replicated table; null to use the schema
+     * default.
+     */
+    public Integer getRefreshSeconds() {
+        return refreshSeconds;
+    }
+
+    public void setRefreshSeconds(Integer refreshSeconds) {
+        this.refreshSeconds = refreshSeconds;
+    }
+
+    /**
+     * Number of partitions a scan of this table is split into, each read
+     * over its own connection; null or 1 to scan over a single connection.
+     */
+    public Integer getParallelism() {
+        return parallelism;
+    }
+
+    public void setParallelism(Integer parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Integer column whose value ranges define the partitions of a parallel
+     * scan; null to partition on ranges of ctid blocks.
+     */
+    public String getSplitColumn() {
+        return splitColumn;
+    }
+
+    public void setSplitColumn(String splitColumn) {
+        this.splitColumn = splitColumn;
+    }
+
+    /**
+     * Estimated row count from which a query of this table is read with
+     * binary COPY instead of a cursor; 0 to never use COPY, null to use the
+     * schema default.
+     */
+    public Long getCopyMinRows() {
+        return copyMinRows;
+    }
+
+    public void setCopyMinRows(Long copyMinRows) {
+        this.copyMinRows = copyMinRows;
+    }
+
+    /**
+     * Aggregates of the table kept in memory; queries they can answer are
+     * rewritten to read them instead of the table. Null for none.
+     */
+    public List<RollupDefinition> getRollups() {
+        return rollups;
+    }
+
+    public void setRollups(List<RollupDefinition> rollups) {
+        this.rollups = rollups;
+    }
+}
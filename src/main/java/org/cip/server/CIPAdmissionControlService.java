@@ -0,0 +1,121 @@
+package org.cip.server;
+
+import org.apache.calcite.avatica.AvaticaSeverity;
+import org.apache.calcite.avatica.Meta;
+import org.apache.calcite.avatica.remote.AvaticaRuntimeException;
+import org.apache.calcite.avatica.remote.LocalService;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * A LocalService that bounds the number of requests executing queries at
+ * once: executes, batches and fetches of further rows. Requests over the
+ * limit wait in a bounded queue for up to the queue timeout. When the queue
+ * is full or the wait times out, the request fails at once with SQL state
+ * {@link #REJECTED_SQL_STATE} instead of holding a server thread. Waits and
+ * rejections are recorded in the server metrics.
+ */
+public class CIPAdmissionControlService extends LocalService {
+
+  /** SQL state of rejected requests (insufficient resources) */
+  public static final String REJECTED_SQL_STATE = "53000";
+
+  /** Error code of rejected requests, after HTTP 503 Service Unavailable */
+  public static final int REJECTED_ERROR_CODE = 503;
+
+  private final int maxConcurrent;
+
+  private final int maxQueued;
+
+  private final long queueTimeoutMillis;
+
+  private final Semaphore permits;
+
+  private final CIPServerMetrics metrics;
+
+  // Requests executing or waiting for a permit
+  private final AtomicInteger admitted = new AtomicInteger();
+
+  /**
+   * @param maxConcurrent requests that execute at once
+   * @param maxQueued requests that wait when all are taken
+   * @param queueTimeoutMillis longest wait for a permit
+   * @param metrics metrics the waits and rejections are recorded in
+   */
+  public CIPAdmissionControlService(Meta meta, int maxConcurrent, int maxQueued, long queueTimeoutMillis,
+      CIPServerMetrics metrics) {
+    super(meta);
+    this.maxConcurrent = maxConcurrent;
+    this.maxQueued = Math.max(0, maxQueued);
+    this.queueTimeoutMillis = queueTimeoutMillis;
+    this.permits = new Semaphore(maxConcurrent, true);
+    this.metrics = metrics;
+    metrics.setAdmitted(admitted::get);
+  }
+
+  @Override public ExecuteResponse apply(PrepareAndExecuteRequest request) {
+    return admit(() -> super.apply(request));
+  }
+
+  @Override public ExecuteResponse apply(ExecuteRequest request) {
+    return admit(() -> super.apply(request));
+  }
+
+  @Override public FetchResponse apply(FetchRequest request) {
+    return admit(() -> super.apply(request));
+  }
+
+  @Override public ExecuteBatchResponse apply(PrepareAndExecuteBatchRequest request) {
+    return admit(() -> super.apply(request));
+  }
+
+  @Override public ExecuteBatchResponse apply(ExecuteBatchRequest request) {
+    return admit(() -> super.apply(request));
+  }
+
+  private <T> T admit(Supplier<T> request) {
+    if (admitted.incrementAndGet() > maxConcurrent + maxQueued) {
+      admitted.decrementAndGet();
+      metrics.rejected();
+      throw rejected(String.format("%d queries executing and %d waiting", maxConcurrent, maxQueued));
+    }
+    long start = System.nanoTime();
+    try {
+      boolean acquired = permits.tryAcquire(queueTimeoutMillis, TimeUnit.MILLISECONDS);
+      metrics.queued(System.nanoTime() - start);
+      if (!acquired) {
+        metrics.rejected();
+        throw rejected(String.format("no query finished within %d ms", queueTimeoutMillis));
+      }
+      try {
+        return request.get();
+      } finally {
+        permits.release();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      metrics.rejected();
+      throw rejected("interrupted while waiting");
+    } finally {
+      admitted.decrementAndGet();
+    }
+  }
+
+  private static AvaticaRuntimeException rejected(String reason) {
+    return new AvaticaRuntimeException("Server busy, query rejected: " + reason, REJECTED_ERROR_CODE,
+        REJECTED_SQL_STATE, AvaticaSeverity.ERROR);
+  }
+
+  /**
+   * Gets the number of requests executing or waiting
+   * @return admitted requests
+   */
+  public int getAdmitted() {
+    return admitted.get();
+  }
+}
+
+// End CIPAdmissionControlService.java
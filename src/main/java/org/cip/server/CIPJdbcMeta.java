@@ -0,0 +1,197 @@
+package org.cip.server;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.apache.calcite.avatica.MissingResultsException;
+import org.apache.calcite.avatica.NoSuchStatementException;
+import org.apache.calcite.avatica.jdbc.JdbcMeta;
+import org.apache.calcite.avatica.jdbc.StatementInfo;
+import org.apache.calcite.avatica.remote.TypedValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A JdbcMeta that bounds the frames of rows returned to clients. A frame has
+ * at most the rows the client asked for, at most maxRows rows, and about
+ * maxBytes bytes at most, estimated from the width of the rows in the
+ * statement's previous frames. The rest stays in the open result set until
+ * the client fetches it, so the memory a result set takes on the server
+ * does not grow with its size. The time taken and the rows and bytes of the
+ * frames returned are recorded in the server metrics.
+ */
+public class CIPJdbcMeta extends JdbcMeta {
+
+  private static final Logger LOG = LoggerFactory.getLogger(CIPJdbcMeta.class);
+
+  // Width assumed for the rows of a statement until a frame was measured
+  static final long DEFAULT_ROW_BYTES = 256;
+
+  private final int maxRows;
+
+  private final long maxBytes;
+
+  private final CIPServerMetrics metrics;
+
+  // Measured bytes per row, by statement
+  private final Cache<String, Long> rowBytes;
+
+  /**
+   * @param info JdbcMeta properties; the statement cache settings also bound
+   *             the row widths kept
+   * @param maxRows most rows in a frame
+   * @param maxBytes most estimated bytes in a frame
+   * @param metrics metrics the requests are recorded in
+   */
+  public CIPJdbcMeta(String url, Properties info, int maxRows, long maxBytes, CIPServerMetrics metrics)
+      throws SQLException {
+    super(url, info);
+    this.maxRows = Math.max(1, maxRows);
+    this.maxBytes = Math.max(1, maxBytes);
+    this.metrics = metrics;
+    this.rowBytes = CacheBuilder.newBuilder()
+        .maximumSize(Long.parseLong(info.getProperty(StatementCacheSettings.MAX_CAPACITY.key(),
+            StatementCacheSettings.MAX_CAPACITY.defaultValue())))
+        .expireAfterAccess(Long.parseLong(info.getProperty(StatementCacheSettings.EXPIRY_DURATION.key(),
+            StatementCacheSettings.EXPIRY_DURATION.defaultValue())),
+            TimeUnit.valueOf(info.getProperty(StatementCacheSettings.EXPIRY_UNIT.key(),
+                StatementCacheSettings.EXPIRY_UNIT.defaultValue())))
+        .build();
+  }
+
+  @Override public ExecuteResult prepareAndExecute(StatementHandle h, String sql, long maxRowCount,
+      int maxRowsInFirstFrame, PrepareCallback callback) throws NoSuchStatementException {
+    long start = System.nanoTime();
+    try {
+      ExecuteResult result = super.prepareAndExecute(h, sql, maxRowCount, frameRows(h, maxRowsInFirstFrame),
+          callback);
+      measure(result);
+      return result;
+    } catch (RuntimeException | NoSuchStatementException e) {
+      metrics.failed();
+      throw e;
+    } finally {
+      metrics.executed(System.nanoTime() - start);
+    }
+  }
+
+  @Override public ExecuteResult execute(StatementHandle h, List<TypedValue> parameterValues,
+      int maxRowsInFirstFrame) throws NoSuchStatementException {
+    long start = System.nanoTime();
+    try {
+      ExecuteResult result = super.execute(h, parameterValues, frameRows(h, maxRowsInFirstFrame));
+      measure(result);
+      return result;
+    } catch (RuntimeException | NoSuchStatementException e) {
+      metrics.failed();
+      throw e;
+    } finally {
+      metrics.executed(System.nanoTime() - start);
+    }
+  }
+
+  @Override public Frame fetch(StatementHandle h, long offset, int fetchMaxRowCount)
+      throws NoSuchStatementException, MissingResultsException {
+    long start = System.nanoTime();
+    try {
+      Frame frame = super.fetch(h, offset, frameRows(h, fetchMaxRowCount));
+      measure(key(h.connectionId, h.id), frame);
+      return frame;
+    } catch (RuntimeException | NoSuchStatementException | MissingResultsException e) {
+      metrics.failed();
+      throw e;
+    } finally {
+      metrics.fetched(System.nanoTime() - start);
+    }
+  }
+
+  /**
+   * Cancels the statement before closing it, so that a query another request
+   * is still fetching rows for stops in Postgres instead of streaming the
+   * rest of its result first.
+   */
+  @Override public void closeStatement(StatementHandle h) {
+    rowBytes.invalidate(key(h.connectionId, h.id));
+    StatementInfo info = getStatementCache().getIfPresent(h.id);
+    if (info != null && info.isResultSetInitialized()) {
+      try {
+        info.getResultSet().getStatement().cancel();
+      } catch (SQLException e) {
+        LOG.debug("cannot cancel statement {}", h.id, e);
+      }
+    }
+    super.closeStatement(h);
+  }
+
+  /**
+   * Gets the rows of the next frame of a statement
+   * @param requested rows asked for by the client; negative for all
+   */
+  int frameRows(StatementHandle h, int requested) {
+    if (requested == 0) {
+      // No rows, as asked
+      return 0;
+    }
+    Long bytes = rowBytes.getIfPresent(key(h.connectionId, h.id));
+    long budgetRows = maxBytes / (bytes != null ? bytes : DEFAULT_ROW_BYTES);
+    int rows = (int) Math.max(1, Math.min(maxRows, budgetRows));
+    return requested < 0 ? rows : Math.min(requested, rows);
+  }
+
+  private void measure(ExecuteResult result) {
+    for (MetaResultSet resultSet : result.resultSets) {
+      if (resultSet.firstFrame != null) {
+        measure(key(resultSet.connectionId, resultSet.statementId), resultSet.firstFrame);
+      }
+    }
+  }
+
+  private void measure(String key, Frame frame) {
+    long rows = 0;
+    long bytes = 0;
+    for (Object row : frame.rows) {
+      bytes += estimateBytes(row);
+      rows++;
+    }
+    metrics.frameReturned(rows, bytes);
+    if (rows > 0) {
+      rowBytes.put(key, Math.max(1, bytes / rows));
+    }
+  }
+
+  /**
+   * Estimates the bytes of a value in a serialized frame
+   */
+  static long estimateBytes(Object value) {
+    if (value == null) {
+      return 2;
+    } else if (value instanceof Object[]) {
+      long bytes = 2;
+      for (Object element : (Object[]) value) {
+        bytes += estimateBytes(element);
+      }
+      return bytes;
+    } else if (value instanceof Iterable) {
+      long bytes = 2;
+      for (Object element : (Iterable<?>) value) {
+        bytes += estimateBytes(element);
+      }
+      return bytes;
+    } else if (value instanceof byte[]) {
+      return 4 + ((byte[]) value).length;
+    } else if (value instanceof Number || value instanceof Boolean) {
+      return 10;
+    }
+    return 4 + value.toString().length();
+  }
+
+  private static String key(String connectionId, int statementId) {
+    return connectionId + "/" + statementId;
+  }
+}
+
+// End CIPJdbcMeta.java
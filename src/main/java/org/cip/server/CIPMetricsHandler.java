@@ -0,0 +1,44 @@
+package org.cip.server;
+
+import org.calcite.adapter.cip.CIPMetrics;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Serves GET {@link #PATH} with the metrics of the CIP tables, connection
+ * pools and the server in the Prometheus text format. Other requests are
+ * left to the Avatica handler after it.
+ */
+public class CIPMetricsHandler extends AbstractHandler {
+
+  public static final String PATH = "/metrics";
+
+  private final CIPServerMetrics serverMetrics;
+
+  public CIPMetricsHandler(CIPServerMetrics serverMetrics) {
+    this.serverMetrics = serverMetrics;
+  }
+
+  @Override public void handle(String target, Request baseRequest, HttpServletRequest request,
+      HttpServletResponse response) throws IOException {
+    if (!PATH.equals(target) || !"GET".equals(request.getMethod())) {
+      return;
+    }
+    StringBuilder out = new StringBuilder();
+    CIPMetrics.writePrometheus(out);
+    serverMetrics.writePrometheus(out);
+    byte[] body = out.toString().getBytes(StandardCharsets.UTF_8);
+    response.setStatus(HttpServletResponse.SC_OK);
+    response.setContentType("text/plain; version=0.0.4; charset=utf-8");
+    response.setContentLength(body.length);
+    response.getOutputStream().write(body);
+    baseRequest.setHandled(true);
+  }
+}
+
+// End CIPMetricsHandler.java
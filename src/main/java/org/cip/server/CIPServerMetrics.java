@@ -0,0 +1,140 @@
+package org.cip.server;
+
+import org.calcite.adapter.cip.CIPHistogram;
+import org.calcite.adapter.cip.CIPMetrics;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+/**
+ * Metrics of the requests served by CIPStandaloneServer: latency of executes
+ * and fetches, rows and estimated bytes of the frames returned, and queries
+ * queued or rejected by admission control.
+ */
+public class CIPServerMetrics implements CIPServerMetricsMBean {
+
+  private final CIPHistogram executeTime = new CIPHistogram();
+
+  private final CIPHistogram fetchTime = new CIPHistogram();
+
+  private final CIPHistogram queueWait = new CIPHistogram();
+
+  private final LongAdder errors = new LongAdder();
+
+  private final LongAdder rowsReturned = new LongAdder();
+
+  private final LongAdder bytesReturned = new LongAdder();
+
+  private final LongAdder frames = new LongAdder();
+
+  private final LongAdder rejected = new LongAdder();
+
+  private volatile IntSupplier admitted = () -> 0;
+
+  void executed(long nanos) {
+    executeTime.record(nanos);
+  }
+
+  void fetched(long nanos) {
+    fetchTime.record(nanos);
+  }
+
+  void failed() {
+    errors.increment();
+  }
+
+  void frameReturned(long rows, long bytes) {
+    frames.increment();
+    rowsReturned.add(rows);
+    bytesReturned.add(bytes);
+  }
+
+  void queued(long nanos) {
+    queueWait.record(nanos);
+  }
+
+  void rejected() {
+    rejected.increment();
+  }
+
+  void setAdmitted(IntSupplier admitted) {
+    this.admitted = admitted;
+  }
+
+  @Override public long getExecuteCount() {
+    return executeTime.getCount();
+  }
+
+  @Override public long getFetchCount() {
+    return fetchTime.getCount();
+  }
+
+  @Override public long getErrorCount() {
+    return errors.sum();
+  }
+
+  @Override public long getRowsReturned() {
+    return rowsReturned.sum();
+  }
+
+  @Override public long getBytesReturned() {
+    return bytesReturned.sum();
+  }
+
+  @Override public long getFrameCount() {
+    return frames.sum();
+  }
+
+  @Override public long getRejectedCount() {
+    return rejected.sum();
+  }
+
+  @Override public int getAdmittedCount() {
+    return admitted.getAsInt();
+  }
+
+  @Override public double getExecuteMillisMean() {
+    return executeTime.getMeanMillis();
+  }
+
+  @Override public double getExecuteMillisP99() {
+    return executeTime.getPercentileMillis(0.99);
+  }
+
+  @Override public double getFetchMillisP99() {
+    return fetchTime.getPercentileMillis(0.99);
+  }
+
+  @Override public double getQueueWaitMillisP99() {
+    return queueWait.getPercentileMillis(0.99);
+  }
+
+  /**
+   * Appends the server metrics in the Prometheus text format
+   */
+  public void writePrometheus(StringBuilder out) {
+    CIPMetrics.help(out, "cip_server_execute_seconds", "Time to execute a statement and return its first frame",
+        "histogram");
+    executeTime.writePrometheus(out, "cip_server_execute_seconds", "");
+    CIPMetrics.help(out, "cip_server_fetch_seconds", "Time to return a further frame of a result set",
+        "histogram");
+    fetchTime.writePrometheus(out, "cip_server_fetch_seconds", "");
+    CIPMetrics.help(out, "cip_server_errors_total", "Executes and fetches that failed", "counter");
+    CIPMetrics.sample(out, "cip_server_errors_total", "", getErrorCount());
+    CIPMetrics.help(out, "cip_server_frames_total", "Frames of rows returned to clients", "counter");
+    CIPMetrics.sample(out, "cip_server_frames_total", "", getFrameCount());
+    CIPMetrics.help(out, "cip_server_rows_returned_total", "Rows returned to clients", "counter");
+    CIPMetrics.sample(out, "cip_server_rows_returned_total", "", getRowsReturned());
+    CIPMetrics.help(out, "cip_server_bytes_returned_total", "Estimated bytes of the rows returned to clients",
+        "counter");
+    CIPMetrics.sample(out, "cip_server_bytes_returned_total", "", getBytesReturned());
+    CIPMetrics.help(out, "cip_server_queue_wait_seconds", "Time queries waited for admission", "histogram");
+    queueWait.writePrometheus(out, "cip_server_queue_wait_seconds", "");
+    CIPMetrics.help(out, "cip_server_rejected_total", "Queries rejected by admission control", "counter");
+    CIPMetrics.sample(out, "cip_server_rejected_total", "", getRejectedCount());
+    CIPMetrics.help(out, "cip_server_admitted_queries", "Queries executing or waiting for admission", "gauge");
+    CIPMetrics.sample(out, "cip_server_admitted_queries", "", getAdmittedCount());
+  }
+}
+
+// End CIPServerMetrics.java
@@ -0,0 +1,33 @@
+package org.cip.server;
+
+/**
+ * JMX view of {@link CIPServerMetrics}
+ */
+public interface CIPServerMetricsMBean {
+
+  long getExecuteCount();
+
+  long getFetchCount();
+
+  long getErrorCount();
+
+  long getRowsReturned();
+
+  long getBytesReturned();
+
+  long getFrameCount();
+
+  long getRejectedCount();
+
+  int getAdmittedCount();
+
+  double getExecuteMillisMean();
+
+  double getExecuteMillisP99();
+
+  double getFetchMillisP99();
+
+  double getQueueWaitMillisP99();
+}
+
+// End CIPServerMetricsMBean.java
@@ -23,26 +23,102 @@ import org.apache.calcite.avatica.jdbc.JdbcMeta;
 import org.apache.calcite.avatica.remote.Driver.Serialization;
 import org.apache.calcite.avatica.remote.LocalService;
 import org.apache.calcite.avatica.server.HttpServer;
+import org.apache.calcite.avatica.server.ServerCustomizer;
 import org.apache.calcite.avatica.util.Unsafe;
+import org.calcite.adapter.cip.CIPMetrics;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.handler.HandlerList;
+import org.eclipse.jetty.server.handler.gzip.GzipHandler;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.management.ObjectName;
 import java.io.File;
+import java.util.Arrays;
 import java.util.Locale;
+import java.util.Properties;
 
 /**
  * An Avatica server for arbitrary JDBC drivers.
+ *
+ * <p>Options can also be read from a file, one per line, with
+ * {@code @path/to/file} on the command line.
  */
 public class CIPStandaloneServer {
   private static final Logger LOG = LoggerFactory.getLogger(CIPStandaloneServer.class);
 
   @Parameter(names = { "-u", "--url" }, required = true,
-      description = "JDBC driver url for the server")
+      description = "JDBC driver url for the server, e.g. jdbc:cip:model=model.json")
   private String url;
 
   @Parameter(names = { "-p", "--port" }, required = false,
       description = "Port the server should bind")
-  private int port = 0;
+  private int port = 9787;
+
+  @Parameter(names = { "--user" }, required = false,
+      description = "User of the JDBC connections")
+  private String user = "admin";
+
+  @Parameter(names = { "--password" }, required = false,
+      description = "Password of the JDBC connections")
+  private String password = "admin";
+
+  @Parameter(names = { "--min-threads" }, required = false,
+      description = "Jetty worker threads kept when idle")
+  private int minThreads = 8;
+
+  @Parameter(names = { "--max-threads" }, required = false,
+      description = "Jetty worker threads, including acceptors and selectors")
+  private int maxThreads = 200;
+
+  @Parameter(names = { "--connection-cache-size" }, required = false,
+      description = "Open client connections kept by JdbcMeta")
+  private int connectionCacheSize = 1000;
+
+  @Parameter(names = { "--connection-cache-expiry-minutes" }, required = false,
+      description = "Minutes after which an unused client connection is closed")
+  private long connectionCacheExpiryMinutes = 10;
+
+  @Parameter(names = { "--statement-cache-size" }, required = false,
+      description = "Open statements kept by JdbcMeta")
+  private int statementCacheSize = 10000;
+
+  @Parameter(names = { "--statement-cache-expiry-minutes" }, required = false,
+      description = "Minutes after which an unused statement is closed")
+  private long statementCacheExpiryMinutes = 5;
+
+  @Parameter(names = { "--max-concurrent-queries" }, required = false,
+      description = "Queries executing at once; 0 for no limit")
+  private int maxConcurrentQueries = 0;
+
+  @Parameter(names = { "--max-queued-queries" }, required = false,
+      description = "Queries waiting when --max-concurrent-queries are executing; more are rejected")
+  private int maxQueuedQueries = 100;
+
+  @Parameter(names = { "--queue-timeout-millis" }, required = false,
+      description = "Longest wait of a queued query before it is rejected")
+  private long queueTimeoutMillis = 30000;
+
+  @Parameter(names = { "--frame-max-rows" }, required = false,
+      description = "Most rows sent in one frame of a result set")
+  private int frameMaxRows = 10000;
+
+  @Parameter(names = { "--frame-max-bytes" }, required = false,
+      description = "Most bytes, estimated, sent in one frame of a result set")
+  private long frameMaxBytes = 4L << 20;
+
+  @Parameter(names = { "--compression" }, required = false, arity = 1,
+      description = "Gzip responses of clients that accept it, and accept gzip requests")
+  private boolean compression = true;
+
+  @Parameter(names = { "--compression-min-bytes" }, required = false,
+      description = "Smallest response that is compressed")
+  private int compressionMinBytes = 1024;
+
+  @Parameter(names = { "--metrics" }, required = false, arity = 1,
+      description = "Serve the table, pool and server metrics at GET /metrics in the Prometheus text format")
+  private boolean metrics = true;
 
   @Parameter(names = { "-s", "--serialization" }, required = false,
       description = "Serialization method to use", converter = SerializationConverter.class)
@@ -62,6 +138,10 @@ public class CIPStandaloneServer {
 
   private HttpServer server;
 
+  private final CIPServerMetrics serverMetrics = new CIPServerMetrics();
+
+  private ObjectName serverMetricsName;
+
   public void start() {
     if (null != server) {
       LOG.error("The server was already started");
@@ -72,13 +152,23 @@ public class CIPStandaloneServer {
     try {
 
       LOG.info("Starting Avatica server with URL {}", url);
-      JdbcMeta meta = new JdbcMeta(url, "admin", "admin");
-      LocalService service = new LocalService(meta);
+      JdbcMeta meta = new CIPJdbcMeta(url, metaProperties(), frameMaxRows, frameMaxBytes, serverMetrics);
+      LocalService service;
+      if (maxConcurrentQueries > 0) {
+        LOG.info("Admitting {} concurrent queries, {} queued for up to {} ms", maxConcurrentQueries,
+            maxQueuedQueries, queueTimeoutMillis);
+        service = new CIPAdmissionControlService(meta, maxConcurrentQueries, maxQueuedQueries,
+            queueTimeoutMillis, serverMetrics);
+      } else {
+        service = new LocalService(meta);
+      }
 
       // Construct the server
-      HttpServer.Builder builder = new HttpServer.Builder()
+      HttpServer.Builder<Server> builder = new HttpServer.Builder<Server>()
           .withHandler(service, serialization)
-          .withPort(9787);
+          .withPort(port)
+          .withServerCustomizers(Arrays.asList(threadPoolCustomizer(), metricsCustomizer(), compressionCustomizer()),
+              Server.class);
 
       if (kerberosPrincipal != null && kerberosKeytab != null) {
         System.out.println("Configuring Avatica to use SPENGO");
@@ -92,6 +182,7 @@ public class CIPStandaloneServer {
 
       // Then start it
       server.start();
+      serverMetricsName = CIPMetrics.register(serverMetrics, "type=Server,port=" + server.getPort());
       LOG.info("Started Avatica server on port {} with serialization {}", server.getPort(),
           serialization);
 
@@ -101,10 +192,102 @@ public class CIPStandaloneServer {
     }
   }
 
+  /**
+   * Properties of JdbcMeta: the credentials of the JDBC connections and the
+   * sizes and expiry of its connection and statement caches
+   */
+  Properties metaProperties() {
+    Properties info = new Properties();
+    info.setProperty("user", user);
+    info.setProperty("password", password);
+    info.setProperty(JdbcMeta.ConnectionCacheSettings.MAX_CAPACITY.key(),
+        Integer.toString(connectionCacheSize));
+    info.setProperty(JdbcMeta.ConnectionCacheSettings.INITIAL_CAPACITY.key(), Integer.toString(
+        Math.min(connectionCacheSize,
+            Integer.parseInt(JdbcMeta.ConnectionCacheSettings.INITIAL_CAPACITY.defaultValue()))));
+    info.setProperty(JdbcMeta.ConnectionCacheSettings.EXPIRY_DURATION.key(),
+        Long.toString(connectionCacheExpiryMinutes));
+    info.setProperty(JdbcMeta.ConnectionCacheSettings.EXPIRY_UNIT.key(), "MINUTES");
+    info.setProperty(JdbcMeta.StatementCacheSettings.MAX_CAPACITY.key(),
+        Integer.toString(statementCacheSize));
+    info.setProperty(JdbcMeta.StatementCacheSettings.INITIAL_CAPACITY.key(), Integer.toString(
+        Math.min(statementCacheSize,
+            Integer.parseInt(JdbcMeta.StatementCacheSettings.INITIAL_CAPACITY.defaultValue()))));
+    info.setProperty(JdbcMeta.StatementCacheSettings.EXPIRY_DURATION.key(),
+        Long.toString(statementCacheExpiryMinutes));
+    info.setProperty(JdbcMeta.StatementCacheSettings.EXPIRY_UNIT.key(), "MINUTES");
+    return info;
+  }
+
+  /**
+   * Sizes the Jetty worker pool, which Avatica creates before the
+   * customizers run and starts after them
+   */
+  private ServerCustomizer<Server> threadPoolCustomizer() {
+    return server -> {
+      QueuedThreadPool threadPool = (QueuedThreadPool) server.getThreadPool();
+      threadPool.setMaxThreads(maxThreads);
+      threadPool.setMinThreads(Math.min(minThreads, maxThreads));
+      LOG.info("Jetty worker threads: {} to {}", threadPool.getMinThreads(), maxThreads);
+    };
+  }
+
+  /**
+   * Puts the metrics handler before the Avatica handler, which handles
+   * requests of every path. The compression customizer runs after this one,
+   * so metrics are compressed too.
+   */
+  private ServerCustomizer<Server> metricsCustomizer() {
+    return server -> {
+      if (!metrics) {
+        return;
+      }
+      server.setHandler(new HandlerList(new CIPMetricsHandler(serverMetrics), server.getHandler()));
+      LOG.info("Serving metrics at {}", CIPMetricsHandler.PATH);
+    };
+  }
+
+  /**
+   * Wraps the Avatica handlers, which are set before the customizers run,
+   * in a GzipHandler. Responses are compressed only for clients that send
+   * Accept-Encoding: gzip, as the Avatica HTTP client does.
+   */
+  private ServerCustomizer<Server> compressionCustomizer() {
+    return server -> {
+      if (!compression) {
+        return;
+      }
+      GzipHandler gzipHandler = new GzipHandler();
+      // Avatica requests are all POSTs
+      gzipHandler.setIncludedMethods("GET", "POST");
+      gzipHandler.setMinGzipSize(compressionMinBytes);
+      gzipHandler.setInflateBufferSize(8192);
+      gzipHandler.setHandler(server.getHandler());
+      server.setHandler(gzipHandler);
+      LOG.info("Compressing responses of at least {} bytes", compressionMinBytes);
+    };
+  }
+
+  /**
+   * Gets the metrics of the requests served
+   */
+  public CIPServerMetrics getMetrics() {
+    return serverMetrics;
+  }
+
+  /**
+   * Gets the port the server is bound to, once started
+   */
+  public int getPort() {
+    return server != null ? server.getPort() : port;
+  }
+
   public void stop() {
     if (null != server) {
       server.stop();
       server = null;
+      CIPMetrics.unregister(serverMetricsName);
+      serverMetricsName = null;
     }
   }
 
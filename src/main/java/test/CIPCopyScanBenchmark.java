@@ -0,0 +1,112 @@
+package test;
+
+import org.apache.calcite.linq4j.Enumerator;
+import org.calcite.adapter.cip.CIPConnectionPool;
+import org.calcite.adapter.cip.CIPScannableTable;
+import org.cip.ColumnDefinition;
+import org.cip.TableDefinition;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares rows per second of a full-table scan read through the server-side
+ * cursor against the same scan read with binary COPY.
+ *
+ * Usage: CIPCopyScanBenchmark [jdbcUrl] [user] [password] [rows]
+ */
+public class CIPCopyScanBenchmark {
+
+    private static final String TABLE = "cip_copy_scan_benchmark";
+
+    private static final String[][] COLUMNS = {
+            {"c_long", "long"}, {"c_int", "int"}, {"c_double", "double"}, {"c_boolean", "boolean"},
+            {"c_string", "string"}, {"c_date", "date"}, {"c_timestamp", "timestamp"}};
+
+    public static void main(String[] args) throws SQLException {
+        Map<String, Object> operand = new HashMap<>();
+        operand.put("jdbcUrl", args.length > 0 ? args[0] : "jdbc:postgresql://localhost:5432/cip_user_db");
+        operand.put("jdbcUser", args.length > 1 ? args[1] : "postgres");
+        operand.put("jdbcPassword", args.length > 2 ? args[2] : "postgres");
+        int rows = args.length > 3 ? Integer.parseInt(args[3]) : 1_000_000;
+
+        CIPConnectionPool pool = CIPConnectionPool.create(operand);
+        try (Connection connection = pool.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute("DROP TABLE IF EXISTS public." + TABLE);
+            statement.execute("CREATE TABLE public." + TABLE + " AS SELECT"
+                    + " g::bigint AS c_long, (g % 1000)::int AS c_int, g / 3.0::float8 AS c_double,"
+                    + " g % 2 = 0 AS c_boolean, 'metric_' || g AS c_string,"
+                    + " date '2024-01-01' + (g % 365) AS c_date,"
+                    + " timestamp '2024-01-01' + g * interval '1 second' AS c_timestamp"
+                    + " FROM generate_series(1, " + rows + ") AS g");
+            // The row count estimate decides whether a scan uses COPY
+            statement.execute("ANALYZE public." + TABLE);
+        }
+
+        // Prefetch is off so both paths decode on the calling thread
+        CIPScannableTable cursorTable = new CIPScannableTable(tableDefinition(), pool, 5000, 1000, null, 3600,
+                256, 0, 0, 1000, 0, 0);
+        CIPScannableTable copyTable = new CIPScannableTable(tableDefinition(), pool, 5000, 1000, null, 3600,
+                256, 0, 1, 1000, 0, 0);
+
+        // Warm up both paths, then measure
+        for (int i = 0; i < 2; i++) {
+            scan(cursorTable, rows);
+            scan(copyTable, rows);
+        }
+        double cursor = scan(cursorTable, rows);
+        double copy = scan(copyTable, rows);
+        System.out.println(String.format("cursor fetch: %,.0f rows/s", cursor));
+        System.out.println(String.format("binary copy:  %,.0f rows/s (%.2fx)", copy, copy / cursor));
+
+        try (Connection connection = pool.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute("DROP TABLE IF EXISTS public." + TABLE);
+        }
+        pool.close();
+    }
+
+    /**
+     * Scans the benchmark table and materializes every row
+     * @return rows per second
+     */
+    private static double scan(CIPScannableTable table, int rows) {
+        long start = System.nanoTime();
+        long count = 0;
+        try (Enumerator<Object[]> enumerator = table.scan(null).enumerator()) {
+            while (enumerator.moveNext()) {
+                if (enumerator.current().length != COLUMNS.length) {
+                    throw new IllegalStateException("unexpected row width");
+                }
+                count++;
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        if (count != rows) {
+            throw new IllegalStateException("scanned " + count + " of " + rows + " rows");
+        }
+        return count / seconds;
+    }
+
+    private static TableDefinition tableDefinition() {
+        List<ColumnDefinition> columns = new ArrayList<>();
+        for (String[] column : COLUMNS) {
+            ColumnDefinition columnDefinition = new ColumnDefinition();
+            columnDefinition.setName(column[0]);
+            columnDefinition.setAlias(column[0]);
+            columnDefinition.setType(column[1]);
+            columns.add(columnDefinition);
+        }
+        TableDefinition tableDefinition = new TableDefinition();
+        tableDefinition.setName(TABLE);
+        tableDefinition.setAlias(TABLE);
+        tableDefinition.setColumns(columns);
+        return tableDefinition;
+    }
+}
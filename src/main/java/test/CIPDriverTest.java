@@ -0,0 +1,108 @@
+package test;
+
+import org.calcite.adapter.cip.CIPDriver;
+import org.calcite.adapter.cip.CIPPlanCache;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Runs queries through "jdbc:cip:" connections over a
+ * {@link CIPTestDatabase}, and checks that they return the rows of
+ * "jdbc:calcite:" and reuse the plans in the {@link CIPPlanCache}.
+ */
+public class CIPDriverTest {
+
+    private static final int ROWS = 1000;
+
+    private static final String JOIN = "select g.\"is_enabled_a\", count(*) from realtime_metric r"
+            + " join src_code_grp g on r.\"metric_id_a\" = g.\"source_code_group_id_a\""
+            + " group by g.\"is_enabled_a\" order by 1";
+
+    private static CIPTestDatabase database;
+
+    @BeforeClass
+    public static void createDatabase() throws SQLException, IOException {
+        database = new CIPTestDatabase(ROWS);
+    }
+
+    @AfterClass
+    public static void closeDatabase() throws SQLException, IOException {
+        database.close();
+    }
+
+    @Test
+    public void testSameRowsAsCalcite() throws SQLException {
+        try (Connection cip = database.connect(CIPDriver.CONNECT_STRING_PREFIX, Collections.emptyMap());
+             Connection calcite = database.connect("jdbc:calcite:", Collections.emptyMap())) {
+            assertEquals(query(calcite, JOIN), query(cip, JOIN));
+        }
+    }
+
+    @Test
+    public void testPlanReusedAcrossConnections() throws SQLException {
+        String sql = "select count(*) from field_types where \"c_int\" < 500";
+        CIPPlanCache cache = CIPDriver.getPlanCache();
+        List<List<Object>> expected;
+        try (Connection connection = database.connect(CIPDriver.CONNECT_STRING_PREFIX, Collections.emptyMap())) {
+            expected = query(connection, sql);
+        }
+        long hits = cache.getHitCount();
+        try (Connection connection = database.connect(CIPDriver.CONNECT_STRING_PREFIX, Collections.emptyMap())) {
+            // Whitespace outside quotes does not change the cache key
+            assertEquals(expected, query(connection, sql.replace(" where ", "\n  where  ")));
+        }
+        assertEquals(hits + 1, cache.getHitCount());
+    }
+
+    @Test
+    public void testBindParametersShareOnePlan() throws SQLException {
+        String sql = "select count(*) from realtime_metric where \"metric_id_a\" = ?";
+        CIPPlanCache cache = CIPDriver.getPlanCache();
+        try (Connection connection = database.connect(CIPDriver.CONNECT_STRING_PREFIX, Collections.emptyMap())) {
+            count(connection, sql, "m1");
+            long hits = cache.getHitCount();
+            assertEquals(ROWS / CIPTestDatabase.METRIC_IDS, count(connection, sql, "m2"));
+            assertEquals(0, count(connection, sql, "none"));
+            assertEquals(hits + 2, cache.getHitCount());
+        }
+    }
+
+    private static long count(Connection connection, String sql, String metricId) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setString(1, metricId);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                resultSet.next();
+                return resultSet.getLong(1);
+            }
+        }
+    }
+
+    private static List<List<Object>> query(Connection connection, String sql) throws SQLException {
+        List<List<Object>> rows = new ArrayList<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(sql)) {
+            int columns = resultSet.getMetaData().getColumnCount();
+            while (resultSet.next()) {
+                List<Object> row = new ArrayList<>();
+                for (int i = 1; i <= columns; i++) {
+                    row.add(resultSet.getObject(i));
+                }
+                rows.add(row);
+            }
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,81 @@
+package test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * Measures rows per second of executeBatch inserts into realtime_metric
+ * through the Avatica server, next to the same batches sent to Postgres
+ * directly. The inserted rows are deleted afterwards.
+ *
+ * It also runs against the H2 stand-in: start CIPStandaloneServer with -u
+ * set to {@link CIPTestDatabase#writeModel} and pass the stand-in's URL with
+ * user sa and an empty password.
+ *
+
+ * Usage: CIPInsertBenchmark [avaticaUrl] [jdbcUrl] [user] [password] [rows] [batchSize]
+ */
+public class CIPInsertBenchmark {
+
+    private static final String PREFIX = "cip_insert_benchmark_";
+
+    public static void main(String[] args) throws SQLException {
+        String avaticaUrl = args.length > 0 ? args[0]
+                : "jdbc:avatica:remote:url=http://localhost:9787;serialization=PROTOBUF";
+        String url = args.length > 1 ? args[1] : "jdbc:postgresql://localhost:5432/cip_user_db";
+        String user = args.length > 2 ? args[2] : "postgres";
+        String password = args.length > 3 ? args[3] : "postgres";
+        int rows = args.length > 4 ? Integer.parseInt(args[4]) : 100_000;
+        int batchSize = args.length > 5 ? Integer.parseInt(args[5]) : 1000;
+
+        try (Connection postgres = DriverManager.getConnection(url, user, password);
+             Connection avatica = DriverManager.getConnection(avaticaUrl)) {
+            // Warm up both paths, then measure
+            for (int i = 0; i < 2; i++) {
+                insert(postgres, "INSERT INTO public.ddw_fact_realtime_metric VALUES (?, ?)", batchSize, batchSize);
+                insert(avatica, "INSERT INTO realtime_metric VALUES (?, ?)", batchSize, batchSize);
+            }
+            double direct = insert(postgres, "INSERT INTO public.ddw_fact_realtime_metric VALUES (?, ?)", rows,
+                    batchSize);
+            double adapter = insert(avatica, "INSERT INTO realtime_metric VALUES (?, ?)", rows, batchSize);
+            System.out.println(String.format("postgres executeBatch: %,.0f rows/s", direct));
+            System.out.println(String.format("avatica executeBatch:  %,.0f rows/s (%.2fx)", adapter,
+                    adapter / direct));
+
+            try (PreparedStatement statement = postgres.prepareStatement(
+                    "DELETE FROM public.ddw_fact_realtime_metric WHERE metric_id LIKE ?")) {
+                statement.setString(1, PREFIX + "%");
+                statement.executeUpdate();
+            }
+        }
+    }
+
+    /**
+     * Inserts generated metric rows in batches
+     * @return rows per second
+     */
+    private static double insert(Connection connection, String sql, int rows, int batchSize)
+            throws SQLException {
+        long start = System.nanoTime();
+        long inserted = 0;
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            for (int i = 0; i < rows; i++) {
+                statement.setString(1, PREFIX + i);
+                statement.setString(2, Integer.toString(i));
+                statement.addBatch();
+                if ((i + 1) % batchSize == 0 || i == rows - 1) {
+                    for (int count : statement.executeBatch()) {
+                        inserted += count;
+                    }
+                }
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        if (inserted != rows) {
+            throw new IllegalStateException("inserted " + inserted + " of " + rows + " rows");
+        }
+        return rows / seconds;
+    }
+}
@@ -0,0 +1,581 @@
+package test;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.calcite.adapter.cip.CIPConnectionPool;
+import org.calcite.adapter.cip.CIPMetrics;
+import org.calcite.adapter.cip.CIPTableMetrics;
+import org.cip.server.CIPServerMetrics;
+import org.cip.server.CIPStandaloneServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Drives CIPStandaloneServer with concurrent clients and reports throughput
+ * and latency per query type, errors, and the resource use of the server.
+ *
+ * The server runs in-process over a CIPTestDatabase, so the JVM figures
+ * include the clients; pass --url to load a server running elsewhere
+ * instead. N client threads, each with its own jdbc:avatica:remote
+ * connection, run queries drawn by weight from the mix for the given
+ * duration, after a warm-up whose results are discarded. The report is
+ * printed and written as JSON for comparison across runs.
+ *
+ * Usage: CIPLoadTest [--threads 16] [--duration-seconds 60]
+ *   [--mix point=10,lookup=5,aggregate=2,join=2,scan=1] [--query name=sql]
+ *   [--server-args "--max-concurrent-queries 8"] [--report load-test.json]
+ */
+public class CIPLoadTest {
+
+    /** Built-in query types; ${id} is replaced by a random metric id */
+    static final Map<String, String> QUERIES = new LinkedHashMap<>();
+
+    static {
+        QUERIES.put("point", "select \"source_code_group_id_a\", \"is_enabled_a\" from src_code_grp"
+                + " where \"source_code_group_id_a\" = '${id}'");
+        QUERIES.put("lookup", "select \"metric_id_a\", \"metric_value_a\" from realtime_metric"
+                + " where \"metric_id_a\" = '${id}'");
+        QUERIES.put("aggregate", "select \"metric_id_a\", count(*) from realtime_metric"
+                + " group by \"metric_id_a\" order by 2 desc limit 10");
+        QUERIES.put("join", "select m.\"metric_id_a\", m.\"metric_value_a\" from realtime_metric m"
+                + " join src_code_grp g on m.\"metric_id_a\" = g.\"source_code_group_id_a\""
+                + " where g.\"is_enabled_a\" and m.\"metric_id_a\" = '${id}'");
+        QUERIES.put("scan", "select \"metric_id_a\", \"metric_value_a\" from realtime_metric");
+    }
+
+    @Parameter(names = { "--threads" }, required = false,
+            description = "Client threads, each with its own connection")
+    private int threads = 16;
+
+    @Parameter(names = { "--duration-seconds" }, required = false,
+            description = "Time the load is measured for")
+    private int durationSeconds = 60;
+
+    @Parameter(names = { "--warmup-seconds" }, required = false,
+            description = "Time the load runs before it is measured")
+    private int warmupSeconds = 10;
+
+    @Parameter(names = { "--rows" }, required = false,
+            description = "Rows of realtime_metric in the seeded database")
+    private int rows = 100_000;
+
+    @Parameter(names = { "--mix" }, required = false,
+            description = "Weights of the query types, e.g. point=10,lookup=5,aggregate=2,join=2,scan=1")
+    private String mix = "point=10,lookup=5,aggregate=2,join=2,scan=1";
+
+    @Parameter(names = { "--query" }, required = false,
+            description = "Adds or replaces a query type, as name=sql; give it a weight in --mix")
+    private List<String> queries = new ArrayList<>();
+
+    @Parameter(names = { "--url" }, required = false,
+            description = "Avatica server to load instead of an in-process one, e.g. http://host:9787")
+    private String url;
+
+    @Parameter(names = { "--port" }, required = false,
+            description = "Port of the in-process server")
+    private int port = 9797;
+
+    @Parameter(names = { "--server-args" }, required = false,
+            description = "Options of the in-process CIPStandaloneServer, e.g. \"--max-concurrent-queries 8\"")
+    private String serverArgs = "";
+
+    @Parameter(names = { "--serialization" }, required = false,
+            description = "Avatica serialization of the clients, PROTOBUF or JSON")
+    private String serialization = "PROTOBUF";
+
+    @Parameter(names = { "--report" }, required = false,
+            description = "JSON file the report is written to")
+    private File report = new File("load-test-report.json");
+
+    @Parameter(names = { "-h", "--help" }, required = false, help = true,
+            description = "Print the help message")
+    private boolean help;
+
+    private final Map<String, String> sqlByType = new LinkedHashMap<>(QUERIES);
+
+    private final List<String> types = new ArrayList<>();
+
+    private int[] cumulativeWeights;
+
+    public static void main(String[] args) throws Exception {
+        CIPLoadTest loadTest = new CIPLoadTest();
+        JCommander jc = new JCommander(loadTest);
+        jc.parse(args);
+        if (loadTest.help) {
+            jc.usage();
+            return;
+        }
+        loadTest.run();
+        System.exit(0);
+    }
+
+    private void parseMix() {
+        for (String query : queries) {
+            int split = query.indexOf('=');
+            if (split <= 0) {
+                throw new IllegalArgumentException("Query must be name=sql: " + query);
+            }
+            sqlByType.put(query.substring(0, split).trim(), query.substring(split + 1));
+        }
+        List<Integer> weights = new ArrayList<>();
+        for (String entry : mix.split(",")) {
+            String[] parts = entry.split("=");
+            String type = parts[0].trim();
+            if (!sqlByType.containsKey(type)) {
+                throw new IllegalArgumentException("Unknown query type in mix: " + type);
+            }
+            int weight = parts.length > 1 ? Integer.parseInt(parts[1].trim()) : 1;
+            if (weight > 0) {
+                types.add(type);
+                weights.add(weight);
+            }
+        }
+        if (types.isEmpty()) {
+            throw new IllegalArgumentException("Empty query mix: " + mix);
+        }
+        cumulativeWeights = new int[weights.size()];
+        int total = 0;
+        for (int i = 0; i < weights.size(); i++) {
+            total += weights.get(i);
+            cumulativeWeights[i] = total;
+        }
+    }
+
+    private void run() throws Exception {
+        parseMix();
+        CIPTestDatabase database = null;
+        CIPStandaloneServer server = null;
+        try {
+            String serverUrl = url;
+            if (serverUrl == null) {
+                System.out.println(String.format("Seeding %,d rows", rows));
+                database = new CIPTestDatabase(rows);
+                server = startServer(database);
+                serverUrl = "http://localhost:" + server.getPort();
+            }
+            String jdbcUrl = "jdbc:avatica:remote:url=" + serverUrl + ";serialization=" + serialization;
+
+            if (warmupSeconds > 0) {
+                System.out.println(String.format("Warming up for %d s", warmupSeconds));
+                runLoad(jdbcUrl, warmupSeconds);
+            }
+            ResourceUsage usage = new ResourceUsage(server != null ? server.getMetrics() : null);
+            System.out.println(String.format("Running %d threads for %d s", threads, durationSeconds));
+            long start = System.nanoTime();
+            List<Recorder> recorders = runLoad(jdbcUrl, durationSeconds);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            usage.finish();
+
+            ObjectNode result = report(recorders, seconds, usage, serverUrl);
+            new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(report, result);
+            System.out.println("Report written to " + report.getAbsolutePath());
+        } finally {
+            if (server != null) {
+                server.stop();
+            }
+            if (database != null) {
+                database.close();
+            }
+        }
+    }
+
+    private CIPStandaloneServer startServer(CIPTestDatabase database) throws IOException {
+        List<String> args = new ArrayList<>(Arrays.asList("--url", database.writeModel(Collections.emptyMap()),
+                "--port", Integer.toString(port)));
+        if (!serverArgs.trim().isEmpty()) {
+            args.addAll(Arrays.asList(serverArgs.trim().split("\\s+")));
+        }
+        CIPStandaloneServer server = new CIPStandaloneServer();
+        new JCommander(server).parse(args.toArray(new String[0]));
+        server.start();
+        return server;
+    }
+
+    /**
+     * Runs the clients for the duration
+     * @return their recorders, one per thread
+     */
+    private List<Recorder> runLoad(String jdbcUrl, int seconds) throws InterruptedException {
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        List<Recorder> recorders = new ArrayList<>();
+        List<Thread> clients = new ArrayList<>();
+        CountDownLatch ready = new CountDownLatch(threads);
+        for (int i = 0; i < threads; i++) {
+            Recorder recorder = new Recorder();
+            recorders.add(recorder);
+            Thread client = new Thread(() -> runClient(jdbcUrl, deadline, recorder, ready), "cip-load-" + i);
+            clients.add(client);
+            client.start();
+        }
+        for (Thread client : clients) {
+            client.join();
+        }
+        return recorders;
+    }
+
+    private void runClient(String jdbcUrl, long deadline, Recorder recorder, CountDownLatch ready) {
+        Connection connection = null;
+        ready.countDown();
+        try {
+            ready.await();
+            while (System.nanoTime() < deadline) {
+                String type = nextType();
+                String sql = sqlByType.get(type).replace("${id}",
+                        "m" + ThreadLocalRandom.current().nextInt(CIPTestDatabase.METRIC_IDS));
+                long start = System.nanoTime();
+                try {
+                    if (connection == null || connection.isClosed()) {
+                        connection = DriverManager.getConnection(jdbcUrl);
+                    }
+                    long count = 0;
+                    try (Statement statement = connection.createStatement();
+                         ResultSet resultSet = statement.executeQuery(sql)) {
+                        while (resultSet.next()) {
+                            count++;
+                        }
+                    }
+                    recorder.success(type, System.nanoTime() - start, count);
+                } catch (SQLException | RuntimeException e) {
+                    recorder.failure(type, System.nanoTime() - start, e);
+                    close(connection);
+                    connection = null;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            close(connection);
+        }
+    }
+
+    private String nextType() {
+        int draw = ThreadLocalRandom.current().nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        for (int i = 0; i < cumulativeWeights.length; i++) {
+            if (draw < cumulativeWeights[i]) {
+                return types.get(i);
+            }
+        }
+        return types.get(types.size() - 1);
+    }
+
+    private static void close(Connection connection) {
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                // Already broken
+            }
+        }
+    }
+
+    private ObjectNode report(List<Recorder> recorders, double seconds, ResourceUsage usage, String serverUrl) {
+        ObjectMapper mapper = new ObjectMapper();
+        ObjectNode result = mapper.createObjectNode();
+        result.put("timestamp", Instant.now().toString());
+        ObjectNode config = result.putObject("config");
+        config.put("threads", threads);
+        config.put("durationSeconds", durationSeconds);
+        config.put("warmupSeconds", warmupSeconds);
+        config.put("rows", url == null ? rows : null);
+        config.put("mix", mix);
+        config.put("server", serverUrl);
+        config.put("serverArgs", serverArgs);
+        config.put("serialization", serialization);
+        config.put("javaVersion", System.getProperty("java.version"));
+        config.put("availableProcessors", Runtime.getRuntime().availableProcessors());
+        ObjectNode querySql = config.putObject("queries");
+        for (String type : types) {
+            querySql.put(type, sqlByType.get(type));
+        }
+
+        System.out.println(String.format("%-12s %9s %7s %9s %9s %9s %9s %9s %10s", "query", "count", "errors",
+                "qps", "p50 ms", "p95 ms", "p99 ms", "max ms", "rows"));
+        ObjectNode queryResults = result.putObject("queries");
+        Recorder total = new Recorder();
+        for (String type : types) {
+            Recorder merged = new Recorder();
+            for (Recorder recorder : recorders) {
+                merged.merge(recorder, type, type);
+                total.merge(recorder, type, "total");
+            }
+            queryResults.set(type, merged.report(mapper, type, seconds));
+        }
+        result.set("total", total.report(mapper, "total", seconds));
+
+        ObjectNode errors = result.putObject("errors");
+        for (Recorder recorder : recorders) {
+            recorder.errors.forEach((error, count) -> errors.put(error, errors.path(error).asLong() + count));
+        }
+        if (errors.size() > 0) {
+            System.out.println("Errors:");
+            errors.fields().forEachRemaining(e -> System.out.println("  " + e.getValue() + " x " + e.getKey()));
+        }
+        result.set("resources", usage.report(mapper));
+        return result;
+    }
+
+    /**
+     * Latencies, rows and errors of the queries run by one client thread.
+     * Latencies are kept in full so percentiles are exact.
+     */
+    static class Recorder {
+
+        private final Map<String, long[]> latencies = new LinkedHashMap<>();
+
+        private final Map<String, Integer> counts = new LinkedHashMap<>();
+
+        private final Map<String, Long> rows = new LinkedHashMap<>();
+
+        private final Map<String, Long> failures = new LinkedHashMap<>();
+
+        // Failures by query type, SQL state and cause
+        private final Map<String, Long> errors = new TreeMap<>();
+
+        void success(String type, long nanos, long rowCount) {
+            add(type, nanos);
+            rows.merge(type, rowCount, Long::sum);
+        }
+
+        void failure(String type, long nanos, Exception e) {
+            add(type, nanos);
+            failures.merge(type, 1L, Long::sum);
+            String state = e instanceof SQLException ? ((SQLException) e).getSQLState() : null;
+            String message = String.valueOf(e.getMessage());
+            // Group by cause rather than by statement text
+            int sqlEnd = message.lastIndexOf("\": ");
+            if (sqlEnd >= 0) {
+                message = message.substring(sqlEnd + 3);
+            }
+            int newline = message.indexOf('\n');
+            errors.merge(type + ": " + (state != null ? "[" + state + "] " : "")
+                    + (newline >= 0 ? message.substring(0, newline) : message), 1L, Long::sum);
+        }
+
+        private void add(String type, long nanos) {
+            int count = counts.getOrDefault(type, 0);
+            long[] values = latencies.computeIfAbsent(type, t -> new long[1024]);
+            if (count == values.length) {
+                values = Arrays.copyOf(values, count * 2);
+                latencies.put(type, values);
+            }
+            values[count] = nanos;
+            counts.put(type, count + 1);
+        }
+
+        /**
+         * Adds the queries of a type recorded by another recorder as the given type
+         */
+        void merge(Recorder other, String type, String asType) {
+            int count = other.counts.getOrDefault(type, 0);
+            long[] values = other.latencies.get(type);
+            for (int i = 0; i < count; i++) {
+                add(asType, values[i]);
+            }
+            rows.merge(asType, other.rows.getOrDefault(type, 0L), Long::sum);
+            failures.merge(asType, other.failures.getOrDefault(type, 0L), Long::sum);
+        }
+
+        ObjectNode report(ObjectMapper mapper, String type, double seconds) {
+            int count = counts.getOrDefault(type, 0);
+            long[] values = count > 0 ? Arrays.copyOf(latencies.get(type), count) : new long[0];
+            Arrays.sort(values);
+            long failed = failures.getOrDefault(type, 0L);
+            ObjectNode node = mapper.createObjectNode();
+            node.put("count", count);
+            node.put("errors", failed);
+            node.put("qps", (count - failed) / seconds);
+            node.put("rows", rows.getOrDefault(type, 0L));
+            ObjectNode latency = node.putObject("latencyMillis");
+            latency.put("mean", count > 0 ? Arrays.stream(values).average().orElse(0) / 1e6 : 0);
+            latency.put("p50", percentile(values, 0.50));
+            latency.put("p95", percentile(values, 0.95));
+            latency.put("p99", percentile(values, 0.99));
+            latency.put("max", count > 0 ? values[count - 1] / 1e6 : 0);
+            System.out.println(String.format("%-12s %9d %7d %9.1f %9.2f %9.2f %9.2f %9.2f %10d", type, count, failed,
+                    node.get("qps").asDouble(), latency.get("p50").asDouble(), latency.get("p95").asDouble(),
+                    latency.get("p99").asDouble(), latency.get("max").asDouble(), node.get("rows").asLong()));
+            return node;
+        }
+
+        private static double percentile(long[] sorted, double quantile) {
+            if (sorted.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(quantile * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(sorted.length - 1, index))] / 1e6;
+        }
+    }
+
+    /**
+     * Resources used by the JVM during the measured run: CPU time, heap
+     * sampled every 500 ms, GC and threads. When the server runs in-process,
+     * also its requests during the run, and the table and pool metrics,
+     * which count from the start of the server.
+     */
+    static class ResourceUsage {
+
+        private final CIPServerMetrics serverMetrics;
+
+        private final long startNanos = System.nanoTime();
+
+        private final long startCpuNanos = processCpuNanos();
+
+        private final long startGcCount = gcCount();
+
+        private final long startGcMillis = gcMillis();
+
+        private final long startExecutes;
+
+        private final long startFrames;
+
+        private final long startRowsReturned;
+
+        private final long startBytesReturned;
+
+        private final long startRejected;
+
+        private final Thread sampler;
+
+        private volatile boolean running = true;
+
+        private volatile long maxHeapUsed;
+
+        private long cpuNanos;
+
+        private double seconds;
+
+        ResourceUsage(CIPServerMetrics serverMetrics) {
+            this.serverMetrics = serverMetrics;
+            this.startExecutes = serverMetrics != null ? serverMetrics.getExecuteCount() : 0;
+            this.startFrames = serverMetrics != null ? serverMetrics.getFrameCount() : 0;
+            this.startRowsReturned = serverMetrics != null ? serverMetrics.getRowsReturned() : 0;
+            this.startBytesReturned = serverMetrics != null ? serverMetrics.getBytesReturned() : 0;
+            this.startRejected = serverMetrics != null ? serverMetrics.getRejectedCount() : 0;
+            ManagementFactory.getThreadMXBean().resetPeakThreadCount();
+            this.sampler = new Thread(() -> {
+                while (running) {
+                    maxHeapUsed = Math.max(maxHeapUsed,
+                            ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed());
+                    try {
+                        Thread.sleep(500);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }, "cip-load-sampler");
+            sampler.setDaemon(true);
+            sampler.start();
+        }
+
+        void finish() throws InterruptedException {
+            running = false;
+            sampler.interrupt();
+            sampler.join();
+            seconds = (System.nanoTime() - startNanos) / 1e9;
+            cpuNanos = processCpuNanos() - startCpuNanos;
+        }
+
+        ObjectNode report(ObjectMapper mapper) {
+            ObjectNode node = mapper.createObjectNode();
+            ObjectNode jvm = node.putObject("jvm");
+            ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+            jvm.put("cpuSeconds", cpuNanos >= 0 ? cpuNanos / 1e9 : null);
+            jvm.put("cpuUtilization", cpuNanos >= 0
+                    ? cpuNanos / 1e9 / seconds / Runtime.getRuntime().availableProcessors() : null);
+            jvm.put("maxHeapUsedBytes", maxHeapUsed);
+            jvm.put("heapMaxBytes", Runtime.getRuntime().maxMemory());
+            jvm.put("gcCount", gcCount() - startGcCount);
+            jvm.put("gcMillis", gcMillis() - startGcMillis);
+            jvm.put("peakThreads", threadBean.getPeakThreadCount());
+            System.out.println(String.format("JVM: %.1f CPU s (%.0f%% of %d cores), max heap used %,d MB,"
+                            + " %d GCs taking %d ms, %d threads at peak",
+                    jvm.get("cpuSeconds").asDouble(), 100 * jvm.get("cpuUtilization").asDouble(),
+                    Runtime.getRuntime().availableProcessors(), maxHeapUsed >> 20, jvm.get("gcCount").asLong(),
+                    jvm.get("gcMillis").asLong(), threadBean.getPeakThreadCount()));
+            if (serverMetrics == null) {
+                return node;
+            }
+
+            ObjectNode server = node.putObject("server");
+            server.put("executes", serverMetrics.getExecuteCount() - startExecutes);
+            server.put("frames", serverMetrics.getFrameCount() - startFrames);
+            server.put("rowsReturned", serverMetrics.getRowsReturned() - startRowsReturned);
+            server.put("bytesReturned", serverMetrics.getBytesReturned() - startBytesReturned);
+            server.put("rejected", serverMetrics.getRejectedCount() - startRejected);
+            server.put("executeMillisP99", serverMetrics.getExecuteMillisP99());
+            server.put("queueWaitMillisP99", serverMetrics.getQueueWaitMillisP99());
+            System.out.println(String.format("Server: %d executes, %d frames, %,d rows, %,d bytes, %d rejected",
+                    server.get("executes").asLong(), server.get("frames").asLong(),
+                    server.get("rowsReturned").asLong(), server.get("bytesReturned").asLong(),
+                    server.get("rejected").asLong()));
+
+            ArrayNode tables = node.putArray("tables");
+            for (CIPTableMetrics metrics : CIPMetrics.tables()) {
+                tables.addObject()
+                        .put("table", metrics.getTable())
+                        .put("scans", metrics.getScanCount())
+                        .put("snapshotScans", metrics.getSnapshotScanCount())
+                        .put("rowsFetched", metrics.getRowsFetched())
+                        .put("bytesFetched", metrics.getBytesFetched())
+                        .put("scanMillisP99", metrics.getScanMillisP99());
+            }
+            ArrayNode pools = node.putArray("pools");
+            for (CIPConnectionPool pool : CIPMetrics.pools()) {
+                pools.addObject()
+                        .put("url", pool.getUrl())
+                        .put("maxSize", pool.getMaxSize())
+                        .put("borrows", pool.getBorrowCount())
+                        .put("borrowFailures", pool.getBorrowFailureCount())
+                        .put("waitMillisP99", pool.getWaitMillisP99());
+            }
+            return node;
+        }
+
+        private static long processCpuNanos() {
+            OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+            if (os instanceof com.sun.management.OperatingSystemMXBean) {
+                return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+            }
+            return -1;
+        }
+
+        private static long gcCount() {
+            long count = 0;
+            for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+                count += Math.max(0, gc.getCollectionCount());
+            }
+            return count;
+        }
+
+        private static long gcMillis() {
+            long millis = 0;
+            for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+                millis += Math.max(0, gc.getCollectionTime());
+            }
+            return millis;
+        }
+    }
+}
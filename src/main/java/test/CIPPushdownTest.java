@@ -0,0 +1,160 @@
+package test;
+
+import org.apache.calcite.runtime.Hook;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs queries whose aggregate or sort is pushed down to the database over
+ * a {@link CIPTestDatabase}, and checks both the generated SQL and the rows.
+ */
+public class CIPPushdownTest {
+
+    private static final int ROWS = 2000;
+
+    private static CIPTestDatabase database;
+
+    private static Connection connection;
+
+    @BeforeClass
+    public static void connect() throws SQLException, IOException {
+        database = new CIPTestDatabase(ROWS);
+        connection = database.connect("jdbc:cip:", Collections.emptyMap());
+    }
+
+    @AfterClass
+    public static void close() throws SQLException, IOException {
+        connection.close();
+        database.close();
+    }
+
+    /** An integer literal in GROUP BY would be read as a select list position */
+    @Test
+    public void testGroupByOnlyConstantKey() throws SQLException {
+        Query query = run("select 5 as k, count(*) from field_types group by 5");
+        assertEquals(Collections.singletonList("5," + ROWS), query.rows);
+        assertTrue(query.sql, query.sql.endsWith("FROM public.\"cip_field_types\" HAVING COUNT(*) > 0"));
+    }
+
+    /** Grouping an empty input by constants yields no group */
+    @Test
+    public void testGroupByOnlyConstantKeyOfEmptyInput() throws SQLException {
+        Query query = run("select 5 as k, count(*) from field_types where \"c_int\" < 0 group by 5");
+        assertEquals(Collections.emptyList(), query.rows);
+        assertTrue(query.sql, query.sql.contains("HAVING COUNT(*) > 0"));
+    }
+
+    @Test
+    public void testGroupByConstantAndColumn() throws SQLException {
+        Query query = run("select 'a' as k, \"c_int\", count(*) from field_types"
+                + " group by 'a', \"c_int\" order by 2 limit 2");
+        assertEquals(listOf("a,0,2", "a,1,2"), query.rows);
+        assertTrue(query.sql, query.sql.contains(" GROUP BY \"c_int\" ORDER BY \"c_int\" NULLS LAST LIMIT 2"));
+    }
+
+    @Test
+    public void testOrderByConstant() throws SQLException {
+        Query query = run("select 5 as k, \"c_int\" from field_types order by k, \"c_int\" limit 3");
+        assertEquals(listOf("5,0", "5,0", "5,1"), query.rows);
+        assertTrue(query.sql, query.sql.endsWith(" ORDER BY \"c_int\" NULLS LAST LIMIT 3"));
+    }
+
+    @Test
+    public void testMinMaxBoolean() throws SQLException {
+        Query query = run("select min(\"c_boolean\"), max(\"c_boolean\") from field_types");
+        assertEquals(Collections.singletonList("false,true"), query.rows);
+        assertTrue(query.sql, query.sql.startsWith("SELECT BOOL_AND(\"c_boolean\"), BOOL_OR(\"c_boolean\")"));
+    }
+
+    @Test
+    public void testMinBooleanPerGroup() throws SQLException {
+        Query query = run("select \"c_int\", min(\"c_boolean\") from field_types"
+                + " group by \"c_int\" order by 1 limit 2");
+        // c_int 0 comes from even rows only, 1 from odd rows only
+        assertEquals(listOf("0,true", "1,false"), query.rows);
+        assertTrue(query.sql, query.sql.contains("BOOL_AND(\"c_boolean\")"));
+    }
+
+    /** Conjuncts that cannot be translated are evaluated by Calcite on the rows of the others */
+    @Test
+    public void testPartiallyTranslatedFilter() throws SQLException {
+        Query query = run("select count(*) from field_types"
+                + " where \"c_int\" < 500 and \"c_string\" similar to 'metric_1%'");
+        long expected = 0;
+        for (int x = 1; x <= ROWS; x++) {
+            if (x % 1000 < 500 && ("metric_" + x).startsWith("metric_1")) {
+                expected++;
+            }
+        }
+        assertEquals(Collections.singletonList(String.valueOf(expected)), query.rows);
+        assertTrue(query.sql, query.sql.endsWith(" WHERE (\"c_int\" < ?)"));
+    }
+
+    private static List<String> listOf(String... rows) {
+        List<String> list = new ArrayList<>();
+        Collections.addAll(list, rows);
+        return list;
+    }
+
+    /**
+     * Runs a query, capturing the SQL sent to the database from the generated code
+     */
+    private static Query run(String sql) throws SQLException {
+        List<String> plans = new ArrayList<>();
+        Query query = new Query();
+        Hook.Closeable hook = Hook.JAVA_PLAN.addThread((Consumer<String>) plans::add);
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(sql)) {
+            int columnCount = resultSet.getMetaData().getColumnCount();
+            while (resultSet.next()) {
+                StringBuilder row = new StringBuilder();
+                for (int i = 1; i <= columnCount; i++) {
+                    if (i > 1) {
+                        row.append(',');
+                    }
+                    row.append(resultSet.getString(i));
+                }
+                query.rows.add(row.toString());
+            }
+        } finally {
+            hook.close();
+        }
+        assertEquals("generated plans", 1, plans.size());
+        query.sql = generatedSql(plans.get(0));
+        return query;
+    }
+
+    /** Extracts the SELECT statement, a Java string constant, from generated code */
+    private static String generatedSql(String code) {
+        int start = code.indexOf("\"SELECT ");
+        assertTrue(code, start >= 0);
+        StringBuilder sql = new StringBuilder();
+        for (int i = start + 1; code.charAt(i) != '"'; i++) {
+            char c = code.charAt(i);
+            if (c == '\\') {
+                c = code.charAt(++i);
+            }
+            sql.append(c);
+        }
+        return sql.toString();
+    }
+
+    private static class Query {
+        final List<String> rows = new ArrayList<>();
+        String sql;
+    }
+}
@@ -0,0 +1,94 @@
+package test;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that queries served through the result cache see rows inserted
+ * into every table they read, over a {@link CIPTestDatabase}.
+ */
+public class CIPResultCacheTest {
+
+    private static final int ROWS = 1000;
+
+    // Rows of realtime_metric per metric id
+    private static final int ROWS_PER_METRIC_ID = ROWS / CIPTestDatabase.METRIC_IDS;
+
+    // Joins realtime_metric with the right-hand table field_types; no
+    // c_string of the seeded rows is a metric id
+    private static final String JOIN = "select count(*) from realtime_metric r"
+            + " join field_types f on r.\"metric_id_a\" = f.\"c_string\"";
+
+    private CIPTestDatabase database;
+
+    @Before
+    public void createDatabase() throws SQLException, IOException {
+        database = new CIPTestDatabase(ROWS);
+    }
+
+    @After
+    public void closeDatabase() throws SQLException, IOException {
+        database.close();
+    }
+
+    @Test
+    public void testInsertIntoSingleTable() throws SQLException {
+        try (Connection connection = connect(0)) {
+            String query = "select count(*) from field_types";
+            assertEquals(ROWS, count(connection, query));
+            insert(connection, "m5");
+            assertEquals(ROWS + 1, count(connection, query));
+        }
+    }
+
+    @Test
+    public void testInsertIntoRightTableOfJoin() throws SQLException {
+        try (Connection connection = connect(0)) {
+            assertEquals(0, count(connection, JOIN));
+            insert(connection, "m5");
+            assertEquals(ROWS_PER_METRIC_ID, count(connection, JOIN));
+        }
+    }
+
+    /** Rows buffered for the right-hand table are written before the join runs */
+    @Test
+    public void testBufferedInsertIntoRightTableOfJoin() throws SQLException {
+        try (Connection connection = connect(60_000)) {
+            assertEquals(0, count(connection, JOIN));
+            insert(connection, "m5");
+            assertEquals(ROWS_PER_METRIC_ID, count(connection, JOIN));
+        }
+    }
+
+    private Connection connect(long insertFlushMillis) throws SQLException {
+        Map<String, Object> operand = new HashMap<>();
+        operand.put("cacheTtlSeconds", 600);
+        operand.put("insertFlushMillis", insertFlushMillis);
+        return database.connect(operand);
+    }
+
+    private static void insert(Connection connection, String string) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            assertEquals(1, statement.executeUpdate("insert into field_types (\"c_string\") values ('" + string + "')"));
+        }
+    }
+
+    private static long count(Connection connection, String query) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(query)) {
+            resultSet.next();
+            return resultSet.getLong(1);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package test;
+
+import org.calcite.adapter.cip.CIPColumnReader;
+import org.cip.CIPFieldType;
+
+import java.sql.*;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compares rows per second of the generic row materialization (metadata
+ * lookup and getObject per column) against the typed CIPColumnReader path.
+ * The SQL also runs on the H2 stand-in of CIPTestDatabase, e.g. with
+ * jdbc:h2:mem:bench;MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE sa "".
+ *
+ * Usage: CIPRowMaterializationBenchmark [jdbcUrl] [user] [password] [rows]
+ */
+public class CIPRowMaterializationBenchmark {
+
+    private static final String TABLE = "cip_row_materialization_benchmark";
+
+    private static final List<CIPFieldType> FIELD_TYPES = Arrays.asList(
+            CIPFieldType.LONG, CIPFieldType.INT, CIPFieldType.DOUBLE, CIPFieldType.BOOLEAN,
+            CIPFieldType.STRING, CIPFieldType.DATE, CIPFieldType.TIMESTAMP);
+
+    public static void main(String[] args) throws SQLException {
+        String url = args.length > 0 ? args[0] : "jdbc:postgresql://localhost:5432/cip_user_db";
+        String user = args.length > 1 ? args[1] : "postgres";
+        String password = args.length > 2 ? args[2] : "postgres";
+        int rows = args.length > 3 ? Integer.parseInt(args[3]) : 1_000_000;
+
+        try (Connection connection = DriverManager.getConnection(url, user, password)) {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("DROP TABLE IF EXISTS public." + TABLE);
+                statement.execute("CREATE TABLE public." + TABLE + " AS SELECT"
+                        + " g::bigint AS c_long, (g % 1000)::int AS c_int, CAST(g AS float8) / 3 AS c_double,"
+                        + " g % 2 = 0 AS c_boolean, 'metric_' || g AS c_string,"
+                        + " date '2024-01-01' + (g % 365) AS c_date,"
+                        + " timestamp '2024-01-01' + g * interval '1' second AS c_timestamp"
+                        + " FROM generate_series(1, " + rows + ") AS g(g)");
+            }
+            connection.setAutoCommit(false);
+
+            // Warm up both paths, then measure
+            for (int i = 0; i < 2; i++) {
+                scan(connection, false);
+                scan(connection, true);
+            }
+            double generic = scan(connection, false);
+            double typed = scan(connection, true);
+            System.out.println(String.format("generic getObject: %,.0f rows/s", generic));
+            System.out.println(String.format("typed readers:     %,.0f rows/s (%.2fx)", typed, typed / generic));
+
+            connection.setAutoCommit(true);
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("DROP TABLE IF EXISTS public." + TABLE);
+            }
+        }
+    }
+
+    /**
+     * Scans the benchmark table and materializes every row
+     * @return rows per second
+     */
+    private static double scan(Connection connection, boolean typed) throws SQLException {
+        long start = System.nanoTime();
+        long count = 0;
+        long checksum = 0;
+        try (Statement statement = connection.createStatement()) {
+            statement.setFetchSize(5000);
+            try (ResultSet resultSet = statement.executeQuery("SELECT * FROM public." + TABLE)) {
+                CIPColumnReader[] readers = CIPColumnReader.of(FIELD_TYPES, resultSet.getMetaData());
+                while (resultSet.next()) {
+                    Object[] row;
+                    if (typed) {
+                        row = new Object[readers.length];
+                        for (int i = 0; i < row.length; i++) {
+                            row[i] = readers[i].read(resultSet, i + 1);
+                        }
+                    } else {
+                        row = new Object[resultSet.getMetaData().getColumnCount()];
+                        for (int i = 0; i < row.length; i++) {
+                            row[i] = resultSet.getObject(i + 1);
+                        }
+                    }
+                    checksum += row.length;
+                    count++;
+                }
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        if (checksum != count * FIELD_TYPES.size()) {
+            throw new IllegalStateException("unexpected row width");
+        }
+        return count / seconds;
+    }
+}
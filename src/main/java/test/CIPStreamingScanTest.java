@@ -0,0 +1,192 @@
+package test;
+
+import org.apache.calcite.DataContext;
+import org.apache.calcite.adapter.java.JavaTypeFactory;
+import org.apache.calcite.jdbc.JavaTypeFactoryImpl;
+import org.apache.calcite.linq4j.Enumerator;
+import org.apache.calcite.linq4j.QueryProvider;
+import org.apache.calcite.schema.SchemaPlus;
+import org.calcite.adapter.cip.CIPConnectionPool;
+import org.calcite.adapter.cip.CIPScannableTable;
+import org.cip.ColumnDefinition;
+import org.cip.TableDefinition;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeNoException;
+
+/**
+ * Scans a large generated table through CIPScannableTable and checks that the
+ * heap stays flat while rows are streamed from the server-side cursor.
+ *
+ * Runs against the local Postgres and is skipped when it is not reachable.
+ * The scan runs in a JVM limited to {@link #MAX_HEAP} bytes, forked unless
+ * this one already is; the generated table is several times larger than that.
+ */
+public class CIPStreamingScanTest {
+
+    private static final String TABLE = "cip_streaming_scan_test";
+
+    private static final int ROW_COUNT = Integer.getInteger("cip.streaming.rows", 2_000_000);
+
+    // Allowed growth of the live heap while scanning, in bytes
+    private static final long MAX_HEAP_GROWTH = 16L * 1024 * 1024;
+
+    // Maximum heap of the JVM that scans, in bytes
+    private static final long MAX_HEAP = 64L * 1024 * 1024;
+
+    private static CIPConnectionPool pool;
+
+    @BeforeClass
+    public static void createTable() throws SQLException {
+        pool = createPool();
+        Connection probe = null;
+        try {
+            probe = pool.getConnection();
+        } catch (SQLException e) {
+            pool.close();
+            pool = null;
+            assumeNoException("Postgres is not reachable", e);
+        } finally {
+            if (probe != null) {
+                probe.close();
+            }
+        }
+        try (Connection connection = pool.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute("DROP TABLE IF EXISTS public.\"" + TABLE + "\"");
+            statement.execute("CREATE TABLE public.\"" + TABLE + "\" AS"
+                    + " SELECT g::text AS \"id\", md5(g::text) || md5(g::text) AS \"payload\""
+                    + " FROM generate_series(1, " + ROW_COUNT + ") AS g");
+        }
+    }
+
+    @AfterClass
+    public static void dropTable() throws SQLException {
+        if (pool == null) {
+            return;
+        }
+        try (Connection connection = pool.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute("DROP TABLE IF EXISTS public.\"" + TABLE + "\"");
+        }
+        pool.close();
+    }
+
+    @Test
+    public void testStreamingScanKeepsHeapFlat() throws IOException, InterruptedException {
+        if (Runtime.getRuntime().maxMemory() <= MAX_HEAP) {
+            scan(pool);
+            return;
+        }
+        Process process = new ProcessBuilder(
+                System.getProperty("java.home") + File.separator + "bin" + File.separator + "java",
+                "-Xmx" + MAX_HEAP / (1024 * 1024) + "m",
+                "-Dcip.streaming.rows=" + ROW_COUNT,
+                "-cp", System.getProperty("java.class.path"),
+                CIPStreamingScanTest.class.getName())
+                .inheritIO()
+                .start();
+        assertEquals("exit code of the forked scan", 0, process.waitFor());
+    }
+
+    /**
+     * Scans the table created by the test in this JVM; the test forks it
+     * with a small heap
+     */
+    public static void main(String[] args) {
+        int status = 1;
+        try (CIPConnectionPool scanPool = createPool()) {
+            scan(scanPool);
+            status = 0;
+        } catch (Throwable e) {
+            e.printStackTrace();
+        }
+        System.exit(status);
+    }
+
+    private static CIPConnectionPool createPool() {
+        Map<String, Object> operand = new HashMap<>();
+        operand.put("poolMaxSize", 2);
+        return CIPConnectionPool.create(operand);
+    }
+
+    private static void scan(CIPConnectionPool pool) {
+        CIPScannableTable table = new CIPScannableTable(tableDefinition(), pool, 1000);
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+        System.gc();
+        long baseline = memory.getHeapMemoryUsage().getUsed();
+        long peakGrowth = 0;
+        int rows = 0;
+
+        try (Enumerator<Object[]> enumerator = table.scan(new TestDataContext()).enumerator()) {
+            while (enumerator.moveNext()) {
+                enumerator.current();
+                if (++rows % 250_000 == 0) {
+                    System.gc();
+                    peakGrowth = Math.max(peakGrowth, memory.getHeapMemoryUsage().getUsed() - baseline);
+                }
+            }
+        }
+
+        System.out.println(String.format("scanned %d rows, peak heap growth %d KB, max heap %d MB",
+                rows, peakGrowth / 1024, Runtime.getRuntime().maxMemory() / (1024 * 1024)));
+        assertEquals(ROW_COUNT, rows);
+        assertTrue("heap grew by " + peakGrowth + " bytes", peakGrowth < MAX_HEAP_GROWTH);
+        assertEquals(0, pool.getActiveCount());
+    }
+
+    private static TableDefinition tableDefinition() {
+        List<ColumnDefinition> columns = new ArrayList<>();
+        for (String name : Arrays.asList("id", "payload")) {
+            ColumnDefinition column = new ColumnDefinition();
+            column.setName(name);
+            column.setAlias(name);
+            column.setType("string");
+            columns.add(column);
+        }
+        TableDefinition tableDefinition = new TableDefinition();
+        tableDefinition.setName(TABLE);
+        tableDefinition.setAlias(TABLE);
+        tableDefinition.setColumns(columns);
+        return tableDefinition;
+    }
+
+    /** Minimal context; the scan only needs a type factory */
+    private static class TestDataContext implements DataContext {
+        private final JavaTypeFactory typeFactory = new JavaTypeFactoryImpl();
+
+        @Override public SchemaPlus getRootSchema() {
+            return null;
+        }
+
+        @Override public JavaTypeFactory getTypeFactory() {
+            return typeFactory;
+        }
+
+        @Override public QueryProvider getQueryProvider() {
+            return null;
+        }
+
+        @Override public Object get(String name) {
+            return null;
+        }
+    }
+}
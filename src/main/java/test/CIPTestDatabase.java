@@ -0,0 +1,305 @@
+package test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.apache.calcite.DataContext;
+import org.apache.calcite.adapter.java.JavaTypeFactory;
+import org.apache.calcite.jdbc.JavaTypeFactoryImpl;
+import org.apache.calcite.linq4j.QueryProvider;
+import org.apache.calcite.schema.SchemaPlus;
+import org.calcite.adapter.cip.CIPConnectionPool;
+import org.calcite.adapter.cip.CIPDriver;
+import org.calcite.adapter.cip.CIPSchemaFactory;
+import org.cip.CIPFieldType;
+import org.cip.ColumnDefinition;
+import org.cip.TableDefinition;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An in-process H2 database in PostgreSQL mode that stands in for the CIP
+ * Postgres database, so tests and benchmarks run offline and reproducibly.
+ * It is seeded with generated rows of the tables in table_metadata.json and
+ * of {@link #FIELD_TYPES_TABLE}, which has a column of every CIPFieldType,
+ * and writes the table metadata for them to a temporary file.
+ *
+ * Binary COPY is specific to Postgres, so scans of the stand-in always go
+ * through JDBC result sets.
+ */
+public class CIPTestDatabase implements AutoCloseable {
+
+    public static final String FACT_TABLE = "ddw_fact_realtime_metric";
+
+    public static final String DIMENSION_TABLE = "ddw_dim_source_code_group";
+
+    public static final String FIELD_TYPES_TABLE = "cip_field_types";
+
+    /** Distinct metric ids in the fact table, one source code group each */
+    public static final int METRIC_IDS = 100;
+
+    private static final AtomicInteger DATABASE_IDS = new AtomicInteger();
+
+    private final String url;
+
+    private final int rows;
+
+    private final Path metadataFile;
+
+    // Model files written for this database
+    private final List<Path> modelFiles = new ArrayList<>();
+
+    // Keeps the in-memory database open until closed
+    private final Connection connection;
+
+    /**
+     * Creates and seeds a new database
+     * @param rows rows of the fact table and of {@link #FIELD_TYPES_TABLE}
+     */
+    public CIPTestDatabase(int rows) throws SQLException, IOException {
+        this.url = "jdbc:h2:mem:cip_test_" + DATABASE_IDS.incrementAndGet()
+                + ";MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE;DEFAULT_NULL_ORDERING=HIGH";
+        this.rows = rows;
+        this.connection = DriverManager.getConnection(url, "sa", "");
+        seed();
+        this.metadataFile = Files.createTempFile("cip_test_metadata", ".json");
+        new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(metadataFile.toFile(), tableMetadata());
+    }
+
+    private void seed() throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE public." + FACT_TABLE + " (metric_id VARCHAR, metric_value VARCHAR)");
+            statement.execute("INSERT INTO public." + FACT_TABLE + " SELECT 'm' || MOD(x, " + METRIC_IDS + "),"
+                    + " CASE WHEN MOD(x, 7) = 0 THEN NULL ELSE 'v' || x END FROM " + range(1, rows));
+            statement.execute("CREATE TABLE public." + DIMENSION_TABLE
+                    + " (source_code_group_id VARCHAR PRIMARY KEY, is_enabled BOOLEAN)");
+            statement.execute("INSERT INTO public." + DIMENSION_TABLE + " SELECT 'm' || x, MOD(x, 2) = 0"
+                    + " FROM " + range(0, METRIC_IDS - 1));
+            statement.execute("CREATE TABLE public." + FIELD_TYPES_TABLE + " (c_string VARCHAR, c_boolean BOOLEAN,"
+                    + " c_byte SMALLINT, c_char CHAR(1), c_short SMALLINT, c_int INTEGER, c_long BIGINT,"
+                    + " c_float REAL, c_double DOUBLE PRECISION, c_date DATE, c_time TIME, c_timestamp TIMESTAMP)");
+            statement.execute("INSERT INTO public." + FIELD_TYPES_TABLE + " SELECT 'metric_' || x, MOD(x, 2) = 0,"
+                    + " MOD(x, 128), CHAR(65 + MOD(x, 26)), MOD(x, 32768), MOD(x, 1000), x, x / 7.0, x / 3.0,"
+                    + " DATE '2024-01-01' + MOD(x, 365), TIME '00:00:00' + MOD(x, 86400) * INTERVAL '1' SECOND,"
+                    + " TIMESTAMP '2024-01-01 00:00:00' + x * INTERVAL '1' SECOND FROM " + range(1, rows));
+        }
+    }
+
+    /**
+     * Gets a derived table of the integers from first to last, in column x
+     */
+    private static String range(long first, long last) {
+        return "(SELECT \"X\" AS x FROM SYSTEM_RANGE(" + first + ", " + last + ")) AS g";
+    }
+
+    /**
+     * Gets the definition of {@link #FIELD_TYPES_TABLE}: column c_&lt;type&gt;
+     * for every CIPFieldType, aliased the same
+     */
+    public static TableDefinition fieldTypesTable() {
+        List<ColumnDefinition> columns = new ArrayList<>();
+        for (CIPFieldType fieldType : CIPFieldType.values()) {
+            ColumnDefinition column = new ColumnDefinition();
+            column.setName(columnName(fieldType));
+            column.setAlias(columnName(fieldType));
+            column.setType(fieldType.name().toLowerCase(Locale.ROOT));
+            columns.add(column);
+        }
+        TableDefinition tableDefinition = new TableDefinition();
+        tableDefinition.setName(FIELD_TYPES_TABLE);
+        tableDefinition.setAlias("field_types");
+        tableDefinition.setColumns(columns);
+        return tableDefinition;
+    }
+
+    public static String columnName(CIPFieldType fieldType) {
+        return "c_" + fieldType.name().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Table metadata of the database: realtime_metric and src_code_grp as in
+     * table_metadata.json, and field_types
+     */
+    private ObjectNode tableMetadata() {
+        ObjectMapper mapper = new ObjectMapper();
+        ObjectNode metadata = mapper.createObjectNode();
+        ArrayNode tables = metadata.putArray("tables");
+
+        ObjectNode fact = tables.addObject()
+                .put("name", FACT_TABLE)
+                .put("alias", "realtime_metric")
+                .put("fetchSize", 5000);
+        addColumn(fact, "metric_id", "metric_id_a", "string");
+        addColumn(fact, "metric_value", "metric_value_a", "string");
+        ObjectNode rollup = fact.withArray("rollups").addObject()
+                .put("alias", "realtime_metric_by_id")
+                .put("refreshSeconds", 300);
+        rollup.withArray("groupBy").add("metric_id");
+        rollup.withArray("aggregates").addObject()
+                .put("function", "count")
+                .put("alias", "metric_count");
+        rollup.withArray("aggregates").addObject()
+                .put("function", "max")
+                .put("column", "metric_value")
+                .put("alias", "max_metric_value");
+
+        ObjectNode dimension = tables.addObject()
+                .put("name", DIMENSION_TABLE)
+                .put("alias", "src_code_grp")
+                .put("mode", "replicated")
+                .put("refreshSeconds", 300);
+        addColumn(dimension, "source_code_group_id", "source_code_group_id_a", "string");
+        addColumn(dimension, "is_enabled", "is_enabled_a", "boolean");
+
+        TableDefinition fieldTypesTable = fieldTypesTable();
+        ObjectNode fieldTypes = tables.addObject()
+                .put("name", fieldTypesTable.getName())
+                .put("alias", fieldTypesTable.getAlias())
+                .put("fetchSize", 5000);
+        for (ColumnDefinition column : fieldTypesTable.getColumns()) {
+            addColumn(fieldTypes, column.getName(), column.getAlias(), column.getType());
+        }
+        return metadata;
+    }
+
+    private static void addColumn(ObjectNode table, String name, String alias, String type) {
+        table.withArray("columns").addObject()
+                .put("name", name)
+                .put("alias", alias)
+                .put("type", type);
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * Gets the CIP schema operand for this database
+     */
+    public Map<String, Object> operand() {
+        Map<String, Object> operand = new LinkedHashMap<>();
+        operand.put("group", "cip");
+        operand.put("jdbcUrl", url);
+        operand.put("jdbcDriver", "org.h2.Driver");
+        operand.put("jdbcUser", "sa");
+        operand.put("jdbcPassword", "");
+        operand.put("poolValidationQuery", "");
+        operand.put("metadataPath", metadataFile.toString());
+        operand.put("watchMetadata", false);
+        return operand;
+    }
+
+    /**
+     * Gets an inline Calcite model with the CIP schema of this database
+     * @param extraOperand operand entries added to, or replacing, {@link #operand()}
+     */
+    public String model(Map<String, Object> extraOperand) {
+        Map<String, Object> operand = operand();
+        operand.putAll(extraOperand);
+        ObjectMapper mapper = new ObjectMapper();
+        ObjectNode model = mapper.createObjectNode()
+                .put("version", "1.0")
+                .put("defaultSchema", "cip");
+        model.putArray("schemas").addObject()
+                .put("name", "cip")
+                .put("type", "custom")
+                .put("factory", "org.calcite.adapter.cip.CIPSchemaFactory")
+                .set("operand", mapper.valueToTree(operand));
+        return "inline:" + model;
+    }
+
+    /**
+     * Writes {@link #model(Map)} to a temporary file, deleted on close, for
+     * JDBC URLs such as that of CIPStandaloneServer, which cannot hold an
+     * inline model
+     * @return CIPDriver JDBC URL of the model
+     */
+    public String writeModel(Map<String, Object> extraOperand) throws IOException {
+        Path modelFile = Files.createTempFile("cip_test_model", ".json");
+        modelFiles.add(modelFile);
+        Files.write(modelFile, model(extraOperand).substring("inline:".length()).getBytes(StandardCharsets.UTF_8));
+        return CIPDriver.CONNECT_STRING_PREFIX + "model=" + modelFile;
+    }
+
+    /**
+     * Opens a CIPDriver connection with the CIP schema of this database
+     */
+    public Connection connect(Map<String, Object> extraOperand) throws SQLException {
+        return connect(CIPDriver.CONNECT_STRING_PREFIX, extraOperand);
+    }
+
+    /**
+     * Opens a connection with the CIP schema of this database
+     * @param prefix JDBC URL prefix of the driver: "jdbc:cip:", or "jdbc:calcite:" for no plan cache
+     */
+    public Connection connect(String prefix, Map<String, Object> extraOperand) throws SQLException {
+        Properties info = new Properties();
+        info.setProperty("model", model(extraOperand));
+        return DriverManager.getConnection(prefix, info);
+    }
+
+    /**
+     * Creates a connection pool for this database; the caller closes it
+     */
+    public CIPConnectionPool createPool() {
+        return CIPConnectionPool.create(operand());
+    }
+
+    /**
+     * Gets a minimal context for scanning a CIPScannableTable directly; the
+     * scan only needs a type factory
+     */
+    public static DataContext dataContext() {
+        JavaTypeFactory typeFactory = new JavaTypeFactoryImpl();
+        return new DataContext() {
+            @Override public SchemaPlus getRootSchema() {
+                return null;
+            }
+
+            @Override public JavaTypeFactory getTypeFactory() {
+                return typeFactory;
+            }
+
+            @Override public QueryProvider getQueryProvider() {
+                return null;
+            }
+
+            @Override public Object get(String name) {
+                return null;
+            }
+        };
+    }
+
+    @Override
+    public void close() throws SQLException, IOException {
+        // Stops the schemas the models created before their tables are dropped
+        CIPSchemaFactory.close(url);
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("DROP ALL OBJECTS");
+        } finally {
+            connection.close();
+            Files.deleteIfExists(metadataFile);
+            for (Path modelFile : modelFiles) {
+                Files.deleteIfExists(modelFile);
+            }
+        }
+    }
+}